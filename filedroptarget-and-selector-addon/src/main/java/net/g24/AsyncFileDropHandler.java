@@ -0,0 +1,58 @@
+package net.g24;
+
+import java.util.concurrent.CompletionStage;
+
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.StreamVariable.StreamingEndEvent;
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.Html5File;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.dnd.FileDropHandler;
+
+/**
+ * {@link FileDropHandler} post-processing the received files off the UI thread. Like any drop handler {@link #drop} attaches stream variables
+ * to the dropped files while the session is locked. As soon as a file is received completely, {@link #process(Html5File, StreamingEndEvent)}
+ * is called on a thread of the component's processing executor (see
+ * {@link FileDropTargetAndSelector#setProcessingExecutor(java.util.concurrent.Executor)}), without holding the session lock, so heavy work
+ * (e.g. parsing, thumbnails, virus scans) neither blocks other requests of the session nor waits for other files. The outcome is passed to
+ * {@link #processed(Html5File, Object, Throwable)} by {@link UI#access(com.vaadin.server.Command)}, i.e. with the session locked again.
+ * <p>
+ * The UI is updated by the outcome as soon as the session is unlocked if server push is enabled, otherwise with the next request.
+ * <p>
+ * Example:
+ * <pre>
+ * new FileDropTargetAndSelector&lt;&gt;(layout, new AsyncFileDropHandler&lt;VerticalLayout, Thumbnail&gt;() {
+ *     public void drop(FileDropEvent&lt;VerticalLayout&gt; event) {
+ *         event.getFiles().forEach(file -&gt; SinkStreamVariable.attach(file, spool.createSink(file)));
+ *     }
+ *     public CompletionStage&lt;Thumbnail&gt; process(Html5File file, StreamingEndEvent event) {
+ *         return CompletableFuture.completedFuture(createThumbnail(file));
+ *     }
+ *     public void processed(Html5File file, Thumbnail thumbnail, Throwable failure) {
+ *         ...
+ *     }
+ * });
+ * </pre>
+ *
+ * @param <T> Type of the drop target component
+ * @param <R> Type of the processing result
+ */
+public interface AsyncFileDropHandler<T extends AbstractComponent, R> extends FileDropHandler<T> {
+
+    /**
+     * Processes a file after its {@link StreamVariable} got {@code streamingFinished}. Called without holding the session lock, so the UI must
+     * not be accessed.
+     *
+     * @param event the end event of the file, e.g. with the results of an upload pipeline
+     * @return the result, may complete on another thread
+     */
+    CompletionStage<R> process(Html5File file, StreamingEndEvent event);
+
+    /**
+     * Handles the outcome of processing a file, called while holding the session lock. Not called if the UI is detached in the meantime.
+     *
+     * @param result {@code null} if processing failed
+     * @param failure {@code null} if processing succeeded
+     */
+    void processed(Html5File file, R result, Throwable failure);
+}
@@ -0,0 +1,48 @@
+package net.g24;
+
+import java.util.Collection;
+
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.Html5File;
+import com.vaadin.ui.dnd.event.FileDropEvent;
+
+/**
+ * A batch of files of a drop or selection, passed to a {@link StreamingFileDropHandler}. The files of a drop are delivered in consecutive
+ * batches with the same drop ID, the last batch is flagged (and may be empty).
+ *
+ * @param <T> Type of the drop target component
+ */
+public class FileDropBatchEvent<T extends AbstractComponent> extends FileDropEvent<T> {
+
+    private final int dropId;
+    private final int batchIndex;
+    private final boolean lastBatch;
+
+    public FileDropBatchEvent(T target, Collection<Html5File> files, int dropId, int batchIndex, boolean lastBatch) {
+        super(target, files);
+        this.dropId = dropId;
+        this.batchIndex = batchIndex;
+        this.lastBatch = lastBatch;
+    }
+
+    /**
+     * @return ID of the drop or selection, unique per extension
+     */
+    public int getDropId() {
+        return dropId;
+    }
+
+    /**
+     * @return index of this batch within the drop, starting at 0
+     */
+    public int getBatchIndex() {
+        return batchIndex;
+    }
+
+    /**
+     * @return {@code true} if no more files of the drop follow
+     */
+    public boolean isLastBatch() {
+        return lastBatch;
+    }
+}
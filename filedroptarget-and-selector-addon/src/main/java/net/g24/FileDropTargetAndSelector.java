@@ -1,30 +1,163 @@
 package net.g24;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import com.vaadin.server.StreamVariable;
+import com.vaadin.shared.ApplicationConstants;
+import com.vaadin.shared.Registration;
+import com.vaadin.shared.ui.dnd.FileParameters;
 import com.vaadin.ui.AbstractComponent;
 import com.vaadin.ui.Component;
+import com.vaadin.ui.ConnectorTracker;
+import com.vaadin.ui.Html5File;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.ui.dnd.FileDropHandler;
 import com.vaadin.ui.dnd.FileDropTarget;
+import com.vaadin.ui.dnd.event.FileDropEvent;
+import net.g24.client.DeltaUpload;
+import net.g24.client.FileDropTargetAndSelectorClientRpc;
+import net.g24.client.FileDropTargetAndSelectorRpc;
 import net.g24.client.FileDropTargetAndSelectorState;
+import net.g24.client.FileValidator;
+import net.g24.client.ImagePolicy;
+import net.g24.client.RejectedFile;
+import net.g24.client.RejectionReason;
+import net.g24.client.UploadOrder;
+import net.g24.upload.AsyncUploadHandler;
+import net.g24.upload.ChunkedUploadHandler;
+import net.g24.upload.ContentStore;
+import net.g24.upload.DeltaBaseProvider;
+import net.g24.upload.DeltaSignature;
+import net.g24.upload.DigestStage;
+import net.g24.upload.FileReceiver;
+import net.g24.upload.JmxUploadMetrics;
+import net.g24.upload.MagicTypeStage;
+import net.g24.upload.ProgressAggregator;
+import net.g24.upload.SizeGuardStage;
+import net.g24.upload.StoredUpload;
+import net.g24.upload.TeeStage;
+import net.g24.upload.UploadGovernor;
+import net.g24.upload.UploadMetrics;
+import net.g24.upload.UploadPipeline;
+import net.g24.upload.ZipEntryHandler;
+import net.g24.upload.ZipExtraction;
 
 /**
  * Extension to add drop target functionality to a widget for accepting and uploading files, as well as select files through client's native file
  * selector triggered by a click event on a passed {@link Component}.
  * <p>
- * Single and multi upload is supported (also for file selector). Validation of file count in connection with single or mode must be done server-side.
+ * Single and multi upload is supported (also for file selector). Files are validated against the max. file count (one in single mode), max. file
+ * size, max. total size and accepted types before any upload starts, client-side as well as server-side. Rejected files are reported by a
+ * single {@link FileRejectEvent} per drop or selection.
  * <p>
  * The {@link Component} for buttonRole might be a clickable component, e.g. {@link com.vaadin.ui.Label}, or a clickable {@link com.vaadin.ui.Layout},
  * e.g. {@link com.vaadin.ui.CssLayout}.
  * <p>
  * There is no difference in handling receiving the selected or dropped files on the server-side.
  * <p>
+ * Optionally files are uploaded in chunks (see {@link #setChunkSize(int)}), which are sent in parallel and re-sent on failure, so an interrupted
+ * upload resumes instead of restarting. The {@link StreamVariable} of a file gets the assembled file, as soon as all chunks are received.
+ * <p>
+ * Files are queued client-side and uploaded with bounded concurrency, see {@link #setMaxConcurrentUploads(int)} and
+ * {@link #setUploadOrder(UploadOrder)}.
+ * <p>
+ * Upload progress is delivered in batches by {@link UploadProgressEvent}s, see {@link #addUploadProgressListener(UploadProgressListener)}.
+ * <p>
+ * Uploads can be cancelled per file or per drop (see {@link #cancelUploads(Collection)}): the browser aborts the transfer, so the remaining
+ * bytes are not sent at all, and the {@link StreamVariable} of the file gets {@code streamingFailed}.
+ * <p>
+ * With a {@link ContentStore} (see {@link #setContentStore(ContentStore)}) files already stored are not uploaded again.
+ * <p>
+ * Folders can be dropped and selected in directory mode, see {@link #setDirectoryMode(boolean)}.
+ * <p>
+ * Huge drops (e.g. thousands of files) are delivered in batches, see {@link #setDropBatchSize(int)} and {@link StreamingFileDropHandler}.
+ * <p>
+ * Re-uploads of modified files may be sent as delta against their previous version, see {@link #setDeltaBaseProvider(DeltaBaseProvider)}.
+ * <p>
+ * Uploads can be hashed, type-checked or copied as the bytes arrive, see {@link #setUploadPipeline(UploadPipeline)}.
+ * <p>
+ * ZIP archives can be extracted as they arrive, see {@link #setZipExtraction(ZipExtraction)}.
+ * <p>
+ * Images can be downscaled by the browser before they are uploaded, see {@link #setImagePolicy(ImagePolicy)}.
+ * <p>
+ * Text files (e.g. CSV, JSON or logs) can be sent gzip compressed, see {@link #setCompressedTypes(String...)}.
+ * <p>
+ * Received files can be post-processed off the UI thread, see {@link AsyncFileDropHandler} and {@link #setProcessingExecutor(Executor)}.
+ * <p>
+ * Upload phases, throughput and latencies can be monitored, see {@link #setUploadMetrics(UploadMetrics)}.
+ * <p>
  * See also {@link FileDropTarget}
  *
  * @param <T> Type of the component to be extended for drop capabilities
  */
 public class FileDropTargetAndSelector<T extends AbstractComponent> extends FileDropTarget<T> {
 
+    private static final int DEFAULT_DROP_BATCH_SIZE = 500;
+    // path of Vaadin's FileUploadHandler, see ServletPortletHelper.UPLOAD_URL_PREFIX (deprecated)
+    private static final String UPLOAD_PATH = ApplicationConstants.APP_PATH + "/UPLOAD/";
+
+    private final FileDropHandler<T> fileDropHandler;
+    private final Map<String, FileReceiver> uploads = new HashMap<>();
+    private final Map<Integer, StreamingDrop> streamingDrops = new HashMap<>();
+    private final Set<Integer> pendingBatches = new LinkedHashSet<>();
+    private final ProgressAggregator progressAggregator = new ProgressAggregator(this,
+                                                                                 progress -> fireEvent(new UploadProgressEvent<>(getParent(), progress)));
+    private boolean nonBlockingUpload;
+    private ContentStore contentStore;
+    private DeltaBaseProvider deltaBaseProvider;
+    private UploadPipeline uploadPipeline;
+    private ZipExtraction zipExtraction;
+    private transient Executor processingExecutor;
+    private transient UploadMetrics uploadMetrics = UploadMetrics.NOOP;
+
     public FileDropTargetAndSelector(T target, FileDropHandler<T> fileDropHandler) {
         super(target, fileDropHandler);
+        this.fileDropHandler = fileDropHandler;
+        if (fileDropHandler instanceof StreamingFileDropHandler) {
+            setDropBatchSize(DEFAULT_DROP_BATCH_SIZE);
+        }
+        registerRpc(new FileDropTargetAndSelectorRpc() {
+            @Override
+            public void reject(List<RejectedFile> files) {
+                fireEvent(new FileRejectEvent<>(getParent(), files));
+            }
+
+            @Override
+            public void dropWithDigests(Map<String, FileParameters> fileParams, Map<String, String> digests) {
+                onDrop(fileParams, digests);
+            }
+
+            @Override
+            public void dropBatch(int dropId, Map<String, FileParameters> fileParams, Map<String, String> digests,
+                Map<String, String> relativePaths, boolean last) {
+                onDropBatch(dropId, fileParams, digests, relativePaths, last);
+            }
+        });
     }
 
     public FileDropTargetAndSelector(T target, Component buttonRole, FileDropHandler<T> fileDropHandler) {
@@ -45,4 +178,691 @@ public class FileDropTargetAndSelector<T extends AbstractComponent> extends File
         getState().multiple = multiple;
     }
 
+    /**
+     * Enables chunked upload mode. Each file is sliced client-side into chunks of given size, which are uploaded in parallel and assembled
+     * server-side.
+     *
+     * @param chunkSize size of a chunk in bytes, {@code 0} disables chunked upload mode (default)
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("chunkSize must not be negative");
+        }
+        getState().chunkSize = chunkSize;
+    }
+
+    /**
+     * @param parallelChunks max. number of chunks of a file uploaded at once in chunked upload mode (default 4)
+     */
+    public void setParallelChunks(int parallelChunks) {
+        if (parallelChunks < 1) {
+            throw new IllegalArgumentException("parallelChunks must be at least 1");
+        }
+        getState().parallelChunks = parallelChunks;
+    }
+
+    /**
+     * Enables non-blocking uploads: files are received by an {@link AsyncUploadHandler} with Servlet 3.1 async I/O instead of Vaadin's
+     * blocking receiver, so a container thread is only busy while bytes arrive. The servlet must be configured with
+     * {@code asyncSupported = true}. Does not apply to chunked upload mode. While an {@link UploadGovernor} is installed, uploads are
+     * always received non-blocking, Vaadin's receiver cannot be governed.
+     *
+     * @param nonBlockingUpload {@code true} to receive uploads non-blocking, {@code false} to use Vaadin's receiver (default)
+     */
+    public void setNonBlockingUpload(boolean nonBlockingUpload) {
+        this.nonBlockingUpload = nonBlockingUpload;
+    }
+
+    /**
+     * Limits the number of files uploaded at once. Remaining files are queued client-side, so the browser's per-host connection limit is not
+     * exhausted by uploads. In chunked upload mode each file may use up to {@link #setParallelChunks(int)} connections.
+     *
+     * @param maxConcurrentUploads max. number of concurrent uploads (default 2)
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        if (maxConcurrentUploads < 1) {
+            throw new IllegalArgumentException("maxConcurrentUploads must be at least 1");
+        }
+        getState().maxConcurrentUploads = maxConcurrentUploads;
+    }
+
+    /**
+     * @param uploadOrder order in which queued files are uploaded (default {@link UploadOrder#FIFO})
+     */
+    public void setUploadOrder(UploadOrder uploadOrder) {
+        getState().uploadOrder = Objects.requireNonNull(uploadOrder);
+    }
+
+    /**
+     * @param maxFileSize max. size of a single file in bytes, {@code 0} for no limit (default)
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        getState().maxFileSize = Math.max(0, maxFileSize);
+    }
+
+    /**
+     * @param maxTotalSize max. total size in bytes of all files of a single drop or selection, {@code 0} for no limit (default)
+     */
+    public void setMaxTotalSize(long maxTotalSize) {
+        getState().maxTotalSize = Math.max(0, maxTotalSize);
+    }
+
+    /**
+     * @param maxFiles max. number of files of a single drop or selection in multiple mode, {@code 0} for no limit (default). In single mode
+     * only one file is accepted anyway.
+     */
+    public void setMaxFiles(int maxFiles) {
+        getState().maxFiles = Math.max(0, maxFiles);
+    }
+
+    /**
+     * Restricts the accepted files. The types are also set as {@code accept} attribute of the file selector.
+     *
+     * @param acceptedTypes file extensions (e.g. {@code .pdf}), MIME types (e.g. {@code application/pdf}) or MIME type wildcards (e.g.
+     * {@code image/*}), none to accept all files (default)
+     */
+    public void setAcceptedTypes(String... acceptedTypes) {
+        getState().acceptedTypes = new ArrayList<>(Arrays.asList(acceptedTypes));
+    }
+
+    /**
+     * Adds a listener for files rejected by the limits of this extension.
+     */
+    public Registration addFileRejectListener(FileRejectListener<T> listener) {
+        return addListener(FileRejectEvent.class, listener, FileRejectListener.REJECT_METHOD);
+    }
+
+    /**
+     * Adds a listener for the progress of all uploads of this extension. Instead of a progress event per file (which locks the session and
+     * may push an update each time), a single event with the progress of all running uploads is fired at most once per progress interval.
+     * As long as a listener is registered, {@link StreamVariable#listenProgress()} of the files is not used anymore.
+     */
+    public Registration addUploadProgressListener(UploadProgressListener<T> listener) {
+        return addListener(UploadProgressEvent.class, listener, UploadProgressListener.PROGRESS_METHOD);
+    }
+
+    /**
+     * @param progressInterval min. interval between two {@link UploadProgressEvent}s in milliseconds (default 250)
+     */
+    public void setProgressInterval(int progressInterval) {
+        progressAggregator.setInterval(progressInterval);
+    }
+
+    /**
+     * @param minProgressFileSize min. size in bytes of files included in {@link UploadProgressEvent}s (default 0), smaller files are
+     * reported by their stream variable's finished event only
+     */
+    public void setMinProgressFileSize(long minProgressFileSize) {
+        progressAggregator.setMinFileSize(minProgressFileSize);
+    }
+
+    /**
+     * Shows the upload progress client-side, as measured by the browser, without any server round trip: while files are uploaded, the drop
+     * target gets the class name {@code [primaryStyleName]-uploading} and the CSS variable {@code --upload-progress} with the overall
+     * progress from 0 to 1, e.g. for a progress bar by {@code linear-gradient}. The server-side does not track progress anymore, stream
+     * variables only get the started, finished and failed events, and {@link UploadProgressEvent}s are not fired.
+     *
+     * @param clientSideProgress {@code true} to show progress client-side only, {@code false} to track progress server-side (default)
+     */
+    public void setClientSideProgress(boolean clientSideProgress) {
+        getState().clientSideProgress = clientSideProgress;
+    }
+
+    /**
+     * Enables content hashing mode: the client computes the SHA-256 digest of each file in a web worker before the drop is sent. Files
+     * already contained in given store are not transferred at all, their stream variable gets the stored content instead (in the
+     * background, with the usual started and finished events). Other files are uploaded as usual and added to the store.
+     * <p>
+     * Hashing reads each file once more client-side, so it pays off if files are uploaded repeatedly, e.g. the same attachments by many
+     * users. See {@link ContentStore} regarding the trust in client-side digests. The store is looked up by the processing executor (see
+     * {@link #setProcessingExecutor(Executor)}), not while holding the session lock.
+     *
+     * @param contentStore store of uploaded files, {@code null} disables content hashing mode (default)
+     */
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+        getState().contentHashing = contentStore != null;
+    }
+
+    /**
+     * Enables delta uploads of files with a previous version: the block signatures of the previous version are sent to the client, which
+     * searches the new version for matching blocks in a web worker and uploads only the changed ranges plus references to unchanged blocks.
+     * The file is rebuilt server-side, its stream variable gets the complete new version as usual. Delta uploads are received by the
+     * {@link AsyncUploadHandler}, see {@link #setNonBlockingUpload(boolean)}.
+     * <p>
+     * Computing the signatures reads the previous version once, by the processing executor (see {@link #setProcessingExecutor(Executor)})
+     * without holding the session lock. Meanwhile the client polls for the delta upload. Computing the delta reads the new version once
+     * client-side. It pays off for large files with small modifications.
+     *
+     * @param deltaBaseProvider provides the previous versions, {@code null} disables delta uploads (default)
+     */
+    public void setDeltaBaseProvider(DeltaBaseProvider deltaBaseProvider) {
+        this.deltaBaseProvider = deltaBaseProvider;
+    }
+
+    /**
+     * Processes all uploads by given pipeline: each buffer passes the pipeline's stages (e.g. {@link DigestStage}, {@link MagicTypeStage},
+     * {@link SizeGuardStage}, {@link TeeStage}) as it arrives, before it is written to the output stream of the file's stream variable. A
+     * stage may abort an upload early, e.g. as soon as its first bytes show an unexpected type. The results of the stages are available by
+     * {@link UploadPipeline#getResults(StreamVariable.StreamingEvent)} at {@code streamingFinished}.
+     *
+     * @param uploadPipeline pipeline of all uploads, {@code null} for none (default)
+     */
+    public void setUploadPipeline(UploadPipeline uploadPipeline) {
+        this.uploadPipeline = uploadPipeline;
+    }
+
+    /**
+     * Enables archive-aware uploads: dropped or selected ZIP archives (see {@link ZipExtraction#isArchive(Html5File)}) are parsed while they
+     * are received and each entry is passed to the {@link ZipEntryHandler} of given extraction, so extraction overlaps with the transfer and
+     * the archive itself is neither spooled nor written to disk. The drop handler must attach a {@link StreamVariable} to an archive as
+     * usual, it gets the streaming events of the archive, but its output stream is not requested. If the archive is invalid or exceeds a
+     * limit, the upload is aborted and the stream variable gets {@code streamingFailed}.
+     *
+     * @param zipExtraction extraction of ZIP archives, {@code null} to upload archives like other files (default)
+     */
+    public void setZipExtraction(ZipExtraction zipExtraction) {
+        this.zipExtraction = zipExtraction;
+    }
+
+    /**
+     * Delivers the files of a drop or selection in batches: the client lists the files batch by batch, each batch is passed to the drop
+     * handler as {@link FileDropBatchEvent} and its uploads start right away. The next batch is requested as soon as at most one batch of
+     * files is still pending server-side (listed but not yet uploaded), so neither the RPC nor the number of {@link Html5File}s held by the
+     * session grows with the size of the drop. Limits (e.g. the max. file count) still apply to the whole drop, rejected files are reported
+     * per batch.
+     * <p>
+     * Enabled by default with a batch size of {@value #DEFAULT_DROP_BATCH_SIZE} if the drop handler is a {@link StreamingFileDropHandler}.
+     * Other drop handlers get each batch by {@link FileDropHandler#drop(FileDropEvent)}.
+     *
+     * @param dropBatchSize max. number of files per batch, {@code 0} to deliver all files at once
+     */
+    public void setDropBatchSize(int dropBatchSize) {
+        if (dropBatchSize < 0) {
+            throw new IllegalArgumentException("dropBatchSize must not be negative");
+        }
+        if (dropBatchSize == 0 && getState(false).directoryMode) {
+            throw new IllegalArgumentException("directory mode requires a dropBatchSize");
+        }
+        getState().dropBatchSize = dropBatchSize;
+    }
+
+    /**
+     * Enables transparent compression of compressible files: the browser compresses files of given types by {@code CompressionStream}
+     * before they are sent, the server inflates them before they are written to the output stream of the file's {@link StreamVariable}.
+     * So drop handlers and stream variables get the original content as usual, while only the compressed bytes are transferred. Content
+     * compressed by the client must inflate to exactly the declared file size, otherwise the upload fails.
+     * <p>
+     * Files are sent compressed only if compression makes them smaller, and only by browsers supporting compression streams. Chunked (see
+     * {@link #setChunkSize(int)}) and delta uploads are not compressed.
+     *
+     * @param compressedTypes file extensions (e.g. {@code .csv}), MIME types (e.g. {@code application/json}) or MIME type wildcards (e.g.
+     * {@code text/*}), none to disable compression (default)
+     */
+    public void setCompressedTypes(String... compressedTypes) {
+        getState().compressedTypes = new ArrayList<>(Arrays.asList(compressedTypes));
+    }
+
+    /**
+     * Downscales and re-encodes dropped and selected images client-side before they are uploaded, e.g. photos of phone cameras to 2048 pixels
+     * as JPEG: the browser decodes each image in a web worker, draws it to an {@code OffscreenCanvas} of the max. dimensions and encodes it
+     * with the policy's type and quality. The drop handler gets the scaled images, with their new size and type (and file extension, if the
+     * type got changed). Validation (e.g. {@link #setMaxFileSize(long)}) applies to the scaled images.
+     * <p>
+     * GIF and SVG images are not scaled. Browsers without {@code OffscreenCanvas} upload the original images, so server-side processing must
+     * not rely on the policy.
+     *
+     * @param imagePolicy policy of dropped and selected images, {@code null} to upload images as they are (default)
+     */
+    public void setImagePolicy(ImagePolicy imagePolicy) {
+        getState().imagePolicy = imagePolicy;
+    }
+
+    /**
+     * Enables directory mode: dropped folders are traversed recursively, and the file selector selects a folder instead of files
+     * ({@code webkitdirectory}). Files are passed to the drop handler as {@link RelativeHtml5File} with their path relative to the
+     * dropped or selected folder, see {@link #getRelativePath(Html5File)}.
+     * <p>
+     * Folders are traversed asynchronously while the files are delivered in batches (see {@link #setDropBatchSize(int)}, enabled if not yet
+     * done): a folder is read only when the next batch is requested, so the complete listing is never held in memory, neither client- nor
+     * server-side.
+     *
+     * @param directoryMode {@code true} to drop and select folders, {@code false} for files only (default)
+     */
+    public void setDirectoryMode(boolean directoryMode) {
+        if (directoryMode && getState(false).dropBatchSize == 0) {
+            setDropBatchSize(DEFAULT_DROP_BATCH_SIZE);
+        }
+        getState().directoryMode = directoryMode;
+    }
+
+    /**
+     * Sets the executor calling {@link AsyncFileDropHandler#process} for received files. By default virtual threads are used on Java 21 and
+     * later, a thread pool sized to the number of processors otherwise. The executor is not serialized with the component, the default applies
+     * after deserialization.
+     *
+     * @param processingExecutor {@code null} for the default executor
+     */
+    public void setProcessingExecutor(Executor processingExecutor) {
+        this.processingExecutor = processingExecutor;
+    }
+
+    /**
+     * Records the phases of the uploads of this component, e.g. by a {@link JmxUploadMetrics}. The metrics are not serialized with the
+     * component.
+     *
+     * @param uploadMetrics {@code null} to record nothing (default)
+     */
+    public void setUploadMetrics(UploadMetrics uploadMetrics) {
+        this.uploadMetrics = uploadMetrics != null ? uploadMetrics : UploadMetrics.NOOP;
+    }
+
+    private Executor getProcessingExecutor() {
+        return processingExecutor != null ? processingExecutor : ProcessingExecutors.getDefault();
+    }
+
+    /**
+     * @return the path of given file relative to the dropped or selected folder in directory mode, otherwise its name
+     */
+    public static String getRelativePath(Html5File file) {
+        return file instanceof RelativeHtml5File ? ((RelativeHtml5File) file).getRelativePath() : file.getFileName();
+    }
+
+    /**
+     * Cancels the upload of given file, see {@link #cancelUploads(Collection)}.
+     */
+    public void cancelUpload(Html5File file) {
+        cancelUploads(Collections.singleton(file));
+    }
+
+    /**
+     * Cancels the uploads of given files, e.g. all files of a {@link FileDropEvent}. The client aborts running transfers and skips queued ones.
+     * Running uploads are interrupted server-side, so the request thread is released, and uploads not yet started fail immediately. Files
+     * already uploaded or without a {@link StreamVariable} are ignored.
+     */
+    public void cancelUploads(Collection<Html5File> files) {
+        cancel(uploads.entrySet().stream().filter(entry -> files.contains(entry.getValue().getFile())).map(Map.Entry::getKey)
+                      .collect(Collectors.toList()));
+    }
+
+    /**
+     * Cancels all pending uploads, see {@link #cancelUploads(Collection)}.
+     */
+    public void cancelAllUploads() {
+        cancel(new ArrayList<>(uploads.keySet()));
+    }
+
+    private void cancel(List<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        getRpcProxy(FileDropTargetAndSelectorClientRpc.class).cancelUploads(ids);
+        ids.forEach(id -> {
+            FileReceiver receiver = uploads.get(id);
+            removeStreamVariable("rec-" + id);
+            ChunkedUploadHandler chunkedUploadHandler = ChunkedUploadHandler.find(getSession());
+            if (chunkedUploadHandler != null) {
+                chunkedUploadHandler.cancel(getSession(), receiver);
+            }
+            AsyncUploadHandler asyncUploadHandler = AsyncUploadHandler.find(getSession());
+            if (asyncUploadHandler != null) {
+                asyncUploadHandler.cancel(receiver);
+            }
+            receiver.cancel();
+        });
+    }
+
+    @Override
+    protected void onDrop(Map<String, FileParameters> fileParams) {
+        onDrop(fileParams, Collections.emptyMap());
+    }
+
+    private void onDrop(Map<String, FileParameters> fileParams, Map<String, String> digests) {
+        // client-side validation is repeated, the client must not be trusted
+        Map<String, Html5File> files = accept(fileParams, Collections.emptyMap(), new FileValidator(getState(false)));
+        if (!files.isEmpty()) {
+            fileDropHandler.drop(new FileDropEvent<>(getParent(), files.values()));
+        }
+        upload(fileParams.keySet(), files, digests);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onDropBatch(int dropId, Map<String, FileParameters> fileParams, Map<String, String> digests, Map<String, String> relativePaths,
+        boolean last) {
+        StreamingDrop drop = streamingDrops.computeIfAbsent(dropId, id -> new StreamingDrop(new FileValidator(getState(false))));
+        if (last) {
+            streamingDrops.remove(dropId);
+        }
+        Map<String, Html5File> files = accept(fileParams, relativePaths, drop.validator);
+        if (!files.isEmpty() || last) {
+            FileDropBatchEvent<T> event = new FileDropBatchEvent<>(getParent(), files.values(), dropId, drop.batchIndex++, last);
+            if (fileDropHandler instanceof StreamingFileDropHandler) {
+                ((StreamingFileDropHandler<T>) fileDropHandler).dropBatch(event);
+            } else {
+                fileDropHandler.drop(event);
+            }
+        }
+        upload(fileParams.keySet(), files, digests);
+        if (!last) {
+            pendingBatches.add(dropId);
+            requestNextBatches();
+        }
+    }
+
+    /**
+     * Requests the next batch of pending drops, unless the uploads of the previous batches are still pending (backpressure).
+     */
+    private void requestNextBatches() {
+        if (!pendingBatches.isEmpty() && uploads.size() <= getState(false).dropBatchSize) {
+            getRpcProxy(FileDropTargetAndSelectorClientRpc.class).requestNextBatches(new ArrayList<>(pendingBatches));
+            pendingBatches.clear();
+        }
+    }
+
+    /**
+     * Validates the files, rejected files are reported by a {@link FileRejectEvent}.
+     *
+     * @param relativePaths relative paths mapped to the file ID in directory mode, files with a valid path are created as
+     * {@link RelativeHtml5File}
+     * @return the accepted files mapped to the file ID
+     */
+    private Map<String, Html5File> accept(Map<String, FileParameters> fileParams, Map<String, String> relativePaths, FileValidator validator) {
+        Map<String, Html5File> files = new LinkedHashMap<>();
+        List<RejectedFile> rejectedFiles = new ArrayList<>();
+        // keep the client-side order of the generated (numeric) file IDs
+        Map<String, FileParameters> orderedFileParams = new TreeMap<>(Comparator.comparing(String::length).thenComparing(Comparator.naturalOrder()));
+        orderedFileParams.putAll(fileParams);
+        orderedFileParams.forEach((id, fileParameters) -> {
+            RejectionReason reason = validator.validate(fileParameters.getName(), fileParameters.getSize(), fileParameters.getMime());
+            if (reason == null) {
+                String relativePath = relativePaths.get(id);
+                files.put(id, isValidRelativePath(relativePath, fileParameters.getName())
+                    ? new RelativeHtml5File(fileParameters.getName(), fileParameters.getSize(), fileParameters.getMime(), relativePath)
+                    : new Html5File(fileParameters.getName(), fileParameters.getSize(), fileParameters.getMime()));
+            } else {
+                rejectedFiles.add(new RejectedFile(fileParameters.getName(), fileParameters.getSize(), fileParameters.getMime(), reason));
+            }
+        });
+        if (!rejectedFiles.isEmpty()) {
+            fireEvent(new FileRejectEvent<>(getParent(), rejectedFiles));
+        }
+        return files;
+    }
+
+    /**
+     * @return {@code true} if the path consists of regular segments only and ends with the file name
+     */
+    private static boolean isValidRelativePath(String relativePath, String name) {
+        if (relativePath == null || relativePath.contains("\\") || !(relativePath.equals(name) || relativePath.endsWith("/" + name))) {
+            return false;
+        }
+        return Arrays.stream(relativePath.split("/", -1)).noneMatch(segment -> segment.isEmpty() || segment.equals(".") || segment.equals(".."));
+    }
+
+    /**
+     * Answers each dropped file by an upload URL, a pending delta upload or, if it is not uploaded, by releasing it client-side.
+     *
+     * @param ids the IDs of all files of the drop, including the rejected ones
+     * @param files the accepted files mapped to their ID
+     */
+    private void upload(Collection<String> ids, Map<String, Html5File> files, Map<String, String> digests) {
+        // create upload URLs for the files that the drop handler attached stream variable to
+        Map<String, String> urls = new HashMap<>();
+        Map<String, String> chunkedUrls = new HashMap<>();
+        Map<String, String> asyncUrls = new HashMap<>();
+        List<String> releasedIds = ids.stream().filter(id -> !files.containsKey(id)).collect(Collectors.toCollection(ArrayList::new));
+        List<String> pendingIds = new ArrayList<>();
+        files.forEach((id, file) -> {
+            if (file.getStreamVariable() == null) {
+                releasedIds.add(id);
+                return;
+            }
+            FileReceiver receiver = new FileReceiver(file, done -> {
+                uploads.remove(id, done);
+                requestNextBatches();
+                if (done.getFinishedEvent() != null) {
+                    process(file, done.getFinishedEvent());
+                }
+            });
+            if (getState(false).clientSideProgress) {
+                receiver.setServerSideProgress(false);
+            } else if (hasListeners(UploadProgressEvent.class)) {
+                receiver.setProgressAggregator(progressAggregator);
+            }
+            receiver.setUploadPipeline(uploadPipeline);
+            receiver.setUploadMetrics(uploadMetrics);
+            if (zipExtraction != null && zipExtraction.isArchive(file)) {
+                receiver.setZipExtraction(zipExtraction);
+            }
+            uploads.put(id, receiver);
+            String digest = contentStore != null ? digests.get(id) : null;
+            if (ContentStore.isValidDigest(digest)) {
+                lookUpStoredUpload(id, file, receiver, digest);
+                pendingIds.add(id);
+            } else if (computeDeltaUpload(id, file, receiver)) {
+                pendingIds.add(id);
+            } else {
+                register(id, file, receiver, urls, chunkedUrls, asyncUrls);
+            }
+        });
+
+        if (!releasedIds.isEmpty()) {
+            // releases the rejected and skipped files client-side, they are not uploaded
+            getRpcProxy(FileDropTargetAndSelectorClientRpc.class).cancelUploads(releasedIds);
+        }
+        if (!pendingIds.isEmpty()) {
+            getRpcProxy(FileDropTargetAndSelectorClientRpc.class).awaitDeltaUploads(pendingIds);
+        }
+        sendUploadUrls(urls, chunkedUrls, asyncUrls);
+    }
+
+    /**
+     * Registers the upload of a file as a whole, the URL is added to the map of its kind of upload.
+     */
+    private void register(String id, Html5File file, FileReceiver receiver, Map<String, String> urls, Map<String, String> chunkedUrls,
+        Map<String, String> asyncUrls) {
+        int chunkSize = getState(false).chunkSize;
+        if (chunkSize > 0) {
+            chunkedUrls.put(id, ChunkedUploadHandler.get(getSession()).register(file, receiver, this, chunkSize));
+        } else if (nonBlockingUpload || UploadGovernor.getDefault() != null) {
+            asyncUrls.put(id, AsyncUploadHandler.get(getSession()).register(file, receiver, this));
+        } else {
+            urls.put(id, getStreamVariableTargetUrl("rec-" + id, receiver));
+        }
+    }
+
+    /**
+     * Registers the upload of a single file and sends its URL.
+     */
+    private void sendUploadUrl(String id, Html5File file, FileReceiver receiver) {
+        Map<String, String> urls = new HashMap<>();
+        Map<String, String> chunkedUrls = new HashMap<>();
+        Map<String, String> asyncUrls = new HashMap<>();
+        register(id, file, receiver, urls, chunkedUrls, asyncUrls);
+        sendUploadUrls(urls, chunkedUrls, asyncUrls);
+    }
+
+    private void sendUploadUrls(Map<String, String> urls, Map<String, String> chunkedUrls, Map<String, String> asyncUrls) {
+        if (!urls.isEmpty()) {
+            getRpcProxy(FileDropTargetAndSelectorClientRpc.class).sendUploadUrls(urls);
+        }
+        if (!chunkedUrls.isEmpty()) {
+            getRpcProxy(FileDropTargetAndSelectorClientRpc.class).sendChunkedUploadUrls(chunkedUrls);
+        }
+        if (!asyncUrls.isEmpty()) {
+            getRpcProxy(FileDropTargetAndSelectorClientRpc.class).sendRawUploadUrls(asyncUrls);
+        }
+    }
+
+    /**
+     * Post-processes a received file by an {@link AsyncFileDropHandler}, the outcome is handled while holding the session lock again.
+     */
+    @SuppressWarnings("unchecked")
+    private void process(Html5File file, StreamVariable.StreamingEndEvent event) {
+        if (!(fileDropHandler instanceof AsyncFileDropHandler)) {
+            return;
+        }
+        AsyncFileDropHandler<T, Object> handler = (AsyncFileDropHandler<T, Object>) fileDropHandler;
+        UI ui = getUI();
+        if (ui == null) {
+            return;
+        }
+        CompletableFuture.supplyAsync(() -> handler.process(file, event), getProcessingExecutor())
+                         .thenCompose(Function.identity())
+                         .whenComplete((result, failure) -> {
+                             Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                             if (cause != null) {
+                                 getLogger().log(Level.FINE, "Processing " + file.getFileName() + " failed", cause);
+                             }
+                             try {
+                                 ui.access(() -> handler.processed(file, result, cause));
+                             } catch (UIDetachedException e) {
+                                 getLogger().fine("UI detached, outcome of processing " + file.getFileName() + " discarded");
+                             }
+                         });
+    }
+
+    /**
+     * Looks up the content of the file in the content store by the processing executor, the file is completed from the store or its upload
+     * is sent to the client while holding the session lock again. A content store on a slow or remote file system would block all requests
+     * of the session otherwise.
+     */
+    private void lookUpStoredUpload(String id, Html5File file, FileReceiver receiver, String digest) {
+        UI ui = getUI();
+        ContentStore store = contentStore;
+        CompletableFuture.supplyAsync(() -> StoredUpload.isStored(file, store, digest), getProcessingExecutor()).whenComplete((stored, failure) -> {
+            if (failure != null) {
+                getLogger().log(Level.WARNING, "Looking up " + file.getFileName() + " in the content store failed, uploading the file", failure);
+            }
+            try {
+                ui.access(() -> sendStoredUpload(id, file, receiver, store, digest, Boolean.TRUE.equals(stored)));
+            } catch (UIDetachedException e) {
+                getLogger().fine("UI detached, lookup of " + file.getFileName() + " discarded");
+            }
+        });
+    }
+
+    /**
+     * Completes the upload of a file from the content store and releases it client-side, or sends its upload otherwise. Nothing is sent if
+     * the upload got cancelled meanwhile.
+     */
+    private void sendStoredUpload(String id, Html5File file, FileReceiver receiver, ContentStore store, String digest, boolean stored) {
+        if (uploads.get(id) != receiver) {
+            return;
+        }
+        if (stored) {
+            getRpcProxy(FileDropTargetAndSelectorClientRpc.class).cancelUploads(Collections.singletonList(id));
+            StoredUpload.complete(getSession(), file, receiver, store, digest);
+            return;
+        }
+        receiver.setContentStore(store, digest);
+        if (!computeDeltaUpload(id, file, receiver)) {
+            sendUploadUrl(id, file, receiver);
+        }
+    }
+
+    /**
+     * Computes the signatures of the previous version of the file by the processing executor, the delta upload is sent to the client while
+     * holding the session lock again. Reading a large previous version would block all requests of the session otherwise.
+     *
+     * @return {@code false} if there is no previous version of the file
+     */
+    private boolean computeDeltaUpload(String id, Html5File file, FileReceiver receiver) {
+        Path base = deltaBaseProvider != null ? deltaBaseProvider.getBase(file) : null;
+        UI ui = getUI();
+        if (base == null || ui == null || !Files.isRegularFile(base)) {
+            return false;
+        }
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                int blockSize = DeltaSignature.getBlockSize(Files.size(base));
+                return new DeltaUpload(null, blockSize, DeltaSignature.compute(base, blockSize));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, getProcessingExecutor()).whenComplete((deltaUpload, failure) -> {
+            try {
+                ui.access(() -> sendDeltaUpload(id, file, receiver, base, deltaUpload, failure));
+            } catch (UIDetachedException e) {
+                getLogger().fine("UI detached, signatures of " + base + " discarded");
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Sends the delta upload of a file, or its upload as a whole if the signatures could not be computed. Nothing is sent if the upload got
+     * cancelled meanwhile.
+     */
+    private void sendDeltaUpload(String id, Html5File file, FileReceiver receiver, Path base, DeltaUpload deltaUpload, Throwable failure) {
+        if (uploads.get(id) != receiver) {
+            return;
+        }
+        if (failure != null) {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            getLogger().log(Level.WARNING, "Computing signatures of " + base + " failed, uploading the whole file", cause);
+            sendUploadUrl(id, file, receiver);
+            return;
+        }
+        receiver.setDeltaBase(base, deltaUpload.getBlockSize());
+        deltaUpload.setUrl(AsyncUploadHandler.get(getSession()).register(file, receiver, this));
+        getRpcProxy(FileDropTargetAndSelectorClientRpc.class).sendDeltaUploads(Collections.singletonMap(id, deltaUpload));
+    }
+
+    @Override
+    protected FileDropTargetAndSelectorState getState(boolean markAsDirty) {
+        return (FileDropTargetAndSelectorState) super.getState(markAsDirty);
+    }
+
+    @Override
+    public void detach() {
+        if (getSession() != null) {
+            ChunkedUploadHandler chunkedUploadHandler = ChunkedUploadHandler.find(getSession());
+            if (chunkedUploadHandler != null) {
+                chunkedUploadHandler.discard(this);
+            }
+            AsyncUploadHandler asyncUploadHandler = AsyncUploadHandler.find(getSession());
+            if (asyncUploadHandler != null) {
+                asyncUploadHandler.discard(this);
+            }
+        }
+        uploads.clear();
+        streamingDrops.clear();
+        pendingBatches.clear();
+        super.detach();
+    }
+
+    private String getStreamVariableTargetUrl(String name, StreamVariable value) {
+        String connectorId = getConnectorId();
+        ConnectorTracker connectorTracker = getUI().getConnectorTracker();
+        connectorTracker.addStreamVariable(connectorId, name, value);
+        String secKey = connectorTracker.getSeckey(value);
+        return ApplicationConstants.APP_PROTOCOL_PREFIX + UPLOAD_PATH + getUI().getUIId() + "/" + connectorId + "/" + name
+            + "/" + secKey;
+    }
+
+    /**
+     * Server-side state of a drop delivered in batches.
+     */
+    private static class StreamingDrop implements Serializable {
+
+        private final FileValidator validator;
+        private int batchIndex;
+
+        private StreamingDrop(FileValidator validator) {
+            this.validator = validator;
+        }
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(FileDropTargetAndSelector.class.getName());
+    }
+
+    private void removeStreamVariable(String name) {
+        ConnectorTracker connectorTracker = getUI().getConnectorTracker();
+        // a started upload already disposed its stream variable
+        if (connectorTracker.getStreamVariable(getConnectorId(), name) != null) {
+            connectorTracker.cleanStreamVariable(getConnectorId(), name);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package net.g24;
+
+import java.util.List;
+
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.Component;
+import net.g24.client.RejectedFile;
+
+/**
+ * Event fired once per drop or selection, if files are rejected by the limits of a {@link FileDropTargetAndSelector}, e.g. the max. file
+ * size or the accepted types. Rejected files are not passed to the {@link com.vaadin.ui.dnd.FileDropHandler}.
+ *
+ * @param <T> Type of the drop target component
+ */
+public class FileRejectEvent<T extends AbstractComponent> extends Component.Event {
+
+    private final List<RejectedFile> rejectedFiles;
+
+    public FileRejectEvent(T target, List<RejectedFile> rejectedFiles) {
+        super(target);
+        this.rejectedFiles = rejectedFiles;
+    }
+
+    /**
+     * @return the rejected files with the reason of rejection
+     */
+    public List<RejectedFile> getRejectedFiles() {
+        return rejectedFiles;
+    }
+}
@@ -0,0 +1,20 @@
+package net.g24;
+
+import java.lang.reflect.Method;
+
+import com.vaadin.event.ConnectorEventListener;
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.util.ReflectTools;
+
+/**
+ * Listener for {@link FileRejectEvent}s.
+ *
+ * @param <T> Type of the drop target component
+ */
+@FunctionalInterface
+public interface FileRejectListener<T extends AbstractComponent> extends ConnectorEventListener {
+
+    Method REJECT_METHOD = ReflectTools.getMethod(FileRejectListener.class);
+
+    void filesRejected(FileRejectEvent<T> event);
+}
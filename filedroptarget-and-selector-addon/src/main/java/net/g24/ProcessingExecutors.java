@@ -0,0 +1,44 @@
+package net.g24;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Default executor of {@link AsyncFileDropHandler#process}: a virtual thread per file on Java 21 and later, a daemon thread pool with a
+ * thread per processor otherwise. Created on first use, shared by all components of the JVM.
+ */
+final class ProcessingExecutors {
+
+    private ProcessingExecutors() {
+    }
+
+    static ExecutorService getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    private static ExecutorService create() {
+        try {
+            // the add-on is compiled for Java 8
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            getLogger().fine("Virtual threads not available, processing uploads by a thread pool");
+        }
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "upload-processing");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(ProcessingExecutors.class.getName());
+    }
+
+    private static final class Holder {
+
+        private static final ExecutorService DEFAULT = create();
+    }
+}
@@ -0,0 +1,24 @@
+package net.g24;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * {@link Html5File} of a dropped or selected folder in directory mode, see {@link FileDropTargetAndSelector#setDirectoryMode(boolean)}.
+ */
+public class RelativeHtml5File extends Html5File {
+
+    private final String relativePath;
+
+    public RelativeHtml5File(String name, long size, String mimeType, String relativePath) {
+        super(name, size, mimeType);
+        this.relativePath = relativePath;
+    }
+
+    /**
+     * @return path of the file relative to the parent of the dropped or selected folder, separated by {@code /}, e.g.
+     * {@code photos/2020/img.jpg}. Sent by the client, but validated not to contain empty, {@code .} or {@code ..} segments.
+     */
+    public String getRelativePath() {
+        return relativePath;
+    }
+}
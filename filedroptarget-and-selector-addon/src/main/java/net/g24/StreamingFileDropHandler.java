@@ -0,0 +1,36 @@
+package net.g24;
+
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.dnd.FileDropHandler;
+import com.vaadin.ui.dnd.event.FileDropEvent;
+
+/**
+ * {@link FileDropHandler} receiving the files of a drop or selection in batches, see
+ * {@link FileDropTargetAndSelector#setDropBatchSize(int)}. Each batch is handled like a drop of its own: stream variables attached to its
+ * files are uploaded right away, while the client lists the next batch.
+ * <p>
+ * Pass the handler as {@link FileDropHandler} to the constructor of {@link FileDropTargetAndSelector}, e.g.
+ * <pre>
+ * StreamingFileDropHandler&lt;VerticalLayout&gt; handler = event -&gt; ...;
+ * new FileDropTargetAndSelector&lt;&gt;(layout, handler);
+ * </pre>
+ *
+ * @param <T> Type of the drop target component
+ */
+@FunctionalInterface
+public interface StreamingFileDropHandler<T extends AbstractComponent> extends FileDropHandler<T> {
+
+    /**
+     * Handles a batch of files of a drop or selection.
+     */
+    void dropBatch(FileDropBatchEvent<T> event);
+
+    /**
+     * Handles all files at once as a single batch.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    default void drop(FileDropEvent<T> event) {
+        dropBatch(new FileDropBatchEvent<>((T) event.getComponent(), event.getFiles(), 0, 0, true));
+    }
+}
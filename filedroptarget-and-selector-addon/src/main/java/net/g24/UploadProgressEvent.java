@@ -0,0 +1,30 @@
+package net.g24;
+
+import java.util.Map;
+
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Event fired at most once per progress interval of a {@link FileDropTargetAndSelector}, with the progress of all of its uploads which
+ * made progress since the previous event.
+ *
+ * @param <T> Type of the drop target component
+ */
+public class UploadProgressEvent<T extends AbstractComponent> extends Component.Event {
+
+    private final Map<Html5File, Long> progress;
+
+    public UploadProgressEvent(T target, Map<Html5File, Long> progress) {
+        super(target);
+        this.progress = progress;
+    }
+
+    /**
+     * @return number of bytes received so far, mapped to the file
+     */
+    public Map<Html5File, Long> getProgress() {
+        return progress;
+    }
+}
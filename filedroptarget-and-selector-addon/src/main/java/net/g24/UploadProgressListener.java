@@ -0,0 +1,20 @@
+package net.g24;
+
+import java.lang.reflect.Method;
+
+import com.vaadin.event.ConnectorEventListener;
+import com.vaadin.ui.AbstractComponent;
+import com.vaadin.util.ReflectTools;
+
+/**
+ * Listener for {@link UploadProgressEvent}s.
+ *
+ * @param <T> Type of the drop target component
+ */
+@FunctionalInterface
+public interface UploadProgressListener<T extends AbstractComponent> extends ConnectorEventListener {
+
+    Method PROGRESS_METHOD = ReflectTools.getMethod(UploadProgressListener.class);
+
+    void uploadProgress(UploadProgressEvent<T> event);
+}
@@ -0,0 +1,213 @@
+package net.g24.client;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.gwt.xhr.client.XMLHttpRequest;
+import elemental.html.File;
+
+/**
+ * Uploads a file in chunks ({@code Blob.slice}), several chunks at once. Failed chunks are not retried individually: as soon as all chunks
+ * of a round are settled, the bitmap of received chunks is queried from the server and the missing chunks are re-sent.
+ */
+class ChunkedUploadTask implements UploadTask {
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_GONE = 410;
+    private static final int MAX_ROUNDS_WITHOUT_PROGRESS = 5;
+    private static final int RETRY_DELAY_MS = 1000;
+
+    private final File file;
+    private final String url;
+    private final int chunkSize;
+    private final int parallelChunks;
+    private final int chunkCount;
+    private final LinkedList<Integer> pending = new LinkedList<>();
+    private final List<XMLHttpRequest> inFlight = new ArrayList<>();
+    private int receivedChunks = -1;
+    private int roundsWithoutProgress;
+    private boolean done;
+    private boolean waiting;
+    private double confirmedBytes;
+    private double inFlightBytes;
+    private Runnable onDone;
+    private Runnable onProgress;
+
+    ChunkedUploadTask(File file, String url, int chunkSize, int parallelChunks) {
+        this.file = file;
+        this.url = url;
+        this.chunkSize = chunkSize;
+        this.parallelChunks = parallelChunks;
+        this.chunkCount = (int) Math.max(1, Math.ceil(file.getSize() / chunkSize));
+    }
+
+    @Override
+    public double getSize() {
+        return file.getSize();
+    }
+
+    @Override
+    public double getBytesSent() {
+        return confirmedBytes + inFlightBytes;
+    }
+
+    @Override
+    public void start(Runnable onDone, Runnable onProgress) {
+        this.onDone = onDone;
+        this.onProgress = onProgress;
+        queryBitmap();
+    }
+
+    private void queryBitmap() {
+        if (done) {
+            return;
+        }
+        UploadXHR xhr = UploadXHR.createUploadXHR();
+        xhr.setOnReadyStateChange(xmlHttpRequest -> {
+            if (xmlHttpRequest.getReadyState() == XMLHttpRequest.DONE) {
+                xmlHttpRequest.clearOnReadyStateChange();
+                if (xmlHttpRequest.getStatus() == STATUS_OK) {
+                    resume(xmlHttpRequest.getResponseText());
+                } else if (isGone(xmlHttpRequest.getStatus())) {
+                    finish();
+                } else {
+                    retryLater();
+                }
+            }
+        });
+        xhr.open("GET", url);
+        xhr.send();
+    }
+
+    private void resume(String bitmap) {
+        int received = 0;
+        pending.clear();
+        confirmedBytes = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (i < bitmap.length() && bitmap.charAt(i) == '1') {
+                received++;
+                confirmedBytes += getChunkLength(i);
+            } else {
+                pending.add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            finish();
+            return;
+        }
+        if (received > receivedChunks) {
+            roundsWithoutProgress = 0;
+        }
+        receivedChunks = received;
+        if (roundsWithoutProgress++ >= MAX_ROUNDS_WITHOUT_PROGRESS) {
+            discard();
+        } else if (roundsWithoutProgress > 1) {
+            // back off in case of repeated failures
+            UploadTask.schedule(this::sendChunks, RETRY_DELAY_MS * (roundsWithoutProgress - 1));
+        } else {
+            sendChunks();
+        }
+    }
+
+    private void sendChunks() {
+        while (!done && !waiting && inFlight.size() < parallelChunks && !pending.isEmpty()) {
+            sendChunk(pending.removeFirst());
+        }
+    }
+
+    private void sendChunk(int index) {
+        UploadXHR xhr = UploadXHR.createUploadXHR();
+        inFlight.add(xhr);
+        double[] chunkBytesSent = {0};
+        xhr.setOnUploadProgress(loaded -> {
+            inFlightBytes += loaded - chunkBytesSent[0];
+            chunkBytesSent[0] = loaded;
+            onProgress.run();
+        });
+        xhr.setOnReadyStateChange(xmlHttpRequest -> {
+            if (xmlHttpRequest.getReadyState() == XMLHttpRequest.DONE) {
+                xmlHttpRequest.clearOnReadyStateChange();
+                inFlight.remove(xmlHttpRequest);
+                inFlightBytes -= chunkBytesSent[0];
+                if (xmlHttpRequest.getStatus() == STATUS_OK) {
+                    confirmedBytes += getChunkLength(index);
+                }
+                if (done) {
+                    return;
+                }
+                onProgress.run();
+                if (isGone(xmlHttpRequest.getStatus())) {
+                    finish();
+                } else if (xmlHttpRequest.getStatus() == UploadXHR.STATUS_SERVICE_UNAVAILABLE) {
+                    // not admitted yet, no chunk is sent until the requested delay passed
+                    pending.addFirst(index);
+                    waitAndSendChunks(UploadXHR.getRetryDelay(xmlHttpRequest));
+                } else if (pending.isEmpty() && inFlight.isEmpty()) {
+                    // round completed, re-send whatever is still missing
+                    queryBitmap();
+                } else {
+                    sendChunks();
+                }
+            }
+        });
+        double start = (double) index * chunkSize;
+        xhr.open("POST", url + (url.contains("?") ? "&" : "?") + "chunk=" + index);
+        xhr.sendBlob(UploadXHR.slice(file, start, start + getChunkLength(index)));
+    }
+
+    private void waitAndSendChunks(int delayMillis) {
+        if (!waiting) {
+            waiting = true;
+            UploadTask.schedule(() -> {
+                waiting = false;
+                sendChunks();
+            }, delayMillis);
+        }
+    }
+
+    private double getChunkLength(int index) {
+        return Math.min(chunkSize, file.getSize() - (double) index * chunkSize);
+    }
+
+    private void retryLater() {
+        if (roundsWithoutProgress++ >= MAX_ROUNDS_WITHOUT_PROGRESS) {
+            discard();
+            return;
+        }
+        UploadTask.schedule(this::queryBitmap, RETRY_DELAY_MS * roundsWithoutProgress);
+    }
+
+    @Override
+    public void abort() {
+        // cancelled by the server, which already released the received chunks
+        done = true;
+        pending.clear();
+        for (XMLHttpRequest xhr : inFlight) {
+            xhr.clearOnReadyStateChange();
+            xhr.abort();
+        }
+        inFlight.clear();
+        inFlightBytes = 0;
+    }
+
+    private void discard() {
+        // let the server release the assembled chunks
+        UploadXHR xhr = UploadXHR.createUploadXHR();
+        xhr.open("DELETE", url);
+        xhr.send();
+        finish();
+    }
+
+    private void finish() {
+        if (!done) {
+            done = true;
+            onDone.run();
+        }
+    }
+
+    private static boolean isGone(int status) {
+        return status == STATUS_NOT_FOUND || status == STATUS_GONE;
+    }
+}
@@ -0,0 +1,45 @@
+package net.g24.client;
+
+import java.io.Serializable;
+
+/**
+ * Parameters of a delta upload: the upload URL and the block signatures of the previous version of the file.
+ */
+public class DeltaUpload implements Serializable {
+    private String url;
+    private int blockSize;
+    private String signatures;
+
+    public DeltaUpload() {
+    }
+
+    public DeltaUpload(String url, int blockSize, String signatures) {
+        this.url = url;
+        this.blockSize = blockSize;
+        this.signatures = signatures;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public String getSignatures() {
+        return signatures;
+    }
+
+    public void setSignatures(String signatures) {
+        this.signatures = signatures;
+    }
+}
@@ -0,0 +1,160 @@
+package net.g24.client;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.xhr.client.XMLHttpRequest;
+import elemental.html.File;
+
+/**
+ * Uploads the delta of a file against the block signatures of its previous version as raw request body. The delta is computed in a web
+ * worker ({@code delta-worker.js} of the widgetset), see {@link DeltaUpload}. If the delta cannot be computed, the whole file is sent as a
+ * single literal.
+ */
+class DeltaUploadTask implements UploadTask {
+
+    private static final String SCRIPT = "delta-worker.js";
+    private static final double MAX_LITERAL_LENGTH = 1024 * 1024 * 1024;
+
+    private final File file;
+    private final String url;
+    private final DeltaUpload deltaUpload;
+    private JavaScriptObject worker;
+    private UploadXHR xhr;
+    private double bytesSent;
+    private boolean aborted;
+    private Runnable onDone;
+    private Runnable onProgress;
+
+    DeltaUploadTask(File file, String url, DeltaUpload deltaUpload) {
+        this.file = file;
+        this.url = url;
+        this.deltaUpload = deltaUpload;
+    }
+
+    @Override
+    public double getSize() {
+        return file.getSize();
+    }
+
+    @Override
+    public double getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public void start(Runnable onDone, Runnable onProgress) {
+        this.onDone = onDone;
+        this.onProgress = onProgress;
+        worker = computeDelta(GWT.getModuleBaseURL() + SCRIPT, file, deltaUpload.getBlockSize(), deltaUpload.getSignatures(), this);
+        if (worker == null) {
+            send(createLiteralDelta(file, MAX_LITERAL_LENGTH));
+        }
+    }
+
+    private void onDelta(JavaScriptObject delta) {
+        terminate(worker);
+        worker = null;
+        send(delta != null ? delta : createLiteralDelta(file, MAX_LITERAL_LENGTH));
+    }
+
+    private void send(JavaScriptObject delta) {
+        double deltaSize = getSize(delta);
+        xhr = UploadXHR.createUploadXHR();
+        xhr.setOnReadyStateChange(xmlHttpRequest -> {
+            if (xmlHttpRequest.getReadyState() == XMLHttpRequest.DONE) {
+                xmlHttpRequest.clearOnReadyStateChange();
+                if (xmlHttpRequest.getStatus() == UploadXHR.STATUS_SERVICE_UNAVAILABLE) {
+                    retryLater(delta, UploadXHR.getRetryDelay(xmlHttpRequest));
+                    return;
+                }
+                bytesSent = file.getSize();
+                onDone.run();
+            }
+        });
+        xhr.setOnUploadProgress(loaded -> {
+            // progress of the file, unchanged blocks count as sent
+            bytesSent = deltaSize > 0 ? file.getSize() * Math.min(1, loaded / deltaSize) : 0;
+            onProgress.run();
+        });
+        xhr.open("POST", url);
+        xhr.sendBlob(delta);
+    }
+
+    /**
+     * Posts the delta again after given delay, the server did not admit the upload yet.
+     */
+    private void retryLater(JavaScriptObject delta, int delayMillis) {
+        xhr = null;
+        bytesSent = 0;
+        onProgress.run();
+        UploadTask.schedule(() -> {
+            if (!aborted) {
+                send(delta);
+            }
+        }, delayMillis);
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+        if (worker != null) {
+            terminate(worker);
+            worker = null;
+        }
+        if (xhr != null) {
+            xhr.clearOnReadyStateChange();
+            xhr.abort();
+            xhr = null;
+        }
+    }
+
+    /**
+     * @return the worker, {@code null} if web workers are not supported
+     */
+    private static native JavaScriptObject computeDelta(String url, File file, int blockSize, String signatures, DeltaUploadTask task)
+        /*-{
+            if (!$wnd.Worker) {
+                return null;
+            }
+            try {
+                var worker = new $wnd.Worker(url);
+                worker.onmessage = $entry(function (event) {
+                    task.@net.g24.client.DeltaUploadTask::onDelta(Lcom/google/gwt/core/client/JavaScriptObject;)(event.data.delta || null);
+                });
+                worker.onerror = $entry(function (event) {
+                    event.preventDefault();
+                    task.@net.g24.client.DeltaUploadTask::onDelta(Lcom/google/gwt/core/client/JavaScriptObject;)(null);
+                });
+                worker.postMessage({file: file, blockSize: blockSize, signatures: signatures});
+                return worker;
+            } catch (e) {
+                return null;
+            }
+        }-*/;
+
+    /**
+     * Creates a delta without block references, i.e. the whole file.
+     */
+    private static native JavaScriptObject createLiteralDelta(File file, double maxLiteralLength)
+        /*-{
+            var parts = [];
+            for (var start = 0; start < file.size; start += maxLiteralLength) {
+                var length = Math.min(maxLiteralLength, file.size - start);
+                var header = new $wnd.Uint8Array(5);
+                header[0] = 0x4c;
+                new $wnd.DataView(header.buffer).setUint32(1, length);
+                parts.push(header, file.slice(start, start + length));
+            }
+            return new $wnd.Blob(parts);
+        }-*/;
+
+    private static native double getSize(JavaScriptObject blob)
+        /*-{
+            return blob.size;
+        }-*/;
+
+    private static native void terminate(JavaScriptObject worker)
+        /*-{
+            worker.terminate();
+        }-*/;
+}
@@ -0,0 +1,101 @@
+package net.g24.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import elemental.html.File;
+
+/**
+ * Computes the SHA-256 digests of files in a web worker ({@code sha256-worker.js} of the widgetset), so hashing large files does not block
+ * the UI thread. Files are read slice by slice, the memory usage does not grow with the file size.
+ * <p>
+ * Hashing is best effort: if web workers are not supported or a file cannot be read, the digest of that file is missing and the file is
+ * uploaded as usual.
+ */
+class DigestWorker {
+
+    private static final String SCRIPT = "sha256-worker.js";
+
+    private final Map<String, String> digests = new HashMap<>();
+    private final Consumer<Map<String, String>> callback;
+    private JavaScriptObject worker;
+    private int pending;
+
+    private DigestWorker(Consumer<Map<String, String>> callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Computes the digests of given files.
+     *
+     * @param files files mapped to their ID
+     * @param callback receives the lower case hex digests mapped to the file IDs, once all files are hashed
+     */
+    static void digest(Map<String, File> files, Consumer<Map<String, String>> callback) {
+        DigestWorker digestWorker = new DigestWorker(callback);
+        digestWorker.worker = createWorker(GWT.getModuleBaseURL() + SCRIPT, digestWorker);
+        if (digestWorker.worker == null || files.isEmpty()) {
+            callback.accept(digestWorker.digests);
+            return;
+        }
+        digestWorker.pending = files.size();
+        files.forEach((id, file) -> postMessage(digestWorker.worker, id, file));
+    }
+
+    private void onDigest(String id, String digest) {
+        if (worker == null) {
+            return;
+        }
+        if (digest != null) {
+            digests.put(id, digest);
+        }
+        if (--pending == 0) {
+            finish();
+        }
+    }
+
+    private void onError() {
+        if (worker != null) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        terminate(worker);
+        worker = null;
+        callback.accept(digests);
+    }
+
+    private static native JavaScriptObject createWorker(String url, DigestWorker instance)
+        /*-{
+            if (!$wnd.Worker) {
+                return null;
+            }
+            try {
+                var worker = new $wnd.Worker(url);
+                worker.onmessage = $entry(function (event) {
+                    instance.@net.g24.client.DigestWorker::onDigest(Ljava/lang/String;Ljava/lang/String;)(event.data.id, event.data.digest || null);
+                });
+                worker.onerror = $entry(function (event) {
+                    event.preventDefault();
+                    instance.@net.g24.client.DigestWorker::onError()();
+                });
+                return worker;
+            } catch (e) {
+                return null;
+            }
+        }-*/;
+
+    private static native void postMessage(JavaScriptObject worker, String id, File file)
+        /*-{
+            worker.postMessage({id: id, file: file});
+        }-*/;
+
+    private static native void terminate(JavaScriptObject worker)
+        /*-{
+            worker.terminate();
+        }-*/;
+}
@@ -0,0 +1,127 @@
+package net.g24.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import elemental.html.File;
+
+/**
+ * Lists the files of a drop or selection batch by batch, traversing dropped folders ({@code FileSystemEntry} of
+ * {@code DataTransferItem.webkitGetAsEntry()}) lazily: a folder is read only when the files listed before are consumed, so only the current
+ * path of the traversal is held in memory, not the whole listing. Each file is listed with its path relative to the dropped folder, or
+ * {@code webkitRelativePath} for files selected by a folder selector.
+ */
+class DirectoryWalker {
+
+    private final JavaScriptObject walker;
+
+    /**
+     * @param roots dropped files and file system entries
+     */
+    DirectoryWalker(JsArray<JavaScriptObject> roots) {
+        walker = createWalker(roots);
+    }
+
+    /**
+     * Lists the next files asynchronously.
+     *
+     * @param max max. number of files
+     */
+    void next(int max, BatchCallback callback) {
+        next(walker, max, callback);
+    }
+
+    @FunctionalInterface
+    interface BatchCallback {
+
+        /**
+         * @param files the next files, less than requested if the traversal is done
+         * @param done {@code true} if all files are listed
+         */
+        void onBatch(JsArray<ListedFile> files, boolean done);
+    }
+
+    /**
+     * A listed file with its relative path.
+     */
+    static final class ListedFile extends JavaScriptObject {
+
+        protected ListedFile() {
+        }
+
+        native File getFile()
+            /*-{
+                return this.file;
+            }-*/;
+
+        native String getPath()
+            /*-{
+                return this.path;
+            }-*/;
+    }
+
+    private static native JavaScriptObject createWalker(JsArray<JavaScriptObject> roots)
+        /*-{
+            // stack of the folders on the current path, each with the entries read so far
+            return {roots: roots, rootIndex: 0, stack: []};
+        }-*/;
+
+    private static native void next(JavaScriptObject walker, int max, BatchCallback callback)
+        /*-{
+            var files = [];
+            var finish = $entry(function (done) {
+                callback.@net.g24.client.DirectoryWalker.BatchCallback::onBatch(*)(files, done);
+            });
+            var listFile = function (file, path) {
+                files.push({file: file, path: path});
+            };
+            // loops over synchronously available items, continues in the callbacks of asynchronous reads
+            var run = function () {
+                while (files.length < max) {
+                    var item, frame = walker.stack[walker.stack.length - 1];
+                    if (frame) {
+                        if (frame.index < frame.entries.length) {
+                            item = frame.entries[frame.index++];
+                        } else if (frame.exhausted) {
+                            walker.stack.pop();
+                            continue;
+                        } else {
+                            // a folder is read in portions (e.g. 100 entries in Chrome) until an empty portion is returned
+                            frame.reader.readEntries(function (entries) {
+                                frame.entries = entries;
+                                frame.index = 0;
+                                frame.exhausted = entries.length == 0;
+                                run();
+                            }, function () {
+                                frame.entries = [];
+                                frame.exhausted = true;
+                                run();
+                            });
+                            return;
+                        }
+                    } else if (walker.rootIndex < walker.roots.length) {
+                        item = walker.roots[walker.rootIndex++];
+                    } else {
+                        finish(true);
+                        return;
+                    }
+                    if (item.isDirectory) {
+                        walker.stack.push({reader: item.createReader(), entries: [], index: 0, exhausted: false});
+                    } else if (item.isFile) {
+                        (function (entry) {
+                            entry.file(function (file) {
+                                listFile(file, entry.fullPath.replace(/^\//, ""));
+                                run();
+                            }, function () {
+                                run();
+                            });
+                        })(item);
+                        return;
+                    } else {
+                        listFile(item, item.webkitRelativePath || item.name);
+                    }
+                }
+                finish(false);
+            };
+            run();
+        }-*/;
+}
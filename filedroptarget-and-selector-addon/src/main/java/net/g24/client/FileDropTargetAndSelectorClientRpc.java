@@ -0,0 +1,45 @@
+package net.g24.client;
+
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.shared.communication.ClientRpc;
+
+public interface FileDropTargetAndSelectorClientRpc extends ClientRpc {
+
+    /**
+     * Sends upload URLs for files to be posted as a whole, mapped to the generated file ID.
+     */
+    void sendUploadUrls(Map<String, String> urls);
+
+    /**
+     * Sends upload URLs for files to be uploaded in chunks, mapped to the generated file ID.
+     */
+    void sendChunkedUploadUrls(Map<String, String> urls);
+
+    /**
+     * Sends upload URLs for files to be posted as raw request body, mapped to the generated file ID.
+     */
+    void sendRawUploadUrls(Map<String, String> urls);
+
+    /**
+     * Sends the parameters of files to be uploaded as delta against their previous version, mapped to the generated file ID.
+     */
+    void sendDeltaUploads(Map<String, DeltaUpload> uploads);
+
+    /**
+     * Announces pending uploads of given file IDs, which are sent as soon as the server looked up the content store or computed the
+     * signatures of the previous versions (delta uploads). The client polls until then, unless the server pushes.
+     */
+    void awaitDeltaUploads(List<String> ids);
+
+    /**
+     * Requests the next batch of given drops, see {@link FileDropTargetAndSelectorRpc#dropBatch}.
+     */
+    void requestNextBatches(List<Integer> dropIds);
+
+    /**
+     * Aborts running uploads and removes queued uploads of given file IDs.
+     */
+    void cancelUploads(List<String> ids);
+}
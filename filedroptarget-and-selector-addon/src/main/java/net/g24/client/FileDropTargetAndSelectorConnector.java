@@ -1,188 +1,483 @@
 package net.g24.client;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
 import com.google.gwt.core.client.Scheduler;
-import com.google.gwt.core.shared.GWT;
+import com.google.gwt.dom.client.DataTransfer;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.NativeEvent;
 import com.google.gwt.event.dom.client.HasClickHandlers;
-import com.google.gwt.event.shared.HandlerRegistration;
-import com.google.gwt.user.client.ui.FileUpload;
-import com.google.gwt.user.client.ui.Widget;
+import com.google.gwt.user.client.Timer;
+import com.vaadin.client.BrowserInfo;
 import com.vaadin.client.ComponentConnector;
 import com.vaadin.client.ServerConnector;
-import com.vaadin.client.Util;
 import com.vaadin.client.communication.StateChangeEvent;
 import com.vaadin.client.extensions.FileDropTargetConnector;
 import com.vaadin.client.ui.AbstractComponentConnector;
 import com.vaadin.client.ui.AbstractLayoutConnector;
-import com.vaadin.client.ui.LayoutClickEventHandler;
 import com.vaadin.shared.ui.Connect;
-import com.vaadin.shared.ui.LayoutClickRpc;
+import com.vaadin.shared.ui.dnd.FileDropTargetRpc;
+import com.vaadin.shared.ui.dnd.FileParameters;
 import elemental.events.Event;
+import elemental.html.File;
+import elemental.html.FileList;
 import net.g24.FileDropTargetAndSelector;
 
 @Connect(FileDropTargetAndSelector.class)
 public class FileDropTargetAndSelectorConnector extends FileDropTargetConnector {
 
-    private transient HandlerRegistration handlerRegistration = null;
     private transient AbstractComponentConnector target;
-    private transient FileUpload fileUpload;
+    private transient Element buttonRoleElement;
+    private final Map<String, File> filesToUpload = new HashMap<>();
+    private static final String STYLE_SUFFIX_UPLOADING = "-uploading";
+    private static final String PROGRESS_PROPERTY = "--upload-progress";
+    private static final int MIN_COMPRESSED_SIZE = 1024;
+    private static final int DELTA_POLL_INTERVAL_MS = 500;
+
+    private final UploadQueue uploadQueue = new UploadQueue(() -> getRpcProxy(FileDropTargetRpc.class).poll(), this::showProgress);
+    private int fileId = 0;
+    private final Map<Integer, StreamingDrop> streamingDrops = new HashMap<>();
+    private int dropId = 0;
+    private final Set<String> awaitedDeltaUploads = new HashSet<>();
+    private final Timer deltaPollTimer = new Timer() {
+        @Override
+        public void run() {
+            if (awaitedDeltaUploads.isEmpty()) {
+                cancel();
+            } else {
+                getRpcProxy(FileDropTargetRpc.class).poll();
+                getConnection().getServerRpcQueue().flush();
+            }
+        }
+    };
+
+    public FileDropTargetAndSelectorConnector() {
+        registerRpc(FileDropTargetAndSelectorClientRpc.class, new FileDropTargetAndSelectorClientRpc() {
+            @Override
+            public void sendUploadUrls(Map<String, String> urls) {
+                urls.forEach((id, url) -> enqueue(id, file -> new SingleUploadTask(file, translate(url), false, isCompressible(file))));
+                uploadNextFile();
+            }
+
+            @Override
+            public void sendRawUploadUrls(Map<String, String> urls) {
+                urls.forEach((id, url) -> enqueue(id, file -> new SingleUploadTask(file, translate(url), true, isCompressible(file))));
+                uploadNextFile();
+            }
+
+            @Override
+            public void sendChunkedUploadUrls(Map<String, String> urls) {
+                urls.forEach((id, url) -> enqueue(id, file -> new ChunkedUploadTask(file, translate(url), getState().chunkSize, getState().parallelChunks)));
+                uploadNextFile();
+            }
+
+            @Override
+            public void sendDeltaUploads(Map<String, DeltaUpload> uploads) {
+                uploads.forEach((id, upload) -> enqueue(id, file -> new DeltaUploadTask(file, translate(upload.getUrl()), upload)));
+                uploadNextFile();
+            }
+
+            @Override
+            public void awaitDeltaUploads(List<String> ids) {
+                // the upload parameters are sent later, the server has no other chance to deliver them unless it pushes
+                awaitedDeltaUploads.addAll(ids);
+                deltaPollTimer.scheduleRepeating(DELTA_POLL_INTERVAL_MS);
+            }
+
+            @Override
+            public void requestNextBatches(List<Integer> dropIds) {
+                dropIds.forEach(id -> {
+                    StreamingDrop drop = streamingDrops.get(id);
+                    if (drop != null) {
+                        sendNextBatch(drop);
+                    }
+                });
+            }
+
+            @Override
+            public void cancelUploads(List<String> ids) {
+                ids.forEach(id -> {
+                    filesToUpload.remove(id);
+                    awaitedDeltaUploads.remove(id);
+                    uploadQueue.cancel(id);
+                });
+            }
+        });
+    }
 
     @Override
     protected void extend(ServerConnector target) {
         this.target = (AbstractComponentConnector) target;
-        super.extend(target);
-        // add (default) file chooser for autom. test purposes
-        appendFileUpload();
+        // like super.extend(target), but the events are delegated by the page instead of listeners on the drop target element
+        if (BrowserInfo.get().isTouchDevice() && !getConnection().getUIConnector().isMobileHTML5DndEnabled()) {
+            return;
+        }
+        PageDropManager.registerDropTarget(getDropTargetElement(), this);
+        this.target.onDropTargetAttached();
+        addDropTargetStyle();
+    }
+
+    @Override
+    protected Element getDropTargetElement() {
+        return target.getWidget().getElement();
+    }
+
+    @Override
+    public void onUnregister() {
+        deltaPollTimer.cancel();
+        awaitedDeltaUploads.clear();
+        filesToUpload.clear();
+        unregisterButtonRole();
+        if (getParent() != null) {
+            PageDropManager.unregisterDropTarget(getDropTargetElement(), this);
+        }
+        super.onUnregister();
+    }
+
+    /**
+     * Handles a drag and drop event routed by the {@link PageDropManager}.
+     */
+    void onDelegatedDragEvent(Event event) {
+        switch (event.getType()) {
+            case Event.DRAGENTER:
+                onDragEnter(event);
+                break;
+            case Event.DRAGOVER:
+                onDragOver(event);
+                break;
+            case Event.DRAGLEAVE:
+                onDragLeave(event);
+                break;
+            case Event.DROP:
+                onDrop(event);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Handles a click on the button role routed by the {@link PageDropManager}.
+     */
+    void onButtonRoleClick() {
+        if (getState().buttonRole instanceof ComponentConnector && ((ComponentConnector) getState().buttonRole).isEnabled()) {
+            openFileChooser();
+        }
+    }
+
+    /**
+     * Handles files selected by the file chooser like dropped files.
+     */
+    void onFilesSelected(Event event) {
+        onDragEnter(event);
+        onDrop(event);
     }
 
     @Override
     public void onStateChanged(StateChangeEvent stateChangeEvent) {
         super.onStateChanged(stateChangeEvent);
-        if (stateChangeEvent.hasPropertyChanged("multiple")) {
-            setMultiple();
+        if (stateChangeEvent.hasPropertyChanged("uploadOrder")) {
+            uploadQueue.setOrder(getState().uploadOrder);
+        }
+        if (stateChangeEvent.hasPropertyChanged("maxConcurrentUploads")) {
+            uploadQueue.setMaxConcurrentUploads(getState().maxConcurrentUploads);
         }
         if (stateChangeEvent.hasPropertyChanged("buttonRole")) {
-            unregisterHandler();
-            if (getState().buttonRole instanceof AbstractLayoutConnector) {
-                registerClientSideLayoutClickListener((AbstractLayoutConnector) getState().buttonRole);
-            } else if (getState().buttonRole instanceof ComponentConnector) {
-                registerClientSideClickListener((AbstractComponentConnector) getState().buttonRole);
-            }
+            unregisterButtonRole();
+            registerButtonRole();
         }
     }
 
-    private void setMultiple() {
-        if (getState().multiple) {
-            fileUpload.getElement().setAttribute("multiple", "multiple");
-        } else {
-            fileUpload.getElement().removeAttribute("multiple");
+    /**
+     * Layouts and clickable widgets (e.g. buttons or labels) open the file chooser when clicked.
+     */
+    private void registerButtonRole() {
+        if (!(getState().buttonRole instanceof ComponentConnector)) {
+            return;
+        }
+        ComponentConnector buttonRole = (ComponentConnector) getState().buttonRole;
+        if (buttonRole instanceof AbstractLayoutConnector || buttonRole.getWidget() instanceof HasClickHandlers) {
+            buttonRoleElement = buttonRole.getWidget().getElement();
+            PageDropManager.registerButtonRole(buttonRoleElement, this);
         }
     }
 
-    private void unregisterHandler() {
-        if (handlerRegistration != null) {
-            handlerRegistration.removeHandler();
-            handlerRegistration = null;
+    private void unregisterButtonRole() {
+        if (buttonRoleElement != null) {
+            PageDropManager.unregisterButtonRole(buttonRoleElement, this);
+            buttonRoleElement = null;
         }
     }
 
     @Override
     protected void onDrop(Event event) {
-        super.onDrop(event);
-        appendFileUpload();
+        NativeEvent nativeEvent = (NativeEvent) event;
+        DataTransfer dataTransfer = nativeEvent.getDataTransfer();
+        FileList files = getFiles(dataTransfer);
+
+        if (files != null) {
+            // the data transfer is accessible during the event only
+            List<File> droppedFiles = new ArrayList<>();
+            JsArray<JavaScriptObject> roots = getState().directoryMode ? getEntries(dataTransfer) : null;
+            for (int i = 0; i < files.getLength() && roots == null; i++) {
+                File file = files.item(i);
+                // make sure the item is indeed a file and not a folder, files of a selected folder are files anyway
+                if (getState().directoryMode || isFile(file, i, dataTransfer)) {
+                    droppedFiles.add(file);
+                }
+            }
+            FileValidator validator = new FileValidator(getState());
+            if (getState().dropBatchSize > 0) {
+                if (roots == null) {
+                    roots = JavaScriptObject.createArray().cast();
+                    for (File file : droppedFiles) {
+                        roots.push((JavaScriptObject) file);
+                    }
+                }
+                StreamingDrop drop = new StreamingDrop(++dropId, new DirectoryWalker(roots), validator);
+                streamingDrops.put(drop.id, drop);
+                sendNextBatch(drop);
+            } else {
+                ImageScaler.scale(droppedFiles, getState().imagePolicy, scaledFiles -> {
+                    Map<String, FileParameters> fileParams = accept(scaledFiles, null, validator, null);
+                    // request upload URLs for the accepted files
+                    if (!fileParams.isEmpty() && getState().contentHashing) {
+                        dropWithDigests(fileParams);
+                    } else if (!fileParams.isEmpty()) {
+                        getRpcProxy(FileDropTargetRpc.class).drop(fileParams);
+                    }
+                    // no-op if called synchronously, the RPCs are sent by the deferred flush below
+                    getConnection().getServerRpcQueue().flush();
+                });
+            }
+            event.preventDefault();
+            event.stopPropagation();
+        }
+        removeDragOverStyle(nativeEvent);
+
         Scheduler.get().scheduleDeferred(() -> {
             getConnection().getServerRpcQueue().flush();
         });
     }
 
-
-    @Override
-    public FileDropTargetAndSelectorState getState() {
-        return (FileDropTargetAndSelectorState) super.getState();
+    /**
+     * Validates the files, rejected files are reported to the server.
+     *
+     * @param paths relative paths of the files, or {@code null}
+     * @param relativePaths receives the relative paths of the accepted files mapped to their generated ID, if paths are given
+     * @return parameters of the accepted files, mapped to their generated ID
+     */
+    private Map<String, FileParameters> accept(List<File> files, List<String> paths, FileValidator validator, Map<String, String> relativePaths) {
+        Map<String, FileParameters> fileParams = new HashMap<>();
+        List<RejectedFile> rejectedFiles = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            long size = (long) file.getSize();
+            RejectionReason reason = validator.validate(file.getName(), size, file.getType());
+            if (reason != null) {
+                rejectedFiles.add(new RejectedFile(file.getName(), size, file.getType(), reason));
+                continue;
+            }
+            String id = String.valueOf(++fileId);
+            filesToUpload.put(id, file);
+            fileParams.put(id, new FileParameters(file.getName(), size, file.getType()));
+            if (paths != null) {
+                relativePaths.put(id, paths.get(i));
+            }
+        }
+        if (!rejectedFiles.isEmpty()) {
+            getRpcProxy(FileDropTargetAndSelectorRpc.class).reject(rejectedFiles);
+        }
+        return fileParams;
     }
 
-    private void registerClientSideLayoutClickListener(AbstractLayoutConnector connector) {
-        handlerRegistration = new OverridableLayoutClickEventHandler(connector, this).forceEventHandlerRegistration();
+    /**
+     * Sends the next batch of files of a drop, the following batch is sent when requested by the server.
+     */
+    private void sendNextBatch(StreamingDrop drop) {
+        drop.walker.next(getState().dropBatchSize, (listedFiles, last) -> {
+            List<File> files = new ArrayList<>();
+            for (int i = 0; i < listedFiles.length(); i++) {
+                files.add(listedFiles.get(i).getFile());
+            }
+            ImageScaler.scale(files, getState().imagePolicy, scaledFiles -> {
+                List<String> paths = new ArrayList<>();
+                for (int i = 0; i < listedFiles.length(); i++) {
+                    // a re-encoded image may have got another extension
+                    String path = listedFiles.get(i).getPath();
+                    paths.add(path.substring(0, path.lastIndexOf('/') + 1) + scaledFiles.get(i).getName());
+                }
+                sendBatch(drop, scaledFiles, paths, last);
+            });
+        });
     }
 
-    private void registerClientSideClickListener(ComponentConnector connector) {
-        Widget widget = connector.getWidget();
-        if (widget instanceof HasClickHandlers) {
-            handlerRegistration = ((HasClickHandlers) widget).addClickHandler(event -> {
-                if (connector.isEnabled()) {
-                    openFileChooser();
-                }
+    /**
+     * Validates a batch of files and sends it to the server.
+     */
+    private void sendBatch(StreamingDrop drop, List<File> files, List<String> paths, boolean last) {
+        Map<String, String> relativePaths = new HashMap<>();
+        Map<String, FileParameters> fileParams = accept(files, getState().directoryMode ? paths : null, drop.validator, relativePaths);
+        if (last) {
+            streamingDrops.remove(drop.id);
+        }
+        if (!fileParams.isEmpty() && getState().contentHashing) {
+            digest(fileParams, digests -> {
+                getRpcProxy(FileDropTargetAndSelectorRpc.class).dropBatch(drop.id, fileParams, digests, relativePaths, last);
+                getConnection().getServerRpcQueue().flush();
             });
+        } else {
+            getRpcProxy(FileDropTargetAndSelectorRpc.class).dropBatch(drop.id, fileParams, new HashMap<>(), relativePaths, last);
+            Scheduler.get().scheduleDeferred(() -> getConnection().getServerRpcQueue().flush());
         }
     }
 
-    private static class OverridableLayoutClickEventHandler extends LayoutClickEventHandler {
+    /**
+     * Hashes the accepted files before requesting their upload URLs, so the server can skip files it already has.
+     */
+    private void dropWithDigests(Map<String, FileParameters> fileParams) {
+        digest(fileParams, digests -> {
+            getRpcProxy(FileDropTargetAndSelectorRpc.class).dropWithDigests(fileParams, digests);
+            getConnection().getServerRpcQueue().flush();
+        });
+    }
 
-        private final FileDropTargetAndSelectorConnector selector;
-        private boolean forceRegistration = true;
+    private void digest(Map<String, FileParameters> fileParams, Consumer<Map<String, String>> callback) {
+        Map<String, File> files = new HashMap<>();
+        fileParams.keySet().forEach(id -> files.put(id, filesToUpload.get(id)));
+        DigestWorker.digest(files, callback);
+    }
 
-        public OverridableLayoutClickEventHandler(ComponentConnector connector, FileDropTargetAndSelectorConnector selector) {
-            super(connector);
-            this.selector = selector;
+    /**
+     * Shows the progress measured by the browser on the drop target: the class name {@code [primaryStyleName]-uploading} is set while files
+     * are uploaded, and the CSS variable {@code --upload-progress} holds the progress from 0 to 1.
+     */
+    private void showProgress(double bytesSent, double totalBytes) {
+        if (!getState().clientSideProgress) {
+            return;
         }
-
-        public HandlerRegistration forceEventHandlerRegistration() {
-            forceRegistration = true;
-            handleEventHandlerRegistration();
-            return () -> {
-                forceRegistration = false;
-                handleEventHandlerRegistration();
-            };
+        Element element = getDropTargetElement();
+        String styleName = target.getWidget().getStylePrimaryName() + STYLE_SUFFIX_UPLOADING;
+        if (totalBytes > 0) {
+            element.addClassName(styleName);
+            setStyleProperty(element, PROGRESS_PROPERTY, String.valueOf(Math.min(1, bytesSent / totalBytes)));
+        } else {
+            element.removeClassName(styleName);
+            removeStyleProperty(element, PROGRESS_PROPERTY);
         }
+    }
 
-        @Override
-        public boolean hasEventListener() {
-            return forceRegistration;
-        }
+    /**
+     * @return {@code true} if the file is of a compressible type and large enough to gain from compression
+     */
+    private boolean isCompressible(File file) {
+        List<String> compressedTypes = getState().compressedTypes;
+        return !compressedTypes.isEmpty() && file.getSize() >= MIN_COMPRESSED_SIZE && FileValidator.isAccepted(compressedTypes, file.getName(), file.getType());
+    }
 
-        @Override
-        protected ComponentConnector getChildComponent(com.google.gwt.user.client.Element element) {
-            return Util.getConnectorForElement(connector.getConnection(), connector.getWidget(), element);
-        }
+    private String translate(String url) {
+        return getConnection().translateVaadinUri(url);
+    }
 
-        @Override
-        protected void fireClick(NativeEvent event) {
-            if (connector.isEnabled()) {
-                selector.openFileChooser();
-            }
+    private void enqueue(String id, Function<File, UploadTask> taskFactory) {
+        awaitedDeltaUploads.remove(id);
+        File file = filesToUpload.remove(id);
+        if (file != null) {
+            uploadQueue.add(id, taskFactory.apply(file));
         }
+    }
 
-        @Override
-        protected LayoutClickRpc getLayoutClickRPC() {
-            return null;
-        }
+    /**
+     * Starts queued uploads, as soon as all upload URLs of the current response are enqueued (for ordering).
+     */
+    private void uploadNextFile() {
+        Scheduler.get().scheduleDeferred(uploadQueue::startUploads);
     }
 
-    private void openFileChooser() {
-        appendFileUpload();
-        fileUpload.click();
+    @Override
+    public FileDropTargetAndSelectorState getState() {
+        return (FileDropTargetAndSelectorState) super.getState();
     }
 
-    private void appendFileUpload() {
-        if (fileUpload != null) {
-            // remove old file input element (reset won't work) - needed in case same file must be uploaded twice
-            // intentionally use js native functions instead of GWT's #removeFromParent because parent got lost in some cases
-            removeElement(fileUpload.getElement());
+    /**
+     * Files of a drop, which are sent to the server in batches.
+     */
+    private static class StreamingDrop {
+
+        private final int id;
+        private final DirectoryWalker walker;
+        private final FileValidator validator;
+
+        private StreamingDrop(int id, DirectoryWalker walker, FileValidator validator) {
+            this.id = id;
+            this.walker = walker;
+            this.validator = validator;
         }
-        fileUpload = GWT.create(FileUpload.class);
-        fileUpload.getElement().setAttribute("style", "display:none");
-        setMultiple();
-        addOnChangeEventHandler(fileUpload.getElement(), this);
+    }
 
-        target.getWidget().getElement().appendChild(fileUpload.getElement());
+    private void openFileChooser() {
+        List<String> acceptedTypes = getState().acceptedTypes;
+        PageDropManager.openFileChooser(this, getState().multiple, getState().directoryMode,
+                                        acceptedTypes.isEmpty() ? null : String.join(",", acceptedTypes));
     }
 
-    private native void addOnChangeEventHandler(Element element, FileDropTargetAndSelectorConnector instance)
+    /**
+     * @return the file system entries of the dropped items (files and folders), or {@code null} if not supported, e.g. for selected files
+     */
+    private native JsArray<JavaScriptObject> getEntries(DataTransfer dataTransfer)
         /*-{
-            element.onchange = function () {
-                var nativeEvent = {
-                    "dataTransfer": {"files": element.files},
-                    "preventDefault": function () {
-                    },
-                    "stopPropagation": function () {
-                    }
-                };
-                instance.@net.g24.client.FileDropTargetAndSelectorConnector::onDragEnter(Lelemental/events/Event;)(nativeEvent);
-                instance.@net.g24.client.FileDropTargetAndSelectorConnector::onDrop(Lelemental/events/Event;)(nativeEvent);
-            };
+            if (!dataTransfer.items) {
+                return null;
+            }
+            var entries = [];
+            for (var i = 0; i < dataTransfer.items.length; i++) {
+                var item = dataTransfer.items[i];
+                if (item.kind == "file") {
+                    var entry = typeof item.webkitGetAsEntry == "function" ? item.webkitGetAsEntry() : null;
+                    entries.push(entry || item.getAsFile());
+                }
+            }
+            return entries;
         }-*/;
 
-    private native void removeElement(Element element)
+    private native FileList getFiles(DataTransfer dataTransfer)
         /*-{
-            if (element) {
-                if (element.remove) {
-                    element.remove();
-                    return;
-                }
-                if (element.parentNode !== null) {
-                    element.parentNode.removeChild(element);
+            return dataTransfer.files;
+        }-*/;
+
+    /**
+     * Checks whether the file on the given index is indeed a file or a folder, see Vaadin's FileDropTargetConnector.
+     */
+    private native boolean isFile(File file, int fileIndex, DataTransfer dataTransfer)
+        /*-{
+            if (dataTransfer.items) {
+                var item = dataTransfer.items[fileIndex];
+                if (item && typeof item.webkitGetAsEntry == "function") {
+                    var entry = item.webkitGetAsEntry();
+                    if (typeof entry !== "undefined" && entry !== null) {
+                        return entry.isFile;
+                    }
                 }
             }
+            // zero sized files without a type are also likely to be folders
+            return !(file.size == 0 && !file.type);
+        }-*/;
+
+    private native void setStyleProperty(Element element, String name, String value)
+        /*-{
+            element.style.setProperty(name, value);
+        }-*/;
+
+    private native void removeStyleProperty(Element element, String name)
+        /*-{
+            element.style.removeProperty(name);
         }-*/;
 }
@@ -0,0 +1,36 @@
+package net.g24.client;
+
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.shared.communication.ServerRpc;
+import com.vaadin.shared.ui.dnd.FileParameters;
+
+public interface FileDropTargetAndSelectorRpc extends ServerRpc {
+
+    /**
+     * Called when files of a drop or selection are rejected by client-side pre-flight validation.
+     */
+    void reject(List<RejectedFile> files);
+
+    /**
+     * Called instead of {@code FileDropTargetRpc#drop} in content hashing mode.
+     *
+     * @param fileParams parameters of the accepted files, mapped to the file IDs
+     * @param digests SHA-256 digests (lower case hex) mapped to the file IDs, files which could not be hashed are missing
+     */
+    void dropWithDigests(Map<String, FileParameters> fileParams, Map<String, String> digests);
+
+    /**
+     * Called per batch of a drop, if files are delivered in batches. The next batch is sent when requested by
+     * {@link FileDropTargetAndSelectorClientRpc#requestNextBatches(List)}.
+     *
+     * @param dropId ID of the drop, unique per connector
+     * @param fileParams parameters of the accepted files of the batch, mapped to the file IDs
+     * @param digests SHA-256 digests mapped to the file IDs in content hashing mode, otherwise empty
+     * @param relativePaths paths relative to the dropped or selected folder mapped to the file IDs in directory mode, otherwise empty
+     * @param last {@code true} if no more batches follow
+     */
+    void dropBatch(int dropId, Map<String, FileParameters> fileParams, Map<String, String> digests, Map<String, String> relativePaths,
+        boolean last);
+}
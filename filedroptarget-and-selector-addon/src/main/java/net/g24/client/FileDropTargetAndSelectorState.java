@@ -1,9 +1,32 @@
 package net.g24.client;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.vaadin.shared.Connector;
 import com.vaadin.shared.ui.dnd.FileDropTargetState;
 
 public class FileDropTargetAndSelectorState extends FileDropTargetState {
+
+    /**
+     * Request header marking uploads sent compressed, with the value {@code gzip}.
+     */
+    public static final String CONTENT_ENCODING_HEADER = "X-Upload-Content-Encoding";
+
     public boolean multiple;
     public Connector buttonRole;
+    public int chunkSize;
+    public int parallelChunks = 4;
+    public int maxConcurrentUploads = 2;
+    public UploadOrder uploadOrder = UploadOrder.FIFO;
+    public long maxFileSize;
+    public long maxTotalSize;
+    public int maxFiles;
+    public List<String> acceptedTypes = new ArrayList<>();
+    public boolean clientSideProgress;
+    public boolean contentHashing;
+    public int dropBatchSize;
+    public boolean directoryMode;
+    public ImagePolicy imagePolicy;
+    public List<String> compressedTypes = new ArrayList<>();
 }
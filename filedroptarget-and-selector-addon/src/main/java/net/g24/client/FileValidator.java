@@ -0,0 +1,70 @@
+package net.g24.client;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Pre-flight validation of the files of a single drop or selection against the limits of a {@link FileDropTargetAndSelectorState}. Used
+ * client-side, so rejected files never hit the wire, as well as server-side.
+ */
+public class FileValidator implements Serializable {
+
+    private final FileDropTargetAndSelectorState state;
+    private int acceptedFiles;
+    private long acceptedSize;
+
+    public FileValidator(FileDropTargetAndSelectorState state) {
+        this.state = state;
+    }
+
+    /**
+     * Validates the next file of a drop or selection.
+     *
+     * @return the reason why the file is rejected, or {@code null} if it is accepted
+     */
+    public RejectionReason validate(String name, long size, String mime) {
+        if (!isAccepted(state.acceptedTypes, name, mime)) {
+            return RejectionReason.TYPE_NOT_ACCEPTED;
+        }
+        if (state.maxFileSize > 0 && size > state.maxFileSize) {
+            return RejectionReason.FILE_TOO_LARGE;
+        }
+        int maxFiles = state.multiple ? state.maxFiles : 1;
+        if (maxFiles > 0 && acceptedFiles >= maxFiles) {
+            return RejectionReason.TOO_MANY_FILES;
+        }
+        if (state.maxTotalSize > 0 && acceptedSize + size > state.maxTotalSize) {
+            return RejectionReason.TOTAL_SIZE_EXCEEDED;
+        }
+        acceptedFiles++;
+        acceptedSize += size;
+        return null;
+    }
+
+    /**
+     * Matches a file against accepted types in the syntax of the {@code accept} attribute of a file input, i.e. file extensions (e.g.
+     * {@code .pdf}), MIME types (e.g. {@code application/pdf}) or MIME type wildcards (e.g. {@code image/*}).
+     */
+    public static boolean isAccepted(List<String> acceptedTypes, String name, String mime) {
+        if (acceptedTypes == null || acceptedTypes.isEmpty()) {
+            return true;
+        }
+        String lowerName = name == null ? "" : name.toLowerCase();
+        String lowerMime = mime == null ? "" : mime.toLowerCase();
+        for (String acceptedType : acceptedTypes) {
+            String type = acceptedType.trim().toLowerCase();
+            if (type.startsWith(".")) {
+                if (lowerName.endsWith(type)) {
+                    return true;
+                }
+            } else if (type.endsWith("/*")) {
+                if (lowerMime.startsWith(type.substring(0, type.length() - 1))) {
+                    return true;
+                }
+            } else if (type.equals(lowerMime)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,62 @@
+package net.g24.client;
+
+import java.io.Serializable;
+
+/**
+ * Client-side downscaling and re-encoding of images before upload: images larger than the max. dimensions are scaled down, keeping their
+ * aspect ratio, and encoded in the given type and quality. See {@link net.g24.FileDropTargetAndSelector#setImagePolicy(ImagePolicy)}.
+ */
+public class ImagePolicy implements Serializable {
+    private int maxWidth;
+    private int maxHeight;
+    private String type;
+    private double quality = 0.85;
+
+    public ImagePolicy() {
+    }
+
+    /**
+     * @param maxWidth max. width in pixels, {@code 0} for no limit
+     * @param maxHeight max. height in pixels, {@code 0} for no limit
+     * @param type MIME type of the re-encoded images, e.g. {@code image/jpeg} or {@code image/webp}, {@code null} to keep the type
+     * @param quality quality of lossy types from 0 to 1
+     */
+    public ImagePolicy(int maxWidth, int maxHeight, String type, double quality) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.type = type;
+        this.quality = quality;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public void setMaxWidth(int maxWidth) {
+        this.maxWidth = maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public void setMaxHeight(int maxHeight) {
+        this.maxHeight = maxHeight;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public double getQuality() {
+        return quality;
+    }
+
+    public void setQuality(double quality) {
+        this.quality = quality;
+    }
+}
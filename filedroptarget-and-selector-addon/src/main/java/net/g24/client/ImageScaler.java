@@ -0,0 +1,161 @@
+package net.g24.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import elemental.html.File;
+
+/**
+ * Applies an {@link ImagePolicy} to the images of a drop or selection in a web worker ({@code image-worker.js} of the widgetset), so
+ * decoding and encoding large photos does not block the UI thread. The images are processed one after the other, so only a single decoded
+ * image is held in memory.
+ * <p>
+ * Scaling is best effort: if web workers, {@code OffscreenCanvas} or {@code createImageBitmap} are not supported or an image cannot be
+ * decoded, the original file is kept.
+ */
+class ImageScaler {
+
+    private static final String SCRIPT = "image-worker.js";
+
+    private final List<File> files;
+    private final ImagePolicy policy;
+    private final Consumer<List<File>> callback;
+    private JavaScriptObject worker;
+    private int index = -1;
+
+    private ImageScaler(List<File> files, ImagePolicy policy, Consumer<List<File>> callback) {
+        this.files = new ArrayList<>(files);
+        this.policy = policy;
+        this.callback = callback;
+    }
+
+    /**
+     * Scales the images of given files. The callback is called synchronously, if there are no images to scale.
+     *
+     * @param callback receives the files in the same order, images replaced by their scaled version
+     */
+    static void scale(List<File> files, ImagePolicy policy, Consumer<List<File>> callback) {
+        if (policy == null || files.stream().noneMatch(ImageScaler::isScalable)) {
+            callback.accept(files);
+            return;
+        }
+        ImageScaler scaler = new ImageScaler(files, policy, callback);
+        scaler.worker = createWorker(GWT.getModuleBaseURL() + SCRIPT, scaler);
+        if (scaler.worker == null) {
+            callback.accept(files);
+            return;
+        }
+        scaler.scaleNext();
+    }
+
+    /**
+     * @return {@code true} for image types which can be drawn to a canvas, not animated or vector images
+     */
+    private static boolean isScalable(File file) {
+        String type = file.getType();
+        return type != null && type.startsWith("image/") && !type.equals("image/gif") && !type.startsWith("image/svg");
+    }
+
+    private void scaleNext() {
+        while (++index < files.size()) {
+            File file = files.get(index);
+            if (isScalable(file)) {
+                postMessage(worker, file, policy.getMaxWidth(), policy.getMaxHeight(), policy.getType(), policy.getQuality());
+                return;
+            }
+        }
+        terminate(worker);
+        worker = null;
+        callback.accept(files);
+    }
+
+    private void onScaled(JavaScriptObject blob) {
+        if (worker == null) {
+            return;
+        }
+        if (blob != null) {
+            File file = files.get(index);
+            File scaled = createFile(blob, getName(file.getName(), getType(blob)), file);
+            if (scaled != null) {
+                files.set(index, scaled);
+            }
+        }
+        scaleNext();
+    }
+
+    /**
+     * @return the name with the extension of given type, if the type got changed
+     */
+    private static String getName(String name, String type) {
+        String extension;
+        switch (type) {
+            case "image/jpeg":
+                extension = ".jpg";
+                break;
+            case "image/png":
+                extension = ".png";
+                break;
+            case "image/webp":
+                extension = ".webp";
+                break;
+            default:
+                return name;
+        }
+        String lowerName = name.toLowerCase();
+        if (lowerName.endsWith(extension) || extension.equals(".jpg") && lowerName.endsWith(".jpeg")) {
+            return name;
+        }
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + extension;
+    }
+
+    private static native JavaScriptObject createWorker(String url, ImageScaler instance)
+        /*-{
+            if (!$wnd.Worker) {
+                return null;
+            }
+            try {
+                var worker = new $wnd.Worker(url);
+                worker.onmessage = $entry(function (event) {
+                    instance.@net.g24.client.ImageScaler::onScaled(Lcom/google/gwt/core/client/JavaScriptObject;)(event.data.blob || null);
+                });
+                worker.onerror = $entry(function (event) {
+                    event.preventDefault();
+                    instance.@net.g24.client.ImageScaler::onScaled(Lcom/google/gwt/core/client/JavaScriptObject;)(null);
+                });
+                return worker;
+            } catch (e) {
+                return null;
+            }
+        }-*/;
+
+    private static native void postMessage(JavaScriptObject worker, File file, int maxWidth, int maxHeight, String type, double quality)
+        /*-{
+            worker.postMessage({file: file, maxWidth: maxWidth, maxHeight: maxHeight, type: type, quality: quality});
+        }-*/;
+
+    /**
+     * @return the blob as file, {@code null} if the {@code File} constructor is not supported
+     */
+    private static native File createFile(JavaScriptObject blob, String name, File original)
+        /*-{
+            try {
+                return new $wnd.File([blob], name, {type: blob.type, lastModified: original.lastModified});
+            } catch (e) {
+                return null;
+            }
+        }-*/;
+
+    private static native String getType(JavaScriptObject blob)
+        /*-{
+            return blob.type;
+        }-*/;
+
+    private static native void terminate(JavaScriptObject worker)
+        /*-{
+            worker.terminate();
+        }-*/;
+}
@@ -0,0 +1,187 @@
+package net.g24.client;
+
+import com.google.gwt.dom.client.Element;
+import elemental.events.Event;
+
+/**
+ * Event handling shared by all drop targets of the page. Instead of permanent listeners per drop target and button role, a single listener
+ * per event type on the document routes drag and drop events and clicks to the connector of the nearest registered ancestor of the event
+ * target. The connector is kept as property of its element, so registering a drop target neither adds listeners nor DOM nodes. File
+ * choosers are opened by a single hidden file input, which is re-created on each opening, so the same files can be selected twice.
+ * <p>
+ * The document listens in the capture phase, i.e. before any element, and only arms a one-shot listener on each registered ancestor of the
+ * event target. A connector handles the event when it bubbles through its element, exactly like a permanent listener on the element would:
+ * drop targets nested in the element (e.g. a {@code GridDropTarget}) get the event first, and Vaadin's drop targets around the element or
+ * other ancestors stopping the propagation do not hide the event. A listener left armed because the propagation stopped below its element
+ * is removed by the next event of its type.
+ */
+final class PageDropManager {
+
+    private static final String DROP_TARGET_PROPERTY = "__g24DropTarget";
+    private static final String BUTTON_ROLE_PROPERTY = "__g24ButtonRole";
+
+    private static boolean listening;
+    private static Element fileInput;
+
+    private PageDropManager() {
+    }
+
+    /**
+     * Routes the drag and drop events of given element (and its descendants) to the connector.
+     */
+    static void registerDropTarget(Element element, FileDropTargetAndSelectorConnector connector) {
+        listen();
+        setConnector(element, DROP_TARGET_PROPERTY, connector);
+    }
+
+    static void unregisterDropTarget(Element element, FileDropTargetAndSelectorConnector connector) {
+        removeConnector(element, DROP_TARGET_PROPERTY, connector);
+    }
+
+    /**
+     * Routes the clicks on given element (and its descendants) to the connector, which opens its file chooser.
+     */
+    static void registerButtonRole(Element element, FileDropTargetAndSelectorConnector connector) {
+        listen();
+        setConnector(element, BUTTON_ROLE_PROPERTY, connector);
+    }
+
+    static void unregisterButtonRole(Element element, FileDropTargetAndSelectorConnector connector) {
+        removeConnector(element, BUTTON_ROLE_PROPERTY, connector);
+    }
+
+    /**
+     * Opens the file chooser, the selected files are passed to given connector like a drop. Must be called while handling a user gesture.
+     *
+     * @param accept value of the {@code accept} attribute, {@code null} for any type
+     */
+    static void openFileChooser(FileDropTargetAndSelectorConnector connector, boolean multiple, boolean directoryMode, String accept) {
+        if (fileInput != null) {
+            // reset won't work in all browsers, the same files must be selectable again
+            removeElement(fileInput);
+        }
+        fileInput = createFileInput(multiple, directoryMode, accept, connector);
+        click(fileInput);
+    }
+
+    private static void listen() {
+        if (!listening) {
+            listening = true;
+            addListeners(DROP_TARGET_PROPERTY, BUTTON_ROLE_PROPERTY);
+        }
+    }
+
+    private static void onDragEvent(FileDropTargetAndSelectorConnector connector, Event event) {
+        connector.onDelegatedDragEvent(event);
+    }
+
+    private static void onButtonRoleClick(FileDropTargetAndSelectorConnector connector) {
+        connector.onButtonRoleClick();
+    }
+
+    private static void onFilesSelected(FileDropTargetAndSelectorConnector connector, Event event) {
+        connector.onFilesSelected(event);
+    }
+
+    private static native void addListeners(String dropTargetProperty, String buttonRoleProperty)
+        /*-{
+            // the one-shot listeners armed per event type, each for a single event
+            var armed = {};
+            var disarm = function (type, listener) {
+                listener.element.removeEventListener(type, listener, false);
+                armed[type].splice(armed[type].indexOf(listener), 1);
+            };
+            var armElement = function (type, element, property, event, handle) {
+                var listener = $entry(function (bubblingEvent) {
+                    disarm(type, listener);
+                    // the element may have been unregistered meanwhile
+                    if (bubblingEvent === event && element[property]) {
+                        handle(element[property], event);
+                    }
+                });
+                listener.element = element;
+                listener.event = event;
+                armed[type].push(listener);
+                element.addEventListener(type, listener, false);
+            };
+            var listen = function (type, property, handle) {
+                armed[type] = [];
+                $doc.addEventListener(type, function (event) {
+                    // listeners of events whose dispatch ended, i.e. the propagation stopped below the element
+                    armed[type].filter(function (listener) {
+                        return listener.event.eventPhase === 0;
+                    }).forEach(function (listener) {
+                        disarm(type, listener);
+                    });
+                    // like listeners on the elements, the nearest gets the event first when it bubbles
+                    for (var node = event.target; node; node = node.parentNode) {
+                        if (node[property]) {
+                            armElement(type, node, property, event, handle);
+                        }
+                    }
+                }, true);
+            };
+            ["dragenter", "dragover", "dragleave", "drop"].forEach(function (type) {
+                listen(type, dropTargetProperty, function (connector, event) {
+                    @net.g24.client.PageDropManager::onDragEvent(*)(connector, event);
+                });
+            });
+            listen("click", buttonRoleProperty, function (connector, event) {
+                @net.g24.client.PageDropManager::onButtonRoleClick(*)(connector);
+            });
+        }-*/;
+
+    private static native Element createFileInput(boolean multiple, boolean directoryMode, String accept,
+        FileDropTargetAndSelectorConnector connector)
+        /*-{
+            var input = $doc.createElement("input");
+            input.type = "file";
+            input.style.display = "none";
+            input.multiple = multiple;
+            if (directoryMode) {
+                input.setAttribute("webkitdirectory", "");
+            }
+            if (accept) {
+                input.accept = accept;
+            }
+            input.onchange = $entry(function () {
+                var nativeEvent = {
+                    "dataTransfer": {"files": input.files},
+                    "preventDefault": function () {
+                    },
+                    "stopPropagation": function () {
+                    }
+                };
+                @net.g24.client.PageDropManager::onFilesSelected(*)(connector, nativeEvent);
+            });
+            $doc.body.appendChild(input);
+            return input;
+        }-*/;
+
+    private static native void setConnector(Element element, String property, FileDropTargetAndSelectorConnector connector)
+        /*-{
+            element[property] = connector;
+        }-*/;
+
+    private static native void removeConnector(Element element, String property, FileDropTargetAndSelectorConnector connector)
+        /*-{
+            if (element && element[property] === connector) {
+                delete element[property];
+            }
+        }-*/;
+
+    private static native void click(Element element)
+        /*-{
+            element.click();
+        }-*/;
+
+    private static native void removeElement(Element element)
+        /*-{
+            // intentionally native instead of GWT's #removeFromParent, the parent got lost in some cases
+            if (element.remove) {
+                element.remove();
+            } else if (element.parentNode) {
+                element.parentNode.removeChild(element);
+            }
+        }-*/;
+}
@@ -0,0 +1,55 @@
+package net.g24.client;
+
+import java.io.Serializable;
+
+/**
+ * Parameters of a file rejected by pre-flight validation.
+ */
+public class RejectedFile implements Serializable {
+    private String name;
+    private long size;
+    private String mime;
+    private RejectionReason reason;
+
+    public RejectedFile() {
+    }
+
+    public RejectedFile(String name, long size, String mime, RejectionReason reason) {
+        this.name = name;
+        this.size = size;
+        this.mime = mime;
+        this.reason = reason;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public String getMime() {
+        return mime;
+    }
+
+    public void setMime(String mime) {
+        this.mime = mime;
+    }
+
+    public RejectionReason getReason() {
+        return reason;
+    }
+
+    public void setReason(RejectionReason reason) {
+        this.reason = reason;
+    }
+}
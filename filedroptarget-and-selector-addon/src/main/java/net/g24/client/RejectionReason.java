@@ -0,0 +1,23 @@
+package net.g24.client;
+
+/**
+ * Reason why a dropped or selected file was rejected before uploading it.
+ */
+public enum RejectionReason {
+    /**
+     * Type of the file does not match any of the accepted types.
+     */
+    TYPE_NOT_ACCEPTED,
+    /**
+     * File exceeds the max. file size.
+     */
+    FILE_TOO_LARGE,
+    /**
+     * File exceeds the max. number of files (also in single mode).
+     */
+    TOO_MANY_FILES,
+    /**
+     * File exceeds the max. total size of all files of a drop.
+     */
+    TOTAL_SIZE_EXCEEDED
+}
@@ -0,0 +1,146 @@
+package net.g24.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.xhr.client.XMLHttpRequest;
+import elemental.html.File;
+
+/**
+ * Posts a file as a whole, either as multipart form data to its stream variable URL, or as raw request body.
+ * <p>
+ * Compressible files may be sent gzip compressed by the browser's {@code CompressionStream}, the server inflates them before they reach the
+ * stream variable. The compressed content is sent only if it is smaller, and only if the browser supports compression streams.
+ */
+class SingleUploadTask implements UploadTask {
+
+    private final File file;
+    private final String url;
+    private final boolean raw;
+    private final boolean compress;
+    private UploadXHR xhr;
+    private double bytesSent;
+    private boolean aborted;
+    private Runnable onDone;
+    private Runnable onProgress;
+
+    /**
+     * @param compress {@code true} to send the file gzip compressed
+     */
+    SingleUploadTask(File file, String url, boolean raw, boolean compress) {
+        this.file = file;
+        this.url = url;
+        this.raw = raw;
+        this.compress = compress;
+    }
+
+    @Override
+    public double getSize() {
+        return file.getSize();
+    }
+
+    @Override
+    public double getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public void start(Runnable onDone, Runnable onProgress) {
+        this.onDone = onDone;
+        this.onProgress = onProgress;
+        if (!compress || !compress(file, this)) {
+            send(null);
+        }
+    }
+
+    private void onCompressed(JavaScriptObject compressed) {
+        if (!aborted) {
+            send(compressed != null && getSize(compressed) < file.getSize() ? compressed : null);
+        }
+    }
+
+    /**
+     * @param compressed the gzip compressed content, {@code null} to send the file as it is
+     */
+    private void send(JavaScriptObject compressed) {
+        double bodySize = compressed != null ? getSize(compressed) : file.getSize();
+        xhr = UploadXHR.createUploadXHR();
+        xhr.setOnReadyStateChange(xmlHttpRequest -> {
+            if (xmlHttpRequest.getReadyState() == XMLHttpRequest.DONE) {
+                xmlHttpRequest.clearOnReadyStateChange();
+                if (xmlHttpRequest.getStatus() == UploadXHR.STATUS_SERVICE_UNAVAILABLE) {
+                    retryLater(compressed, UploadXHR.getRetryDelay(xmlHttpRequest));
+                    return;
+                }
+                bytesSent = file.getSize();
+                onDone.run();
+            }
+        });
+        xhr.setOnUploadProgress(loaded -> {
+            // multipart overhead is not part of the file, compressed bytes count in proportion
+            bytesSent = bodySize > 0 ? file.getSize() * Math.min(1, loaded / bodySize) : 0;
+            onProgress.run();
+        });
+        xhr.open("POST", url);
+        if (compressed != null) {
+            xhr.setRequestHeader(FileDropTargetAndSelectorState.CONTENT_ENCODING_HEADER, "gzip");
+        }
+        if (raw) {
+            xhr.sendBlob(compressed != null ? compressed : (JavaScriptObject) file);
+        } else if (compressed != null) {
+            xhr.postBlob(compressed, file.getName());
+        } else {
+            xhr.postFile(file);
+        }
+    }
+
+    /**
+     * Posts the file again after given delay, the server did not admit the upload yet.
+     */
+    private void retryLater(JavaScriptObject compressed, int delayMillis) {
+        xhr = null;
+        bytesSent = 0;
+        onProgress.run();
+        UploadTask.schedule(() -> {
+            if (!aborted) {
+                send(compressed);
+            }
+        }, delayMillis);
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+        if (xhr != null) {
+            xhr.clearOnReadyStateChange();
+            xhr.abort();
+            xhr = null;
+        }
+    }
+
+    /**
+     * Compresses the file asynchronously.
+     *
+     * @return {@code false} if compression streams are not supported
+     */
+    private static native boolean compress(File file, SingleUploadTask task)
+        /*-{
+            if (!$wnd.CompressionStream || !$wnd.Response || typeof file.stream != "function") {
+                return false;
+            }
+            try {
+                var stream = file.stream().pipeThrough(new $wnd.CompressionStream("gzip"));
+                new $wnd.Response(stream).blob().then($entry(function (blob) {
+                    task.@net.g24.client.SingleUploadTask::onCompressed(Lcom/google/gwt/core/client/JavaScriptObject;)(blob);
+                }), $entry(function () {
+                    task.@net.g24.client.SingleUploadTask::onCompressed(Lcom/google/gwt/core/client/JavaScriptObject;)(null);
+                }));
+                return true;
+            } catch (e) {
+                return false;
+            }
+        }-*/;
+
+    private static native double getSize(JavaScriptObject blob)
+        /*-{
+            return blob.size;
+        }-*/;
+}
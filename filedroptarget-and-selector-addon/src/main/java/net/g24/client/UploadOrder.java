@@ -0,0 +1,19 @@
+package net.g24.client;
+
+/**
+ * Order in which queued files are uploaded.
+ */
+public enum UploadOrder {
+    /**
+     * Files are uploaded in the order they were dropped or selected.
+     */
+    FIFO,
+    /**
+     * Smallest files are uploaded first, so many small files finish quickly while big ones trickle in.
+     */
+    SMALLEST_FIRST,
+    /**
+     * Largest files are uploaded first.
+     */
+    LARGEST_FIRST
+}
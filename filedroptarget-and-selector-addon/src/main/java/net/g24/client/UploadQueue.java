@@ -0,0 +1,144 @@
+package net.g24.client;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Client-side queue of uploads with bounded concurrency. Keeps the number of parallel uploads below the browser's per-host connection limit,
+ * so regular UIDL requests are not stalled by uploads.
+ * <p>
+ * The overall progress of all uploads, as measured by the browser, is reported to the {@link ProgressHandler}. Totals are reset as soon as
+ * the queue gets idle.
+ */
+class UploadQueue {
+
+    private final Runnable onUploadDone;
+    private final ProgressHandler progressHandler;
+    private PriorityQueue<Entry> queue = new PriorityQueue<>(11, createComparator(UploadOrder.FIFO));
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int maxConcurrentUploads = 1;
+    private int running;
+    private long sequence;
+    private double totalBytes;
+    private double completedBytes;
+
+    /**
+     * @param onUploadDone called each time an upload is done
+     * @param progressHandler receives the overall progress
+     */
+    UploadQueue(Runnable onUploadDone, ProgressHandler progressHandler) {
+        this.onUploadDone = onUploadDone;
+        this.progressHandler = progressHandler;
+    }
+
+    void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = Math.max(1, maxConcurrentUploads);
+        startUploads();
+    }
+
+    void setOrder(UploadOrder order) {
+        PriorityQueue<Entry> reordered = new PriorityQueue<>(11, createComparator(order));
+        reordered.addAll(queue);
+        queue = reordered;
+    }
+
+    void add(String id, UploadTask task) {
+        Entry entry = new Entry(task, sequence++);
+        entries.put(id, entry);
+        queue.add(entry);
+        totalBytes += task.getSize();
+        updateProgress();
+    }
+
+    /**
+     * Removes the upload of given file ID from the queue, or aborts it if already running.
+     */
+    void cancel(String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        completedBytes += entry.task.getSize();
+        if (queue.remove(entry)) {
+            updateProgress();
+            return;
+        }
+        entry.task.abort();
+        uploadDone();
+    }
+
+    /**
+     * Starts queued uploads as long as the max. number of concurrent uploads is not reached.
+     */
+    void startUploads() {
+        while (running < maxConcurrentUploads && !queue.isEmpty()) {
+            running++;
+            Entry entry = queue.poll();
+            entry.started = true;
+            entry.task.start(() -> {
+                if (entries.values().remove(entry)) {
+                    completedBytes += entry.task.getSize();
+                    uploadDone();
+                }
+            }, this::updateProgress);
+        }
+    }
+
+    private void uploadDone() {
+        running--;
+        onUploadDone.run();
+        startUploads();
+        updateProgress();
+    }
+
+    private void updateProgress() {
+        if (entries.isEmpty()) {
+            totalBytes = 0;
+            completedBytes = 0;
+            progressHandler.onProgress(0, 0);
+            return;
+        }
+        double bytesSent = completedBytes;
+        for (Entry entry : entries.values()) {
+            if (entry.started) {
+                bytesSent += entry.task.getBytesSent();
+            }
+        }
+        progressHandler.onProgress(bytesSent, totalBytes);
+    }
+
+    private static Comparator<Entry> createComparator(UploadOrder order) {
+        Comparator<Entry> fifo = (a, b) -> Long.compare(a.sequence, b.sequence);
+        if (order == UploadOrder.SMALLEST_FIRST) {
+            return ((Comparator<Entry>) (a, b) -> Double.compare(a.task.getSize(), b.task.getSize())).thenComparing(fifo);
+        }
+        if (order == UploadOrder.LARGEST_FIRST) {
+            return ((Comparator<Entry>) (a, b) -> Double.compare(b.task.getSize(), a.task.getSize())).thenComparing(fifo);
+        }
+        return fifo;
+    }
+
+    private static class Entry {
+
+        private final UploadTask task;
+        private final long sequence;
+        private boolean started;
+
+        private Entry(UploadTask task, long sequence) {
+            this.task = task;
+            this.sequence = sequence;
+        }
+    }
+
+    @FunctionalInterface
+    interface ProgressHandler {
+
+        /**
+         * @param bytesSent number of bytes of all uploads sent so far
+         * @param totalBytes number of bytes of all uploads, {@code 0} if there are no uploads anymore
+         */
+        void onProgress(double bytesSent, double totalBytes);
+    }
+}
@@ -0,0 +1,44 @@
+package net.g24.client;
+
+import com.google.gwt.user.client.Timer;
+
+/**
+ * Client-side upload of a single file.
+ */
+interface UploadTask {
+
+    /**
+     * @return size of the file in bytes
+     */
+    double getSize();
+
+    /**
+     * @return number of bytes sent so far, measured by the browser
+     */
+    double getBytesSent();
+
+    /**
+     * Starts the upload.
+     *
+     * @param onDone called as soon as the upload finished, failed or was aborted
+     * @param onProgress called each time the browser reports progress
+     */
+    void start(Runnable onDone, Runnable onProgress);
+
+    /**
+     * Aborts the running upload, the remaining bytes are not sent. The {@code onDone} callback is not called anymore.
+     */
+    void abort();
+
+    /**
+     * Runs given runnable once after given delay.
+     */
+    static void schedule(Runnable runnable, int delayMillis) {
+        new Timer() {
+            @Override
+            public void run() {
+                runnable.run();
+            }
+        }.schedule(delayMillis);
+    }
+}
@@ -0,0 +1,92 @@
+package net.g24.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.xhr.client.XMLHttpRequest;
+import elemental.html.File;
+
+/**
+ * XHR that is used for uploading files or chunks of files to the server.
+ */
+class UploadXHR extends XMLHttpRequest {
+
+    /**
+     * Status of an upload that is not admitted by the server yet, see {@code UploadGovernor}.
+     */
+    static final int STATUS_SERVICE_UNAVAILABLE = 503;
+
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+    protected UploadXHR() {
+    }
+
+    static UploadXHR createUploadXHR() {
+        return (UploadXHR) XMLHttpRequest.create();
+    }
+
+    /**
+     * @return the delay requested by the {@code Retry-After} header of a rejected upload in milliseconds, extended randomly by up to half,
+     *         so the rejected clients do not retry at the same time
+     */
+    static int getRetryDelay(XMLHttpRequest xhr) {
+        int seconds = DEFAULT_RETRY_AFTER_SECONDS;
+        String retryAfter = xhr.getResponseHeader("Retry-After");
+        if (retryAfter != null) {
+            try {
+                seconds = Math.max(1, Integer.parseInt(retryAfter.trim()));
+            } catch (NumberFormatException e) {
+                // e.g. an HTTP date, use the default
+            }
+        }
+        return (int) (seconds * 1000 * (1 + Math.random() / 2));
+    }
+
+    /**
+     * Posts the file as multipart form data, see Vaadin's FileDropTargetConnector.
+     */
+    public final native void postFile(File file)
+        /*-{
+            var formData = new $wnd.FormData();
+            formData.append("File", file);
+            this.send(formData);
+        }-*/;
+
+    /**
+     * Posts the blob (e.g. the compressed content of a file) as multipart form data with given file name.
+     */
+    public final native void postBlob(JavaScriptObject blob, String name)
+        /*-{
+            var formData = new $wnd.FormData();
+            formData.append("File", blob, name);
+            this.send(formData);
+        }-*/;
+
+    /**
+     * Sends the blob (e.g. a slice of a file) as raw request body.
+     */
+    public final native void sendBlob(JavaScriptObject blob)
+        /*-{
+            this.setRequestHeader("Content-Type", "application/octet-stream");
+            this.send(blob);
+        }-*/;
+
+    /**
+     * Sets the handler of the upload progress ({@code xhr.upload.onprogress}), called with the number of bytes sent so far.
+     */
+    public final native void setOnUploadProgress(UploadProgressHandler handler)
+        /*-{
+            this.upload.onprogress = $entry(function (event) {
+                handler.@net.g24.client.UploadXHR.UploadProgressHandler::onProgress(D)(event.loaded);
+            });
+        }-*/;
+
+    static native JavaScriptObject slice(File file, double start, double end)
+        /*-{
+            return file.slice(start, end);
+        }-*/;
+
+    @FunctionalInterface
+    interface UploadProgressHandler {
+
+        void onProgress(double bytesSent);
+    }
+}
@@ -0,0 +1,520 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.NoOutputStreamException;
+import com.vaadin.server.RequestHandler;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinServletRequest;
+import com.vaadin.server.VaadinServletResponse;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.communication.FileUploadHandler;
+import com.vaadin.shared.ApplicationConstants;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Session scoped {@link RequestHandler} receiving uploads with Servlet 3.1 non-blocking I/O. Each registered upload gets an URL of the form
+ * {@code app://APP/g24-async/<token>}, the file is posted as raw request body.
+ * <p>
+ * In contrast to Vaadin's {@link FileUploadHandler} the request thread is returned to the container as soon as no more bytes are available,
+ * the body is pulled by a {@link ReadListener} whenever the container signals readable data. So slow clients do not pin a container thread
+ * for the whole duration of their upload, the number of busy threads grows with the bytes actually arriving instead of open connections.
+ * <p>
+ * The servlet must support async requests ({@code asyncSupported = true}), otherwise the body is read blocking like Vaadin does.
+ * <p>
+ * Uploads are admitted and throttled by the {@link UploadGovernor#getDefault() default governor}, if installed. A throttled upload is
+ * continued by a timer, no thread is blocked while it waits.
+ * <p>
+ * An upload waiting for the client for {@value #IDLE_TIMEOUT_MS} ms fails, e.g. if the client is gone while the upload was throttled: not
+ * every container reports a closed connection to a listener not waiting for data, and the upload would keep its admission forever. Time
+ * spent writing the received bytes, firing events or being throttled does not count, so a slow disk does not fail the upload.
+ */
+public class AsyncUploadHandler implements RequestHandler {
+
+    static final String PATH = ApplicationConstants.APP_PATH + "/g24-async/";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_EVENT_INTERVAL_MS = FileUploadHandler.DEFAULT_STREAMING_PROGRESS_EVENT_INTERVAL_MS;
+    private static final long IDLE_TIMEOUT_MS = 30_000;
+    private static final ScheduledExecutorService THROTTLE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upload-throttle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, AsyncUpload> uploads = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the handler of given session, registers a new one if not yet done. Must be called while holding the session lock.
+     */
+    public static AsyncUploadHandler get(VaadinSession session) {
+        AsyncUploadHandler handler = find(session);
+        if (handler == null) {
+            handler = new AsyncUploadHandler();
+            session.setAttribute(AsyncUploadHandler.class, handler);
+            session.addRequestHandler(handler);
+        }
+        return handler;
+    }
+
+    /**
+     * Returns the handler of given session, {@code null} if none is registered, e.g. for cleaning up. Must be called while holding the
+     * session lock.
+     */
+    public static AsyncUploadHandler find(VaadinSession session) {
+        return session.getAttribute(AsyncUploadHandler.class);
+    }
+
+    /**
+     * Registers a non-blocking upload of given file.
+     *
+     * @param streamVariable receives the file, e.g. a {@link FileReceiver}
+     * @return the upload URL, to be translated by the client-side
+     */
+    public String register(Html5File file, StreamVariable streamVariable, ClientConnector owner) {
+        String token = UUID.randomUUID().toString();
+        uploads.put(token, new AsyncUpload(file, streamVariable, owner));
+        return ApplicationConstants.APP_PROTOCOL_PREFIX + PATH + token;
+    }
+
+    /**
+     * Unregisters the upload of given stream variable, further requests are answered with {@code 404 Not Found}. A running upload is not
+     * affected, it stops as soon as its stream variable reports to be interrupted.
+     */
+    public void cancel(StreamVariable streamVariable) {
+        uploads.values().removeIf(upload -> upload.streamVariable == streamVariable);
+    }
+
+    /**
+     * Discards all pending uploads of given connector, e.g. on detach.
+     */
+    public void discard(ClientConnector owner) {
+        uploads.values().removeIf(upload -> upload.owner == owner);
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || !pathInfo.startsWith("/" + PATH)) {
+            return false;
+        }
+        if (!"POST".equals(request.getMethod())) {
+            response.sendError(HttpURLConnection.HTTP_BAD_METHOD, "Method not allowed");
+            return true;
+        }
+        String token = pathInfo.substring(PATH.length() + 1);
+        if (!uploads.containsKey(token)) {
+            response.sendError(HttpURLConnection.HTTP_NOT_FOUND, "Unknown upload");
+            return true;
+        }
+        // a rejected upload is posted again, so it stays registered and waits in line by its token
+        UploadGovernor.Permit permit = UploadGovernor.admit(session, token, response);
+        if (permit == null) {
+            return true;
+        }
+        boolean receiving = false;
+        try {
+            receiving = handleUpload(session, token, request, response, permit);
+        } finally {
+            if (!receiving) {
+                permit.release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the request body is received, the receiver releases the permit
+     */
+    private boolean handleUpload(VaadinSession session, String token, VaadinRequest request, VaadinResponse response,
+        UploadGovernor.Permit permit) throws IOException {
+        // an upload is posted only once
+        AsyncUpload upload = uploads.remove(token);
+        if (upload == null) {
+            response.sendError(HttpURLConnection.HTTP_NOT_FOUND, "Unknown upload");
+            return false;
+        }
+
+        OutputStream out;
+        boolean listenProgress;
+        session.lock();
+        try {
+            if (!upload.owner.isConnectorEnabled() || upload.streamVariable.isInterrupted()) {
+                upload.streamVariable.streamingFailed(new UploadEvent(upload.file, 0, new FileUploadHandler.UploadInterruptedException()));
+                response.sendError(HttpURLConnection.HTTP_GONE, "Upload interrupted");
+                return false;
+            }
+            upload.streamVariable.streamingStarted(new UploadEvent(upload.file, 0));
+            out = upload.streamVariable.getOutputStream();
+            listenProgress = upload.streamVariable.listenProgress();
+            if (out == null) {
+                upload.streamVariable.streamingFailed(new UploadEvent(upload.file, 0, new NoOutputStreamException()));
+                response.sendError(HttpURLConnection.HTTP_INTERNAL_ERROR, "No output stream");
+                return false;
+            }
+        } finally {
+            session.unlock();
+        }
+
+        HttpServletRequest httpRequest = ((VaadinServletRequest) request).getHttpServletRequest();
+        HttpServletResponse httpResponse = ((VaadinServletResponse) response).getHttpServletResponse();
+        if (httpRequest.isAsyncSupported()) {
+            AsyncContext asyncContext = httpRequest.startAsync(httpRequest, httpResponse);
+            // the receiver's idle timeout applies instead
+            asyncContext.setTimeout(0);
+            ServletInputStream in = httpRequest.getInputStream();
+            Receiver receiver = new Receiver(session, upload, permit, in, out, listenProgress, httpResponse, asyncContext);
+            asyncContext.addListener(receiver);
+            receiver.watchIdle();
+            in.setReadListener(receiver);
+        } else {
+            getLogger().warning("Servlet does not support async requests, receiving upload blocking");
+            new Receiver(session, upload, permit, httpRequest.getInputStream(), out, listenProgress, httpResponse, null).receiveBlocking();
+        }
+        return true;
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(AsyncUploadHandler.class.getName());
+    }
+
+    private static class AsyncUpload implements Serializable {
+
+        private final Html5File file;
+        private final StreamVariable streamVariable;
+        private final ClientConnector owner;
+
+        private AsyncUpload(Html5File file, StreamVariable streamVariable, ClientConnector owner) {
+            this.file = file;
+            this.streamVariable = streamVariable;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Pulls the request body as long as bytes are available without blocking, and fires the events of the {@link StreamVariable}. The
+     * container never calls the listener concurrently. The idle watch fails the upload only while the receiver is neither busy nor paused,
+     * i.e. waits for the client.
+     */
+    private static class Receiver implements ReadListener, AsyncListener {
+
+        private final VaadinSession session;
+        private final AsyncUpload upload;
+        private final UploadGovernor.Permit permit;
+        private final ServletInputStream in;
+        private final OutputStream out;
+        private final boolean listenProgress;
+        private final HttpServletResponse response;
+        private final AsyncContext asyncContext;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private long bytesReceived;
+        private long lastProgressEvent;
+        private long pauseNanos;
+        private volatile boolean done;
+        private volatile ScheduledFuture<?> idleWatch;
+        // guarded by this, busy while receiving or finishing, paused while throttled
+        private boolean busy;
+        private boolean paused;
+        private long waitingSince = System.nanoTime();
+
+        /**
+         * @param asyncContext {@code null} to receive blocking
+         */
+        private Receiver(VaadinSession session, AsyncUpload upload, UploadGovernor.Permit permit, ServletInputStream in, OutputStream out,
+            boolean listenProgress, HttpServletResponse response, AsyncContext asyncContext) {
+            this.session = session;
+            this.upload = upload;
+            this.permit = permit;
+            this.in = in;
+            this.out = out;
+            this.listenProgress = listenProgress;
+            this.response = response;
+            this.asyncContext = asyncContext;
+        }
+
+        private void watchIdle() {
+            idleWatch = THROTTLE.scheduleWithFixedDelay(() -> {
+                if (finishIdle()) {
+                    // failing completes the request, so the container closes the connection
+                    asyncContext.start(() -> failed(new SocketTimeoutException("No bytes received for " + IDLE_TIMEOUT_MS + " ms"),
+                        HttpURLConnection.HTTP_CLIENT_TIMEOUT));
+                }
+            }, IDLE_TIMEOUT_MS, IDLE_TIMEOUT_MS / 4, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onDataAvailable() {
+            if (!enter()) {
+                return;
+            }
+            try {
+                while (!done && in.isReady()) {
+                    if (!receive()) {
+                        return;
+                    }
+                    if (pauseNanos > 0) {
+                        // isReady() is not called, so the container does not call the listener until the session is within its rate again
+                        long pause = pauseNanos;
+                        pauseNanos = 0;
+                        pause();
+                        THROTTLE.schedule(this::resume, pause, TimeUnit.NANOSECONDS);
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                fail(e, HttpURLConnection.HTTP_INTERNAL_ERROR);
+            } finally {
+                leave();
+            }
+        }
+
+        private void resume() {
+            if (!done) {
+                synchronized (this) {
+                    paused = false;
+                    waitingSince = System.nanoTime();
+                }
+                asyncContext.start(this::onDataAvailable);
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            if (!enter()) {
+                return;
+            }
+            try {
+                // may take long, e.g. waiting for a slow disk
+                out.close();
+            } catch (IOException e) {
+                fail(e, HttpURLConnection.HTTP_INTERNAL_ERROR);
+                return;
+            } finally {
+                leave();
+            }
+            if (!finish()) {
+                return;
+            }
+            try {
+                fire(() -> upload.streamVariable.streamingFinished(new UploadEvent(upload.file, bytesReceived)));
+            } finally {
+                respond(HttpURLConnection.HTTP_OK);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // e.g. the client aborted the request
+            fail(throwable instanceof Exception ? (Exception) throwable : new IOException(throwable), HttpURLConnection.HTTP_INTERNAL_ERROR);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            // e.g. the container completed the request itself, the response can not be sent anymore
+            if (finish()) {
+                abandon(new IOException("Request completed before the body was read"));
+            }
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            fail(new SocketTimeoutException("Async request timed out"), HttpURLConnection.HTTP_CLIENT_TIMEOUT);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            onError(event.getThrowable());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // not restarted
+        }
+
+        private void receiveBlocking() {
+            try {
+                while (!done && receive()) {
+                    // continue until the end of the stream
+                }
+                onAllDataRead();
+            } catch (Exception e) {
+                fail(e, HttpURLConnection.HTTP_INTERNAL_ERROR);
+            }
+        }
+
+        /**
+         * @return {@code false} if the end of the stream is reached
+         */
+        private boolean receive() throws IOException {
+            int length = in.read(buffer);
+            if (length < 0) {
+                return false;
+            }
+            out.write(buffer, 0, length);
+            bytesReceived += length;
+            fireProgress();
+            if (upload.streamVariable.isInterrupted()) {
+                fail(new FileUploadHandler.UploadInterruptedException(), HttpURLConnection.HTTP_GONE);
+            } else {
+                throttle(permit.throttle(length));
+            }
+            return true;
+        }
+
+        private void throttle(long nanos) throws InterruptedIOException {
+            if (nanos <= 0) {
+                return;
+            }
+            if (asyncContext != null) {
+                // continued by the timer, no thread is blocked
+                pauseNanos = nanos;
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Upload interrupted while throttled");
+            }
+        }
+
+        private void fireProgress() {
+            long now = System.currentTimeMillis();
+            if (!listenProgress || lastProgressEvent + PROGRESS_EVENT_INTERVAL_MS > now) {
+                return;
+            }
+            lastProgressEvent = now;
+            long progress = bytesReceived;
+            fire(() -> upload.streamVariable.onProgress(new UploadEvent(upload.file, progress)));
+        }
+
+        private void fail(Exception exception, int status) {
+            if (finish()) {
+                failed(exception, status);
+            }
+        }
+
+        /**
+         * Fails the upload, which is already {@link #finish() finished}.
+         */
+        private void failed(Exception exception, int status) {
+            try {
+                abandon(exception);
+            } finally {
+                respond(status);
+            }
+        }
+
+        /**
+         * Closes the output stream and fires {@code streamingFailed}, so the stream variable releases its sink.
+         */
+        private void abandon(Exception exception) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            getLogger().log(Level.FINE, "Receiving upload failed", exception);
+            fire(() -> upload.streamVariable.streamingFailed(new UploadEvent(upload.file, bytesReceived, exception)));
+        }
+
+        /**
+         * @return {@code false} if the upload is already finished, e.g. by the idle watch
+         */
+        private synchronized boolean finish() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+
+        /**
+         * Finishes the upload if it waits for the client longer than the idle timeout.
+         *
+         * @return {@code false} if the receiver is busy, paused, not idle long enough or the upload is already finished
+         */
+        private synchronized boolean finishIdle() {
+            if (busy || paused || System.nanoTime() - waitingSince < TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT_MS)) {
+                return false;
+            }
+            return finish();
+        }
+
+        /**
+         * Marks the receiver busy, so the idle watch does not fail the upload while bytes are read, written or events are fired.
+         *
+         * @return {@code false} if the upload is already finished
+         */
+        private synchronized boolean enter() {
+            if (done) {
+                return false;
+            }
+            busy = true;
+            return true;
+        }
+
+        private synchronized void leave() {
+            busy = false;
+            waitingSince = System.nanoTime();
+        }
+
+        /**
+         * Marks the receiver paused until it is resumed by the timer, a throttled upload does not wait for the client.
+         */
+        private synchronized void pause() {
+            paused = true;
+        }
+
+        private void fire(Runnable event) {
+            // sets the current session and service, and pushes pending changes on unlock
+            session.accessSynchronously(event::run);
+        }
+
+        private void release() {
+            permit.release();
+            if (idleWatch != null) {
+                idleWatch.cancel(false);
+            }
+        }
+
+        private void respond(int status) {
+            release();
+            try {
+                if (!response.isCommitted()) {
+                    response.setStatus(status);
+                    response.setContentLength(0);
+                }
+            } finally {
+                if (asyncContext != null) {
+                    asyncContext.complete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.g24.upload;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of reusable direct {@link ByteBuffer}s of a fixed size. Buffers are allocated lazily up to the max. number of buffers.
+ */
+public class BufferPool {
+
+    private static final BufferPool DEFAULT = new BufferPool(64 * 1024, 64);
+
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final BlockingQueue<ByteBuffer> available;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxBuffers) {
+        if (bufferSize < 1 || maxBuffers < 1) {
+            throw new IllegalArgumentException("bufferSize and maxBuffers must be at least 1");
+        }
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.available = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    /**
+     * @return the JVM-wide pool of 64 KB buffers used by default
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer, or {@code null} if the pool is exhausted
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = available.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocated.incrementAndGet() <= maxBuffers) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        allocated.decrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns a buffer acquired from this pool.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null) {
+            buffer.clear();
+            available.offer(buffer);
+        }
+    }
+
+    /**
+     * @return number of buffers currently in use
+     */
+    public int getBuffersInUse() {
+        return allocated.get() - available.size();
+    }
+}
@@ -0,0 +1,177 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Server-side assembler of a single chunked upload. Chunks may arrive in any order and in parallel, each one is written by its offset into a
+ * spool file. The received chunks are tracked in a bitmap, which the client queries to resume an upload instead of restarting it.
+ * <p>
+ * As soon as the last missing chunk arrived, the assembled file is streamed to the {@link StreamVariable} registered for the {@link Html5File}.
+ */
+class ChunkedUpload implements Serializable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Html5File file;
+    private final StreamVariable streamVariable;
+    private final ClientConnector owner;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final BitSet received;
+    private long bytesReceived;
+    private boolean started;
+    private boolean completed;
+    private transient Path spoolFile;
+    private transient volatile FileChannel channel;
+
+    ChunkedUpload(Html5File file, StreamVariable streamVariable, ClientConnector owner, int chunkSize) {
+        this.file = file;
+        this.streamVariable = streamVariable;
+        this.owner = owner;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) Math.max(1, (file.getFileSize() + chunkSize - 1) / chunkSize);
+        this.received = new BitSet(chunkCount);
+    }
+
+    Html5File getFile() {
+        return file;
+    }
+
+    ClientConnector getOwner() {
+        return owner;
+    }
+
+    StreamVariable getStreamVariable() {
+        return streamVariable;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    long getChunkLength(int index) {
+        return Math.min(chunkSize, file.getFileSize() - (long) index * chunkSize);
+    }
+
+    /**
+     * @return {@code true} if called for the first time, i.e. {@link StreamVariable#streamingStarted} must be fired
+     */
+    synchronized boolean start() throws IOException {
+        if (completed) {
+            throw new IOException("Upload already completed");
+        }
+        if (channel == null) {
+            spoolFile = Files.createTempFile("g24-chunked", ".part");
+            channel = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        boolean first = !started;
+        started = true;
+        return first;
+    }
+
+    /**
+     * Writes the chunk with given index from the input stream into the spool file.
+     *
+     * @throws IOException if the stream does not contain exactly the expected number of bytes
+     */
+    void writeChunk(int index, InputStream in) throws IOException {
+        FileChannel target = channel;
+        if (target == null) {
+            throw new IOException("Upload already released");
+        }
+        long position = (long) index * chunkSize;
+        long remaining = getChunkLength(index);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, Math.max(remaining, 1)))) > 0) {
+            if (read > remaining) {
+                throw new IOException("Chunk " + index + " exceeds expected length");
+            }
+            ByteBuffer src = ByteBuffer.wrap(buffer, 0, read);
+            while (src.hasRemaining()) {
+                position += target.write(src, position);
+            }
+            remaining -= read;
+        }
+        if (remaining != 0) {
+            throw new IOException("Chunk " + index + " incomplete, " + remaining + " bytes missing");
+        }
+    }
+
+    /**
+     * Marks a chunk as received.
+     *
+     * @return {@code true} if this was the last missing chunk, i.e. the upload must be completed by the calling thread
+     */
+    synchronized boolean markReceived(int index) {
+        if (completed || received.get(index)) {
+            return false;
+        }
+        received.set(index);
+        bytesReceived += getChunkLength(index);
+        completed = received.cardinality() == chunkCount;
+        return completed;
+    }
+
+    synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return bitmap of received chunks, one character ({@code '0'} or {@code '1'}) per chunk
+     */
+    synchronized String getBitmap() {
+        StringBuilder bitmap = new StringBuilder(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            bitmap.append(received.get(i) ? '1' : '0');
+        }
+        return bitmap.toString();
+    }
+
+    /**
+     * Streams the assembled file to the given output stream.
+     */
+    void transferTo(OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = 0;
+        long size = file.getFileSize();
+        while (position < size) {
+            position += channel.transferTo(position, size - position, target);
+        }
+    }
+
+    synchronized void release() {
+        completed = true;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+        channel = null;
+        try {
+            if (spoolFile != null) {
+                Files.deleteIfExists(spoolFile);
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+        spoolFile = null;
+    }
+}
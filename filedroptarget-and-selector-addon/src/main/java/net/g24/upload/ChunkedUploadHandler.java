@@ -0,0 +1,281 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.NoOutputStreamException;
+import com.vaadin.server.RequestHandler;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.communication.FileUploadHandler;
+import com.vaadin.shared.ApplicationConstants;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Session scoped {@link RequestHandler} receiving chunked uploads. Each registered upload gets an URL of the form
+ * {@code app://APP/g24-chunked/<token>}:
+ * <ul>
+ * <li>{@code POST <url>?chunk=<index>} uploads a single chunk (raw request body)</li>
+ * <li>{@code GET <url>} returns the bitmap of received chunks, one character ({@code '0'} or {@code '1'}) per chunk</li>
+ * <li>{@code DELETE <url>} aborts the upload</li>
+ * </ul>
+ * Like Vaadin's {@link FileUploadHandler} the request is handled without holding the session lock, the lock is only acquired to fire the
+ * {@link StreamVariable} events.
+ * <p>
+ * Each chunk is admitted and throttled by the {@link UploadGovernor#getDefault() default governor}, if installed. A rejected chunk is
+ * answered with {@code 503 Service Unavailable}, the client posts it again after the delay of the {@code Retry-After} header. Chunks are
+ * received blocking, a throttled chunk keeps its request thread sleeping while the session exceeds its rate. Use the
+ * {@link AsyncUploadHandler} (whole files) to throttle without occupying threads.
+ */
+public class ChunkedUploadHandler implements RequestHandler {
+
+    static final String PATH = ApplicationConstants.APP_PATH + "/g24-chunked/";
+
+    private static final int PROGRESS_EVENT_INTERVAL_MS = FileUploadHandler.DEFAULT_STREAMING_PROGRESS_EVENT_INTERVAL_MS;
+
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastProgressEvents = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the handler of given session, registers a new one if not yet done. Must be called while holding the session lock.
+     */
+    public static ChunkedUploadHandler get(VaadinSession session) {
+        ChunkedUploadHandler handler = find(session);
+        if (handler == null) {
+            handler = new ChunkedUploadHandler();
+            session.setAttribute(ChunkedUploadHandler.class, handler);
+            session.addRequestHandler(handler);
+        }
+        return handler;
+    }
+
+    /**
+     * Returns the handler of given session, {@code null} if none is registered, e.g. for cleaning up. Must be called while holding the
+     * session lock.
+     */
+    public static ChunkedUploadHandler find(VaadinSession session) {
+        return session.getAttribute(ChunkedUploadHandler.class);
+    }
+
+    /**
+     * Registers a chunked upload of given file.
+     *
+     * @param streamVariable receives the assembled file, e.g. a {@link FileReceiver}
+     * @return the upload URL, to be translated by the client-side
+     */
+    public String register(Html5File file, StreamVariable streamVariable, ClientConnector owner, int chunkSize) {
+        String token = UUID.randomUUID().toString();
+        uploads.put(token, new ChunkedUpload(file, streamVariable, owner, chunkSize));
+        return ApplicationConstants.APP_PROTOCOL_PREFIX + PATH + token;
+    }
+
+    /**
+     * Cancels the upload registered with given stream variable: the received chunks are released, the stream variable gets
+     * {@code streamingFailed} and further requests are answered with {@code 404 Not Found}. Must be called while holding the session lock.
+     *
+     * @return {@code true} if the upload was pending
+     */
+    public boolean cancel(VaadinSession session, StreamVariable streamVariable) {
+        for (Map.Entry<String, ChunkedUpload> entry : uploads.entrySet()) {
+            if (entry.getValue().getStreamVariable() == streamVariable) {
+                fail(session, entry.getKey(), entry.getValue(), new FileUploadHandler.UploadInterruptedException());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Discards all pending uploads of given connector, e.g. on detach.
+     */
+    public void discard(ClientConnector owner) {
+        uploads.entrySet().removeIf(entry -> {
+            if (entry.getValue().getOwner() == owner) {
+                entry.getValue().release();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || !pathInfo.startsWith("/" + PATH)) {
+            return false;
+        }
+        String token = pathInfo.substring(PATH.length() + 1);
+        ChunkedUpload upload = uploads.get(token);
+        if (upload == null) {
+            response.sendError(HttpURLConnection.HTTP_NOT_FOUND, "Unknown upload");
+            return true;
+        }
+
+        switch (request.getMethod()) {
+        case "GET":
+            sendText(response, upload.getBitmap());
+            break;
+        case "POST":
+            receiveChunk(session, request, response, token, upload);
+            break;
+        case "DELETE":
+            fail(session, token, upload, new FileUploadHandler.UploadInterruptedException());
+            sendText(response, "");
+            break;
+        default:
+            response.sendError(HttpURLConnection.HTTP_BAD_METHOD, "Method not allowed");
+        }
+        return true;
+    }
+
+    private void receiveChunk(VaadinSession session, VaadinRequest request, VaadinResponse response, String token, ChunkedUpload upload)
+        throws IOException {
+        int index;
+        try {
+            index = Integer.parseInt(request.getParameter("chunk"));
+        } catch (NumberFormatException e) {
+            index = -1;
+        }
+        if (index < 0 || index >= upload.getChunkCount()) {
+            response.sendError(HttpURLConnection.HTTP_BAD_REQUEST, "Invalid chunk index");
+            return;
+        }
+
+        StreamVariable streamVariable;
+        boolean enabled;
+        session.lock();
+        try {
+            streamVariable = upload.getStreamVariable();
+            enabled = streamVariable != null && upload.getOwner().isConnectorEnabled() && !streamVariable.isInterrupted();
+        } finally {
+            session.unlock();
+        }
+        if (!enabled) {
+            fail(session, token, upload, new FileUploadHandler.UploadInterruptedException());
+            response.sendError(HttpURLConnection.HTTP_GONE, "Upload interrupted");
+            return;
+        }
+
+        UploadGovernor.Permit permit = UploadGovernor.admit(session, token + "/" + index, response);
+        if (permit == null) {
+            // the client posts the chunk again
+            return;
+        }
+        try {
+            if (upload.start()) {
+                fire(session, () -> streamVariable.streamingStarted(new UploadEvent(upload.getFile(), 0)));
+            }
+            upload.writeChunk(index, permit.throttle(request.getInputStream()));
+        } catch (IOException e) {
+            // the client will retry the chunk
+            getLogger().log(Level.FINE, "Receiving chunk failed", e);
+            response.sendError(HttpURLConnection.HTTP_INTERNAL_ERROR, "Receiving chunk failed");
+            return;
+        } finally {
+            permit.release();
+        }
+
+        if (upload.markReceived(index)) {
+            complete(session, token, upload);
+        } else {
+            fireProgress(session, token, upload);
+        }
+        sendText(response, upload.getBitmap());
+    }
+
+    private void fireProgress(VaadinSession session, String token, ChunkedUpload upload) {
+        StreamVariable streamVariable = upload.getStreamVariable();
+        if (streamVariable instanceof FileReceiver && ((FileReceiver) streamVariable).updateProgress(upload.getBytesReceived())) {
+            // collected without locking the session
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long last = lastProgressEvents.get(token);
+        if (last != null && last + PROGRESS_EVENT_INTERVAL_MS > now) {
+            return;
+        }
+        lastProgressEvents.put(token, now);
+        fire(session, () -> {
+            if (streamVariable.listenProgress()) {
+                streamVariable.onProgress(new UploadEvent(upload.getFile(), upload.getBytesReceived()));
+            }
+        });
+    }
+
+    private void complete(VaadinSession session, String token, ChunkedUpload upload) {
+        StreamVariable streamVariable = upload.getStreamVariable();
+        OutputStream out = null;
+        try {
+            OutputStream[] target = new OutputStream[1];
+            fire(session, () -> target[0] = streamVariable.getOutputStream());
+            out = target[0];
+            if (out == null) {
+                throw new NoOutputStreamException();
+            }
+            upload.transferTo(out);
+            out.close();
+            remove(token, upload);
+            fire(session, () -> streamVariable.streamingFinished(new UploadEvent(upload.getFile(), upload.getBytesReceived())));
+        } catch (Exception e) {
+            closeQuietly(out);
+            fail(session, token, upload, e);
+        }
+    }
+
+    private void fail(VaadinSession session, String token, ChunkedUpload upload, Exception exception) {
+        if (uploads.remove(token, upload)) {
+            lastProgressEvents.remove(token);
+            upload.release();
+            StreamVariable streamVariable = upload.getStreamVariable();
+            if (streamVariable != null) {
+                fire(session, () -> streamVariable.streamingFailed(new UploadEvent(upload.getFile(), upload.getBytesReceived(), exception)));
+            }
+        }
+    }
+
+    private void remove(String token, ChunkedUpload upload) {
+        uploads.remove(token, upload);
+        lastProgressEvents.remove(token);
+        upload.release();
+    }
+
+    private static void fire(VaadinSession session, Runnable event) {
+        session.lock();
+        try {
+            event.run();
+        } finally {
+            session.unlock();
+        }
+    }
+
+    private static void sendText(VaadinResponse response, String text) throws IOException {
+        response.setContentType("text/plain; charset=UTF-8");
+        try (PrintWriter writer = response.getWriter()) {
+            writer.print(text);
+        }
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(ChunkedUploadHandler.class.getName());
+    }
+}
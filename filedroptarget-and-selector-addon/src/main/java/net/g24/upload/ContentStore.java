@@ -0,0 +1,52 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Content-addressed store of uploaded files, keyed by the SHA-256 digest of their content (lower case hex). Files already known to the
+ * store are not uploaded again, see {@link net.g24.FileDropTargetAndSelector#setContentStore(ContentStore)}.
+ * <p>
+ * Knowing the digest of a file is treated as proof of having the file. If that is not acceptable, e.g. for confidential files of other
+ * users, the store must be scoped accordingly (e.g. per user).
+ */
+public interface ContentStore extends Serializable {
+
+    /**
+     * @param digest SHA-256 digest, lower case hex
+     * @return {@code true} if the content is stored
+     */
+    boolean contains(String digest);
+
+    /**
+     * @param digest SHA-256 digest, lower case hex
+     * @return the stored content
+     * @throws IOException if the content is not stored or cannot be read
+     */
+    InputStream open(String digest) throws IOException;
+
+    /**
+     * @param digest SHA-256 digest, lower case hex
+     * @return size of the stored content in bytes, {@code -1} if unknown. Stored content is only used for a file of the same size.
+     */
+    default long size(String digest) throws IOException {
+        return -1;
+    }
+
+    /**
+     * Creates a stream for storing content. The content is stored on {@link OutputStream#close()}, if it matches the digest, otherwise it is
+     * discarded, e.g. if the upload was incomplete or the client sent a wrong digest.
+     *
+     * @param digest SHA-256 digest claimed by the client, lower case hex
+     */
+    OutputStream store(String digest) throws IOException;
+
+    /**
+     * @return {@code true} if given string is a valid digest, i.e. 64 lower case hex characters
+     */
+    static boolean isValidDigest(String digest) {
+        return digest != null && digest.matches("[0-9a-f]{64}");
+    }
+}
@@ -0,0 +1,21 @@
+package net.g24.upload;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * Provides the previous version of a dropped file for delta uploads, e.g. looked up by file name. Only the changes against the previous
+ * version are transferred, see {@link net.g24.FileDropTargetAndSelector#setDeltaBaseProvider(DeltaBaseProvider)}.
+ * <p>
+ * The previous version must not change until the upload is done, it is read when the file is dropped and again when the file is rebuilt.
+ */
+@FunctionalInterface
+public interface DeltaBaseProvider extends Serializable {
+
+    /**
+     * @return the previous version of given file, {@code null} if there is none
+     */
+    Path getBase(Html5File file);
+}
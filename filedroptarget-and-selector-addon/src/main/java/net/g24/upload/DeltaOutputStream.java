@@ -0,0 +1,141 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Rebuilds a file from its previous version and a delta written to this stream, see {@link DeltaSignature}. The delta is a sequence of
+ * instructions:
+ * <ul>
+ * <li>{@code 'L'}, length (unsigned 32 bit, big endian), followed by that many literal bytes of the new file</li>
+ * <li>{@code 'C'}, block index, block count (both unsigned 32 bit, big endian): copy of consecutive blocks of the previous version</li>
+ * </ul>
+ * The rebuilt file is written to the target stream. On close the delta must be complete and the rebuilt file must have the expected size,
+ * otherwise an {@link IOException} is thrown.
+ */
+class DeltaOutputStream extends OutputStream {
+
+    private static final int LITERAL = 'L';
+    private static final int COPY = 'C';
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final Path base;
+    private final int blockSize;
+    private final long expectedSize;
+    private final byte[] header = new byte[9];
+    private int headerLength;
+    private long literalRemaining;
+    private long written;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private boolean closed;
+
+    DeltaOutputStream(OutputStream out, Path base, int blockSize, long expectedSize) {
+        this.out = out;
+        this.base = base;
+        this.blockSize = blockSize;
+        this.expectedSize = expectedSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (literalRemaining > 0) {
+                int length = (int) Math.min(len, literalRemaining);
+                writeOut(b, off, length);
+                literalRemaining -= length;
+                off += length;
+                len -= length;
+                continue;
+            }
+            header[headerLength++] = b[off++];
+            len--;
+            if (headerLength == getHeaderLength()) {
+                headerLength = 0;
+                if (header[0] == LITERAL) {
+                    literalRemaining = readUnsignedInt(1);
+                } else {
+                    copy(readUnsignedInt(1), readUnsignedInt(5));
+                }
+            }
+        }
+    }
+
+    private int getHeaderLength() throws IOException {
+        switch (header[0]) {
+            case LITERAL:
+                return 5;
+            case COPY:
+                return 9;
+            default:
+                throw new IOException("Invalid delta instruction " + header[0]);
+        }
+    }
+
+    private long readUnsignedInt(int offset) {
+        return (header[offset] & 0xffL) << 24 | (header[offset + 1] & 0xffL) << 16 | (header[offset + 2] & 0xffL) << 8 | header[offset + 3] & 0xffL;
+    }
+
+    private void copy(long index, long count) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(base, StandardOpenOption.READ);
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        if (index + count > channel.size() / blockSize) {
+            throw new IOException("Invalid block reference " + index + "+" + count);
+        }
+        long position = index * blockSize;
+        long end = position + count * blockSize;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+            int length = channel.read(buffer, position);
+            if (length < 0) {
+                throw new IOException("Previous version got truncated");
+            }
+            writeOut(buffer.array(), 0, length);
+            position += length;
+        }
+    }
+
+    private void writeOut(byte[] b, int off, int len) throws IOException {
+        if (written + len > expectedSize) {
+            throw new IOException("Delta exceeds the file size");
+        }
+        out.write(b, off, len);
+        written += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (headerLength > 0 || literalRemaining > 0 || written != expectedSize) {
+                throw new IOException("Incomplete delta, rebuilt " + written + " of " + expectedSize + " bytes");
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * Block signatures of the previous version of a file, as used by rsync: the file is split into blocks of equal size, each block is described
+ * by a weak rolling checksum and a strong checksum. The client slides a window over the new version of the file and looks up the weak
+ * checksum at every offset, which is updated in constant time per byte. Only on a hit the strong checksum is computed to confirm the match.
+ * <p>
+ * The signatures are encoded as a single string of 40 hex characters per block: 8 for the weak checksum, followed by 32 for the strong
+ * checksum (the first 16 bytes of the block's SHA-256). A trailing partial block is not included, it is never matched.
+ * <p>
+ * The weak checksum of the bytes {@code x[0..L-1]} is {@code (b << 16) | a} with {@code a = sum(x[i])} and
+ * {@code b = sum((L - i) * x[i])}, both modulo 2<sup>16</sup>. The client-side ({@code delta-worker.js}) must compute the same.
+ */
+public final class DeltaSignature {
+
+    private static final int MIN_BLOCK_SIZE = 2 * 1024;
+    private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    private static final int MAX_BLOCKS = 16 * 1024;
+    private static final int STRONG_CHECKSUM_LENGTH = 16;
+
+    private DeltaSignature() {
+    }
+
+    /**
+     * Chooses the block size for a file of given size: the square root of the size like rsync, but large enough to limit the signatures to
+     * about {@value #MAX_BLOCKS} blocks. Rounded up to a multiple of 1 KB.
+     */
+    public static int getBlockSize(long baseSize) {
+        long blockSize = Math.max((long) Math.sqrt(baseSize), baseSize / MAX_BLOCKS);
+        blockSize = (blockSize + 1023) / 1024 * 1024;
+        return (int) Math.min(MAX_BLOCK_SIZE, Math.max(MIN_BLOCK_SIZE, blockSize));
+    }
+
+    /**
+     * Computes the signatures of all complete blocks of given file.
+     */
+    public static String compute(Path base, int blockSize) throws IOException {
+        MessageDigest strong = FileSystemContentStore.createDigest();
+        byte[] block = new byte[blockSize];
+        StringBuilder signatures = new StringBuilder((int) Math.min(Integer.MAX_VALUE, Files.size(base) / blockSize * 40));
+        try (InputStream in = Files.newInputStream(base)) {
+            while (readBlock(in, block)) {
+                String weak = Integer.toHexString(weakChecksum(block, 0, blockSize));
+                for (int i = weak.length(); i < 8; i++) {
+                    signatures.append('0');
+                }
+                signatures.append(weak);
+                strong.update(block);
+                signatures.append(FileSystemContentStore.toHex(strong.digest()), 0, STRONG_CHECKSUM_LENGTH * 2);
+            }
+        }
+        return signatures.toString();
+    }
+
+    static int weakChecksum(byte[] bytes, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = bytes[offset + i] & 0xff;
+            a += x;
+            b += (length - i) * x;
+        }
+        return (b & 0xffff) << 16 | a & 0xffff;
+    }
+
+    /**
+     * @return {@code false} if the end of the file is reached before the block is complete
+     */
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int offset = 0;
+        while (offset < block.length) {
+            int length = in.read(block, offset, block.length - offset);
+            if (length < 0) {
+                return false;
+            }
+            offset += length;
+        }
+        return true;
+    }
+}
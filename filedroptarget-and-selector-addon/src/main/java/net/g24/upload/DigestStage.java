@@ -0,0 +1,42 @@
+package net.g24.upload;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * {@link UploadStage} computing a message digest of the upload, e.g. SHA-256. The result is the digest as lower case hex string.
+ */
+public class DigestStage implements UploadStage {
+
+    private final MessageDigest digest;
+    private String result;
+
+    /**
+     * @param algorithm name of the algorithm, see {@link MessageDigest#getInstance(String)}
+     */
+    public DigestStage(String algorithm) {
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public void process(byte[] b, int off, int len) {
+        digest.update(b, off, len);
+    }
+
+    @Override
+    public void finish() {
+        result = FileSystemContentStore.toHex(digest.digest());
+    }
+
+    /**
+     * @return the digest, {@code null} until the end of the stream
+     */
+    @Override
+    public String getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,35 @@
+package net.g24.upload;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link UploadSink} discarding all bytes, e.g. for benchmarks of the receive path.
+ */
+public class DiscardUploadSink implements UploadSink {
+
+    private long bytesWritten;
+
+    @Override
+    public void write(ByteBuffer src) {
+        bytesWritten += src.remaining();
+        src.position(src.limit());
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        bytesWritten += len;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void abort() {
+    }
+}
@@ -0,0 +1,424 @@
+package net.g24.upload;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.server.SerializableConsumer;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.communication.FileUploadHandler;
+import com.vaadin.ui.Html5File;
+import net.g24.client.FileDropTargetAndSelectorState;
+
+/**
+ * {@link StreamVariable} registered for the upload of a single file. Delegates to the {@link StreamVariable} the drop handler attached to the
+ * {@link Html5File} and completes the streaming events with the client-side file parameters.
+ * <p>
+ * In contrast to Vaadin's internal receiver the stream variable is disposed after streaming, so it does not stay registered at the connector
+ * tracker until the extension gets detached.
+ * <p>
+ * An upload may be {@link #cancel() cancelled} at any time: a running upload is interrupted, an upload not yet started fails immediately.
+ * Either way the {@link StreamVariable} of the file gets {@code streamingFailed} with an
+ * {@link FileUploadHandler.UploadInterruptedException}.
+ * <p>
+ * With a {@link ProgressAggregator} progress is collected by the aggregator instead of {@link StreamVariable#listenProgress()} of the file.
+ * Server-side progress can also be disabled completely, e.g. if progress is shown client-side.
+ * <p>
+ * With a {@link ContentStore} the received content is additionally written to the store, which keeps it if it matches the digest sent by the
+ * client.
+ * <p>
+ * With a delta base the client sends a delta against the previous version of the file, which is rebuilt before it is written to the file's
+ * stream variable, see {@link DeltaSignature}.
+ * <p>
+ * With an {@link UploadPipeline} the received bytes pass its stages before they are written to the file's stream variable (after rebuilding
+ * a delta), the results of the stages are passed with {@code streamingFinished} and {@code streamingFailed}.
+ * <p>
+ * With a {@link ZipExtraction} the file is an archive, which is extracted while it is received instead of being written to the output
+ * stream of the file's stream variable. The stream variable still gets the streaming events.
+ * <p>
+ * Content sent gzip compressed (marked by the request header {@value FileDropTargetAndSelectorState#CONTENT_ENCODING_HEADER}) is inflated
+ * before anything else, the streaming events report the inflated bytes.
+ * <p>
+ * With {@link UploadMetrics} the phases of the upload are recorded: queued when the metrics are set, started when the request arrives, the
+ * bytes as they arrive (i.e. compressed or delta encoded as sent), and finished or failed.
+ */
+public class FileReceiver implements StreamVariable {
+
+    private final Html5File file;
+    private final SerializableConsumer<FileReceiver> doneListener;
+    private ProgressAggregator progressAggregator;
+    private boolean progressReported;
+    private boolean serverSideProgress = true;
+    private ContentStore contentStore;
+    private String digest;
+    private String deltaBase;
+    private int deltaBlockSize;
+    private UploadPipeline uploadPipeline;
+    private transient UploadPipeline.PipelineOutputStream pipelineStream;
+    private ZipExtraction zipExtraction;
+    private transient ZipExtractingOutputStream zipStream;
+    private transient GzipInflatingOutputStream gzipStream;
+    private boolean started;
+    private boolean done;
+    private StreamingEndEvent finishedEvent;
+    private transient UploadMetrics uploadMetrics = UploadMetrics.NOOP;
+    private long queuedAt;
+    private long startedAt = -1;
+    private volatile long firstByteAt = -1;
+    private long bytesReported;
+    private volatile boolean cancelled;
+
+    public FileReceiver(Html5File file) {
+        this(file, null);
+    }
+
+    /**
+     * @param doneListener called once as soon as the upload finished, failed or got cancelled
+     */
+    public FileReceiver(Html5File file, SerializableConsumer<FileReceiver> doneListener) {
+        this.file = file;
+        this.doneListener = doneListener;
+    }
+
+    public Html5File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the end event passed to the file's stream variable, {@code null} if streaming did not finish (yet)
+     */
+    public StreamingEndEvent getFinishedEvent() {
+        return finishedEvent;
+    }
+
+    public void setProgressAggregator(ProgressAggregator progressAggregator) {
+        this.progressAggregator = progressAggregator;
+    }
+
+    /**
+     * @param serverSideProgress {@code false} to neither track progress by the aggregator nor the file's stream variable (default
+     * {@code true})
+     */
+    public void setServerSideProgress(boolean serverSideProgress) {
+        this.serverSideProgress = serverSideProgress;
+    }
+
+    /**
+     * Stores the received content in given store, if it matches the digest.
+     *
+     * @param digest SHA-256 digest of the file, as computed by the client
+     */
+    public void setContentStore(ContentStore contentStore, String digest) {
+        this.contentStore = contentStore;
+        this.digest = digest;
+    }
+
+    /**
+     * Receives a delta against given previous version instead of the file itself.
+     *
+     * @param blockSize block size of the signatures sent to the client
+     */
+    public void setDeltaBase(Path deltaBase, int blockSize) {
+        this.deltaBase = deltaBase.toString();
+        this.deltaBlockSize = blockSize;
+    }
+
+    /**
+     * Passes the received bytes through the stages of given pipeline.
+     */
+    public void setUploadPipeline(UploadPipeline uploadPipeline) {
+        this.uploadPipeline = uploadPipeline;
+    }
+
+    /**
+     * Extracts the file, a ZIP archive, while it is received. The output stream of the file's stream variable is not requested.
+     */
+    public void setZipExtraction(ZipExtraction zipExtraction) {
+        this.zipExtraction = zipExtraction;
+    }
+
+    /**
+     * Records the phases of the upload, the file counts as queued from now on.
+     *
+     * @param uploadMetrics {@code null} to record nothing (default)
+     */
+    public void setUploadMetrics(UploadMetrics uploadMetrics) {
+        this.uploadMetrics = uploadMetrics != null ? uploadMetrics : UploadMetrics.NOOP;
+        queuedAt = System.nanoTime();
+        this.uploadMetrics.uploadQueued(file);
+    }
+
+    /**
+     * Reports the progress of an upload, which is not counted by writing to the output stream (e.g. a chunked upload), to the
+     * {@link ProgressAggregator}. May be called without holding the session lock.
+     *
+     * @return {@code true} if the progress is tracked by the aggregator or not needed at all
+     */
+    public boolean updateProgress(long bytesReceived) {
+        progressReported = true;
+        recordBytes(bytesReceived - bytesReported);
+        bytesReported = bytesReceived;
+        return !serverSideProgress || progressAggregator != null && progressAggregator.update(file, bytesReceived);
+    }
+
+    /**
+     * Cancels the upload. Must be called while holding the session lock.
+     */
+    public void cancel() {
+        cancelled = true;
+        if (!started && !done && file.getStreamVariable() != null) {
+            file.getStreamVariable().streamingFailed(new UploadEvent(file, 0, new FileUploadHandler.UploadInterruptedException()));
+        }
+        if (!done) {
+            uploadMetrics.uploadFailed(file, getTiming(0), new FileUploadHandler.UploadInterruptedException());
+        }
+        done();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        if (file.getStreamVariable() == null) {
+            return null;
+        }
+        OutputStream out = zipExtraction != null ? (zipStream = zipExtraction.open(file)) : file.getStreamVariable().getOutputStream();
+        if (out != null && contentStore != null) {
+            try {
+                out = new TeeOutputStream(out, contentStore.store(digest));
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Storing content failed", e);
+            }
+        }
+        if (progressAggregator != null && !progressReported) {
+            out = progressAggregator.count(file, out);
+        }
+        if (out != null && uploadPipeline != null) {
+            try {
+                out = pipelineStream = uploadPipeline.open(file, out);
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Creating upload stages failed", e);
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+                // fails the upload
+                return null;
+            }
+        }
+        if (out != null && deltaBase != null) {
+            out = new DeltaOutputStream(out, Paths.get(deltaBase), deltaBlockSize, file.getFileSize());
+        }
+        if (out != null && isGzipEncoded()) {
+            out = gzipStream = new GzipInflatingOutputStream(out, file.getFileSize());
+        }
+        return out != null && uploadMetrics != UploadMetrics.NOOP && !progressReported ? new MetricsOutputStream(out) : out;
+    }
+
+    /**
+     * @return {@code true} if the current request (the upload) is marked as gzip compressed
+     */
+    private static boolean isGzipEncoded() {
+        VaadinRequest request = VaadinService.getCurrentRequest();
+        return request != null && "gzip".equalsIgnoreCase(request.getHeader(FileDropTargetAndSelectorState.CONTENT_ENCODING_HEADER));
+    }
+
+    @Override
+    public boolean listenProgress() {
+        return serverSideProgress && progressAggregator == null && file.getStreamVariable() != null && file.getStreamVariable().listenProgress();
+    }
+
+    @Override
+    public void onProgress(StreamingProgressEvent event) {
+        if (started) {
+            file.getStreamVariable().onProgress(wrap(event));
+        }
+    }
+
+    @Override
+    public void streamingStarted(StreamingStartEvent event) {
+        // a file is posted only once
+        event.disposeStreamVariable();
+        started = !done && file.getStreamVariable() != null;
+        if (started) {
+            startedAt = System.nanoTime();
+            uploadMetrics.uploadStarted(file, startedAt - queuedAt);
+            if (progressAggregator != null) {
+                progressAggregator.start(file);
+            }
+            file.getStreamVariable().streamingStarted(UploadEvent.wrap(file, event));
+        }
+    }
+
+    @Override
+    public void streamingFinished(StreamingEndEvent event) {
+        if (started) {
+            finishedEvent = wrap(event);
+            file.getStreamVariable().streamingFinished(finishedEvent);
+        }
+        if (!done && progressReported) {
+            // the last chunk of a chunked upload completes it without reporting progress
+            recordBytes(event.getBytesReceived() - bytesReported);
+        }
+        if (!done) {
+            uploadMetrics.uploadFinished(file, getTiming(finishedEvent != null ? finishedEvent.getBytesReceived() : event.getBytesReceived()));
+        }
+        done();
+    }
+
+    @Override
+    public void streamingFailed(StreamingErrorEvent event) {
+        if (pipelineStream != null) {
+            pipelineStream.abort();
+        }
+        if (zipStream != null) {
+            zipStream.abort();
+        }
+        UploadEvent failedEvent = wrap(event);
+        if (started) {
+            file.getStreamVariable().streamingFailed(failedEvent);
+        }
+        if (!done) {
+            uploadMetrics.uploadFailed(file, getTiming(failedEvent.getBytesReceived()), event.getException());
+        }
+        done();
+    }
+
+    @Override
+    public boolean isInterrupted() {
+        return cancelled || file.getStreamVariable() == null || file.getStreamVariable().isInterrupted();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // the metrics are not serialized
+        uploadMetrics = UploadMetrics.NOOP;
+    }
+
+    private UploadEvent wrap(StreamingEvent event) {
+        long bytesReceived = gzipStream != null ? gzipStream.getBytesInflated() : event.getBytesReceived();
+        return UploadEvent.wrap(file, event, bytesReceived, pipelineStream != null ? pipelineStream.getResults() : Collections.emptyMap());
+    }
+
+    private UploadTiming getTiming(long bytes) {
+        long now = System.nanoTime();
+        return new UploadTiming(startedAt >= 0 ? startedAt - queuedAt : -1, startedAt >= 0 && firstByteAt >= 0 ? firstByteAt - startedAt : -1,
+                                startedAt >= 0 ? now - startedAt : -1, bytes);
+    }
+
+    private void recordBytes(long bytes) {
+        if (bytes > 0) {
+            if (firstByteAt < 0) {
+                firstByteAt = System.nanoTime();
+            }
+            uploadMetrics.bytesReceived(file, bytes);
+        }
+    }
+
+    private void done() {
+        if (!done) {
+            done = true;
+            if (progressAggregator != null) {
+                progressAggregator.stop(file);
+            }
+            if (doneListener != null) {
+                doneListener.accept(this);
+            }
+        }
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(FileReceiver.class.getName());
+    }
+
+    /**
+     * Records the bytes written to the stream.
+     */
+    private class MetricsOutputStream extends FilterOutputStream {
+
+        private MetricsOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            recordBytes(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            recordBytes(len);
+        }
+    }
+
+    /**
+     * Writes to the stream variable's stream and to the content store. Failures of the content store do not fail the upload.
+     */
+    private static class TeeOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private OutputStream store;
+
+        private TeeOutputStream(OutputStream out, OutputStream store) {
+            this.out = out;
+            this.store = store;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (store != null) {
+                try {
+                    store.write(b, off, len);
+                } catch (IOException e) {
+                    abandonStore(e);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (store != null) {
+                    try {
+                        store.close();
+                    } catch (IOException e) {
+                        getLogger().log(Level.WARNING, "Storing content failed", e);
+                    }
+                }
+            }
+        }
+
+        private void abandonStore(IOException e) {
+            getLogger().log(Level.WARNING, "Storing content failed", e);
+            try {
+                // the incomplete content does not match the digest, so it is discarded
+                store.close();
+            } catch (IOException ignored) {
+                // ignore
+            }
+            store = null;
+        }
+    }
+}
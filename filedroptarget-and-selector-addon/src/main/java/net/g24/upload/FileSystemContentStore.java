@@ -0,0 +1,119 @@
+package net.g24.upload;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * {@link ContentStore} in a local directory. Files are stored as {@code <directory>/<first two digest characters>/<digest>}, written to a
+ * temp file first and moved into place after the digest is verified, so a stored file is always complete.
+ */
+public class FileSystemContentStore implements ContentStore {
+
+    private final String directory;
+
+    public FileSystemContentStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory).toString();
+    }
+
+    @Override
+    public boolean contains(String digest) {
+        return ContentStore.isValidDigest(digest) && Files.isRegularFile(getPath(digest));
+    }
+
+    @Override
+    public InputStream open(String digest) throws IOException {
+        if (!ContentStore.isValidDigest(digest)) {
+            throw new IOException("Invalid digest " + digest);
+        }
+        return Files.newInputStream(getPath(digest));
+    }
+
+    @Override
+    public long size(String digest) throws IOException {
+        if (!ContentStore.isValidDigest(digest)) {
+            throw new IOException("Invalid digest " + digest);
+        }
+        return Files.size(getPath(digest));
+    }
+
+    @Override
+    public OutputStream store(String digest) throws IOException {
+        if (!ContentStore.isValidDigest(digest)) {
+            throw new IOException("Invalid digest " + digest);
+        }
+        Path temp = Files.createTempFile(Paths.get(directory), "store", ".tmp");
+        try {
+            return new StoringOutputStream(temp, getPath(digest), digest);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private Path getPath(String digest) {
+        return Paths.get(directory, digest.substring(0, 2), digest);
+    }
+
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // required by every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static class StoringOutputStream extends FilterOutputStream {
+
+        private final Path temp;
+        private final Path target;
+        private final String digest;
+        private boolean closed;
+
+        private StoringOutputStream(Path temp, Path target, String digest) throws IOException {
+            super(new DigestOutputStream(Files.newOutputStream(temp), createDigest()));
+            this.temp = temp;
+            this.target = target;
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+                if (digest.equals(toHex(((DigestOutputStream) out).getMessageDigest().digest()))) {
+                    Files.createDirectories(target.getParent());
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates gzip compressed content written to this stream (RFC 1952, e.g. of the browser's {@code CompressionStream}) and writes the
+ * original content to the target stream. In contrast to {@link java.util.zip.GZIPInputStream} the content is pushed: each buffer is inflated
+ * right away. Concatenated members are inflated one after the other.
+ * <p>
+ * The inflated content must have the expected size, a stream inflating to more bytes is aborted as soon as the size is exceeded. On close
+ * the last member must be complete, otherwise an {@link IOException} is thrown.
+ */
+class GzipInflatingOutputStream extends OutputStream {
+
+    private static final int MAGIC = 0x8b1f;
+    private static final int DEFLATED = 8;
+    private static final int FHCRC = 1 << 1;
+    private static final int FEXTRA = 1 << 2;
+    private static final int FNAME = 1 << 3;
+    private static final int FCOMMENT = 1 << 4;
+    private static final int HEADER_LENGTH = 10;
+    private static final int TRAILER_LENGTH = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private enum State {
+        HEADER, EXTRA_LENGTH, EXTRA, NAME, COMMENT, HEADER_CRC, DATA, TRAILER
+    }
+
+    private final OutputStream out;
+    private final long expectedSize;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] field = new byte[HEADER_LENGTH];
+    private State state = State.HEADER;
+    private int fieldLength;
+    private int fieldTarget = HEADER_LENGTH;
+    private int pendingFlags;
+    private int extraRemaining;
+    private long memberSize;
+    private long written;
+    private int members;
+    private boolean closed;
+
+    GzipInflatingOutputStream(OutputStream out, long expectedSize) {
+        this.out = out;
+        this.expectedSize = expectedSize;
+    }
+
+    /**
+     * @return number of inflated bytes written so far
+     */
+    long getBytesInflated() {
+        return written;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int consumed;
+            switch (state) {
+                case DATA:
+                    consumed = inflate(b, off, len);
+                    break;
+                case EXTRA:
+                    consumed = Math.min(len, extraRemaining);
+                    extraRemaining -= consumed;
+                    if (extraRemaining == 0) {
+                        nextHeaderField();
+                    }
+                    break;
+                case NAME:
+                case COMMENT:
+                    // zero-terminated
+                    consumed = 0;
+                    while (consumed < len && b[off + consumed++] != 0) {
+                        // skip
+                    }
+                    if (b[off + consumed - 1] == 0) {
+                        nextHeaderField();
+                    }
+                    break;
+                default:
+                    consumed = Math.min(len, fieldTarget - fieldLength);
+                    System.arraycopy(b, off, field, fieldLength, consumed);
+                    fieldLength += consumed;
+                    if (fieldLength == fieldTarget) {
+                        onField();
+                    }
+            }
+            off += consumed;
+            len -= consumed;
+        }
+    }
+
+    private void onField() throws IOException {
+        switch (state) {
+            case HEADER:
+                if (readUnsignedShort(0) != MAGIC || field[2] != DEFLATED) {
+                    throw new ZipException("Not in gzip format");
+                }
+                pendingFlags = field[3];
+                nextHeaderField();
+                break;
+            case EXTRA_LENGTH:
+                extraRemaining = readUnsignedShort(0);
+                state = State.EXTRA;
+                if (extraRemaining == 0) {
+                    nextHeaderField();
+                }
+                break;
+            case HEADER_CRC:
+                nextHeaderField();
+                break;
+            case TRAILER:
+                if (readUnsignedInt(0) != crc.getValue() || readUnsignedInt(4) != (memberSize & 0xffffffffL)) {
+                    throw new ZipException("Corrupt gzip trailer");
+                }
+                members++;
+                expect(State.HEADER, HEADER_LENGTH);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Continues with the next optional header field, or the compressed data.
+     */
+    private void nextHeaderField() {
+        if ((pendingFlags & FEXTRA) != 0) {
+            pendingFlags &= ~FEXTRA;
+            expect(State.EXTRA_LENGTH, 2);
+        } else if ((pendingFlags & FNAME) != 0) {
+            pendingFlags &= ~FNAME;
+            state = State.NAME;
+        } else if ((pendingFlags & FCOMMENT) != 0) {
+            pendingFlags &= ~FCOMMENT;
+            state = State.COMMENT;
+        } else if ((pendingFlags & FHCRC) != 0) {
+            pendingFlags &= ~FHCRC;
+            expect(State.HEADER_CRC, 2);
+        } else {
+            state = State.DATA;
+            inflater.reset();
+            crc.reset();
+            memberSize = 0;
+        }
+    }
+
+    /**
+     * @return number of bytes consumed
+     */
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        inflater.setInput(b, off, len);
+        try {
+            while (!inflater.finished() && !inflater.needsInput()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && !inflater.finished() && !inflater.needsInput()) {
+                    throw new ZipException("Invalid deflated data");
+                }
+                output(length);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated data: " + e.getMessage());
+        }
+        int consumed = len - inflater.getRemaining();
+        if (inflater.finished()) {
+            expect(State.TRAILER, TRAILER_LENGTH);
+        }
+        return consumed;
+    }
+
+    private void output(int length) throws IOException {
+        if (written + length > expectedSize) {
+            throw new IOException("Inflated content exceeds the file size");
+        }
+        crc.update(buffer, 0, length);
+        out.write(buffer, 0, length);
+        memberSize += length;
+        written += length;
+    }
+
+    private void expect(State nextState, int length) {
+        state = nextState;
+        fieldLength = 0;
+        fieldTarget = length;
+    }
+
+    private int readUnsignedShort(int offset) {
+        return (field[offset] & 0xff) | (field[offset + 1] & 0xff) << 8;
+    }
+
+    private long readUnsignedInt(int offset) {
+        return readUnsignedShort(offset) | (long) readUnsignedShort(offset + 2) << 16;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (members == 0 || state != State.HEADER || fieldLength > 0 || written != expectedSize) {
+                throw new IOException("Incomplete gzip content, inflated " + written + " of " + expectedSize + " bytes");
+            }
+        } finally {
+            try {
+                out.close();
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
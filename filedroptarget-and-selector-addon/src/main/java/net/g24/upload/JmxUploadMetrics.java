@@ -0,0 +1,342 @@
+package net.g24.upload;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.vaadin.server.communication.FileUploadHandler;
+import com.vaadin.ui.Html5File;
+
+/**
+ * {@link UploadMetrics} published as MBean {@code net.g24:type=UploadMetrics,name=<name>} of the platform MBean server, e.g. for JConsole
+ * or a JMX exporter. Counts uploads per phase and outcome, bytes and throughput, and keeps histograms of queue time, time to first byte,
+ * transfer time and file size. Optionally monitors the usage of a {@link SpoolManager}.
+ * <p>
+ * An instance may be shared by several components, or each component (kind) gets its own name. Example:
+ * <pre>
+ * JmxUploadMetrics metrics = new JmxUploadMetrics("documents").setSpoolManager(spoolManager).register();
+ * fileDropTargetAndSelector.setUploadMetrics(metrics);
+ * </pre>
+ */
+public class JmxUploadMetrics implements UploadMetrics, JmxUploadMetricsMBean {
+
+    private static final String DOMAIN = "net.g24";
+
+    private final ObjectName objectName;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong finished = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong interrupted = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final RateMeter bytesPerSecond = new RateMeter();
+    private final Histogram queueTime = new Histogram();
+    private final Histogram firstByteTime = new Histogram();
+    private final Histogram transferTime = new Histogram();
+    private final Histogram fileSize = new Histogram();
+    private volatile SpoolManager spoolManager;
+
+    /**
+     * @param name distinguishes the MBeans of several instances
+     */
+    public JmxUploadMetrics(String name) {
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=UploadMetrics,name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid name " + name, e);
+        }
+    }
+
+    /**
+     * @param spoolManager spool whose usage is published, {@code null} for none
+     */
+    public JmxUploadMetrics setSpoolManager(SpoolManager spoolManager) {
+        this.spoolManager = spoolManager;
+        return this;
+    }
+
+    /**
+     * Registers the MBean, replacing a previously registered one of the same name (e.g. after a redeployment).
+     */
+    public JmxUploadMetrics register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            getLogger().log(Level.WARNING, "Registering " + objectName + " failed", e);
+        }
+        return this;
+    }
+
+    /**
+     * Unregisters the MBean, e.g. when the servlet is destroyed.
+     */
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            getLogger().log(Level.FINE, "Unregistering " + objectName + " failed", e);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public void uploadQueued(Html5File file) {
+        queued.incrementAndGet();
+    }
+
+    @Override
+    public void uploadStarted(Html5File file, long queueNanos) {
+        started.incrementAndGet();
+        active.incrementAndGet();
+        queueTime.record(TimeUnit.NANOSECONDS.toMillis(queueNanos));
+    }
+
+    @Override
+    public void bytesReceived(Html5File file, long bytes) {
+        bytesReceived.addAndGet(bytes);
+        bytesPerSecond.add(bytes);
+    }
+
+    @Override
+    public void uploadFinished(Html5File file, UploadTiming timing) {
+        finished.incrementAndGet();
+        end(timing);
+        fileSize.record(timing.getBytes());
+    }
+
+    @Override
+    public void uploadFailed(Html5File file, UploadTiming timing, Exception exception) {
+        failed.incrementAndGet();
+        if (exception instanceof FileUploadHandler.UploadInterruptedException) {
+            interrupted.incrementAndGet();
+        }
+        end(timing);
+    }
+
+    private void end(UploadTiming timing) {
+        if (timing.getTransferNanos() >= 0) {
+            active.decrementAndGet();
+            transferTime.record(TimeUnit.NANOSECONDS.toMillis(timing.getTransferNanos()));
+        }
+        if (timing.getFirstByteNanos() >= 0) {
+            firstByteTime.record(TimeUnit.NANOSECONDS.toMillis(timing.getFirstByteNanos()));
+        }
+    }
+
+    @Override
+    public long getQueuedUploads() {
+        return queued.get();
+    }
+
+    @Override
+    public long getStartedUploads() {
+        return started.get();
+    }
+
+    @Override
+    public long getFinishedUploads() {
+        return finished.get();
+    }
+
+    @Override
+    public long getFailedUploads() {
+        return failed.get();
+    }
+
+    @Override
+    public long getInterruptedUploads() {
+        return interrupted.get();
+    }
+
+    @Override
+    public long getActiveUploads() {
+        return active.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        return bytesPerSecond.getRate();
+    }
+
+    @Override
+    public long getQueueTimeP50() {
+        return queueTime.getPercentile(0.5);
+    }
+
+    @Override
+    public long getQueueTimeP99() {
+        return queueTime.getPercentile(0.99);
+    }
+
+    @Override
+    public long getFirstByteTimeP50() {
+        return firstByteTime.getPercentile(0.5);
+    }
+
+    @Override
+    public long getFirstByteTimeP99() {
+        return firstByteTime.getPercentile(0.99);
+    }
+
+    @Override
+    public long getTransferTimeP50() {
+        return transferTime.getPercentile(0.5);
+    }
+
+    @Override
+    public long getTransferTimeP99() {
+        return transferTime.getPercentile(0.99);
+    }
+
+    @Override
+    public long getFileSizeP50() {
+        return fileSize.getPercentile(0.5);
+    }
+
+    @Override
+    public long getFileSizeP99() {
+        return fileSize.getPercentile(0.99);
+    }
+
+    @Override
+    public long getSpoolReservedBytes() {
+        SpoolManager spool = spoolManager;
+        return spool != null ? spool.getReservedBytes() : -1;
+    }
+
+    @Override
+    public int getSpoolFileCount() {
+        SpoolManager spool = spoolManager;
+        return spool != null ? spool.getSpoolFileCount() : -1;
+    }
+
+    @Override
+    public void reset() {
+        queued.set(0);
+        started.set(0);
+        finished.set(0);
+        failed.set(0);
+        interrupted.set(0);
+        bytesReceived.set(0);
+        queueTime.reset();
+        firstByteTime.reset();
+        transferTime.reset();
+        fileSize.reset();
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(JmxUploadMetrics.class.getName());
+    }
+
+    /**
+     * Log-linear histogram of non-negative values: each power of two is split into 4 buckets, so a bucket's upper bound is less than 25% above
+     * its values. Recording is lock-free.
+     */
+    private static final class Histogram {
+
+        private static final int SUB_BUCKETS = 4;
+        private static final int SUB_BUCKET_BITS = 2;
+
+        private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS));
+
+        void record(long value) {
+            counts.incrementAndGet(indexOf(Math.max(0, value)));
+        }
+
+        /**
+         * @return upper bound of the bucket holding the percentile, {@code 0} if nothing was recorded
+         */
+        long getPercentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                count += counts.get(i);
+                if (count >= rank && count > 0) {
+                    return upperBoundOf(i);
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS * (exponent - 1) + subBucket;
+        }
+
+        private static long upperBoundOf(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKETS + 1;
+            int subBucket = index % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (SUB_BUCKETS + subBucket) * width + width - 1;
+        }
+    }
+
+    /**
+     * Sum of the last minute in slots of one second.
+     */
+    private static final class RateMeter {
+
+        private static final int SLOTS = 60;
+
+        private final AtomicLongArray sums = new AtomicLongArray(SLOTS);
+        private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+
+        void add(long value) {
+            long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            int slot = (int) (second % SLOTS);
+            long slotSecond = seconds.get(slot);
+            if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {
+                // a concurrent add of the new second may get lost, good enough for a rate
+                sums.set(slot, 0);
+            }
+            sums.addAndGet(slot, value);
+        }
+
+        long getRate() {
+            long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            long sum = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (now - seconds.get(slot) < SLOTS) {
+                    sum += sums.get(slot);
+                }
+            }
+            return sum / SLOTS;
+        }
+    }
+}
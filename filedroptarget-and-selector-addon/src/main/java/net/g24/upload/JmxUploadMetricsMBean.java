@@ -0,0 +1,64 @@
+package net.g24.upload;
+
+/**
+ * Management interface of {@link JmxUploadMetrics}. Latencies are in milliseconds, percentiles are approximated by histogram buckets (less
+ * than 25% above the actual value).
+ */
+public interface JmxUploadMetricsMBean {
+
+    long getQueuedUploads();
+
+    long getStartedUploads();
+
+    long getFinishedUploads();
+
+    long getFailedUploads();
+
+    /**
+     * @return uploads cancelled or interrupted, included in the failed uploads
+     */
+    long getInterruptedUploads();
+
+    /**
+     * @return uploads started and not ended yet
+     */
+    long getActiveUploads();
+
+    long getBytesReceived();
+
+    /**
+     * @return bytes received per second, averaged over the last minute
+     */
+    long getBytesPerSecond();
+
+    long getQueueTimeP50();
+
+    long getQueueTimeP99();
+
+    long getFirstByteTimeP50();
+
+    long getFirstByteTimeP99();
+
+    long getTransferTimeP50();
+
+    long getTransferTimeP99();
+
+    long getFileSizeP50();
+
+    long getFileSizeP99();
+
+    /**
+     * @return bytes reserved by spool files, {@code -1} if no spool manager is monitored
+     */
+    long getSpoolReservedBytes();
+
+    /**
+     * @return number of spool files, {@code -1} if no spool manager is monitored
+     */
+    int getSpoolFileCount();
+
+    /**
+     * Resets counters and histograms, active uploads are kept.
+     */
+    void reset();
+}
@@ -0,0 +1,107 @@
+package net.g24.upload;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.g24.client.FileValidator;
+
+/**
+ * {@link UploadStage} detecting the type of an upload by its leading magic bytes, independent of the file name and the MIME type declared by
+ * the client. If accepted types are given, an upload of another type is aborted as soon as its first bytes are received. The result is the
+ * detected MIME type, {@value #UNKNOWN_TYPE} if the type is not known.
+ * <p>
+ * Known types: PNG, JPEG, GIF, WebP, TIFF, PDF, ZIP and GZIP.
+ */
+public class MagicTypeStage implements UploadStage {
+
+    public static final String UNKNOWN_TYPE = "application/octet-stream";
+
+    private static final int HEADER_LENGTH = 12;
+
+    private final List<String> acceptedTypes;
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int headerLength;
+    private String type;
+
+    /**
+     * @param acceptedTypes accepted MIME types or MIME type wildcards (e.g. {@code image/*}), none to accept all types
+     */
+    public MagicTypeStage(String... acceptedTypes) {
+        this.acceptedTypes = Arrays.asList(acceptedTypes);
+    }
+
+    @Override
+    public void process(byte[] b, int off, int len) throws UploadRejectedException {
+        if (type != null) {
+            return;
+        }
+        int length = Math.min(len, HEADER_LENGTH - headerLength);
+        System.arraycopy(b, off, header, headerLength, length);
+        headerLength += length;
+        if (headerLength == HEADER_LENGTH) {
+            detect();
+        }
+    }
+
+    @Override
+    public void finish() throws UploadRejectedException {
+        if (type == null) {
+            detect();
+        }
+    }
+
+    private void detect() throws UploadRejectedException {
+        type = detectType();
+        if (!FileValidator.isAccepted(acceptedTypes, null, type)) {
+            throw new UploadRejectedException("Type " + type + " not accepted");
+        }
+    }
+
+    private String detectType() {
+        if (startsWith(0, 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a)) {
+            return "image/png";
+        }
+        if (startsWith(0, 0xff, 0xd8, 0xff)) {
+            return "image/jpeg";
+        }
+        if (startsWith(0, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(0, 'R', 'I', 'F', 'F') && startsWith(8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        if (startsWith(0, 'I', 'I', 42, 0) || startsWith(0, 'M', 'M', 0, 42)) {
+            return "image/tiff";
+        }
+        if (startsWith(0, '%', 'P', 'D', 'F', '-')) {
+            return "application/pdf";
+        }
+        if (startsWith(0, 'P', 'K', 3, 4) || startsWith(0, 'P', 'K', 5, 6)) {
+            return "application/zip";
+        }
+        if (startsWith(0, 0x1f, 0x8b)) {
+            return "application/gzip";
+        }
+        return UNKNOWN_TYPE;
+    }
+
+    private boolean startsWith(int offset, int... magic) {
+        if (offset + magic.length > headerLength) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[offset + i] & 0xff) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the detected MIME type, {@code null} until the first bytes are received
+     */
+    @Override
+    public String getResult() {
+        return type;
+    }
+}
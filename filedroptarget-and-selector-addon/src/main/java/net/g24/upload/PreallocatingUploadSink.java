@@ -0,0 +1,58 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * {@link ChannelUploadSink} reserving the expected size of the upload (e.g. {@link Html5File#getFileSize()}) up front. The upload fails fast
+ * if the file store has not enough usable space. Otherwise the file is filled with zeros up to its final size before the first byte arrives,
+ * so the blocks are actually allocated (a sparse file would reserve nothing) and a disk quota is exceeded before the upload starts rather
+ * than at its end. This writes the file twice, it pays off for large uploads to a shared file store only. On {@link #close()} the file is
+ * truncated to the number of bytes actually received.
+ */
+public class PreallocatingUploadSink extends ChannelUploadSink {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(BLOCK_SIZE).asReadOnlyBuffer();
+
+    public PreallocatingUploadSink(Path target, Html5File file) throws IOException {
+        this(target, file.getFileSize());
+    }
+
+    public PreallocatingUploadSink(Path target, long expectedSize) throws IOException {
+        super(target);
+        try {
+            long usableSpace = Files.getFileStore(target).getUsableSpace();
+            if (expectedSize > usableSpace) {
+                throw new IOException("Not enough usable space for " + expectedSize + " bytes, " + usableSpace + " bytes available");
+            }
+            reserve(expectedSize);
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes zero-filled blocks by position, the channel position used by the upload stays at the start of the file.
+     */
+    private void reserve(long size) throws IOException {
+        ByteBuffer zeros = ZEROS.duplicate();
+        for (long position = 0; position < size;) {
+            zeros.clear();
+            zeros.limit((int) Math.min(BLOCK_SIZE, size - position));
+            while (zeros.hasRemaining()) {
+                position += channel.write(zeros, position);
+            }
+        }
+    }
+
+    @Override
+    protected void complete() throws IOException {
+        channel.truncate(getBytesWritten());
+    }
+}
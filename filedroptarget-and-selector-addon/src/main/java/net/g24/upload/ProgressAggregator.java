@@ -0,0 +1,171 @@
+package net.g24.upload;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.SerializableConsumer;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.ui.Html5File;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+/**
+ * Collects the progress of all uploads of a connector and delivers it in batches: at most once per interval, all files which made progress
+ * are passed to the batch consumer within a single {@link UI#access}.
+ * <p>
+ * Progress is collected without taking the session lock, either by counting the bytes written to the output stream (see
+ * {@link #count(Html5File, OutputStream)}) or by {@link #update(Html5File, long)}. So tracked uploads do not need
+ * {@link StreamVariable#listenProgress()}, which locks the session per progress event. Files smaller than the min. file size are not tracked
+ * at all, their upload completes before a progress indication matters.
+ */
+public class ProgressAggregator implements Serializable {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upload-progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ClientConnector owner;
+    private final SerializableConsumer<Map<Html5File, Long>> batchConsumer;
+    private final Map<Html5File, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Map<Html5File, Long> delivered = new HashMap<>();
+    private long interval = 250;
+    private long minFileSize;
+    private transient ScheduledFuture<?> task;
+
+    /**
+     * @param owner connector of the uploads, batches are delivered to its UI
+     * @param batchConsumer receives the number of bytes received, mapped to the file, while holding the session lock
+     */
+    public ProgressAggregator(ClientConnector owner, SerializableConsumer<Map<Html5File, Long>> batchConsumer) {
+        this.owner = owner;
+        this.batchConsumer = batchConsumer;
+    }
+
+    /**
+     * @param interval min. interval between two batches in milliseconds (default 250)
+     */
+    public void setInterval(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be at least 1");
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * @param minFileSize min. size in bytes of tracked files (default 0)
+     */
+    public void setMinFileSize(long minFileSize) {
+        this.minFileSize = minFileSize;
+    }
+
+    /**
+     * Starts tracking the upload of given file, if it is large enough.
+     *
+     * @return {@code true} if the file is tracked
+     */
+    public synchronized boolean start(Html5File file) {
+        if (file.getFileSize() < minFileSize) {
+            return false;
+        }
+        counters.put(file, new AtomicLong());
+        if (task == null) {
+            task = SCHEDULER.scheduleWithFixedDelay(this::deliver, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * @return the given stream, counting the bytes written to it if the file is tracked
+     */
+    public OutputStream count(Html5File file, OutputStream out) {
+        AtomicLong counter = counters.get(file);
+        return counter == null || out == null ? out : new CountingOutputStream(out, counter);
+    }
+
+    /**
+     * Updates the number of bytes received of given file.
+     *
+     * @return {@code true} if the file is tracked
+     */
+    public boolean update(Html5File file, long bytesReceived) {
+        AtomicLong counter = counters.get(file);
+        if (counter == null) {
+            return false;
+        }
+        counter.set(bytesReceived);
+        return true;
+    }
+
+    /**
+     * Stops tracking the upload of given file, e.g. when streaming finished or failed.
+     */
+    public synchronized void stop(Html5File file) {
+        counters.remove(file);
+        delivered.remove(file);
+    }
+
+    private void deliver() {
+        Map<Html5File, Long> batch = new HashMap<>();
+        synchronized (this) {
+            counters.forEach((file, counter) -> {
+                long bytesReceived = counter.get();
+                Long previous = delivered.put(file, bytesReceived);
+                if (previous == null || previous != bytesReceived) {
+                    batch.put(file, bytesReceived);
+                }
+            });
+            if (counters.isEmpty() && task != null) {
+                task.cancel(false);
+                task = null;
+            }
+        }
+        UI ui = owner.getUI();
+        if (batch.isEmpty() || ui == null) {
+            return;
+        }
+        try {
+            ui.access(() -> batchConsumer.accept(Collections.unmodifiableMap(batch)));
+        } catch (UIDetachedException e) {
+            synchronized (this) {
+                counters.clear();
+                delivered.clear();
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private final AtomicLong counter;
+
+        private CountingOutputStream(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+    }
+}
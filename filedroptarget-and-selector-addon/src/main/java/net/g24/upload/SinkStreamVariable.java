@@ -0,0 +1,159 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.server.SerializableConsumer;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.ui.Html5File;
+
+/**
+ * {@link StreamVariable} writing the upload of an {@link Html5File} to an {@link UploadSink}. The sink is completed when streaming finished
+ * and aborted when streaming failed or got interrupted.
+ * <p>
+ * If the stream variable is created with an {@link UploadSinkFactory}, the sink is allocated lazily when streaming starts, so no resources
+ * are allocated for files which are never streamed, e.g. because the upload gets cancelled before.
+ * <p>
+ * Example:
+ * <pre>
+ * SinkStreamVariable streamVariable = SinkStreamVariable.attach(file, new ChannelUploadSink(target));
+ * streamVariable.setFinishedListener(event -&gt; ...);
+ * </pre>
+ */
+public class SinkStreamVariable implements StreamVariable {
+
+    private final UploadSinkFactory sinkFactory;
+    private final Html5File file;
+    private transient UploadSink sink;
+    private SerializableConsumer<StreamingProgressEvent> progressListener;
+    private SerializableConsumer<StreamingStartEvent> startedListener;
+    private SerializableConsumer<StreamingEndEvent> finishedListener;
+    private SerializableConsumer<StreamingErrorEvent> failedListener;
+    private volatile boolean interrupted;
+
+    public SinkStreamVariable(UploadSink sink) {
+        this.sink = sink;
+        this.sinkFactory = null;
+        this.file = null;
+    }
+
+    /**
+     * @param file the file to be uploaded, passed to the factory
+     * @param sinkFactory creates the sink when streaming starts
+     */
+    public SinkStreamVariable(Html5File file, UploadSinkFactory sinkFactory) {
+        this.file = file;
+        this.sinkFactory = sinkFactory;
+    }
+
+    /**
+     * Attaches a new {@link SinkStreamVariable} writing to the given sink to the file.
+     */
+    public static SinkStreamVariable attach(Html5File file, UploadSink sink) {
+        SinkStreamVariable streamVariable = new SinkStreamVariable(sink);
+        file.setStreamVariable(streamVariable);
+        return streamVariable;
+    }
+
+    /**
+     * Attaches a new {@link SinkStreamVariable} to the file, which creates its sink when streaming starts.
+     */
+    public static SinkStreamVariable attach(Html5File file, UploadSinkFactory sinkFactory) {
+        SinkStreamVariable streamVariable = new SinkStreamVariable(file, sinkFactory);
+        file.setStreamVariable(streamVariable);
+        return streamVariable;
+    }
+
+    /**
+     * @return the sink, or {@code null} if it is created lazily and streaming did not start yet
+     */
+    public UploadSink getSink() {
+        return sink;
+    }
+
+    public void setStartedListener(SerializableConsumer<StreamingStartEvent> startedListener) {
+        this.startedListener = startedListener;
+    }
+
+    /**
+     * Enables progress events, see {@link #listenProgress()}.
+     */
+    public void setProgressListener(SerializableConsumer<StreamingProgressEvent> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void setFinishedListener(SerializableConsumer<StreamingEndEvent> finishedListener) {
+        this.finishedListener = finishedListener;
+    }
+
+    public void setFailedListener(SerializableConsumer<StreamingErrorEvent> failedListener) {
+        this.failedListener = failedListener;
+    }
+
+    /**
+     * Interrupts the upload, the sink gets aborted.
+     */
+    public void interrupt() {
+        interrupted = true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        // null lets the upload fail, if the sink could not be created
+        return sink != null ? new UploadSinkOutputStream(sink) : null;
+    }
+
+    @Override
+    public boolean listenProgress() {
+        return progressListener != null;
+    }
+
+    @Override
+    public void onProgress(StreamingProgressEvent event) {
+        if (progressListener != null) {
+            progressListener.accept(event);
+        }
+    }
+
+    @Override
+    public void streamingStarted(StreamingStartEvent event) {
+        if (sink == null && sinkFactory != null) {
+            try {
+                sink = sinkFactory.create(file);
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Creating upload sink failed", e);
+            }
+        }
+        if (startedListener != null) {
+            startedListener.accept(event);
+        }
+    }
+
+    @Override
+    public void streamingFinished(StreamingEndEvent event) {
+        if (finishedListener != null) {
+            finishedListener.accept(event);
+        }
+    }
+
+    @Override
+    public void streamingFailed(StreamingErrorEvent event) {
+        if (sink != null) {
+            sink.abort();
+        }
+        if (failedListener != null) {
+            failedListener.accept(event);
+        }
+    }
+
+    @Override
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(SinkStreamVariable.class.getName());
+    }
+}
@@ -0,0 +1,28 @@
+package net.g24.upload;
+
+/**
+ * {@link UploadStage} aborting an upload as soon as it exceeds a max. size, regardless of the size declared by the client. The result is
+ * the number of bytes received.
+ */
+public class SizeGuardStage implements UploadStage {
+
+    private final long maxBytes;
+    private long bytesReceived;
+
+    public SizeGuardStage(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void process(byte[] b, int off, int len) throws UploadRejectedException {
+        bytesReceived += len;
+        if (bytesReceived > maxBytes) {
+            throw new UploadRejectedException("Upload exceeds " + maxBytes + " bytes");
+        }
+    }
+
+    @Override
+    public Long getResult() {
+        return bytesReceived;
+    }
+}
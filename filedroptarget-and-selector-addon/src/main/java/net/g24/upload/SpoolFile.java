@@ -0,0 +1,91 @@
+package net.g24.upload;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+
+/**
+ * Spool file handed out by a {@link SpoolManager}. The file is tracked and counted against the quota until it is {@link #delete() deleted}.
+ * <p>
+ * The janitor of the manager expires the file after it has not been written or {@link #touch() accessed} for the max. age, but never while
+ * a sink is writing it.
+ */
+public class SpoolFile implements Closeable {
+
+    private final SpoolManager manager;
+    private final Path path;
+    private volatile long lastAccess = System.currentTimeMillis();
+    private volatile boolean open;
+    private long reservedBytes;
+    private volatile boolean deleted;
+
+    SpoolFile(SpoolManager manager, Path path, long reservedBytes) {
+        this.manager = manager;
+        this.path = path;
+        this.reservedBytes = reservedBytes;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Marks the file as accessed, e.g. while processing its content takes longer than the max. age of the manager.
+     */
+    public void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @param open {@code true} while a sink is writing the file
+     */
+    void setOpen(boolean open) {
+        this.open = open;
+        touch();
+    }
+
+    synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Reserves quota for the file to grow to the given size, e.g. if more bytes arrive than expected.
+     *
+     * @throws SpoolQuotaExceededException if the remaining quota is exceeded
+     */
+    public synchronized void ensureCapacity(long size) throws SpoolQuotaExceededException {
+        if (size > reservedBytes && !deleted) {
+            manager.reserve(size - reservedBytes);
+            reservedBytes = size;
+        }
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Deletes the file and releases its quota. Calling this method more than once has no effect.
+     */
+    public synchronized void delete() {
+        if (!deleted) {
+            deleted = true;
+            manager.release(this);
+        }
+    }
+
+    /**
+     * Same as {@link #delete()}.
+     */
+    @Override
+    public void close() {
+        delete();
+    }
+}
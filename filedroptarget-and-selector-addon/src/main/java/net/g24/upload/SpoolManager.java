@@ -0,0 +1,177 @@
+package net.g24.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Manages spool files of uploads in a dedicated directory with a disk quota. Replaces {@code File#deleteOnExit()}, which keeps an entry per
+ * file until the JVM shuts down.
+ * <ul>
+ * <li>Spool files are handed out by {@link #allocate(long)} and tracked until they are deleted by {@link SpoolFile#delete()}, e.g. when
+ * streaming finished or failed.</li>
+ * <li>The size of all spool files is limited by the quota, exceeding it fails the upload with a {@link SpoolQuotaExceededException}.</li>
+ * <li>A background janitor deletes orphans: files left from previous runs and tracked files neither written nor
+ * {@link SpoolFile#touch() accessed} for the max. age, e.g. of uploads never released. Files still being written are kept.</li>
+ * </ul>
+ * A spool manager is meant to be application scoped and must be {@link #close() closed} on shutdown. There must be at most one open
+ * manager per directory, a deserialized {@link TieredSpool} is resolved to the manager of its directory.
+ */
+public class SpoolManager implements Closeable {
+
+    private static final String PREFIX = "upload";
+    private static final String SUFFIX = ".spool";
+    private static final Map<Path, SpoolManager> OPEN_MANAGERS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long quota;
+    private final Duration maxAge;
+    private final Map<Path, SpoolFile> spoolFiles = new ConcurrentHashMap<>();
+    private final Map<String, TieredSpool> tieredSpools = new ConcurrentHashMap<>();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final ScheduledExecutorService janitor;
+
+    /**
+     * @param directory dedicated spool directory, created if missing. Must not be shared with other applications, as all spool files not
+     * tracked by this manager are deleted by the janitor.
+     * @param quota max. number of bytes of all spool files
+     * @param maxAge max. time a spool file may stay unused, i.e. neither written nor accessed, before it is deleted by the janitor
+     */
+    public SpoolManager(Path directory, long quota, Duration maxAge) throws IOException {
+        this.directory = Files.createDirectories(directory).toAbsolutePath().normalize();
+        this.quota = quota;
+        this.maxAge = maxAge;
+        this.janitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-spool-janitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, maxAge.toMillis() / 2);
+        janitor.scheduleWithFixedDelay(this::deleteOrphans, 0, interval, TimeUnit.MILLISECONDS);
+        OPEN_MANAGERS.put(this.directory, this);
+    }
+
+    /**
+     * @return the open manager of given directory, {@code null} if there is none
+     */
+    static SpoolManager find(Path directory) {
+        return OPEN_MANAGERS.get(directory.toAbsolutePath().normalize());
+    }
+
+    void register(TieredSpool tieredSpool) {
+        tieredSpools.putIfAbsent(tieredSpool.getKey(), tieredSpool);
+    }
+
+    TieredSpool getTieredSpool(String key) {
+        return tieredSpools.get(key);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return number of bytes reserved by all tracked spool files
+     */
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    /**
+     * @return number of tracked spool files
+     */
+    public int getSpoolFileCount() {
+        return spoolFiles.size();
+    }
+
+    /**
+     * Creates and tracks a new spool file.
+     *
+     * @param expectedSize number of bytes to reserve up front, e.g. the size of the uploaded file
+     * @throws SpoolQuotaExceededException if the expected size exceeds the remaining quota
+     */
+    public SpoolFile allocate(long expectedSize) throws IOException {
+        reserve(Math.max(0, expectedSize));
+        try {
+            SpoolFile spoolFile = new SpoolFile(this, Files.createTempFile(directory, PREFIX, SUFFIX), Math.max(0, expectedSize));
+            spoolFiles.put(spoolFile.getPath(), spoolFile);
+            return spoolFile;
+        } catch (IOException e) {
+            reservedBytes.addAndGet(-Math.max(0, expectedSize));
+            throw e;
+        }
+    }
+
+    void reserve(long bytes) throws SpoolQuotaExceededException {
+        long reserved = reservedBytes.addAndGet(bytes);
+        if (reserved > quota) {
+            reservedBytes.addAndGet(-bytes);
+            throw new SpoolQuotaExceededException(bytes, quota);
+        }
+    }
+
+    void release(SpoolFile spoolFile) {
+        if (spoolFiles.remove(spoolFile.getPath(), spoolFile)) {
+            reservedBytes.addAndGet(-spoolFile.getReservedBytes());
+        }
+        try {
+            Files.deleteIfExists(spoolFile.getPath());
+        } catch (IOException e) {
+            // the janitor will retry
+            getLogger().log(Level.FINE, "Deleting spool file failed", e);
+        }
+    }
+
+    /**
+     * Deletes untracked spool files older than the max. age and tracked spool files not written nor accessed for the max. age, except
+     * those still being written. Runs periodically in the background.
+     */
+    public void deleteOrphans() {
+        long expiry = System.currentTimeMillis() - maxAge.toMillis();
+        spoolFiles.values().stream().filter(spoolFile -> !spoolFile.isOpen() && spoolFile.getLastAccess() < expiry).forEach(spoolFile -> {
+            getLogger().log(Level.WARNING, "Deleting expired spool file {0}", spoolFile.getPath());
+            spoolFile.delete();
+        });
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (!spoolFiles.containsKey(file) && isOlderThan(file, expiry)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            getLogger().log(Level.WARNING, "Deleting orphaned spool files failed", e);
+        }
+    }
+
+    private static boolean isOlderThan(Path file, long time) throws IOException {
+        FileTime lastModified = Files.getLastModifiedTime(file);
+        return lastModified.toMillis() < time;
+    }
+
+    /**
+     * Stops the janitor and deletes all tracked spool files.
+     */
+    @Override
+    public void close() {
+        OPEN_MANAGERS.remove(directory, this);
+        tieredSpools.clear();
+        janitor.shutdownNow();
+        spoolFiles.values().forEach(SpoolFile::delete);
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(SpoolManager.class.getName());
+    }
+}
@@ -0,0 +1,13 @@
+package net.g24.upload;
+
+import java.io.IOException;
+
+/**
+ * Thrown if a spool file would exceed the quota of its {@link SpoolManager}. As an {@link IOException} it fails the upload.
+ */
+public class SpoolQuotaExceededException extends IOException {
+
+    public SpoolQuotaExceededException(long requestedBytes, long quota) {
+        super("Spool quota of " + quota + " bytes exceeded, requested " + requestedBytes + " bytes");
+    }
+}
@@ -0,0 +1,89 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * {@link ChannelUploadSink} writing to a {@link SpoolFile} of a {@link SpoolManager}. Bytes exceeding the reserved size are counted against
+ * the quota as they arrive, so a client sending more than announced cannot exhaust the disk.
+ * <p>
+ * The spool file is deleted on {@link #abort()}, i.e. when streaming failed or got interrupted, otherwise by {@link #release()} as soon as
+ * the content is processed.
+ */
+public class SpoolUploadSink extends ChannelUploadSink {
+
+    private final SpoolFile spoolFile;
+
+    public SpoolUploadSink(SpoolFile spoolFile) throws IOException {
+        super(spoolFile.getPath());
+        this.spoolFile = spoolFile;
+        spoolFile.setOpen(true);
+    }
+
+    /**
+     * Allocates a spool file reserving the size of the given file.
+     */
+    public static SpoolUploadSink create(SpoolManager spoolManager, Html5File file) throws IOException {
+        return create(spoolManager, file.getFileSize());
+    }
+
+    /**
+     * Allocates a spool file reserving the given size.
+     */
+    public static SpoolUploadSink create(SpoolManager spoolManager, long expectedSize) throws IOException {
+        SpoolFile spoolFile = spoolManager.allocate(expectedSize);
+        try {
+            return new SpoolUploadSink(spoolFile);
+        } catch (IOException e) {
+            spoolFile.delete();
+            throw e;
+        }
+    }
+
+    public SpoolFile getSpoolFile() {
+        return spoolFile;
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        spoolFile.ensureCapacity(getBytesWritten() + src.remaining());
+        spoolFile.touch();
+        super.write(src);
+    }
+
+    @Override
+    public void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += srcs[i].remaining();
+        }
+        spoolFile.ensureCapacity(getBytesWritten() + remaining);
+        spoolFile.touch();
+        super.write(srcs, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            spoolFile.setOpen(false);
+        }
+    }
+
+    @Override
+    public void abort() {
+        super.abort();
+        spoolFile.setOpen(false);
+        spoolFile.delete();
+    }
+
+    /**
+     * Deletes the spool file after the content is processed.
+     */
+    public void release() {
+        abort();
+    }
+}
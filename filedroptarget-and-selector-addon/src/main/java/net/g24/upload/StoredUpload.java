@@ -0,0 +1,130 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.vaadin.server.NoOutputStreamException;
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.communication.FileUploadHandler;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Completes the upload of a file already known to a {@link ContentStore}: the stored content is written to the {@link StreamVariable} in
+ * the background, firing the same events as a transferred upload, so drop handlers cannot tell the difference. The file is never sent by
+ * the client.
+ * <p>
+ * The uploads are completed by a small pool of threads shared by all sessions, a drop of many stored files is queued. If the stored content
+ * turns out to differ in size from the file, the upload fails.
+ */
+public class StoredUpload implements Runnable {
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())),
+        runnable -> {
+            Thread thread = new Thread(runnable, "upload-dedup-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final VaadinSession session;
+    private final Html5File file;
+    private final StreamVariable streamVariable;
+    private final ContentStore contentStore;
+    private final String digest;
+    private long bytesReceived;
+
+    private StoredUpload(VaadinSession session, Html5File file, StreamVariable streamVariable, ContentStore contentStore, String digest) {
+        this.session = session;
+        this.file = file;
+        this.streamVariable = streamVariable;
+        this.contentStore = contentStore;
+        this.digest = digest;
+    }
+
+    /**
+     * @return {@code true} if the store contains the content of given digest, and its size matches the size of the file, if known
+     */
+    public static boolean isStored(Html5File file, ContentStore contentStore, String digest) {
+        if (!contentStore.contains(digest)) {
+            return false;
+        }
+        try {
+            long size = contentStore.size(digest);
+            return size < 0 || size == file.getFileSize();
+        } catch (IOException e) {
+            getLogger().log(Level.FINE, "Reading size of stored content failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * Completes the upload of given file from the store in the background, see {@link #isStored(Html5File, ContentStore, String)}.
+     *
+     * @param streamVariable receives the file, e.g. a {@link FileReceiver}
+     */
+    public static void complete(VaadinSession session, Html5File file, StreamVariable streamVariable, ContentStore contentStore,
+        String digest) {
+        EXECUTOR.execute(new StoredUpload(session, file, streamVariable, contentStore, digest));
+    }
+
+    @Override
+    public void run() {
+        OutputStream[] out = new OutputStream[1];
+        boolean[] interrupted = new boolean[1];
+        session.accessSynchronously(() -> {
+            interrupted[0] = streamVariable.isInterrupted();
+            if (!interrupted[0]) {
+                streamVariable.streamingStarted(new UploadEvent(file, 0));
+                out[0] = streamVariable.getOutputStream();
+            }
+        });
+        if (interrupted[0]) {
+            fail(new FileUploadHandler.UploadInterruptedException());
+            return;
+        }
+        if (out[0] == null) {
+            fail(new NoOutputStreamException());
+            return;
+        }
+        try (InputStream in = contentStore.open(digest); OutputStream stream = out[0]) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                if (streamVariable.isInterrupted()) {
+                    interrupted[0] = true;
+                    break;
+                }
+                stream.write(buffer, 0, length);
+                bytesReceived += length;
+            }
+        } catch (IOException | RuntimeException e) {
+            getLogger().log(Level.FINE, "Completing upload from content store failed", e);
+            fail(e);
+            return;
+        }
+        if (interrupted[0]) {
+            fail(new FileUploadHandler.UploadInterruptedException());
+        } else if (bytesReceived != file.getFileSize()) {
+            fail(new IOException("Stored content has " + bytesReceived + " bytes, the file has " + file.getFileSize() + " bytes"));
+        } else {
+            session.accessSynchronously(() -> streamVariable.streamingFinished(new UploadEvent(file, bytesReceived)));
+        }
+    }
+
+    private void fail(Exception exception) {
+        session.accessSynchronously(() -> streamVariable.streamingFailed(new UploadEvent(file, bytesReceived, exception)));
+    }
+
+    private static Logger getLogger() {
+        return Logger.getLogger(StoredUpload.class.getName());
+    }
+}
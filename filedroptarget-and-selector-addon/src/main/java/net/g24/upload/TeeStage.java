@@ -0,0 +1,37 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link UploadStage} copying the upload to additional {@link UploadSink}s, e.g. a local spool file and a remote store at once. The sinks
+ * are closed at the end of the stream and aborted if the upload fails.
+ */
+public class TeeStage implements UploadStage {
+
+    private final List<UploadSink> sinks;
+
+    public TeeStage(UploadSink... sinks) {
+        this.sinks = Arrays.asList(sinks);
+    }
+
+    @Override
+    public void process(byte[] b, int off, int len) throws IOException {
+        for (UploadSink sink : sinks) {
+            sink.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        for (UploadSink sink : sinks) {
+            sink.close();
+        }
+    }
+
+    @Override
+    public void abort() {
+        sinks.forEach(UploadSink::abort);
+    }
+}
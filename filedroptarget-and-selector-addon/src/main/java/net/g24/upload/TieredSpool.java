@@ -0,0 +1,76 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.file.Paths;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * Spool keeping small uploads in memory: files up to a threshold size land in a bounded pool of off-heap buffers, only larger files or files
+ * arriving while the pool is exhausted are spilled to files of a {@link SpoolManager}. This avoids temp file creation and file system metadata
+ * operations for the typical small file.
+ * <p>
+ * Use {@link #createSink(Html5File)} as {@link UploadSinkFactory}, so buffers and files are only allocated when streaming starts:
+ * <pre>
+ * SinkStreamVariable.attach(file, spool::createSink);
+ * </pre>
+ * A spool is meant to be application scoped, like its {@link SpoolManager}. It is serializable, as the factory is held by pending files of
+ * the session: a deserialized spool resolves to the spool of the same size limits of the open manager of its directory.
+ */
+public class TieredSpool implements Serializable {
+
+    private final int threshold;
+    private final int maxBuffers;
+    private final String spoolDirectory;
+    private final transient BufferPool memoryPool;
+    private final transient SpoolManager spoolManager;
+
+    /**
+     * @param threshold max. size in bytes of files kept in memory
+     * @param maxBuffers max. number of files kept in memory at once, i.e. the pool uses at most {@code threshold * maxBuffers} bytes
+     * @param spoolManager manager of the files spilled to disk
+     */
+    public TieredSpool(int threshold, int maxBuffers, SpoolManager spoolManager) {
+        this.threshold = threshold;
+        this.maxBuffers = maxBuffers;
+        this.spoolDirectory = spoolManager.getDirectory().toString();
+        this.memoryPool = new BufferPool(threshold, maxBuffers);
+        this.spoolManager = spoolManager;
+        spoolManager.register(this);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    BufferPool getMemoryPool() {
+        return memoryPool;
+    }
+
+    public TieredUploadSink createSink(Html5File file) {
+        return new TieredUploadSink(this, file.getFileSize());
+    }
+
+    SpoolUploadSink createSpillSink(long expectedSize) throws IOException {
+        return SpoolUploadSink.create(spoolManager, expectedSize);
+    }
+
+    /**
+     * @return key of the size limits, spools of a manager with the same limits are interchangeable
+     */
+    String getKey() {
+        return threshold + "x" + maxBuffers;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        SpoolManager manager = SpoolManager.find(Paths.get(spoolDirectory));
+        if (manager == null) {
+            throw new InvalidObjectException("No open spool manager of " + spoolDirectory);
+        }
+        TieredSpool spool = manager.getTieredSpool(getKey());
+        return spool != null ? spool : new TieredSpool(threshold, maxBuffers, manager);
+    }
+}
@@ -0,0 +1,159 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link UploadSink} of a {@link TieredSpool}. Keeps the upload in a pooled off-heap buffer as long as it fits, otherwise spills it to a
+ * {@link SpoolFile}.
+ * <p>
+ * After the upload completed, the content is available by {@link #getInputStream()}. {@link #release()} must be called as soon as the
+ * content is processed, to return the buffer to the pool or delete the spill file.
+ */
+public class TieredUploadSink implements UploadSink {
+
+    private final TieredSpool spool;
+    private final long expectedSize;
+    private ByteBuffer memory;
+    private SpoolUploadSink disk;
+    private long bytesWritten;
+    private boolean closed;
+
+    TieredUploadSink(TieredSpool spool, long expectedSize) {
+        this.spool = spool;
+        this.expectedSize = expectedSize;
+        if (expectedSize <= spool.getThreshold()) {
+            memory = spool.getMemoryPool().acquire();
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        if (closed) {
+            throw new IOException("Sink closed");
+        }
+        bytesWritten += src.remaining();
+        if (memory != null && src.remaining() > memory.remaining()) {
+            spill();
+        }
+        if (memory != null) {
+            memory.put(src);
+        } else {
+            if (disk == null) {
+                disk = spool.createSpillSink(expectedSize);
+            }
+            disk.write(src);
+        }
+    }
+
+    private void spill() throws IOException {
+        disk = spool.createSpillSink(expectedSize);
+        memory.flip();
+        disk.write(memory);
+        spool.getMemoryPool().release(memory);
+        memory = null;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        if (disk != null) {
+            disk.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (memory != null) {
+            memory.flip();
+        } else if (disk != null) {
+            disk.close();
+        }
+    }
+
+    @Override
+    public void abort() {
+        release();
+    }
+
+    /**
+     * @return {@code true} if the content is kept in memory, {@code false} if it is spilled to {@link #getSpillFile()}
+     */
+    public boolean isInMemory() {
+        return disk == null;
+    }
+
+    /**
+     * @return the spill file, or {@code null} if the content is kept in memory
+     */
+    public Path getSpillFile() {
+        return disk != null ? disk.getTarget() : null;
+    }
+
+    /**
+     * @return stream of the content of the completed upload
+     */
+    public InputStream getInputStream() throws IOException {
+        if (!closed) {
+            throw new IllegalStateException("Upload not completed");
+        }
+        if (disk != null) {
+            return Files.newInputStream(disk.getTarget());
+        }
+        return new ByteBufferInputStream(memory != null ? memory.duplicate() : ByteBuffer.allocate(0));
+    }
+
+    /**
+     * Returns the buffer to the pool, or deletes the spill file.
+     */
+    public void release() {
+        closed = true;
+        if (memory != null) {
+            spool.getMemoryPool().release(memory);
+            memory = null;
+        }
+        if (disk != null) {
+            disk.release();
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int length = Math.min(len, buffer.remaining());
+            buffer.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.g24.upload;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.vaadin.server.StreamVariable;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Streaming event passed to the {@link StreamVariable} of an {@link Html5File}. Like Vaadin's internal wrapper in
+ * {@link com.vaadin.ui.dnd.FileDropTarget} it provides file name, type and size from the client-side file parameters.
+ */
+class UploadEvent implements StreamVariable.StreamingStartEvent, StreamVariable.StreamingProgressEvent, StreamVariable.StreamingEndEvent,
+        StreamVariable.StreamingErrorEvent {
+
+    private final Html5File file;
+    private final long bytesReceived;
+    private final Exception exception;
+    private final Map<String, Object> results;
+
+    UploadEvent(Html5File file, long bytesReceived) {
+        this(file, bytesReceived, null);
+    }
+
+    UploadEvent(Html5File file, long bytesReceived, Exception exception) {
+        this(file, bytesReceived, exception, Collections.emptyMap());
+    }
+
+    private UploadEvent(Html5File file, long bytesReceived, Exception exception, Map<String, Object> results) {
+        this.file = file;
+        this.bytesReceived = bytesReceived;
+        this.exception = exception;
+        this.results = results;
+    }
+
+    static UploadEvent wrap(Html5File file, StreamVariable.StreamingEvent event) {
+        return wrap(file, event, event.getBytesReceived(), Collections.emptyMap());
+    }
+
+    /**
+     * @param bytesReceived bytes of the file received so far, differs from the event's count if the content is sent compressed
+     * @param results results of the {@link UploadPipeline}'s stages
+     */
+    static UploadEvent wrap(Html5File file, StreamVariable.StreamingEvent event, long bytesReceived, Map<String, Object> results) {
+        Exception exception = event instanceof StreamVariable.StreamingErrorEvent ? ((StreamVariable.StreamingErrorEvent) event).getException() : null;
+        return new UploadEvent(file, bytesReceived, exception, results);
+    }
+
+    @Override
+    public String getFileName() {
+        return file.getFileName();
+    }
+
+    @Override
+    public String getMimeType() {
+        return file.getType();
+    }
+
+    @Override
+    public long getContentLength() {
+        return file.getFileSize();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public Exception getException() {
+        return exception;
+    }
+
+    Map<String, Object> getResults() {
+        return results;
+    }
+
+    /**
+     * Calling this method has no effect. Dropped files are received only once anyway.
+     */
+    @Override
+    public void disposeStreamVariable() {
+    }
+}
@@ -0,0 +1,408 @@
+package net.g24.upload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * JVM-wide admission control and bandwidth limiting of the uploads received by {@link AsyncUploadHandler} and {@link ChunkedUploadHandler}.
+ * <p>
+ * At most {@code maxUploads} request bodies are received at the same time, at most {@code maxUploadsPerSession} of them per session. Further
+ * requests are not held open on the server: they are answered with {@code 503 Service Unavailable} and a {@code Retry-After} header, the
+ * client waits and posts the file (or chunk) again. So a burst of uploads neither pins container threads nor exhausts disk bandwidth.
+ * <p>
+ * Rejected uploads wait in line instead: up to {@code maxWaitingUploads} of them are remembered in order of arrival, a free slot is taken by
+ * the upload waiting longest (whose session may upload) once it is posted again, not by whichever retry comes first. The {@code Retry-After}
+ * delay grows with the position in line. An upload not posted again within twice its delay (plus a second) leaves the line, e.g. if the
+ * client is gone.
+ * <p>
+ * The bandwidth of each session is limited by a token bucket. The rate of a session is its fair share of {@code maxBytesPerSecond}, i.e.
+ * divided by the number of sessions currently uploading, and at most {@code maxBytesPerSecondPerSession}. A session may burst at its rate for
+ * one second.
+ * <p>
+ * The governor applies once installed by {@link #setDefault(UploadGovernor)}, e.g. in {@code VaadinServlet.servletInitialized()}. Uploads
+ * posted to Vaadin's multipart handler cannot be governed, so the component sends whole files to the {@link AsyncUploadHandler} as long as
+ * a governor is installed.
+ */
+public class UploadGovernor {
+
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+    private static final int MAX_RETRY_AFTER_SECONDS = 60;
+    private static final int DEFAULT_MAX_WAITING_UPLOADS = 1000;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final Permit UNLIMITED = new Permit(null, null);
+
+    private static volatile UploadGovernor defaultGovernor;
+
+    private final int maxUploads;
+    private final Map<VaadinSession, SessionShare> shares = new WeakHashMap<>();
+    // in order of arrival
+    private final Map<String, Waiter> waiters = new LinkedHashMap<>();
+    private int maxUploadsPerSession;
+    private long maxBytesPerSecond;
+    private long maxBytesPerSecondPerSession;
+    private int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+    private int maxWaitingUploads = DEFAULT_MAX_WAITING_UPLOADS;
+    private int activeUploads;
+    private int activeSessions;
+    private long rejectedUploads;
+
+    /**
+     * @param maxUploads max. number of uploads received at the same time by this JVM, {@code 0} for unlimited
+     */
+    public UploadGovernor(int maxUploads) {
+        this.maxUploads = maxUploads;
+    }
+
+    /**
+     * @return the governor of all uploads, {@code null} if uploads are not governed
+     */
+    public static UploadGovernor getDefault() {
+        return defaultGovernor;
+    }
+
+    /**
+     * Installs the governor of all uploads.
+     *
+     * @param governor {@code null} to stop governing uploads
+     */
+    public static void setDefault(UploadGovernor governor) {
+        defaultGovernor = governor;
+    }
+
+    /**
+     * @param maxUploadsPerSession max. number of uploads received at the same time per session, {@code 0} for unlimited
+     */
+    public synchronized UploadGovernor setMaxUploadsPerSession(int maxUploadsPerSession) {
+        this.maxUploadsPerSession = maxUploadsPerSession;
+        return this;
+    }
+
+    /**
+     * @param maxBytesPerSecond bandwidth of all uploads of this JVM, shared fairly by the uploading sessions, {@code 0} for unlimited
+     */
+    public synchronized UploadGovernor setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param maxBytesPerSecondPerSession bandwidth of the uploads of a single session, {@code 0} for unlimited
+     */
+    public synchronized UploadGovernor setMaxBytesPerSecondPerSession(long maxBytesPerSecondPerSession) {
+        this.maxBytesPerSecondPerSession = maxBytesPerSecondPerSession;
+        return this;
+    }
+
+    /**
+     * @param retryAfterSeconds delay the client waits before posting a rejected upload again, default is 1 second. Uploads further back in
+     * line wait a multiple of it, at most {@value #MAX_RETRY_AFTER_SECONDS} seconds.
+     */
+    public synchronized UploadGovernor setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * @param maxWaitingUploads max. number of rejected uploads waiting in line, default is 1000. Further uploads are rejected without
+     * keeping their place.
+     */
+    public synchronized UploadGovernor setMaxWaitingUploads(int maxWaitingUploads) {
+        this.maxWaitingUploads = maxWaitingUploads;
+        return this;
+    }
+
+    /**
+     * @return number of uploads being received
+     */
+    public synchronized int getActiveUploads() {
+        return activeUploads;
+    }
+
+    /**
+     * @return number of rejected uploads waiting in line
+     */
+    public synchronized int getWaitingUploads() {
+        expireWaiters(System.nanoTime());
+        return waiters.size();
+    }
+
+    /**
+     * @return number of uploads rejected so far, each retry counts
+     */
+    public synchronized long getRejectedUploads() {
+        return rejectedUploads;
+    }
+
+    /**
+     * Admits an upload of given session, if the limits allow and the uploads waiting in line do not need the free slots. The upload does not
+     * wait in line if it is rejected.
+     *
+     * @return the permit to be released when the request body is received, {@code null} if the upload must be retried later
+     */
+    public Permit tryAcquire(VaadinSession session) {
+        return tryAcquire(session, null);
+    }
+
+    /**
+     * Admits an upload of given session, if the limits allow and the uploads waiting longer in line do not need the free slots. Otherwise the
+     * upload waits in line.
+     *
+     * @param key identifies the upload (or chunk) across its retries, e.g. its URL, {@code null} to not wait in line
+     * @return the permit to be released when the request body is received, {@code null} if the upload must be retried later
+     */
+    public synchronized Permit tryAcquire(VaadinSession session, String key) {
+        long now = System.nanoTime();
+        expireWaiters(now);
+        SessionShare share = shares.computeIfAbsent(session, k -> new SessionShare());
+        if (!isAdmissible(share, key)) {
+            rejectedUploads++;
+            if (key != null && (waiters.containsKey(key) || waiters.size() < maxWaitingUploads)) {
+                Waiter waiter = waiters.computeIfAbsent(key, k -> new Waiter(share));
+                // the client adds up to half of the delay, so the rejected clients do not retry at the same time
+                waiter.deadline = now + TimeUnit.SECONDS.toNanos(2L * getRetryAfterSeconds(key) + 1);
+            }
+            return null;
+        }
+        if (key != null) {
+            waiters.remove(key);
+        }
+        activeUploads++;
+        if (share.activeUploads++ == 0) {
+            activeSessions++;
+        }
+        return new Permit(this, share);
+    }
+
+    /**
+     * @return {@code true} if a slot is free for the upload, after the uploads waiting longer took theirs as far as their sessions may upload
+     */
+    private boolean isAdmissible(SessionShare share, String key) {
+        int freeUploads = maxUploads > 0 ? maxUploads - activeUploads : Integer.MAX_VALUE;
+        int freeSessionUploads = maxUploadsPerSession > 0 ? maxUploadsPerSession - share.activeUploads : Integer.MAX_VALUE;
+        Map<SessionShare, Integer> reserved = new IdentityHashMap<>();
+        for (Map.Entry<String, Waiter> entry : waiters.entrySet()) {
+            if (freeUploads <= 0 || freeSessionUploads <= 0 || entry.getKey().equals(key)) {
+                break;
+            }
+            SessionShare waiting = entry.getValue().share;
+            int reservedUploads = reserved.getOrDefault(waiting, 0);
+            if (maxUploadsPerSession > 0 && waiting.activeUploads + reservedUploads >= maxUploadsPerSession) {
+                continue;
+            }
+            reserved.put(waiting, reservedUploads + 1);
+            freeUploads--;
+            if (waiting == share) {
+                freeSessionUploads--;
+            }
+        }
+        return freeUploads > 0 && freeSessionUploads > 0;
+    }
+
+    /**
+     * @return the delay before a rejected upload is posted again, a multiple of the retry delay by its position in line
+     */
+    private int getRetryAfterSeconds(String key) {
+        int position = 0;
+        for (String waiting : waiters.keySet()) {
+            if (waiting.equals(key)) {
+                break;
+            }
+            position++;
+        }
+        int slots = maxUploads > 0 ? maxUploads : Math.max(1, maxUploadsPerSession);
+        return (int) Math.min(MAX_RETRY_AFTER_SECONDS, (long) retryAfterSeconds * (1 + position / slots));
+    }
+
+    private void expireWaiters(long now) {
+        waiters.values().removeIf(waiter -> now - waiter.deadline > 0);
+    }
+
+    private synchronized void release(SessionShare share) {
+        activeUploads--;
+        if (--share.activeUploads == 0) {
+            activeSessions--;
+        }
+    }
+
+    /**
+     * @return current rate of given session in bytes per second, {@code 0} for unlimited
+     */
+    private synchronized long getRate(SessionShare share) {
+        long rate = maxBytesPerSecondPerSession;
+        if (maxBytesPerSecond > 0) {
+            long fairShare = Math.max(1, maxBytesPerSecond / Math.max(1, activeSessions));
+            rate = rate > 0 ? Math.min(rate, fairShare) : fairShare;
+        }
+        return rate;
+    }
+
+    /**
+     * Admits an upload by the default governor, or answers the request with {@code 503 Service Unavailable}.
+     *
+     * @param key identifies the upload (or chunk) across its retries, see {@link #tryAcquire(VaadinSession, String)}
+     * @return the permit to be released when the request body is received, {@code null} if the request is answered
+     */
+    static Permit admit(VaadinSession session, String key, VaadinResponse response) throws IOException {
+        UploadGovernor governor = defaultGovernor;
+        if (governor == null) {
+            return UNLIMITED;
+        }
+        Permit permit;
+        int retryAfter = 0;
+        synchronized (governor) {
+            permit = governor.tryAcquire(session, key);
+            if (permit == null) {
+                retryAfter = governor.getRetryAfterSeconds(key);
+            }
+        }
+        if (permit == null) {
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            response.sendError(HttpURLConnection.HTTP_UNAVAILABLE, "Too many uploads, retry later");
+        }
+        return permit;
+    }
+
+    /**
+     * Admission of a single upload (or chunk) and its share of the session's bandwidth.
+     */
+    public static final class Permit {
+
+        private final UploadGovernor governor;
+        private final SessionShare share;
+        private boolean released;
+
+        private Permit(UploadGovernor governor, SessionShare share) {
+            this.governor = governor;
+            this.share = share;
+        }
+
+        /**
+         * Takes given number of received bytes from the session's token bucket.
+         *
+         * @return nanoseconds to wait before receiving more bytes, {@code 0} if the session is within its rate
+         */
+        public long throttle(int bytes) {
+            if (governor == null) {
+                return 0;
+            }
+            long rate = governor.getRate(share);
+            return rate > 0 ? share.take(bytes, rate, System.nanoTime()) : 0;
+        }
+
+        /**
+         * For blocking receivers only, e.g. of chunks: the thread reading the returned stream sleeps as long as the session exceeds its
+         * rate, so it stays occupied like while waiting for a slow client. Non-blocking receivers use {@link #throttle(int)} and continue
+         * by a timer instead, like the {@link AsyncUploadHandler}.
+         *
+         * @return given stream, blocking each read as long as the session exceeds its rate
+         */
+        public InputStream throttle(InputStream in) {
+            if (governor == null) {
+                return in;
+            }
+            return new FilterInputStream(in) {
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        pause(throttle(1));
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int length = super.read(b, off, len);
+                    if (length > 0) {
+                        pause(throttle(length));
+                    }
+                    return length;
+                }
+            };
+        }
+
+        /**
+         * Releases the admission, further calls are ignored.
+         */
+        public void release() {
+            if (governor == null) {
+                return;
+            }
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            governor.release(share);
+        }
+
+        private static void pause(long nanos) throws InterruptedIOException {
+            if (nanos <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Upload interrupted while throttled");
+            }
+        }
+    }
+
+    /**
+     * Rejected upload waiting in line.
+     */
+    private static final class Waiter {
+
+        private final SessionShare share;
+        private long deadline;
+
+        private Waiter(SessionShare share) {
+            this.share = share;
+        }
+    }
+
+    /**
+     * Uploads and token bucket of a session.
+     */
+    static final class SessionShare {
+
+        private int activeUploads;
+        private long tokens;
+        private long lastRefill;
+        private boolean started;
+
+        /**
+         * Takes bytes from the bucket, the bucket may run into debt which is paid by waiting.
+         *
+         * @return nanoseconds until the bucket is balanced again
+         */
+        synchronized long take(int bytes, long rate, long now) {
+            if (!started) {
+                started = true;
+                tokens = rate;
+            } else {
+                // the bucket holds at most one second, a longer pause refills it completely. Computed in double precision, the product
+                // of nanoseconds and rate overflows a long above 9.2 GB/s.
+                long refill = (long) ((double) Math.min(now - lastRefill, NANOS_PER_SECOND) * rate / NANOS_PER_SECOND);
+                tokens = Math.min(rate, tokens + refill);
+            }
+            lastRefill = now;
+            tokens -= bytes;
+            return tokens < 0 ? (long) Math.ceil((double) -tokens * NANOS_PER_SECOND / rate) : 0;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.g24.upload;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * Records the phases of uploads, e.g. to monitor throughput and latencies in production, see {@link JmxUploadMetrics}. Each upload is
+ * queued, may be started, and ends exactly once, either finished or failed (including uploads cancelled before they started).
+ * <p>
+ * Methods are called on request threads without holding the session lock, implementations must be thread-safe and cheap, in particular
+ * {@link #bytesReceived(Html5File, long)}.
+ */
+public interface UploadMetrics {
+
+    /**
+     * Records nothing.
+     */
+    UploadMetrics NOOP = new UploadMetrics() {
+    };
+
+    /**
+     * A dropped or selected file is accepted, its upload URL is sent to the client.
+     */
+    default void uploadQueued(Html5File file) {
+    }
+
+    /**
+     * The upload request of a file arrived.
+     *
+     * @param queueNanos time since queued, i.e. the RPC round trip and waiting in the client's upload queue
+     */
+    default void uploadStarted(Html5File file, long queueNanos) {
+    }
+
+    /**
+     * Bytes of a file were received.
+     */
+    default void bytesReceived(Html5File file, long bytes) {
+    }
+
+    default void uploadFinished(Html5File file, UploadTiming timing) {
+    }
+
+    /**
+     * @param exception e.g. a {@link com.vaadin.server.communication.FileUploadHandler.UploadInterruptedException} if the upload was cancelled
+     */
+    default void uploadFailed(Html5File file, UploadTiming timing, Exception exception) {
+    }
+}
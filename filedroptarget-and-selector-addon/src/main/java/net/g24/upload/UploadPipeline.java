@@ -0,0 +1,128 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vaadin.server.StreamVariable;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Composable in-flight processing of uploads, see {@link net.g24.FileDropTargetAndSelector#setUploadPipeline(UploadPipeline)}. For each
+ * uploaded file the named stages are created and see every buffer once, in the order they were added, before it is written to the output
+ * stream of the file's stream variable. The results of the stages are passed with the streaming events.
+ * <p>
+ * Example:
+ * <pre>
+ * UploadPipeline pipeline = new UploadPipeline()
+ *     .addStage("size", file -&gt; new SizeGuardStage(100 * 1024 * 1024))
+ *     .addStage("type", file -&gt; new MagicTypeStage("image/*", "application/pdf"))
+ *     .addStage("sha256", file -&gt; new DigestStage("SHA-256"));
+ * ...
+ * streamVariable.setFinishedListener(event -&gt; {
+ *     String sha256 = (String) UploadPipeline.getResults(event).get("sha256");
+ * });
+ * </pre>
+ */
+public class UploadPipeline implements Serializable {
+
+    private final Map<String, UploadStageFactory> stageFactories = new LinkedHashMap<>();
+
+    /**
+     * Adds a stage, replacing the stage of the same name.
+     *
+     * @param name name of the stage's result
+     */
+    public UploadPipeline addStage(String name, UploadStageFactory stageFactory) {
+        stageFactories.put(name, stageFactory);
+        return this;
+    }
+
+    /**
+     * @return the results of the stages by their name, empty if the event is not of an upload through a pipeline
+     */
+    public static Map<String, Object> getResults(StreamVariable.StreamingEvent event) {
+        return event instanceof UploadEvent ? ((UploadEvent) event).getResults() : Collections.emptyMap();
+    }
+
+    /**
+     * Creates the stages for given file, which write to given stream.
+     */
+    PipelineOutputStream open(Html5File file, OutputStream out) throws IOException {
+        Map<String, UploadStage> stages = new LinkedHashMap<>();
+        for (Map.Entry<String, UploadStageFactory> entry : stageFactories.entrySet()) {
+            stages.put(entry.getKey(), entry.getValue().create(file));
+        }
+        return new PipelineOutputStream(out, stages);
+    }
+
+    /**
+     * Passes the bytes through the stages to the target stream.
+     */
+    static class PipelineOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final Map<String, UploadStage> stages;
+        private final List<UploadStage> stageList;
+        private boolean closed;
+
+        private PipelineOutputStream(OutputStream out, Map<String, UploadStage> stages) {
+            this.out = out;
+            this.stages = stages;
+            this.stageList = new ArrayList<>(stages.values());
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (UploadStage stage : stageList) {
+                stage.process(b, off, len);
+            }
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                for (UploadStage stage : stageList) {
+                    stage.finish();
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        void abort() {
+            stageList.forEach(UploadStage::abort);
+        }
+
+        Map<String, Object> getResults() {
+            Map<String, Object> results = new LinkedHashMap<>();
+            stages.forEach((name, stage) -> {
+                Object result = stage.getResult();
+                if (result != null) {
+                    results.put(name, result);
+                }
+            });
+            return Collections.unmodifiableMap(results);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package net.g24.upload;
+
+import java.io.IOException;
+
+/**
+ * Thrown by an {@link UploadStage} to abort an upload, e.g. if the content does not match the accepted types.
+ */
+public class UploadRejectedException extends IOException {
+
+    public UploadRejectedException(String message) {
+        super(message);
+    }
+}
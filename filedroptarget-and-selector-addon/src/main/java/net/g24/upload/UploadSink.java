@@ -0,0 +1,55 @@
+package net.g24.upload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Target of the bytes of an upload. In contrast to a plain {@link java.io.OutputStream} a sink receives {@link ByteBuffer}s and
+ * distinguishes between completing ({@link #close()}) and discarding ({@link #abort()}) an upload.
+ * <p>
+ * Attach a sink to an {@link com.vaadin.ui.Html5File} by {@link SinkStreamVariable#attach(com.vaadin.ui.Html5File, UploadSink)}.
+ */
+public interface UploadSink extends Closeable {
+
+    /**
+     * Writes all remaining bytes of the given buffer. The buffer is not retained, so callers may reuse it.
+     */
+    void write(ByteBuffer src) throws IOException;
+
+    default void write(byte[] b, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Writes all remaining bytes of the given buffers in order, e.g. by a single gathering write. The buffers are not retained.
+     */
+    default void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            write(srcs[i]);
+        }
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    long getBytesWritten();
+
+    /**
+     * Forces the bytes written so far to the storage device, if the sink is backed by one. Does nothing by default.
+     */
+    default void sync() throws IOException {
+    }
+
+    /**
+     * Completes the upload, i.e. flushes buffered bytes and releases resources.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Discards the upload after a failure or interruption and releases resources. Might be called after {@link #close()}, as Vaadin closes
+     * the output stream of a failed upload too.
+     */
+    void abort();
+}
@@ -0,0 +1,15 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * Creates the {@link UploadSink} of a file, as soon as streaming of the file starts.
+ */
+@FunctionalInterface
+public interface UploadSinkFactory extends Serializable {
+
+    UploadSink create(Html5File file) throws IOException;
+}
@@ -0,0 +1,38 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} writing to an {@link UploadSink}, e.g. to be returned by {@link com.vaadin.server.StreamVariable#getOutputStream()}.
+ */
+public class UploadSinkOutputStream extends OutputStream {
+
+    private final UploadSink sink;
+    private boolean closed;
+
+    public UploadSinkOutputStream(UploadSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        sink.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        sink.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            sink.close();
+        }
+    }
+}
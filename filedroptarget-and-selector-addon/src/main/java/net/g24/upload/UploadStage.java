@@ -0,0 +1,39 @@
+package net.g24.upload;
+
+import java.io.IOException;
+
+/**
+ * Stage of an {@link UploadPipeline}, processing the bytes of an upload in flight: each buffer is passed to every stage once, before it is
+ * written to the output stream of the file's stream variable. So checksums, type detection or copies need no second pass over a temp file.
+ * <p>
+ * A stage may abort the upload by throwing an {@link UploadRejectedException} (or any other {@link IOException}), the stream
+ * variable gets {@code streamingFailed} with that exception.
+ */
+public interface UploadStage {
+
+    /**
+     * Processes the next bytes of the upload. The buffer is not retained, stages must copy bytes they need later on.
+     */
+    void process(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Called at the end of the stream, before the output stream of the stream variable is closed. Also called for failed uploads, as Vaadin
+     * closes their output stream too.
+     */
+    default void finish() throws IOException {
+    }
+
+    /**
+     * Called after the upload failed or got interrupted, possibly after {@link #finish()}.
+     */
+    default void abort() {
+    }
+
+    /**
+     * @return the result of the stage, e.g. a checksum, {@code null} if none. Available at {@code streamingFinished} and
+     * {@code streamingFailed} by {@link UploadPipeline#getResults(com.vaadin.server.StreamVariable.StreamingEvent)}.
+     */
+    default Object getResult() {
+        return null;
+    }
+}
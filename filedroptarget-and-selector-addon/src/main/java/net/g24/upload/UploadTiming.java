@@ -0,0 +1,57 @@
+package net.g24.upload;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing breakdown of a single upload, passed to {@link UploadMetrics} when the upload ends. Phases the upload did not reach are
+ * {@code -1}.
+ */
+public final class UploadTiming {
+
+    private final long queueNanos;
+    private final long firstByteNanos;
+    private final long transferNanos;
+    private final long bytes;
+
+    UploadTiming(long queueNanos, long firstByteNanos, long transferNanos, long bytes) {
+        this.queueNanos = queueNanos;
+        this.firstByteNanos = firstByteNanos;
+        this.transferNanos = transferNanos;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return time from queueing the file until its upload request arrived
+     */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    /**
+     * @return time from the arrival of the upload request until the first bytes were received
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    /**
+     * @return time from the arrival of the upload request until the upload ended
+     */
+    public long getTransferNanos() {
+        return transferNanos;
+    }
+
+    /**
+     * @return number of bytes received, i.e. of the file after inflating or rebuilding a delta
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return average throughput of the transfer, {@code -1} if the upload was not started
+     */
+    public long getBytesPerSecond() {
+        return transferNanos < 0 ? -1 : (long) ((double) bytes * TimeUnit.SECONDS.toNanos(1) / Math.max(1, transferNanos));
+    }
+}
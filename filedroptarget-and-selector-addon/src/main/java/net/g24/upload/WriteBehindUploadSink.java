@@ -0,0 +1,308 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link UploadSink} decoupling the thread receiving an upload from the disk: received bytes are copied to a bounded ring of reusable
+ * buffers of a {@link BufferPool}, and a small pool of writer threads drains full buffers to the delegate sink, several buffers at once by
+ * {@link UploadSink#write(ByteBuffer[], int, int)}. So network receive and disk writes overlap, and a latency spike of the disk does not
+ * stall the request as long as the ring has free buffers. If the ring is full, {@link #write(ByteBuffer)} blocks until the writer returns
+ * a buffer (backpressure). If the pool is exhausted before the first buffer of the ring could be acquired, bytes are written through.
+ * <p>
+ * {@link #close()} waits until the ring is drained, forces the bytes to the storage device ({@link UploadSink#sync()}) once and completes
+ * the delegate, so a finished upload is durable when {@code streamingFinished} is fired. A failed write of the writer thread fails the next
+ * {@link #write(ByteBuffer)} or {@link #close()}.
+ * <p>
+ * Example, e.g. for spool files on shared storage:
+ * <pre>
+ * SinkStreamVariable.attach(file, WriteBehindUploadSink.factory(spool::createSink));
+ * </pre>
+ */
+public class WriteBehindUploadSink implements UploadSink {
+
+    private static final int DEFAULT_RING_SIZE = 4;
+    private static final AtomicInteger WRITER_THREADS = new AtomicInteger();
+    private static final ExecutorService WRITER = Executors.newFixedThreadPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())),
+        runnable -> {
+            Thread thread = new Thread(runnable, "upload-writer-" + WRITER_THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final UploadSink delegate;
+    private final BufferPool bufferPool;
+    private final int ringSize;
+    private final Executor writer;
+    private final ByteBuffer[] batch;
+    private final ArrayDeque<ByteBuffer> filled;
+    private final ArrayDeque<ByteBuffer> free;
+    private int buffers;
+    private boolean writing;
+    private boolean closed;
+    private boolean aborted;
+    private IOException failure;
+    // owned by the receiving thread
+    private ByteBuffer current;
+    private long bytesWritten;
+
+    public WriteBehindUploadSink(UploadSink delegate) {
+        this(delegate, BufferPool.getDefault(), DEFAULT_RING_SIZE, WRITER);
+    }
+
+    /**
+     * @param bufferPool pool of the ring's buffers
+     * @param ringSize max. number of buffers of this upload, i.e. the bytes received ahead of the disk
+     * @param writer executes the writes, e.g. a pool of I/O threads
+     */
+    public WriteBehindUploadSink(UploadSink delegate, BufferPool bufferPool, int ringSize, Executor writer) {
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("ringSize must be at least 1");
+        }
+        this.delegate = delegate;
+        this.bufferPool = bufferPool;
+        this.ringSize = ringSize;
+        this.writer = writer;
+        this.batch = new ByteBuffer[ringSize];
+        this.filled = new ArrayDeque<>(ringSize);
+        this.free = new ArrayDeque<>(ringSize);
+    }
+
+    /**
+     * @return factory wrapping the sinks of given factory
+     */
+    public static UploadSinkFactory factory(UploadSinkFactory delegateFactory) {
+        return file -> new WriteBehindUploadSink(delegateFactory.create(file));
+    }
+
+    /**
+     * @return the sink the bytes are written to, e.g. to process the content after the upload completed
+     */
+    public UploadSink getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        checkFailure();
+        bytesWritten += src.remaining();
+        while (src.hasRemaining()) {
+            if (current == null) {
+                current = takeFreeBuffer();
+                if (current == null) {
+                    writeThrough(src);
+                    return;
+                }
+            }
+            int length = Math.min(src.remaining(), current.remaining());
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + length);
+            current.put(slice);
+            src.position(src.position() + length);
+            if (!current.hasRemaining()) {
+                submit(current);
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes accepted so far, including bytes not yet written to the delegate
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Forces the bytes accepted so far to the storage device, waits until the ring is drained.
+     */
+    @Override
+    public void sync() throws IOException {
+        flushCurrent();
+        awaitWritten();
+        delegate.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+        }
+        try {
+            flushCurrent();
+            awaitWritten();
+            delegate.sync();
+            delegate.close();
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+        synchronized (this) {
+            closed = true;
+            releaseBuffers();
+        }
+    }
+
+    /**
+     * Discards queued buffers, waits for a running write and aborts the delegate.
+     */
+    @Override
+    public void abort() {
+        synchronized (this) {
+            closed = true;
+            aborted = true;
+            filled.forEach(free::add);
+            filled.clear();
+            // wakes a receiving thread waiting for a buffer
+            notifyAll();
+            boolean interrupted = false;
+            while (writing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            releaseBuffers();
+        }
+        if (current != null) {
+            bufferPool.release(current);
+            current = null;
+        }
+        delegate.abort();
+    }
+
+    private ByteBuffer takeFreeBuffer() throws IOException {
+        synchronized (this) {
+            while (true) {
+                checkFailure();
+                ByteBuffer buffer = free.poll();
+                if (buffer != null) {
+                    return buffer;
+                }
+                if (buffers < ringSize) {
+                    buffer = bufferPool.acquire();
+                    if (buffer != null) {
+                        buffers++;
+                        return buffer;
+                    }
+                    if (buffers == 0) {
+                        return null;
+                    }
+                }
+                // backpressure: the ring is full, wait for the writer
+                awaitChange();
+            }
+        }
+    }
+
+    private void writeThrough(ByteBuffer src) throws IOException {
+        awaitWritten();
+        delegate.write(src);
+    }
+
+    private void flushCurrent() {
+        if (current == null) {
+            return;
+        }
+        if (current.position() > 0) {
+            submit(current);
+        } else {
+            synchronized (this) {
+                free.add(current);
+            }
+        }
+        current = null;
+    }
+
+    private synchronized void submit(ByteBuffer buffer) {
+        buffer.flip();
+        filled.add(buffer);
+        if (!writing) {
+            writing = true;
+            writer.execute(this::writeFilled);
+        }
+    }
+
+    /**
+     * Writes the filled buffers until the ring is drained. Runs on the writer, at most one at a time per upload.
+     */
+    private void writeFilled() {
+        while (true) {
+            int length;
+            synchronized (this) {
+                if (filled.isEmpty() || aborted || failure != null) {
+                    writing = false;
+                    notifyAll();
+                    return;
+                }
+                for (length = 0; !filled.isEmpty(); length++) {
+                    batch[length] = filled.poll();
+                }
+            }
+            IOException writeFailure = null;
+            try {
+                delegate.write(batch, 0, length);
+            } catch (IOException e) {
+                writeFailure = e;
+            } catch (RuntimeException e) {
+                writeFailure = new IOException(e);
+            }
+            synchronized (this) {
+                for (int i = 0; i < length; i++) {
+                    batch[i].clear();
+                    free.add(batch[i]);
+                    batch[i] = null;
+                }
+                if (writeFailure != null && failure == null) {
+                    failure = writeFailure;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void awaitWritten() throws IOException {
+        while (writing || !filled.isEmpty()) {
+            checkFailure();
+            awaitChange();
+        }
+        checkFailure();
+    }
+
+    private void awaitChange() throws IOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the disk");
+        }
+    }
+
+    private synchronized void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Writing upload failed", failure);
+        }
+        if (closed) {
+            throw new IOException(aborted ? "Upload aborted" : "Sink closed");
+        }
+    }
+
+    private void releaseBuffers() {
+        free.forEach(bufferPool::release);
+        free.clear();
+        buffers = 0;
+    }
+}
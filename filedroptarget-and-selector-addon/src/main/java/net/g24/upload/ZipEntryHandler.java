@@ -0,0 +1,22 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.zip.ZipEntry;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * Receives the entries of a ZIP archive extracted while it is uploaded, see {@link ZipExtraction}. Called by the thread receiving the upload,
+ * without holding the session lock.
+ */
+@FunctionalInterface
+public interface ZipEntryHandler extends Serializable {
+
+    /**
+     * @param archive the uploaded archive
+     * @param entry the next file entry of the archive. Its size is {@code -1} if the archive declares it after the entry's data only.
+     * @return the sink of the entry's content, which is closed after the entry is extracted and verified, or {@code null} to skip the entry
+     */
+    UploadSink onEntry(Html5File archive, ZipEntry entry) throws IOException;
+}
@@ -0,0 +1,377 @@
+package net.g24.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * Extracts a ZIP archive written to this stream, see {@link ZipExtraction}. In contrast to {@link java.util.zip.ZipInputStream} the archive
+ * is pushed: each buffer is parsed and inflated right away, only the header currently parsed is kept.
+ * <p>
+ * Layout of an entry: local file header (30 bytes, followed by name and extra field), data, and a data descriptor if the sizes are not
+ * known in advance (flag bit 3). The entries are followed by the central directory, which is ignored.
+ */
+class ZipExtractingOutputStream extends OutputStream {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int SIGNATURE_LENGTH = 4;
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private enum State {
+        HEADER, NAME_AND_EXTRA, DATA, DESCRIPTOR, END
+    }
+
+    private final Html5File archive;
+    private final ZipEntryHandler entryHandler;
+    private final int maxEntries;
+    private final long maxExpandedSize;
+    private final CRC32 crc = new CRC32();
+    private State state = State.HEADER;
+    private byte[] field = new byte[LOCAL_HEADER_LENGTH];
+    private int fieldLength;
+    private int fieldTarget = SIGNATURE_LENGTH;
+    private int entries;
+    private long expandedSize;
+    // current entry
+    private int flags;
+    private int method;
+    private long dosTime;
+    private long expectedCrc;
+    private long compressedSize;
+    private long size;
+    private int nameLength;
+    private boolean zip64;
+    private String name;
+    private long compressedRemaining;
+    private long entryWritten;
+    private UploadSink sink;
+    private Inflater inflater;
+    private byte[] buffer;
+    private boolean closed;
+
+    ZipExtractingOutputStream(Html5File archive, ZipEntryHandler entryHandler, int maxEntries, long maxExpandedSize) {
+        this.archive = archive;
+        this.entryHandler = entryHandler;
+        this.maxEntries = maxEntries;
+        this.maxExpandedSize = maxExpandedSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int consumed;
+            switch (state) {
+                case DATA:
+                    consumed = processData(b, off, len);
+                    break;
+                case END:
+                    // central directory
+                    return;
+                default:
+                    consumed = Math.min(len, fieldTarget - fieldLength);
+                    System.arraycopy(b, off, field, fieldLength, consumed);
+                    fieldLength += consumed;
+                    if (fieldLength == fieldTarget) {
+                        onField();
+                    }
+            }
+            off += consumed;
+            len -= consumed;
+        }
+    }
+
+    private void onField() throws IOException {
+        switch (state) {
+            case HEADER:
+                onHeader();
+                break;
+            case NAME_AND_EXTRA:
+                onNameAndExtra();
+                break;
+            case DESCRIPTOR:
+                onDescriptor();
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void onHeader() throws IOException {
+        if (fieldTarget == SIGNATURE_LENGTH) {
+            int signature = (int) readUnsignedInt(0);
+            if (signature == LOCAL_HEADER) {
+                fieldTarget = LOCAL_HEADER_LENGTH;
+            } else if (signature == CENTRAL_HEADER || signature == END_HEADER) {
+                state = State.END;
+            } else {
+                throw new ZipException(entries == 0 ? "Not a ZIP archive" : "Invalid local file header");
+            }
+            return;
+        }
+        flags = readUnsignedShort(6);
+        method = readUnsignedShort(8);
+        dosTime = readUnsignedInt(10);
+        expectedCrc = readUnsignedInt(14);
+        compressedSize = readUnsignedInt(18);
+        size = readUnsignedInt(22);
+        nameLength = readUnsignedShort(26);
+        expect(State.NAME_AND_EXTRA, nameLength + readUnsignedShort(28));
+        if (fieldTarget == 0) {
+            onNameAndExtra();
+        }
+    }
+
+    private void onNameAndExtra() throws IOException {
+        name = new String(field, 0, nameLength, StandardCharsets.UTF_8);
+        zip64 = false;
+        for (int offset = nameLength; offset + 4 <= fieldTarget; ) {
+            int id = readUnsignedShort(offset);
+            int length = readUnsignedShort(offset + 2);
+            if (id == ZIP64_EXTRA) {
+                // 64 bit sizes, only present for the 32 bit sizes set to 0xffffffff
+                zip64 = true;
+                int position = offset + 4;
+                if (size == ZIP64_MAGIC && position + 8 <= offset + 4 + length) {
+                    size = readLong(position);
+                    position += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC && position + 8 <= offset + 4 + length) {
+                    compressedSize = readLong(position);
+                }
+            }
+            offset += 4 + length;
+        }
+        startEntry();
+    }
+
+    private void startEntry() throws IOException {
+        entries++;
+        if (maxEntries > 0 && entries > maxEntries) {
+            throw new UploadRejectedException("Archive exceeds " + maxEntries + " entries");
+        }
+        if (!isValidName(name)) {
+            throw new UploadRejectedException("Invalid entry name " + name);
+        }
+        if ((flags & FLAG_ENCRYPTED) != 0) {
+            throw new UploadRejectedException("Encrypted entry " + name);
+        }
+        boolean dataDescriptor = hasDataDescriptor();
+        if (method == ZipEntry.STORED && dataDescriptor) {
+            // the end of the data could not be determined
+            throw new ZipException("Stored entry " + name + " without size");
+        }
+        if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + method + " of entry " + name);
+        }
+        if (!dataDescriptor && maxExpandedSize > 0 && expandedSize + size > maxExpandedSize) {
+            throw new UploadRejectedException("Archive expands to more than " + maxExpandedSize + " bytes");
+        }
+        crc.reset();
+        entryWritten = 0;
+        compressedRemaining = compressedSize;
+        if (method == ZipEntry.DEFLATED) {
+            if (inflater == null) {
+                inflater = new Inflater(true);
+                buffer = new byte[BUFFER_SIZE];
+            } else {
+                inflater.reset();
+            }
+        }
+        state = State.DATA;
+        if (!name.endsWith("/")) {
+            sink = entryHandler.onEntry(archive, createEntry(dataDescriptor));
+        }
+        if (method == ZipEntry.STORED && compressedRemaining == 0) {
+            finishData();
+        }
+    }
+
+    private ZipEntry createEntry(boolean dataDescriptor) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (!dataDescriptor) {
+            entry.setSize(size);
+            entry.setCompressedSize(compressedSize);
+            entry.setCrc(expectedCrc);
+        }
+        try {
+            LocalDateTime time = LocalDateTime.of((int) (dosTime >> 25 & 0x7f) + 1980, (int) (dosTime >> 21 & 0x0f), (int) (dosTime >> 16 & 0x1f),
+                                                  (int) (dosTime >> 11 & 0x1f), (int) (dosTime >> 5 & 0x3f), (int) (dosTime << 1 & 0x3e));
+            entry.setTime(time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        } catch (DateTimeException e) {
+            // invalid time, left unset
+        }
+        return entry;
+    }
+
+    /**
+     * @return number of bytes consumed
+     */
+    private int processData(byte[] b, int off, int len) throws IOException {
+        if (method == ZipEntry.STORED) {
+            int length = (int) Math.min(len, compressedRemaining);
+            output(b, off, length);
+            compressedRemaining -= length;
+            if (compressedRemaining == 0) {
+                finishData();
+            }
+            return length;
+        }
+        inflater.setInput(b, off, len);
+        try {
+            while (!inflater.finished() && !inflater.needsInput()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && !inflater.finished() && !inflater.needsInput()) {
+                    throw new ZipException("Invalid deflated data of entry " + name);
+                }
+                output(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated data of entry " + name + ": " + e.getMessage());
+        }
+        int consumed = len - inflater.getRemaining();
+        if (inflater.finished()) {
+            if (!hasDataDescriptor() && inflater.getBytesRead() != compressedSize) {
+                throw new ZipException("Invalid compressed size of entry " + name);
+            }
+            finishData();
+        }
+        return consumed;
+    }
+
+    private void output(byte[] b, int off, int len) throws IOException {
+        expandedSize += len;
+        entryWritten += len;
+        if (maxExpandedSize > 0 && expandedSize > maxExpandedSize) {
+            throw new UploadRejectedException("Archive expands to more than " + maxExpandedSize + " bytes");
+        }
+        if (!hasDataDescriptor() && entryWritten > size) {
+            throw new ZipException("Entry " + name + " exceeds its size");
+        }
+        crc.update(b, off, len);
+        if (sink != null) {
+            sink.write(b, off, len);
+        }
+    }
+
+    private void finishData() throws IOException {
+        if (hasDataDescriptor()) {
+            expect(State.DESCRIPTOR, SIGNATURE_LENGTH);
+        } else {
+            finishEntry();
+        }
+    }
+
+    private void onDescriptor() throws IOException {
+        int length = zip64 ? 20 : 12;
+        if (fieldTarget == SIGNATURE_LENGTH) {
+            // the signature is optional, without it the first 4 bytes are the CRC
+            fieldTarget = readUnsignedInt(0) == DATA_DESCRIPTOR ? SIGNATURE_LENGTH + length : length;
+            return;
+        }
+        int offset = fieldTarget - length;
+        expectedCrc = readUnsignedInt(offset);
+        size = zip64 ? readLong(offset + 12) : readUnsignedInt(offset + 8);
+        finishEntry();
+    }
+
+    private void finishEntry() throws IOException {
+        if (crc.getValue() != expectedCrc || entryWritten != size) {
+            throw new ZipException("Corrupt entry " + name);
+        }
+        if (sink != null) {
+            UploadSink completed = sink;
+            sink = null;
+            completed.close();
+        }
+        expect(State.HEADER, SIGNATURE_LENGTH);
+    }
+
+    private boolean hasDataDescriptor() {
+        return (flags & FLAG_DATA_DESCRIPTOR) != 0;
+    }
+
+    private void expect(State nextState, int length) {
+        state = nextState;
+        fieldLength = 0;
+        fieldTarget = length;
+        if (field.length < length) {
+            field = Arrays.copyOf(field, length);
+        }
+    }
+
+    private int readUnsignedShort(int offset) {
+        return (field[offset] & 0xff) | (field[offset + 1] & 0xff) << 8;
+    }
+
+    private long readUnsignedInt(int offset) {
+        return readUnsignedShort(offset) | (long) readUnsignedShort(offset + 2) << 16;
+    }
+
+    private long readLong(int offset) {
+        return readUnsignedInt(offset) | readUnsignedInt(offset + 4) << 32;
+    }
+
+    /**
+     * @return {@code true} if the name is a relative path consisting of regular segments, folders end with {@code /}
+     */
+    private static boolean isValidName(String name) {
+        String path = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        if (path.isEmpty() || path.contains("\\")) {
+            return false;
+        }
+        return Arrays.stream(path.split("/", -1)).noneMatch(segment -> segment.isEmpty() || segment.equals(".") || segment.equals(".."));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (state != State.END) {
+            abort();
+            throw new ZipException("Incomplete archive");
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Aborts the sink of the current entry after the upload failed.
+     */
+    void abort() {
+        if (sink != null) {
+            sink.abort();
+            sink = null;
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+}
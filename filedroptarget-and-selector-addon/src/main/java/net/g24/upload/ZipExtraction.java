@@ -0,0 +1,68 @@
+package net.g24.upload;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+import com.vaadin.ui.Html5File;
+
+/**
+ * Extraction of uploaded ZIP archives while they are received: the archive is parsed as its bytes arrive and each file entry is inflated
+ * into the {@link UploadSink} returned by the {@link ZipEntryHandler}, so the archive itself is neither buffered nor spooled, see
+ * {@link net.g24.FileDropTargetAndSelector#setZipExtraction(ZipExtraction)}.
+ * <p>
+ * The archive is read front to back by its local file headers, the central directory at its end is not needed. Entries must be stored or
+ * deflated, encrypted entries are rejected. Entry names must be relative paths without {@code .} or {@code ..} segments. The CRC-32 of
+ * each entry is verified before its sink is closed.
+ * <p>
+ * Example:
+ * <pre>
+ * new ZipExtraction((archive, entry) -&gt; {
+ *     Path target = folder.resolve(entry.getName());
+ *     Files.createDirectories(target.getParent());
+ *     return new ChannelUploadSink(target);
+ * })
+ *     .setMaxEntries(10_000)
+ *     .setMaxExpandedSize(10L * 1024 * 1024 * 1024);
+ * </pre>
+ */
+public class ZipExtraction implements Serializable {
+
+    private final ZipEntryHandler entryHandler;
+    private int maxEntries;
+    private long maxExpandedSize;
+
+    public ZipExtraction(ZipEntryHandler entryHandler) {
+        this.entryHandler = entryHandler;
+    }
+
+    /**
+     * @param maxEntries max. number of entries of an archive, including folders, {@code 0} for no limit (default)
+     */
+    public ZipExtraction setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * Protects against archives expanding to huge sizes ("ZIP bombs"): the upload is aborted as soon as the limit is exceeded.
+     *
+     * @param maxExpandedSize max. total size of the extracted entries of an archive, {@code 0} for no limit (default)
+     */
+    public ZipExtraction setMaxExpandedSize(long maxExpandedSize) {
+        this.maxExpandedSize = maxExpandedSize;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if given file is a ZIP archive by its name or MIME type
+     */
+    public boolean isArchive(Html5File file) {
+        String type = file.getType() == null ? "" : file.getType().toLowerCase(Locale.ROOT);
+        return file.getFileName().toLowerCase(Locale.ROOT).endsWith(".zip") || type.equals("application/zip") || type.equals(
+            "application/x-zip-compressed");
+    }
+
+    ZipExtractingOutputStream open(Html5File archive) {
+        return new ZipExtractingOutputStream(archive, entryHandler, maxEntries, maxExpandedSize);
+    }
+}
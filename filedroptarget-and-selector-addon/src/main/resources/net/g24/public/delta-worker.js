@@ -0,0 +1,170 @@
+/*
+ * Web worker computing the delta of a file against the block signatures of its previous version for FileDropTargetAndSelector's delta
+ * uploads (rsync algorithm, see net.g24.upload.DeltaSignature and DeltaOutputStream).
+ *
+ * Request:  {file: <File>, blockSize: <bytes>, signatures: <40 hex characters per block>}
+ * Response: {delta: <Blob>} or {error: <message>}
+ *
+ * The file is read slice by slice (Blob.slice), only the current window is kept in memory. Literal ranges are not copied, the delta Blob
+ * references slices of the file.
+ */
+importScripts("sha256.js");
+
+(function (self) {
+    "use strict";
+
+    var SLICE_SIZE = 4 * 1024 * 1024;
+    var MAX_LITERAL_LENGTH = 1024 * 1024 * 1024;
+    var LITERAL = 0x4c;
+    var COPY = 0x43;
+
+    // bit set of the weak checksums' low bits, most lookups fail and must be cheap
+    var FILTER_MASK = (1 << 20) - 1;
+
+    function parseSignatures(signatures, filter) {
+        var table = new Map();
+        for (var index = 0, i = 0; i < signatures.length; index++, i += 40) {
+            var weak = parseInt(signatures.substr(i, 8), 16);
+            filter[weak & FILTER_MASK] = 1;
+            var blocks = table.get(weak);
+            if (!blocks) {
+                blocks = [];
+                table.set(weak, blocks);
+            }
+            blocks.push({index: index, strong: signatures.substr(i + 8, 32)});
+        }
+        return table;
+    }
+
+    function strongChecksum(bytes) {
+        var sha256 = new self.Sha256();
+        sha256.update(bytes);
+        return sha256.hex().substr(0, 32);
+    }
+
+    function Delta(file) {
+        this.file = file;
+        this.parts = [];
+        this.copyIndex = -1;
+        this.copyCount = 0;
+    }
+
+    Delta.prototype.literal = function (start, end) {
+        this.flushCopy();
+        for (; start < end; start += MAX_LITERAL_LENGTH) {
+            var length = Math.min(MAX_LITERAL_LENGTH, end - start);
+            this.parts.push(header(LITERAL, length), this.file.slice(start, start + length));
+        }
+    };
+
+    Delta.prototype.copy = function (index) {
+        if (this.copyCount > 0 && this.copyIndex + this.copyCount === index) {
+            this.copyCount++;
+            return;
+        }
+        this.flushCopy();
+        this.copyIndex = index;
+        this.copyCount = 1;
+    };
+
+    Delta.prototype.flushCopy = function () {
+        if (this.copyCount > 0) {
+            this.parts.push(header(COPY, this.copyIndex, this.copyCount));
+            this.copyCount = 0;
+        }
+    };
+
+    Delta.prototype.toBlob = function () {
+        this.flushCopy();
+        return new Blob(this.parts, {type: "application/octet-stream"});
+    };
+
+    function header(type, first, second) {
+        var bytes = new Uint8Array(second === undefined ? 5 : 9), view = new DataView(bytes.buffer);
+        bytes[0] = type;
+        view.setUint32(1, first);
+        if (second !== undefined) {
+            view.setUint32(5, second);
+        }
+        return bytes;
+    }
+
+    function computeDelta(file, blockSize, signatures) {
+        var filter = new Uint8Array(FILTER_MASK + 1), table = parseSignatures(signatures, filter), delta = new Delta(file), reader = new FileReaderSync();
+        var buffer = new Uint8Array(0), bufferStart = 0, readPosition = 0;
+        var size = file.size, position = 0, literalStart = 0, a = 0, b = 0, valid = false, nextIndex = -1;
+
+        // keeps the bytes from the current position and appends slices until the buffer reaches given (absolute) end
+        function ensure(end) {
+            while (bufferStart + buffer.length < end) {
+                var slice = new Uint8Array(reader.readAsArrayBuffer(file.slice(readPosition, readPosition + SLICE_SIZE)));
+                var kept = buffer.subarray(position - bufferStart);
+                var joined = new Uint8Array(kept.length + slice.length);
+                joined.set(kept, 0);
+                joined.set(slice, kept.length);
+                buffer = joined;
+                bufferStart = position;
+                readPosition += slice.length;
+            }
+        }
+
+        while (position + blockSize <= size) {
+            var offset = position - bufferStart;
+            if (!valid) {
+                // must match DeltaSignature.weakChecksum, see the test vectors of DeltaSignatureTest
+                ensure(position + blockSize);
+                offset = position - bufferStart;
+                a = 0;
+                b = 0;
+                for (var i = 0; i < blockSize; i++) {
+                    a += buffer[offset + i];
+                    b += (blockSize - i) * buffer[offset + i];
+                }
+                a &= 0xffff;
+                b &= 0xffff;
+                valid = true;
+            }
+            var weak = ((b << 16) | a) >>> 0;
+            var blocks = filter[weak & FILTER_MASK] ? table.get(weak) : undefined;
+            if (blocks) {
+                var strong = strongChecksum(buffer.subarray(offset, offset + blockSize)), match = null;
+                for (var j = 0; j < blocks.length; j++) {
+                    // prefer the block following the previous match, unchanged regions are copied by a single instruction
+                    if (blocks[j].strong === strong && (match === null || blocks[j].index === nextIndex)) {
+                        match = blocks[j];
+                    }
+                }
+                if (match !== null) {
+                    delta.literal(literalStart, position);
+                    delta.copy(match.index);
+                    nextIndex = match.index + 1;
+                    position += blockSize;
+                    literalStart = position;
+                    valid = false;
+                    continue;
+                }
+            }
+            if (position + blockSize >= size) {
+                break;
+            }
+            if (bufferStart + buffer.length < position + blockSize + 1) {
+                ensure(position + blockSize + 1);
+                offset = position - bufferStart;
+            }
+            var removed = buffer[offset], added = buffer[offset + blockSize];
+            a = (a - removed + added) & 0xffff;
+            b = (b - blockSize * removed + a) & 0xffff;
+            position++;
+        }
+        delta.literal(literalStart, size);
+        return delta.toBlob();
+    }
+
+    self.onmessage = function (event) {
+        try {
+            self.postMessage({delta: computeDelta(event.data.file, event.data.blockSize, event.data.signatures)});
+        } catch (e) {
+            self.postMessage({error: String(e)});
+        }
+    };
+})(self);
@@ -0,0 +1,49 @@
+/*
+ * Web worker downscaling and re-encoding images for FileDropTargetAndSelector's image policy.
+ *
+ * Request:  {file: <File>, maxWidth: <px or 0>, maxHeight: <px or 0>, type: <MIME type or null>, quality: <0..1>}
+ * Response: {blob: <Blob>}, {} if the file is kept as it is, or {error: <message>}
+ *
+ * Decoding (createImageBitmap) and encoding (OffscreenCanvas.convertToBlob) run off the UI thread. The image is drawn in the orientation
+ * of its EXIF data, metadata is not copied. A file is kept if it needs neither downscaling nor another type, if the browser cannot encode
+ * the requested type, or if re-encoding would not make it smaller.
+ */
+(function (self) {
+    "use strict";
+
+    function scale(data) {
+        var file = data.file, type = data.type || file.type, ratio = 1;
+        return self.createImageBitmap(file).then(function (bitmap) {
+            ratio = Math.min(1, data.maxWidth > 0 ? data.maxWidth / bitmap.width : 1, data.maxHeight > 0 ? data.maxHeight / bitmap.height : 1);
+            if (ratio === 1 && type === file.type) {
+                bitmap.close();
+                return null;
+            }
+            var width = Math.max(1, Math.round(bitmap.width * ratio)), height = Math.max(1, Math.round(bitmap.height * ratio));
+            var canvas = new OffscreenCanvas(width, height), context = canvas.getContext("2d");
+            context.imageSmoothingQuality = "high";
+            context.drawImage(bitmap, 0, 0, width, height);
+            bitmap.close();
+            return canvas.convertToBlob({type: type, quality: data.quality});
+        }).then(function (blob) {
+            // unsupported types are encoded as PNG instead
+            if (blob === null || blob.type !== type || ratio === 1 && blob.size >= file.size) {
+                return null;
+            }
+            return blob;
+        });
+    }
+
+    self.onmessage = function (event) {
+        if (!self.createImageBitmap || !self.OffscreenCanvas) {
+            self.postMessage({});
+            return;
+        }
+        scale(event.data).then(function (blob) {
+            self.postMessage(blob ? {blob: blob} : {});
+        }, function (e) {
+            // e.g. a corrupt image or a type the browser cannot decode
+            self.postMessage({error: String(e)});
+        });
+    };
+})(self);
@@ -0,0 +1,51 @@
+/*
+ * Web worker computing SHA-256 digests of files for FileDropTargetAndSelector's content hashing mode.
+ *
+ * Request:  {id: <file id>, file: <File>}
+ * Response: {id: <file id>, digest: <lower case hex>} or {id: <file id>, error: <message>}
+ *
+ * SubtleCrypto cannot digest incrementally, so it is used for small files only. Larger files are streamed slice by slice (Blob.slice)
+ * through an incremental implementation, which keeps the memory usage of the worker constant.
+ */
+importScripts("sha256.js");
+
+(function (self) {
+    "use strict";
+
+    var SLICE_SIZE = 4 * 1024 * 1024;
+    var SUBTLE_MAX_SIZE = 16 * 1024 * 1024;
+
+    function toHex(buffer) {
+        var bytes = new Uint8Array(buffer), result = "";
+        for (var i = 0; i < bytes.length; i++) {
+            result += ("0" + bytes[i].toString(16)).slice(-2);
+        }
+        return result;
+    }
+
+    function digestIncrementally(file) {
+        var reader = new FileReaderSync(), sha256 = new self.Sha256();
+        for (var offset = 0; offset < file.size; offset += SLICE_SIZE) {
+            sha256.update(new Uint8Array(reader.readAsArrayBuffer(file.slice(offset, offset + SLICE_SIZE))));
+        }
+        return sha256.hex();
+    }
+
+    self.onmessage = function (event) {
+        var id = event.data.id, file = event.data.file;
+        try {
+            var subtle = self.crypto && self.crypto.subtle;
+            if (subtle && file.size <= SUBTLE_MAX_SIZE) {
+                subtle.digest("SHA-256", new FileReaderSync().readAsArrayBuffer(file)).then(function (digest) {
+                    self.postMessage({id: id, digest: toHex(digest)});
+                }, function () {
+                    self.postMessage({id: id, digest: digestIncrementally(file)});
+                });
+            } else {
+                self.postMessage({id: id, digest: digestIncrementally(file)});
+            }
+        } catch (e) {
+            self.postMessage({id: id, error: String(e)});
+        }
+    };
+})(self);
@@ -0,0 +1,116 @@
+package net.g24.upload;
+
+import static net.g24.upload.TestStreams.random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.vaadin.ui.Html5File;
+
+public class ChunkedUploadTest {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    private final byte[] content = random(4500);
+    private final ChunkedUpload upload = new ChunkedUpload(new Html5File("file.bin", content.length, "application/octet-stream"), null, null,
+        CHUNK_SIZE);
+
+    @Test
+    public void assemblesChunksReceivedOutOfOrder() throws IOException {
+        assertEquals(5, upload.getChunkCount());
+        assertTrue(upload.start());
+        assertFalse(upload.start());
+        for (int index : new int[] { 4, 1, 3, 0 }) {
+            receive(index);
+        }
+        assertEquals("11011", upload.getBitmap());
+        assertEquals(3500, upload.getBytesReceived());
+
+        assertTrue(receive(2));
+        assertEquals("11111", upload.getBitmap());
+        assertEquals(content.length, upload.getBytesReceived());
+        assertArrayEquals(content, transfer());
+        upload.release();
+    }
+
+    @Test
+    public void ignoresDuplicateChunks() throws IOException {
+        upload.start();
+        receive(0);
+        assertFalse(receive(0));
+        assertEquals("10000", upload.getBitmap());
+        assertEquals(CHUNK_SIZE, upload.getBytesReceived());
+
+        for (int index = 1; index < 4; index++) {
+            receive(index);
+        }
+        assertTrue(receive(4));
+        // a chunk posted again after completion must not complete the upload twice
+        assertFalse(receive(4));
+        assertEquals(content.length, upload.getBytesReceived());
+        assertArrayEquals(content, transfer());
+        upload.release();
+    }
+
+    @Test
+    public void rejectsChunksOfWrongLength() throws IOException {
+        upload.start();
+        try {
+            upload.writeChunk(4, new ByteArrayInputStream(content, 0, 501));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Chunk 4 exceeds expected length", e.getMessage());
+        }
+        try {
+            upload.writeChunk(0, new ByteArrayInputStream(content, 0, 999));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Chunk 0 incomplete, 1 bytes missing", e.getMessage());
+        }
+        assertEquals("00000", upload.getBitmap());
+        upload.release();
+    }
+
+    @Test
+    public void rejectsChunksAfterRelease() throws IOException {
+        upload.start();
+        upload.release();
+        try {
+            upload.writeChunk(0, new ByteArrayInputStream(content, 0, CHUNK_SIZE));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Upload already released", e.getMessage());
+        }
+        try {
+            upload.start();
+            fail();
+        } catch (IOException e) {
+            assertEquals("Upload already completed", e.getMessage());
+        }
+    }
+
+    /**
+     * @return {@code true} if the upload is complete
+     */
+    private boolean receive(int index) throws IOException {
+        int offset = index * CHUNK_SIZE;
+        byte[] chunk = Arrays.copyOfRange(content, offset, Math.min(content.length, offset + CHUNK_SIZE));
+        upload.writeChunk(index, new ByteArrayInputStream(chunk));
+        return upload.markReceived(index);
+    }
+
+    private byte[] transfer() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        upload.transferTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,184 @@
+package net.g24.upload;
+
+import static net.g24.upload.TestStreams.forEachSplit;
+import static net.g24.upload.TestStreams.random;
+import static net.g24.upload.TestStreams.text;
+import static net.g24.upload.TestStreams.writeSplit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.g24.upload.TestStreams.ClosingOutputStream;
+
+public class DeltaOutputStreamTest {
+
+    private static final int BLOCK_SIZE = 2048;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ClosingOutputStream target = new ClosingOutputStream();
+    private byte[] previous;
+    private Path base;
+
+    @Before
+    public void createBase() throws IOException {
+        // 4 complete blocks and a partial one
+        previous = random(4 * BLOCK_SIZE + 100);
+        base = folder.newFile("base").toPath();
+        Files.write(base, previous);
+    }
+
+    @Test
+    public void rebuildsFileSplitAtEveryByte() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        literal(delta, expected, text("new header"));
+        copy(delta, expected, 1, 2);
+        literal(delta, expected, text("moved"));
+        copy(delta, expected, 0, 1);
+        copy(delta, expected, 3, 1);
+        literal(delta, expected, text("new trailer"));
+        byte[] bytes = delta.toByteArray();
+        forEachSplit(bytes, split -> {
+            assertArrayEquals(expected.toByteArray(), rebuild(bytes, split, expected.size()));
+            assertTrue(target.isClosed());
+        });
+    }
+
+    @Test
+    public void rebuildsFileWrittenByteByByte() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        copy(delta, expected, 0, 4);
+        literal(delta, expected, Arrays.copyOfRange(previous, 4 * BLOCK_SIZE, previous.length));
+        DeltaOutputStream out = new DeltaOutputStream(target, base, BLOCK_SIZE, expected.size());
+        for (byte b : delta.toByteArray()) {
+            out.write(b);
+        }
+        out.close();
+        assertArrayEquals(previous, target.toByteArray());
+    }
+
+    @Test
+    public void rebuildsLiteralOnlyFile() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        literal(delta, expected, text("unrelated content"));
+        literal(delta, expected, new byte[0]);
+        byte[] bytes = delta.toByteArray();
+        assertArrayEquals(expected.toByteArray(), rebuild(bytes, bytes.length, expected.size()));
+    }
+
+    @Test
+    public void rejectsInvalidBlockReferences() throws IOException {
+        // the partial block is never referenced
+        long[][] references = { { 4, 1 }, { 3, 2 }, { 0, 5 }, { 0xffffffffL, 1 }, { 1, 0xffffffffL } };
+        for (long[] reference : references) {
+            ByteArrayOutputStream delta = new ByteArrayOutputStream();
+            instruction(delta, 'C', reference[0], reference[1]);
+            byte[] bytes = delta.toByteArray();
+            try {
+                rebuild(bytes, bytes.length, previous.length);
+                fail(reference[0] + "+" + reference[1] + " accepted");
+            } catch (IOException e) {
+                assertEquals("Invalid block reference " + reference[0] + "+" + reference[1], e.getMessage());
+            }
+            assertEquals(0, target.size());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidInstruction() throws IOException {
+        byte[] bytes = { 'X', 0, 0, 0, 0 };
+        try {
+            rebuild(bytes, bytes.length, 0);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Invalid delta instruction " + (int) 'X', e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsDeltaLargerThanFileSize() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        copy(delta, expected, 0, 2);
+        byte[] bytes = delta.toByteArray();
+        try {
+            rebuild(bytes, bytes.length, 2 * BLOCK_SIZE - 1);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Delta exceeds the file size", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsIncompleteDelta() throws IOException {
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        literal(delta, expected, text("content"));
+        copy(delta, expected, 0, 1);
+        byte[] bytes = delta.toByteArray();
+        // within the literal header, the literal, the copy header, and a complete delta with missing instructions
+        for (int length : new int[] { 3, 8, bytes.length - 1, bytes.length }) {
+            DeltaOutputStream out = new DeltaOutputStream(target, base, BLOCK_SIZE, expected.size() + 1);
+            out.write(bytes, 0, length);
+            try {
+                out.close();
+                fail("truncated to " + length);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Incomplete delta"));
+            }
+            assertTrue(target.isClosed());
+        }
+    }
+
+    private byte[] rebuild(byte[] delta, int split, long expectedSize) throws IOException {
+        target.reset();
+        DeltaOutputStream out = new DeltaOutputStream(target, base, BLOCK_SIZE, expectedSize);
+        try {
+            writeSplit(out, delta, split);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the write failed already
+            }
+        }
+        return target.toByteArray();
+    }
+
+    private static void literal(ByteArrayOutputStream delta, ByteArrayOutputStream expected, byte[] content) {
+        instruction(delta, 'L', content.length);
+        delta.write(content, 0, content.length);
+        expected.write(content, 0, content.length);
+    }
+
+    private void copy(ByteArrayOutputStream delta, ByteArrayOutputStream expected, int index, int count) {
+        instruction(delta, 'C', index, count);
+        expected.write(previous, index * BLOCK_SIZE, count * BLOCK_SIZE);
+    }
+
+    private static void instruction(ByteArrayOutputStream delta, char type, long... values) {
+        delta.write(type);
+        for (long value : values) {
+            delta.write((int) (value >> 24));
+            delta.write((int) (value >> 16));
+            delta.write((int) (value >> 8));
+            delta.write((int) value);
+        }
+    }
+}
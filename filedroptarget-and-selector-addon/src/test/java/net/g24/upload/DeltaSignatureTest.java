@@ -0,0 +1,72 @@
+package net.g24.upload;
+
+import static net.g24.upload.TestStreams.random;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeltaSignatureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test vectors, delta-worker.js must compute the same weak checksums.
+     */
+    @Test
+    public void weakChecksumMatchesTestVectors() {
+        assertWeakChecksum(0x11dd0397, "Wikipedia".getBytes(StandardCharsets.US_ASCII));
+        byte[] sequence = new byte[2048];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = (byte) (i * 7 + 3);
+        }
+        assertWeakChecksum(0xe800fc00, sequence);
+        byte[] random = random(1024 * 1024);
+        assertWeakChecksum(0xd467eec4, Arrays.copyOf(random, 2048));
+        // the sums overflow 32 bits, only their low 16 bits are used
+        assertWeakChecksum(0xcf60b460, random);
+    }
+
+    @Test
+    public void weakChecksumUsesOffset() {
+        byte[] random = random(4096);
+        assertEquals(DeltaSignature.weakChecksum(Arrays.copyOfRange(random, 100, 2148), 0, 2048), DeltaSignature.weakChecksum(random, 100, 2048));
+    }
+
+    @Test
+    public void computesSignaturesOfCompleteBlocks() throws IOException {
+        int blockSize = 2048;
+        byte[] content = random(3 * blockSize + 100);
+        Path base = folder.newFile("base").toPath();
+        Files.write(base, content);
+        String signatures = DeltaSignature.compute(base, blockSize);
+        assertEquals(3 * 40, signatures.length());
+        for (int i = 0; i < 3; i++) {
+            byte[] block = Arrays.copyOfRange(content, i * blockSize, (i + 1) * blockSize);
+            assertEquals(String.format("%08x", DeltaSignature.weakChecksum(block, 0, blockSize)), signatures.substring(i * 40, i * 40 + 8));
+            MessageDigest digest = FileSystemContentStore.createDigest();
+            assertEquals(FileSystemContentStore.toHex(digest.digest(block)).substring(0, 32), signatures.substring(i * 40 + 8, (i + 1) * 40));
+        }
+    }
+
+    @Test
+    public void choosesBlockSize() {
+        assertEquals(2048, DeltaSignature.getBlockSize(0));
+        assertEquals(2048, DeltaSignature.getBlockSize(1024 * 1024));
+        assertEquals(10 * 1024, DeltaSignature.getBlockSize(100L * 1024 * 1024));
+        assertEquals(1024 * 1024, DeltaSignature.getBlockSize(1L << 40));
+    }
+
+    private static void assertWeakChecksum(int expected, byte[] bytes) {
+        assertEquals(Integer.toHexString(expected), Integer.toHexString(DeltaSignature.weakChecksum(bytes, 0, bytes.length)));
+    }
+}
@@ -0,0 +1,219 @@
+package net.g24.upload;
+
+import static net.g24.upload.TestStreams.forEachSplit;
+import static net.g24.upload.TestStreams.lines;
+import static net.g24.upload.TestStreams.text;
+import static net.g24.upload.TestStreams.writeSplit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+import net.g24.upload.TestStreams.ClosingOutputStream;
+
+public class GzipInflatingOutputStreamTest {
+
+    private static final int FHCRC = 1 << 1;
+    private static final int FEXTRA = 1 << 2;
+    private static final int FNAME = 1 << 3;
+    private static final int FCOMMENT = 1 << 4;
+
+    private final ClosingOutputStream target = new ClosingOutputStream();
+
+    @Test
+    public void inflatesMemberSplitAtEveryByte() throws IOException {
+        byte[] content = lines(500);
+        byte[] gzip = gzip(content);
+        forEachSplit(gzip, split -> assertArrayEquals(content, inflate(gzip, split, content.length)));
+    }
+
+    @Test
+    public void inflatesOptionalHeaderFields() throws IOException {
+        byte[] content = lines(200);
+        for (int flags : new int[] { FEXTRA, FNAME, FCOMMENT, FHCRC, FEXTRA | FNAME | FCOMMENT | FHCRC }) {
+            byte[] gzip = member(content, flags);
+            String message = "flags " + flags;
+            forEachSplit(gzip, split -> assertArrayEquals(message, content, inflate(gzip, split, content.length)));
+        }
+    }
+
+    @Test
+    public void inflatesMemberWrittenByteByByte() throws IOException {
+        byte[] content = lines(200);
+        byte[] gzip = member(content, FEXTRA | FNAME | FCOMMENT | FHCRC);
+        GzipInflatingOutputStream out = new GzipInflatingOutputStream(target, content.length);
+        for (byte b : gzip) {
+            out.write(b);
+        }
+        out.close();
+        assertArrayEquals(content, target.toByteArray());
+        assertEquals(content.length, out.getBytesInflated());
+    }
+
+    @Test
+    public void inflatesConcatenatedMembers() throws IOException {
+        byte[] first = lines(200);
+        byte[] second = text("second member");
+        byte[] gzip = concat(gzip(first), member(second, FNAME), gzip(new byte[0]));
+        byte[] content = concat(first, second);
+        forEachSplit(gzip, split -> assertArrayEquals(content, inflate(gzip, split, content.length)));
+    }
+
+    @Test
+    public void rejectsCorruptTrailer() throws IOException {
+        byte[] content = lines(200);
+        // CRC and size of the trailer
+        for (int offset : new int[] { 8, 4 }) {
+            byte[] gzip = gzip(content);
+            gzip[gzip.length - offset] ^= 1;
+            try {
+                inflate(gzip, gzip.length, content.length);
+                fail();
+            } catch (ZipException e) {
+                assertEquals("Corrupt gzip trailer", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void rejectsContentLargerThanFileSize() throws IOException {
+        byte[] content = new byte[1024 * 1024];
+        byte[] gzip = gzip(content);
+        GzipInflatingOutputStream out = new GzipInflatingOutputStream(target, 100_000);
+        try {
+            out.write(gzip);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Inflated content exceeds the file size", e.getMessage());
+        }
+        assertTrue(target.size() <= 100_000);
+    }
+
+    @Test
+    public void rejectsContentSmallerThanFileSize() throws IOException {
+        byte[] content = lines(200);
+        byte[] gzip = gzip(content);
+        try {
+            inflate(gzip, 0, content.length + 1);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Incomplete gzip content"));
+        }
+        assertTrue(target.isClosed());
+    }
+
+    @Test
+    public void rejectsTruncatedMember() throws IOException {
+        byte[] content = lines(200);
+        byte[] gzip = gzip(content);
+        for (int length : new int[] { 0, 5, 10, gzip.length / 2, gzip.length - 1 }) {
+            GzipInflatingOutputStream out = new GzipInflatingOutputStream(new ByteArrayOutputStream(), content.length);
+            out.write(gzip, 0, length);
+            try {
+                out.close();
+                fail("truncated to " + length);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Incomplete gzip content"));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsOtherContent() throws IOException {
+        byte[] content = text("not compressed content");
+        try {
+            inflate(content, 0, content.length);
+            fail();
+        } catch (ZipException e) {
+            assertEquals("Not in gzip format", e.getMessage());
+        }
+    }
+
+    private byte[] inflate(byte[] gzip, int split, long expectedSize) throws IOException {
+        target.reset();
+        GzipInflatingOutputStream out = new GzipInflatingOutputStream(target, expectedSize);
+        writeSplit(out, gzip, split);
+        out.close();
+        return target.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return a gzip member with the given optional header fields, which {@link GZIPOutputStream} does not write
+     */
+    private static byte[] member(byte[] content, int flags) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(0x1f);
+        bytes.write(0x8b);
+        bytes.write(Deflater.DEFLATED);
+        bytes.write(flags);
+        writeInt(bytes, 0);
+        bytes.write(0);
+        bytes.write(255);
+        if ((flags & FEXTRA) != 0) {
+            byte[] extra = text("AB\u0003\u0000xyz");
+            writeShort(bytes, extra.length);
+            bytes.write(extra, 0, extra.length);
+        }
+        if ((flags & FNAME) != 0) {
+            byte[] name = text("file.txt\u0000");
+            bytes.write(name, 0, name.length);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            byte[] comment = text("a comment\u0000");
+            bytes.write(comment, 0, comment.length);
+        }
+        if ((flags & FHCRC) != 0) {
+            CRC32 headerCrc = new CRC32();
+            headerCrc.update(bytes.toByteArray());
+            writeShort(bytes, (int) headerCrc.getValue());
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            bytes.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        writeInt(bytes, (int) crc.getValue());
+        writeInt(bytes, content.length);
+        return bytes.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream bytes, int value) {
+        bytes.write(value);
+        bytes.write(value >> 8);
+    }
+
+    private static void writeInt(ByteArrayOutputStream bytes, int value) {
+        writeShort(bytes, value);
+        writeShort(bytes, value >> 16);
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            bytes.write(array, 0, array.length);
+        }
+        return bytes.toByteArray();
+    }
+}
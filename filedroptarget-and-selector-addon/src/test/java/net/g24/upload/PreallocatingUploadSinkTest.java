@@ -0,0 +1,57 @@
+package net.g24.upload;
+
+import static net.g24.upload.TestStreams.random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PreallocatingUploadSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reservesExpectedSizeAndTruncatesOnClose() throws IOException {
+        Path target = folder.newFile("upload.bin").toPath();
+        byte[] content = random(3 * 1024 * 1024 + 17);
+        PreallocatingUploadSink sink = new PreallocatingUploadSink(target, content.length + 1000);
+        assertEquals(content.length + 1000, Files.size(target));
+
+        sink.write(ByteBuffer.wrap(content));
+        sink.close();
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void failsBeforeWritingIfSpaceIsTooSmall() throws IOException {
+        Path target = folder.newFile("upload.bin").toPath();
+        long usableSpace = Files.getFileStore(target).getUsableSpace();
+        try {
+            new PreallocatingUploadSink(target, usableSpace + 1);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Not enough usable space for " + (usableSpace + 1) + " bytes"));
+        }
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    public void deletesFileOnAbort() throws IOException {
+        Path target = folder.newFile("upload.bin").toPath();
+        PreallocatingUploadSink sink = new PreallocatingUploadSink(target, 1000);
+        sink.write(ByteBuffer.wrap(random(500)));
+        sink.abort();
+        assertFalse(Files.exists(target));
+    }
+}
@@ -0,0 +1,136 @@
+package net.g24.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.Html5File;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+public class ProgressAggregatorTest {
+
+    private final BlockingQueue<Map<Html5File, Long>> batches = new LinkedBlockingQueue<>();
+    private final TestUI ui = new TestUI();
+    private final ProgressAggregator aggregator = new ProgressAggregator(ui, batch -> batches.add(new HashMap<>(batch)));
+    private final Html5File first = new Html5File("first.bin", 1000, "application/octet-stream");
+    private final Html5File second = new Html5File("second.bin", 2000, "application/octet-stream");
+
+    @Before
+    public void setInterval() {
+        aggregator.setInterval(100);
+    }
+
+    @Test
+    public void deliversProgressOfAllFilesInOneBatch() throws IOException, InterruptedException {
+        assertTrue(aggregator.start(first));
+        assertTrue(aggregator.start(second));
+        OutputStream out = aggregator.count(first, new ByteArrayOutputStream());
+        out.write(new byte[300]);
+        out.write(1);
+        assertTrue(aggregator.update(second, 500));
+
+        Map<Html5File, Long> batch = nextBatch();
+        assertEquals(2, batch.size());
+        assertEquals(301, (long) batch.get(first));
+        assertEquals(500, (long) batch.get(second));
+        aggregator.stop(first);
+        aggregator.stop(second);
+    }
+
+    @Test
+    public void deliversChangedProgressOnly() throws InterruptedException {
+        aggregator.start(first);
+        aggregator.start(second);
+        aggregator.update(first, 100);
+        aggregator.update(second, 200);
+        assertEquals(2, nextBatch().size());
+
+        aggregator.update(second, 300);
+        Map<Html5File, Long> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals(300, (long) batch.get(second));
+        // no progress, no batch
+        assertNull(batches.poll(300, TimeUnit.MILLISECONDS));
+        aggregator.stop(first);
+        aggregator.stop(second);
+    }
+
+    @Test
+    public void ignoresFilesBelowMinFileSize() {
+        aggregator.setMinFileSize(1500);
+        assertFalse(aggregator.start(first));
+        OutputStream out = new ByteArrayOutputStream();
+        assertSame(out, aggregator.count(first, out));
+        assertFalse(aggregator.update(first, 100));
+    }
+
+    @Test
+    public void stopsTrackingStoppedFiles() throws InterruptedException {
+        aggregator.start(first);
+        aggregator.update(first, 100);
+        aggregator.stop(first);
+        assertFalse(aggregator.update(first, 200));
+        assertNull(batches.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void stopsTrackingWhenUIIsDetached() throws InterruptedException {
+        ui.detached = true;
+        aggregator.start(first);
+        aggregator.update(first, 100);
+        for (int i = 0; i < 100 && aggregator.update(first, 100); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(aggregator.update(first, 100));
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIntervalBelowOneMillisecond() {
+        aggregator.setInterval(0);
+    }
+
+    private Map<Html5File, Long> nextBatch() throws InterruptedException {
+        Map<Html5File, Long> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertTrue("no batch delivered", batch != null);
+        return batch;
+    }
+
+    /**
+     * Runs accessing tasks immediately, a real UI would need a session.
+     */
+    private static class TestUI extends UI {
+
+        private volatile boolean detached;
+
+        @Override
+        protected void init(VaadinRequest request) {
+        }
+
+        @Override
+        public Future<Void> access(Runnable runnable) {
+            if (detached) {
+                throw new UIDetachedException();
+            }
+            runnable.run();
+            return null;
+        }
+    }
+}
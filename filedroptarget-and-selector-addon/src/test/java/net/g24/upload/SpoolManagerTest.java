@@ -0,0 +1,130 @@
+package net.g24.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpoolManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SpoolManager manager;
+
+    @After
+    public void close() {
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void rejectsAllocationExceedingQuota() throws IOException {
+        manager = new SpoolManager(folder.getRoot().toPath(), 1000, Duration.ofHours(1));
+        SpoolFile first = manager.allocate(600);
+        try {
+            manager.allocate(401);
+            fail();
+        } catch (SpoolQuotaExceededException e) {
+            assertEquals("Spool quota of 1000 bytes exceeded, requested 401 bytes", e.getMessage());
+        }
+        assertEquals(600, manager.getReservedBytes());
+        assertEquals(1, manager.getSpoolFileCount());
+
+        first.delete();
+        manager.allocate(1000).delete();
+        assertEquals(0, manager.getReservedBytes());
+    }
+
+    @Test
+    public void rejectsWritesExceedingQuota() throws IOException {
+        manager = new SpoolManager(folder.getRoot().toPath(), 1000, Duration.ofHours(1));
+        SpoolUploadSink sink = SpoolUploadSink.create(manager, 100);
+        // more bytes than announced are counted as they arrive
+        sink.write(ByteBuffer.allocate(800));
+        assertEquals(800, manager.getReservedBytes());
+        try {
+            sink.write(ByteBuffer.allocate(201));
+            fail();
+        } catch (SpoolQuotaExceededException e) {
+            assertEquals("Spool quota of 1000 bytes exceeded, requested 201 bytes", e.getMessage());
+        }
+        assertEquals(800, manager.getReservedBytes());
+        sink.abort();
+    }
+
+    @Test
+    public void deletesSpoolFileOnAbort() throws IOException {
+        manager = new SpoolManager(folder.getRoot().toPath(), 1000, Duration.ofHours(1));
+        SpoolUploadSink sink = SpoolUploadSink.create(manager, 500);
+        Path path = sink.getSpoolFile().getPath();
+        sink.write(ByteBuffer.allocate(300));
+        assertTrue(Files.exists(path));
+
+        sink.abort();
+        assertFalse(Files.exists(path));
+        assertTrue(sink.getSpoolFile().isDeleted());
+        assertEquals(0, manager.getReservedBytes());
+        assertEquals(0, manager.getSpoolFileCount());
+    }
+
+    @Test
+    public void keepsClosedSpoolFileUntilReleased() throws IOException {
+        manager = new SpoolManager(folder.getRoot().toPath(), 1000, Duration.ofHours(1));
+        SpoolUploadSink sink = SpoolUploadSink.create(manager, 500);
+        sink.write(ByteBuffer.allocate(500));
+        sink.close();
+        assertEquals(500, Files.size(sink.getSpoolFile().getPath()));
+        assertEquals(500, manager.getReservedBytes());
+
+        sink.release();
+        assertFalse(Files.exists(sink.getSpoolFile().getPath()));
+        assertEquals(0, manager.getReservedBytes());
+    }
+
+    @Test
+    public void janitorDeletesUntrackedFilesOlderThanMaxAge() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Path old = Files.createTempFile(directory, "upload", ".spool");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - Duration.ofHours(2).toMillis()));
+        Path recent = Files.createTempFile(directory, "upload", ".spool");
+        Path other = Files.createTempFile(directory, "other", ".txt");
+        Files.setLastModifiedTime(other, FileTime.fromMillis(0));
+
+        manager = new SpoolManager(directory, 1000, Duration.ofHours(1));
+        manager.deleteOrphans();
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(recent));
+        assertTrue(Files.exists(other));
+    }
+
+    @Test
+    public void janitorDeletesUnusedTrackedFilesExceptOpenOnes() throws IOException, InterruptedException {
+        manager = new SpoolManager(folder.getRoot().toPath(), 1000, Duration.ofMillis(50));
+        SpoolUploadSink writing = SpoolUploadSink.create(manager, 100);
+        SpoolUploadSink closed = SpoolUploadSink.create(manager, 200);
+        closed.close();
+
+        // the background janitor runs as well
+        Thread.sleep(100);
+        manager.deleteOrphans();
+        assertTrue(closed.getSpoolFile().isDeleted());
+        assertFalse(Files.exists(closed.getSpoolFile().getPath()));
+        assertFalse(writing.getSpoolFile().isDeleted());
+        assertEquals(100, manager.getReservedBytes());
+        writing.abort();
+    }
+}
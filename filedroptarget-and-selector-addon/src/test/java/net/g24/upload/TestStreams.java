@@ -0,0 +1,89 @@
+package net.g24.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers for the tests of the stream decoders: the content of an upload arrives in arbitrary pieces, so decoders are tested with their
+ * input split at every byte.
+ */
+final class TestStreams {
+
+    interface SplitTest {
+
+        void run(int split) throws IOException;
+    }
+
+    private TestStreams() {
+    }
+
+    /**
+     * Runs the test for every position the given content can be split at, from {@code 0} to its length.
+     */
+    static void forEachSplit(byte[] content, SplitTest test) throws IOException {
+        for (int split = 0; split <= content.length; split++) {
+            test.run(split);
+        }
+    }
+
+    /**
+     * Writes the content by two writes, split at given position.
+     */
+    static void writeSplit(OutputStream out, byte[] content, int split) throws IOException {
+        out.write(content, 0, split);
+        out.write(content, split, content.length - split);
+    }
+
+    static byte[] text(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return compressible text of given number of lines
+     */
+    static byte[] lines(int count) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            content.append("line ").append(i).append('\n');
+        }
+        return text(content.toString());
+    }
+
+    /**
+     * @return bytes of a linear congruential generator, reproducible in JavaScript
+     */
+    static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        int x = 1;
+        for (int i = 0; i < length; i++) {
+            x = x * 1103515245 + 12345;
+            bytes[i] = (byte) (x >>> 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Collects the bytes written, and whether the stream got closed.
+     */
+    static class ClosingOutputStream extends ByteArrayOutputStream {
+
+        private boolean closed;
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            closed = false;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package net.g24.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+
+public class UploadGovernorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final VaadinSession first = new VaadinSession(null);
+    private final VaadinSession second = new VaadinSession(null);
+    private final VaadinSession third = new VaadinSession(null);
+
+    @After
+    public void uninstall() {
+        UploadGovernor.setDefault(null);
+    }
+
+    @Test
+    public void limitsConcurrentUploads() {
+        UploadGovernor governor = new UploadGovernor(2);
+        UploadGovernor.Permit permit = governor.tryAcquire(first);
+        assertNotNull(permit);
+        assertNotNull(governor.tryAcquire(second));
+        assertNull(governor.tryAcquire(third));
+        assertEquals(2, governor.getActiveUploads());
+        assertEquals(1, governor.getRejectedUploads());
+
+        permit.release();
+        assertNotNull(governor.tryAcquire(third));
+    }
+
+    @Test
+    public void limitsUploadsPerSession() {
+        UploadGovernor governor = new UploadGovernor(0).setMaxUploadsPerSession(1);
+        UploadGovernor.Permit permit = governor.tryAcquire(first);
+        assertNotNull(permit);
+        assertNull(governor.tryAcquire(first));
+        assertNotNull(governor.tryAcquire(second));
+
+        permit.release();
+        assertNotNull(governor.tryAcquire(first));
+    }
+
+    @Test
+    public void releasesPermitOnce() {
+        UploadGovernor governor = new UploadGovernor(2);
+        UploadGovernor.Permit permit = governor.tryAcquire(first);
+        governor.tryAcquire(second);
+        permit.release();
+        permit.release();
+        assertEquals(1, governor.getActiveUploads());
+    }
+
+    @Test
+    public void admitsWaitingUploadsInOrderOfArrival() {
+        UploadGovernor governor = new UploadGovernor(1);
+        UploadGovernor.Permit permit = governor.tryAcquire(first, "1");
+        assertNull(governor.tryAcquire(second, "2"));
+        assertNull(governor.tryAcquire(third, "3"));
+        assertEquals(2, governor.getWaitingUploads());
+
+        permit.release();
+        // the slot is kept for the upload waiting longer
+        assertNull(governor.tryAcquire(third, "3"));
+        assertNull(governor.tryAcquire(first));
+        assertNotNull(governor.tryAcquire(second, "2"));
+        assertEquals(1, governor.getWaitingUploads());
+    }
+
+    @Test
+    public void skipsWaitingUploadsOfSessionsAtTheirLimit() {
+        UploadGovernor governor = new UploadGovernor(2).setMaxUploadsPerSession(1);
+        governor.tryAcquire(first, "1");
+        assertNull(governor.tryAcquire(first, "2"));
+        // the waiting upload could not take the free slot anyway
+        assertNotNull(governor.tryAcquire(second, "3"));
+    }
+
+    @Test
+    public void limitsWaitingUploads() {
+        UploadGovernor governor = new UploadGovernor(1).setMaxWaitingUploads(1);
+        governor.tryAcquire(first, "1");
+        assertNull(governor.tryAcquire(second, "2"));
+        assertNull(governor.tryAcquire(third, "3"));
+        assertEquals(1, governor.getWaitingUploads());
+    }
+
+    @Test
+    public void extendsRetryDelayByPositionInLine() throws IOException {
+        UploadGovernor.setDefault(new UploadGovernor(2).setRetryAfterSeconds(3));
+        assertNotNull(admit(first, "1"));
+        assertNotNull(admit(second, "2"));
+        Map<String, Object> rejected = new HashMap<>();
+        for (int i = 3; i <= 7; i++) {
+            assertNull(admit(third, String.valueOf(i), rejected));
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, rejected.get("status"));
+            assertEquals(String.valueOf(3 * (1 + (i - 3) / 2)), rejected.get("Retry-After"));
+        }
+    }
+
+    @Test
+    public void takesTokensAtRate() {
+        UploadGovernor.SessionShare share = new UploadGovernor.SessionShare();
+        // a full bucket to start with
+        assertEquals(0, share.take(1000, 1000, 0));
+        assertEquals(SECOND / 2, share.take(500, 1000, 0));
+        // refilled by half a second
+        assertEquals(0, share.take(0, 1000, SECOND / 2));
+        assertEquals(SECOND / 4, share.take(250, 1000, SECOND / 2));
+        // a longer pause refills the bucket by one second only
+        assertEquals(3 * SECOND / 4, share.take(1500, 1000, 10 * SECOND));
+    }
+
+    @Test
+    public void takesTokensAtHighRate() {
+        long rate = 20L * 1024 * 1024 * 1024;
+        UploadGovernor.SessionShare share = new UploadGovernor.SessionShare();
+        assertEquals(0, share.take(Integer.MAX_VALUE, rate, 0));
+        // the bucket is refilled completely, nanoseconds times rate exceeds a long
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, share.take(Integer.MAX_VALUE, rate, SECOND));
+        }
+        long wait = share.take(Integer.MAX_VALUE, rate, SECOND);
+        assertTrue(String.valueOf(wait), wait > 0 && wait < SECOND);
+    }
+
+    @Test
+    public void sharesBandwidthFairly() {
+        UploadGovernor governor = new UploadGovernor(0).setMaxBytesPerSecond(1000).setMaxBytesPerSecondPerSession(800);
+        UploadGovernor.Permit alone = governor.tryAcquire(first);
+        // at most the session's rate, the bucket holds one second
+        assertEquals(0, alone.throttle(800));
+        assertTrue(alone.throttle(400) > SECOND / 2 - SECOND / 100);
+
+        UploadGovernor.Permit shared = governor.tryAcquire(second);
+        assertEquals(0, shared.throttle(500));
+        long wait = shared.throttle(250);
+        assertTrue(String.valueOf(wait), wait > SECOND / 2 - SECOND / 100 && wait <= SECOND / 2);
+    }
+
+    @Test
+    public void ignoresRatesIfUnlimited() {
+        UploadGovernor.Permit permit = new UploadGovernor(0).tryAcquire(first);
+        assertEquals(0, permit.throttle(Integer.MAX_VALUE));
+        assertEquals(0, permit.throttle(Integer.MAX_VALUE));
+    }
+
+    private static UploadGovernor.Permit admit(VaadinSession session, String key) throws IOException {
+        return admit(session, key, new HashMap<>());
+    }
+
+    /**
+     * @param rejected receives the status and the {@code Retry-After} header of a rejected upload
+     */
+    private static UploadGovernor.Permit admit(VaadinSession session, String key, Map<String, Object> rejected) throws IOException {
+        rejected.clear();
+        VaadinResponse response = (VaadinResponse) Proxy.newProxyInstance(UploadGovernorTest.class.getClassLoader(),
+            new Class<?>[] { VaadinResponse.class }, (proxy, method, args) -> {
+                if (method.getName().equals("setHeader")) {
+                    rejected.put((String) args[0], args[1]);
+                } else if (method.getName().equals("sendError")) {
+                    rejected.put("status", args[0]);
+                }
+                return null;
+            });
+        return UploadGovernor.admit(session, key, response);
+    }
+}
@@ -0,0 +1,180 @@
+package net.g24.upload;
+
+import static net.g24.upload.TestStreams.random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class WriteBehindUploadSinkTest {
+
+    private final BufferPool bufferPool = new BufferPool(16, 8);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private final RecordingSink delegate = new RecordingSink();
+
+    @After
+    public void shutdown() {
+        writer.shutdownNow();
+    }
+
+    @Test
+    public void writesBytesInOrder() throws IOException {
+        byte[] content = random(10_000);
+        WriteBehindUploadSink sink = new WriteBehindUploadSink(delegate, bufferPool, 3, writer);
+        // odd sizes, so buffers are filled by several writes and writes span several buffers
+        for (int offset = 0, length = 1; offset < content.length; offset += length, length = length % 37 + 5) {
+            sink.write(ByteBuffer.wrap(content, offset, Math.min(length, content.length - offset)));
+        }
+        assertEquals(content.length, sink.getBytesWritten());
+        sink.close();
+
+        assertArrayEquals(content, delegate.content.toByteArray());
+        assertTrue(delegate.gatheringWrites > 0);
+        assertTrue(delegate.closed);
+        assertFalse(delegate.aborted);
+        assertEquals(0, bufferPool.getBuffersInUse());
+    }
+
+    @Test
+    public void syncsOnceOnClose() throws IOException {
+        WriteBehindUploadSink sink = new WriteBehindUploadSink(delegate, bufferPool, 3, writer);
+        for (int i = 0; i < 100; i++) {
+            sink.write(ByteBuffer.wrap(random(50)));
+        }
+        assertEquals(0, delegate.syncs);
+        sink.close();
+        assertEquals(1, delegate.syncs);
+        // closing again has no effect
+        sink.close();
+        assertEquals(1, delegate.syncs);
+    }
+
+    @Test
+    public void failsNextWriteAfterFailedWrite() throws IOException {
+        delegate.failure = new IOException("disk full");
+        WriteBehindUploadSink sink = new WriteBehindUploadSink(delegate, bufferPool, 2, writer);
+        sink.write(ByteBuffer.wrap(random(16)));
+        try {
+            // waits for the writer
+            sink.sync();
+            fail();
+        } catch (IOException e) {
+            assertSame(delegate.failure, e.getCause());
+        }
+        try {
+            sink.write(ByteBuffer.wrap(random(16)));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Writing upload failed", e.getMessage());
+            assertSame(delegate.failure, e.getCause());
+        }
+        sink.abort();
+        assertTrue(delegate.aborted);
+        assertEquals(0, bufferPool.getBuffersInUse());
+    }
+
+    @Test
+    public void failsCloseAfterFailedWrite() throws IOException {
+        delegate.failure = new IOException("disk full");
+        WriteBehindUploadSink sink = new WriteBehindUploadSink(delegate, bufferPool, 2, writer);
+        // less than a buffer, written on close
+        sink.write(ByteBuffer.wrap(random(10)));
+        try {
+            sink.close();
+            fail();
+        } catch (IOException e) {
+            assertSame(delegate.failure, e.getCause());
+        }
+        assertEquals(0, delegate.syncs);
+        assertFalse(delegate.closed);
+        assertTrue(delegate.aborted);
+        assertEquals(0, bufferPool.getBuffersInUse());
+    }
+
+    @Test
+    public void writesThroughIfPoolIsExhausted() throws IOException {
+        BufferPool exhausted = new BufferPool(16, 1);
+        ByteBuffer taken = exhausted.acquire();
+        byte[] content = random(100);
+        WriteBehindUploadSink sink = new WriteBehindUploadSink(delegate, exhausted, 3, writer);
+        sink.write(ByteBuffer.wrap(content));
+        // written by the calling thread
+        assertEquals(content.length, delegate.content.size());
+        assertEquals(0, delegate.gatheringWrites);
+        sink.close();
+        assertArrayEquals(content, delegate.content.toByteArray());
+        exhausted.release(taken);
+    }
+
+    @Test
+    public void rejectsWritesAfterAbort() throws IOException {
+        WriteBehindUploadSink sink = new WriteBehindUploadSink(delegate, bufferPool, 3, writer);
+        sink.write(ByteBuffer.wrap(random(40)));
+        sink.abort();
+        assertTrue(delegate.aborted);
+        assertEquals(0, bufferPool.getBuffersInUse());
+        try {
+            sink.write(ByteBuffer.wrap(random(1)));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Upload aborted", e.getMessage());
+        }
+    }
+
+    private static class RecordingSink implements UploadSink {
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private IOException failure;
+        private int gatheringWrites;
+        private int syncs;
+        private boolean closed;
+        private boolean aborted;
+
+        @Override
+        public synchronized void write(ByteBuffer src) {
+            while (src.hasRemaining()) {
+                content.write(src.get());
+            }
+        }
+
+        @Override
+        public synchronized void write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            gatheringWrites++;
+            if (failure != null) {
+                throw failure;
+            }
+            UploadSink.super.write(srcs, offset, length);
+        }
+
+        @Override
+        public synchronized long getBytesWritten() {
+            return content.size();
+        }
+
+        @Override
+        public synchronized void sync() {
+            syncs++;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+
+        @Override
+        public synchronized void abort() {
+            aborted = true;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package net.g24.upload;
+
+import static net.g24.upload.TestStreams.forEachSplit;
+import static net.g24.upload.TestStreams.lines;
+import static net.g24.upload.TestStreams.text;
+import static net.g24.upload.TestStreams.writeSplit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import com.vaadin.ui.Html5File;
+
+public class ZipExtractingOutputStreamTest {
+
+    private final Map<String, byte[]> extracted = new LinkedHashMap<>();
+    private final List<ZipEntry> entries = new ArrayList<>();
+    private final List<CollectingSink> sinks = new ArrayList<>();
+
+    @Test
+    public void extractsArchiveSplitAtEveryByteBoundary() throws IOException {
+        byte[] archive = zip(false);
+        forEachSplit(archive, split -> {
+            clear();
+            ZipExtractingOutputStream out = open(archive, 0, 0);
+            writeSplit(out, archive, split);
+            out.close();
+            assertContent();
+        });
+    }
+
+    @Test
+    public void extractsArchiveWrittenByteByByte() throws IOException {
+        byte[] archive = zip(false);
+        ZipExtractingOutputStream out = open(archive, 0, 0);
+        for (byte b : archive) {
+            out.write(b);
+        }
+        out.close();
+        assertContent();
+    }
+
+    @Test
+    public void extractsEntriesWithDataDescriptor() throws IOException {
+        byte[] archive = zip(true);
+        ZipExtractingOutputStream out = open(archive, 0, 0);
+        out.write(archive);
+        out.close();
+        assertContent();
+        for (ZipEntry entry : entries) {
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertEquals(-1, entry.getSize());
+        }
+    }
+
+    @Test
+    public void extractsDataDescriptorWithoutSignature() throws IOException {
+        byte[] archive = removeDescriptorSignatures(zip(true));
+        forEachSplit(archive, split -> {
+            clear();
+            ZipExtractingOutputStream out = open(archive, 0, 0);
+            writeSplit(out, archive, split);
+            out.close();
+            assertContent();
+        });
+    }
+
+    @Test
+    public void skipsEntriesWithoutSink() throws IOException {
+        byte[] archive = zip(false);
+        ZipExtractingOutputStream out = new ZipExtractingOutputStream(file(archive), (file, entry) -> null, 0, 0);
+        out.write(archive);
+        out.close();
+    }
+
+    @Test
+    public void rejectsParentSegments() throws IOException {
+        for (String name : new String[] { "../evil.txt", "a/../../evil.txt", "a/..", "/evil.txt", "a\\..\\evil.txt", "a//b.txt" }) {
+            byte[] archive = zip(name, text("evil"), ZipEntry.DEFLATED);
+            try {
+                open(archive, 0, 0).write(archive);
+                fail(name + " accepted");
+            } catch (UploadRejectedException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(name));
+            }
+        }
+        assertTrue(sinks.isEmpty());
+    }
+
+    @Test
+    public void rejectsMoreThanMaxEntries() throws IOException {
+        byte[] archive = zip(false);
+        // the folder counts as an entry
+        open(archive, 4, 0).write(archive);
+
+        clear();
+        ZipExtractingOutputStream out = open(archive, 3, 0);
+        try {
+            out.write(archive);
+            fail();
+        } catch (UploadRejectedException e) {
+            assertEquals("Archive exceeds 3 entries", e.getMessage());
+        }
+        assertEquals(2, sinks.size());
+        assertEquals(2, extracted.size());
+    }
+
+    @Test
+    public void rejectsDeclaredSizeAboveMaxExpandedSize() throws IOException {
+        byte[] archive = zip("big.txt", new byte[10_000], ZipEntry.STORED);
+        try {
+            open(archive, 0, 9_999).write(archive);
+            fail();
+        } catch (UploadRejectedException e) {
+            assertEquals("Archive expands to more than 9999 bytes", e.getMessage());
+        }
+        // rejected before the content is written
+        assertTrue(sinks.isEmpty());
+
+        clear();
+        ZipExtractingOutputStream out = open(archive, 0, 10_000);
+        out.write(archive);
+        out.close();
+        assertEquals(10_000, extracted.get("big.txt").length);
+    }
+
+    @Test
+    public void abortsInflatingAboveMaxExpandedSize() throws IOException {
+        // a data descriptor hides the size, the limit applies while inflating
+        byte[] archive = zip("bomb.txt", new byte[1024 * 1024], ZipEntry.DEFLATED);
+        ZipExtractingOutputStream out = open(archive, 0, 100_000);
+        try {
+            out.write(archive);
+            fail();
+        } catch (UploadRejectedException e) {
+            assertEquals("Archive expands to more than 100000 bytes", e.getMessage());
+        }
+        assertEquals(1, sinks.size());
+        assertTrue(sinks.get(0).getBytesWritten() <= 100_000);
+        out.abort();
+        assertTrue(sinks.get(0).aborted);
+    }
+
+    @Test
+    public void rejectsCorruptEntry() throws IOException {
+        byte[] archive = zip("a.txt", text("content"), ZipEntry.STORED);
+        // first byte of the stored content, after the 30 bytes header and the name
+        archive[30 + 5] ^= 1;
+        try {
+            open(archive, 0, 0).write(archive);
+            fail();
+        } catch (ZipException e) {
+            assertEquals("Corrupt entry a.txt", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsIncompleteArchive() throws IOException {
+        byte[] archive = zip(false);
+        ZipExtractingOutputStream out = open(archive, 0, 0);
+        out.write(archive, 0, archive.length / 2);
+        try {
+            out.close();
+            fail();
+        } catch (ZipException e) {
+            assertEquals("Incomplete archive", e.getMessage());
+        }
+        for (CollectingSink sink : sinks) {
+            assertTrue(sink.closed || sink.aborted);
+        }
+    }
+
+    @Test
+    public void rejectsOtherContent() throws IOException {
+        byte[] content = text("not an archive");
+        try {
+            open(content, 0, 0).write(content);
+            fail();
+        } catch (ZipException e) {
+            assertEquals("Not a ZIP archive", e.getMessage());
+        }
+    }
+
+    private ZipExtractingOutputStream open(byte[] archive, int maxEntries, long maxExpandedSize) {
+        return new ZipExtractingOutputStream(file(archive), (file, entry) -> {
+            entries.add(entry);
+            CollectingSink sink = new CollectingSink(entry.getName());
+            sinks.add(sink);
+            return sink;
+        }, maxEntries, maxExpandedSize);
+    }
+
+    private void clear() {
+        extracted.clear();
+        entries.clear();
+        sinks.clear();
+    }
+
+    private void assertContent() {
+        assertEquals(3, extracted.size());
+        assertArrayEquals(text("first"), extracted.get("first.txt"));
+        assertArrayEquals(lines(200), extracted.get("folder/second.txt"));
+        assertArrayEquals(new byte[0], extracted.get("folder/empty.txt"));
+    }
+
+    /**
+     * @param dataDescriptor {@code true} to deflate all entries without known sizes, {@code false} to store them
+     */
+    private static byte[] zip(boolean dataDescriptor) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            if (!dataDescriptor) {
+                zip.putNextEntry(new ZipEntry("folder/"));
+            }
+            put(zip, "first.txt", text("first"), dataDescriptor ? ZipEntry.DEFLATED : ZipEntry.STORED);
+            put(zip, "folder/second.txt", lines(200), dataDescriptor ? ZipEntry.DEFLATED : ZipEntry.STORED);
+            put(zip, "folder/empty.txt", new byte[0], dataDescriptor ? ZipEntry.DEFLATED : ZipEntry.STORED);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] zip(String name, byte[] content, int method) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            put(zip, name, content, method);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] content, int method) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    /**
+     * Removes the optional signatures of the data descriptors, the content must not contain the signature.
+     */
+    private static byte[] removeDescriptorSignatures(byte[] archive) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < archive.length; i++) {
+            if (i + 4 <= archive.length && archive[i] == 'P' && archive[i + 1] == 'K' && archive[i + 2] == 7 && archive[i + 3] == 8) {
+                i += 3;
+            } else {
+                bytes.write(archive[i]);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Html5File file(byte[] archive) {
+        return new Html5File("archive.zip", archive.length, "application/zip");
+    }
+
+    private class CollectingSink implements UploadSink {
+
+        private final String name;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private boolean closed;
+        private boolean aborted;
+
+        CollectingSink(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void write(ByteBuffer src) {
+            while (src.hasRemaining()) {
+                content.write(src.get());
+            }
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return content.size();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            extracted.put(name, content.toByteArray());
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+}
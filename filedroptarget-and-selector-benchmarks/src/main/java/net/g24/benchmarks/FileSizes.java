@@ -0,0 +1,47 @@
+package net.g24.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * File sizes of the uploads of a benchmark, either a fixed size like {@code 256KB} or {@code mixed}: sizes between 1 KB and 4 MB,
+ * uniformly distributed on a log scale (as many small as large files), in the same order on every run.
+ */
+final class FileSizes {
+
+    static final String MIXED = "mixed";
+    static final long MIN_MIXED_SIZE = 1024;
+    static final long MAX_MIXED_SIZE = 4 * 1024 * 1024;
+
+    private final long[] sizes;
+    private final AtomicInteger next = new AtomicInteger();
+
+    FileSizes(String distribution) {
+        if (MIXED.equals(distribution)) {
+            Random random = new Random(24);
+            double range = Math.log(MAX_MIXED_SIZE / MIN_MIXED_SIZE);
+            sizes = new long[1024];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = Math.round(MIN_MIXED_SIZE * Math.exp(random.nextDouble() * range));
+            }
+        } else {
+            sizes = new long[] { parse(distribution) };
+        }
+    }
+
+    /**
+     * @return size of the next upload, thread-safe
+     */
+    long next() {
+        return sizes[Math.floorMod(next.getAndIncrement(), sizes.length)];
+    }
+
+    private static long parse(String size) {
+        if (size.endsWith("MB")) {
+            return Long.parseLong(size.substring(0, size.length() - 2)) * 1024 * 1024;
+        } else if (size.endsWith("KB")) {
+            return Long.parseLong(size.substring(0, size.length() - 2)) * 1024;
+        }
+        return Long.parseLong(size);
+    }
+}
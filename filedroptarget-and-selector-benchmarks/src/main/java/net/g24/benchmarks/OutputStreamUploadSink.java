@@ -0,0 +1,61 @@
+package net.g24.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import net.g24.upload.UploadSink;
+
+/**
+ * {@link UploadSink} writing to a plain file output stream, i.e. what a {@link com.vaadin.server.StreamVariable} returning a
+ * {@link java.io.FileOutputStream} does, as baseline of the sinks of the add-on.
+ */
+final class OutputStreamUploadSink implements UploadSink {
+
+    private final Path target;
+    private final OutputStream out;
+    private long bytesWritten;
+
+    OutputStreamUploadSink(Path target) throws IOException {
+        this.target = target;
+        this.out = Files.newOutputStream(target);
+    }
+
+    Path getTarget() {
+        return target;
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        byte[] bytes = new byte[src.remaining()];
+        src.get(bytes);
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        bytesWritten += len;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public void abort() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.g24.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.ui.Html5File;
+import com.vaadin.ui.ProgressBar;
+
+import net.g24.upload.DiscardUploadSink;
+import net.g24.upload.FileReceiver;
+import net.g24.upload.ProgressAggregator;
+import net.g24.upload.SinkStreamVariable;
+
+/**
+ * Cost of server-side progress on the receive path, for a batch of concurrent uploads of one session into {@link DiscardUploadSink}s:
+ * <ul>
+ * <li>{@code off}: no progress</li>
+ * <li>{@code listen}: {@link com.vaadin.server.StreamVariable#listenProgress()}, Vaadin's events every 500 ms (and at the end), each
+ * refreshing a progress bar while holding the session lock</li>
+ * <li>{@code listen-every-buffer}: as {@code listen}, but an event per 4 KB buffer, i.e. the worst case of many small files or a slow
+ * connection</li>
+ * <li>{@code aggregated}: counted by a {@link ProgressAggregator} without the session lock, as the component does; its batches are not
+ * delivered, as there is no UI, so this is the cost on the request threads only</li>
+ * </ul>
+ * The {@link UploadCounters} report uploads and bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProgressBenchmark {
+
+    @Param({ "off", "listen", "listen-every-buffer", "aggregated" })
+    public String progress;
+
+    @Param({ "256KB", "4MB" })
+    public String size;
+
+    @Param({ "1", "16" })
+    public int concurrency;
+
+    private FileSizes fileSizes;
+    private UploadDriver driver;
+    private ProgressAggregator progressAggregator;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fileSizes = new FileSizes(size);
+        driver = new UploadDriver(new ReentrantLock(), "listen-every-buffer".equals(progress) ? 0 : UploadDriver.PROGRESS_INTERVAL);
+        progressAggregator = new ProgressAggregator(new ProgressBar(), batch -> {
+        });
+        executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "upload-benchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public long receive(UploadCounters counters) throws Exception {
+        List<Future<Long>> uploads = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            uploads.add(executor.submit(this::upload));
+        }
+        long bytes = 0;
+        for (Future<Long> upload : uploads) {
+            bytes += upload.get();
+        }
+        counters.add(concurrency, bytes);
+        return bytes;
+    }
+
+    private long upload() throws Exception {
+        long fileSize = fileSizes.next();
+        Html5File file = new Html5File("upload.bin", fileSize, "application/octet-stream");
+        SinkStreamVariable streamVariable = SinkStreamVariable.attach(file, new DiscardUploadSink());
+        FileReceiver receiver = new FileReceiver(file);
+        if ("aggregated".equals(progress)) {
+            receiver.setProgressAggregator(progressAggregator);
+            streamVariable.setFinishedListener(event -> progressAggregator.stop(file));
+        } else if (progress.startsWith("listen")) {
+            // the refresh of e.g. a progress bar per file, as a demo dialog does
+            ProgressBar progressBar = new ProgressBar();
+            streamVariable.setProgressListener(event -> progressBar.setValue((float) event.getBytesReceived() / event.getContentLength()));
+        }
+        return driver.stream(file, receiver, new SyntheticInputStream(fileSize));
+    }
+}
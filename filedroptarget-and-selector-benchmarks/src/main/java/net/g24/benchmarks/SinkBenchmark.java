@@ -0,0 +1,159 @@
+package net.g24.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vaadin.ui.Html5File;
+
+import net.g24.upload.ChannelUploadSink;
+import net.g24.upload.DiscardUploadSink;
+import net.g24.upload.FileReceiver;
+import net.g24.upload.SinkStreamVariable;
+import net.g24.upload.SpoolManager;
+import net.g24.upload.TieredSpool;
+import net.g24.upload.TieredUploadSink;
+import net.g24.upload.UploadSink;
+import net.g24.upload.WriteBehindUploadSink;
+
+/**
+ * Receive path of a batch of concurrent uploads of one session, from the request body to the sink: each operation streams
+ * {@link #concurrency} files through a {@link FileReceiver} and a {@link SinkStreamVariable}, as the component does. The sinks are
+ * <ul>
+ * <li>{@code stream}: a plain file output stream, i.e. what a hand-written stream variable does</li>
+ * <li>{@code channel}: a {@link ChannelUploadSink}</li>
+ * <li>{@code write-behind}: a {@link ChannelUploadSink} written by a {@link WriteBehindUploadSink}, including its sync per file</li>
+ * <li>{@code memory}: a {@link TieredSpool} keeping all files in memory</li>
+ * <li>{@code discard}: a {@link DiscardUploadSink}, i.e. the cost of the receive path itself</li>
+ * </ul>
+ * Completed files are deleted or released again. The {@link UploadCounters} report uploads and bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SinkBenchmark {
+
+    private static final int MAX_CONCURRENCY = 16;
+
+    @Param({ "stream", "channel", "write-behind", "memory", "discard" })
+    public String sink;
+
+    @Param({ "4KB", "256KB", "4MB", FileSizes.MIXED })
+    public String size;
+
+    @Param({ "1", "4", "16" })
+    public int concurrency;
+
+    private Path directory;
+    private SpoolManager spoolManager;
+    private TieredSpool spool;
+    private FileSizes fileSizes;
+    private UploadDriver driver;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("upload-benchmark");
+        spoolManager = new SpoolManager(directory.resolve("spool"), Long.MAX_VALUE, Duration.ofHours(1));
+        spool = new TieredSpool((int) FileSizes.MAX_MIXED_SIZE, MAX_CONCURRENCY, spoolManager);
+        fileSizes = new FileSizes(size);
+        driver = new UploadDriver(new ReentrantLock(), UploadDriver.PROGRESS_INTERVAL);
+        executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "upload-benchmark");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        spoolManager.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long receive(UploadCounters counters) throws Exception {
+        List<Future<Long>> uploads = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            uploads.add(executor.submit(this::upload));
+        }
+        long bytes = 0;
+        for (Future<Long> upload : uploads) {
+            bytes += upload.get();
+        }
+        counters.add(concurrency, bytes);
+        return bytes;
+    }
+
+    private long upload() throws Exception {
+        long fileSize = fileSizes.next();
+        Html5File file = new Html5File("upload.bin", fileSize, "application/octet-stream");
+        SinkStreamVariable streamVariable = SinkStreamVariable.attach(file, this::createSink);
+        streamVariable.setFinishedListener(event -> release(streamVariable.getSink()));
+        return driver.stream(file, new FileReceiver(file), new SyntheticInputStream(fileSize));
+    }
+
+    private UploadSink createSink(Html5File file) throws IOException {
+        switch (sink) {
+        case "stream":
+            return new OutputStreamUploadSink(Files.createTempFile(directory, "upload", ".bin"));
+        case "channel":
+            return new ChannelUploadSink(Files.createTempFile(directory, "upload", ".bin"));
+        case "write-behind":
+            return new WriteBehindUploadSink(new ChannelUploadSink(Files.createTempFile(directory, "upload", ".bin")));
+        case "memory":
+            return spool.createSink(file);
+        case "discard":
+            return new DiscardUploadSink();
+        default:
+            throw new IllegalArgumentException("Unknown sink " + sink);
+        }
+    }
+
+    private static void release(UploadSink sink) {
+        if (sink instanceof WriteBehindUploadSink) {
+            release(((WriteBehindUploadSink) sink).getDelegate());
+            return;
+        }
+        try {
+            if (sink instanceof TieredUploadSink) {
+                ((TieredUploadSink) sink).release();
+            } else if (sink instanceof ChannelUploadSink) {
+                Files.delete(((ChannelUploadSink) sink).getTarget());
+            } else if (sink instanceof OutputStreamUploadSink) {
+                Files.delete(((OutputStreamUploadSink) sink).getTarget());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.g24.benchmarks;
+
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Request body of given size with random, incompressible content. The content repeats every 64 KB, so reading costs a copy, but no
+ * random number generation.
+ */
+final class SyntheticInputStream extends InputStream {
+
+    private static final byte[] CONTENT = new byte[64 * 1024];
+
+    static {
+        new Random(24).nextBytes(CONTENT);
+    }
+
+    private final long size;
+    private long position;
+
+    SyntheticInputStream(long size) {
+        this.size = size;
+    }
+
+    @Override
+    public int read() {
+        return position < size ? CONTENT[(int) (position++ % CONTENT.length)] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (position >= size) {
+            return -1;
+        }
+        int offset = (int) (position % CONTENT.length);
+        int read = (int) Math.min(Math.min(len, CONTENT.length - offset), size - position);
+        System.arraycopy(CONTENT, offset, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position);
+    }
+}
@@ -0,0 +1,29 @@
+package net.g24.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results of the benchmarks, reported per second next to the score: uploads and bytes received.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class UploadCounters {
+
+    public long uploads;
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        uploads = 0;
+        bytes = 0;
+    }
+
+    void add(int uploads, long bytes) {
+        this.uploads += uploads;
+        this.bytes += bytes;
+    }
+}
@@ -0,0 +1,148 @@
+package net.g24.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+
+import com.vaadin.server.StreamVariable;
+import com.vaadin.server.StreamVariable.StreamingEndEvent;
+import com.vaadin.server.StreamVariable.StreamingErrorEvent;
+import com.vaadin.server.StreamVariable.StreamingProgressEvent;
+import com.vaadin.server.StreamVariable.StreamingStartEvent;
+import com.vaadin.server.communication.FileUploadHandler;
+import com.vaadin.ui.Html5File;
+
+/**
+ * Streams an upload to a {@link StreamVariable} like {@link FileUploadHandler} does for the request of a file, but without a servlet
+ * container: the same buffer size, the same calls while holding the session lock (here a lock shared by all uploads of the benchmark), and
+ * progress events at most once per interval and at the end of the stream.
+ */
+final class UploadDriver {
+
+    /**
+     * Buffer size of Vaadin's upload loop.
+     */
+    static final int BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Interval of Vaadin's progress events in milliseconds.
+     */
+    static final long PROGRESS_INTERVAL = 500;
+
+    private final Lock sessionLock;
+    private final long progressInterval;
+
+    /**
+     * @param progressInterval min. interval between progress events in milliseconds, {@code 0} for an event per buffer
+     */
+    UploadDriver(Lock sessionLock, long progressInterval) {
+        this.sessionLock = sessionLock;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * @return number of bytes streamed
+     */
+    long stream(Html5File file, StreamVariable streamVariable, InputStream in) throws IOException, FileUploadHandler.UploadInterruptedException {
+        Event event = new Event(file);
+        OutputStream out;
+        boolean listenProgress;
+        sessionLock.lock();
+        try {
+            streamVariable.streamingStarted(event);
+            out = streamVariable.getOutputStream();
+            listenProgress = streamVariable.listenProgress();
+        } finally {
+            sessionLock.unlock();
+        }
+        if (out == null) {
+            throw new IOException("No output stream for " + file.getFileName());
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long lastProgress = 0;
+        try {
+            int read;
+            do {
+                read = in.read(buffer);
+                if (read > 0) {
+                    out.write(buffer, 0, read);
+                    event.bytesReceived += read;
+                }
+                if (listenProgress) {
+                    long now = System.currentTimeMillis();
+                    if (lastProgress + progressInterval <= now || read <= 0) {
+                        lastProgress = now;
+                        sessionLock.lock();
+                        try {
+                            streamVariable.onProgress(event);
+                        } finally {
+                            sessionLock.unlock();
+                        }
+                    }
+                }
+                if (streamVariable.isInterrupted()) {
+                    throw new FileUploadHandler.UploadInterruptedException();
+                }
+            } while (read > 0);
+            out.close();
+        } catch (Exception e) {
+            event.exception = e;
+            sessionLock.lock();
+            try {
+                out.close();
+                streamVariable.streamingFailed(event);
+            } finally {
+                sessionLock.unlock();
+            }
+            throw e;
+        }
+        sessionLock.lock();
+        try {
+            streamVariable.streamingFinished(event);
+        } finally {
+            sessionLock.unlock();
+        }
+        return event.bytesReceived;
+    }
+
+    private static final class Event implements StreamingStartEvent, StreamingProgressEvent, StreamingEndEvent, StreamingErrorEvent {
+
+        private final Html5File file;
+        private long bytesReceived;
+        private Exception exception;
+
+        private Event(Html5File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String getFileName() {
+            return file.getFileName();
+        }
+
+        @Override
+        public String getMimeType() {
+            return file.getType();
+        }
+
+        @Override
+        public long getContentLength() {
+            return file.getFileSize();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public void disposeStreamVariable() {
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package net.g24.demo;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 
 import com.vaadin.annotations.Push;
@@ -17,12 +24,28 @@ import com.vaadin.ui.Component;
 import com.vaadin.ui.CssLayout;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Label;
+import com.vaadin.ui.Notification;
 import com.vaadin.ui.UI;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.dnd.FileDropTarget;
 import com.vaadin.ui.dnd.event.FileDropEvent;
 import com.vaadin.ui.themes.ValoTheme;
 import net.g24.FileDropTargetAndSelector;
+import net.g24.FileRejectEvent;
+import net.g24.client.ImagePolicy;
+import net.g24.upload.ChannelUploadSink;
+import net.g24.upload.ContentStore;
+import net.g24.upload.DeltaBaseProvider;
+import net.g24.upload.DigestStage;
+import net.g24.upload.FileSystemContentStore;
+import net.g24.upload.JmxUploadMetrics;
+import net.g24.upload.MagicTypeStage;
+import net.g24.upload.SpoolManager;
+import net.g24.upload.TieredSpool;
+import net.g24.upload.UploadGovernor;
+import net.g24.upload.UploadPipeline;
+import net.g24.upload.UploadRejectedException;
+import net.g24.upload.ZipExtraction;
 
 @Push
 @Theme("demo")
@@ -34,8 +57,56 @@ public class DemoUI extends UI {
     @VaadinServletConfiguration(productionMode = false, ui = DemoUI.class)
     public static class Servlet extends VaadinServlet {
 
+        private SpoolManager spoolManager;
+        private TieredSpool spool;
+        private ContentStore contentStore;
+        private JmxUploadMetrics uploadMetrics;
+
+        @Override
+        protected void servletInitialized() throws ServletException {
+            super.servletInitialized();
+            try {
+                // spool files are limited to 1 GB, abandoned ones are deleted after an hour
+                spoolManager = new SpoolManager(Paths.get(System.getProperty("java.io.tmpdir"), "filedroptarget-demo-spool"), 1024L * 1024 * 1024,
+                                                Duration.ofHours(1));
+                contentStore = new FileSystemContentStore(Paths.get(System.getProperty("java.io.tmpdir"), "filedroptarget-demo-content"));
+            } catch (IOException e) {
+                throw new ServletException(e);
+            }
+            // files up to 64 KB are kept in memory (max. 16 MB in total), larger ones are spilled to the spool directory
+            spool = new TieredSpool(64 * 1024, 256, spoolManager);
+            // see MBean net.g24:type=UploadMetrics,name="demo" in JConsole
+            uploadMetrics = new JmxUploadMetrics("demo").setSpoolManager(spoolManager).register();
+            // JVM-wide, at most 4 uploads at once (2 per session), 50 MB/s shared by the sessions, max. 10 MB/s each
+            UploadGovernor.setDefault(new UploadGovernor(4).setMaxUploadsPerSession(2)
+                                                           .setMaxBytesPerSecond(50L * 1024 * 1024)
+                                                           .setMaxBytesPerSecondPerSession(10L * 1024 * 1024));
+        }
+
+        @Override
+        public void destroy() {
+            UploadGovernor.setDefault(null);
+            uploadMetrics.unregister();
+            spoolManager.close();
+            super.destroy();
+        }
+
+        public JmxUploadMetrics getUploadMetrics() {
+            return uploadMetrics;
+        }
+
+        public TieredSpool getSpool() {
+            return spool;
+        }
+
+        public ContentStore getContentStore() {
+            return contentStore;
+        }
     }
 
+    static final String TYPE_STAGE = "type";
+    static final String SHA256_STAGE = "sha256";
+
     private static final String DROP_AREA_DESCRIPTION = String.format( //
                                                                        "<i>droparea</i>:<br><br><b>any component</b>, which is also accepted by <b>%s</b>",
                                                                        FileDropTarget.class.getName());
@@ -52,6 +123,16 @@ public class DemoUI extends UI {
             "FileDropTargetAndSelector extends FileDropTarget with client-side file selector activation through click events");
 
     private final CheckBox multipleField = new CheckBox("multiple");
+    private final CheckBox nonBlockingField = new CheckBox("non-blocking upload");
+    private final CheckBox clientSideProgressField = new CheckBox("client-side progress");
+    private final CheckBox contentHashingField = new CheckBox("content hashing");
+    private final CheckBox deltaUploadField = new CheckBox("delta upload");
+    private final CheckBox directoryModeField = new CheckBox("directory mode");
+    private final CheckBox zipExtractionField = new CheckBox("extract ZIP");
+    private final CheckBox imagePolicyField = new CheckBox("downscale images");
+    private final CheckBox compressionField = new CheckBox("compress text");
+    private final CheckBox governorField = new CheckBox("govern uploads", UploadGovernor.getDefault() != null);
+    private final CheckBox writeBehindField = new CheckBox("write-behind");
     private final CheckBox enabledField = new CheckBox("enabled", true);
     private final CheckBox visibleField = new CheckBox("visible", true);
 
@@ -88,7 +169,12 @@ public class DemoUI extends UI {
         clickableLayout.addStyleName("clickable");
         clickableLayout.addComponent(new Label(CLICKABLE_LAYOUT_DESCRIPTION, ContentMode.HTML));
 
-        targetAndSelector1 = new FileDropTargetAndSelector<>(dropArea1, clickableLayout, this::handleFiles);
+        targetAndSelector1 = new FileDropTargetAndSelector<>(dropArea1, clickableLayout, event -> handleFiles(event, targetAndSelector1));
+        targetAndSelector1.addFileRejectListener(this::handleRejectedFiles);
+        targetAndSelector1.setUploadPipeline(createUploadPipeline());
+        // smaller files complete before a progress indication matters
+        targetAndSelector1.setMinProgressFileSize(256 * 1024);
+        targetAndSelector1.setUploadMetrics(((Servlet) VaadinServlet.getCurrent()).getUploadMetrics());
     }
 
     private void initDropTarget2() {
@@ -96,7 +182,16 @@ public class DemoUI extends UI {
         dropArea2.addComponent(new Label(DROP_AREA_DESCRIPTION, ContentMode.HTML));
 
         clickableComponent.addStyleName("clickable");
-        targetAndSelector2 = new FileDropTargetAndSelector<>(dropArea2, clickableComponent, this::handleFiles);
+        targetAndSelector2 = new FileDropTargetAndSelector<>(dropArea2, clickableComponent, event -> handleFiles(event, targetAndSelector2));
+        targetAndSelector2.addFileRejectListener(this::handleRejectedFiles);
+        targetAndSelector2.setUploadPipeline(createUploadPipeline());
+        targetAndSelector2.setMinProgressFileSize(256 * 1024);
+        targetAndSelector2.setUploadMetrics(((Servlet) VaadinServlet.getCurrent()).getUploadMetrics());
+    }
+
+    private static UploadPipeline createUploadPipeline() {
+        // type and digest are computed as the bytes arrive, no second pass over the received file
+        return new UploadPipeline().addStage(TYPE_STAGE, file -> new MagicTypeStage()).addStage(SHA256_STAGE, file -> new DigestStage("SHA-256"));
     }
 
     private void initControls() {
@@ -104,6 +199,70 @@ public class DemoUI extends UI {
             targetAndSelector1.setMultiple(event.getValue());
             targetAndSelector2.setMultiple(event.getValue());
         });
+        nonBlockingField.setDescription("Receive uploads with Servlet 3.1 async I/O instead of Vaadin's blocking receiver");
+        nonBlockingField.addValueChangeListener(event -> {
+            targetAndSelector1.setNonBlockingUpload(event.getValue());
+            targetAndSelector2.setNonBlockingUpload(event.getValue());
+        });
+        clientSideProgressField.setDescription("Show progress measured by the browser on the drop area, without server round trips");
+        clientSideProgressField.addValueChangeListener(event -> {
+            targetAndSelector1.setClientSideProgress(event.getValue());
+            targetAndSelector2.setClientSideProgress(event.getValue());
+        });
+        contentHashingField.setDescription("Hash files client-side, files uploaded before are taken from the content store instead");
+        contentHashingField.addValueChangeListener(event -> {
+            ContentStore contentStore = event.getValue() ? ((Servlet) VaadinServlet.getCurrent()).getContentStore() : null;
+            targetAndSelector1.setContentStore(contentStore);
+            targetAndSelector2.setContentStore(contentStore);
+        });
+        // a String, as Path is not serializable
+        String versionsDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "filedroptarget-demo-versions").toString();
+        deltaUploadField.setDescription("Upload only the changes against the previous version of a file, i.e. the file with the same name in "
+                                        + versionsDirectory);
+        deltaUploadField.addValueChangeListener(event -> {
+            DeltaBaseProvider deltaBaseProvider = event.getValue() ? file -> Paths.get(versionsDirectory, Paths.get(file.getFileName()).getFileName().toString()) : null;
+            targetAndSelector1.setDeltaBaseProvider(deltaBaseProvider);
+            targetAndSelector2.setDeltaBaseProvider(deltaBaseProvider);
+        });
+        directoryModeField.setDescription("Drop and select folders, files are listed with their relative path");
+        directoryModeField.addValueChangeListener(event -> {
+            targetAndSelector1.setDirectoryMode(event.getValue());
+            targetAndSelector2.setDirectoryMode(event.getValue());
+        });
+        String extractionDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "filedroptarget-demo-extracted").toString();
+        zipExtractionField.setDescription("Extract ZIP archives while they are uploaded into " + extractionDirectory);
+        zipExtractionField.addValueChangeListener(event -> {
+            ZipExtraction zipExtraction = event.getValue() ? new ZipExtraction((archive, entry) -> {
+                // the names are sent by the client, neither the archive nor its entries may escape the extraction directory
+                Path directory = Paths.get(extractionDirectory).normalize();
+                Path root = directory.resolve(Paths.get(archive.getFileName()).getFileName().toString()).normalize();
+                Path target = root.resolve(entry.getName()).normalize();
+                if (!root.startsWith(directory) || root.equals(directory) || !target.startsWith(root) || target.equals(root)) {
+                    throw new UploadRejectedException("Invalid entry " + entry.getName() + " of " + archive.getFileName());
+                }
+                Files.createDirectories(target.getParent());
+                return new ChannelUploadSink(target);
+            }).setMaxEntries(10_000).setMaxExpandedSize(1024L * 1024 * 1024) : null;
+            targetAndSelector1.setZipExtraction(zipExtraction);
+            targetAndSelector2.setZipExtraction(zipExtraction);
+        });
+        imagePolicyField.setDescription("Downscale images to 2048 pixels and re-encode them as JPEG in the browser before they are uploaded");
+        imagePolicyField.addValueChangeListener(event -> {
+            ImagePolicy imagePolicy = event.getValue() ? new ImagePolicy(2048, 2048, "image/jpeg", 0.85) : null;
+            targetAndSelector1.setImagePolicy(imagePolicy);
+            targetAndSelector2.setImagePolicy(imagePolicy);
+        });
+        compressionField.setDescription("Send text files (e.g. CSV, JSON, XML, logs) gzip compressed, the server inflates them transparently");
+        compressionField.addValueChangeListener(event -> {
+            String[] compressedTypes = event.getValue() ? new String[] { "text/*", "application/json", "application/xml", ".csv", ".json", ".log", ".xml" }
+                : new String[0];
+            targetAndSelector1.setCompressedTypes(compressedTypes);
+            targetAndSelector2.setCompressedTypes(compressedTypes);
+        });
+        // installed by the servlet for all sessions, not switchable per UI
+        governorField.setDescription("Concurrent uploads and bandwidth of all sessions are limited (JVM-wide), excess uploads wait in line");
+        governorField.setReadOnly(true);
+        writeBehindField.setDescription("Write spilled files by background threads, so receiving does not wait for the disk (synced once per file)");
         enabledField.addValueChangeListener(event -> {
             controlables.forEach(controlable -> controlable.setEnabled(event.getValue()));
         });
@@ -134,7 +293,7 @@ public class DemoUI extends UI {
             getContent().addComponent(new Label("Clickable Components changed. Original clickable components must not trigger file selector anymore"));
         });
 
-        controlLayout.addComponents(multipleField, enabledField, visibleField, changeButtonRole);
+        controlLayout.addComponents(multipleField, nonBlockingField, clientSideProgressField, contentHashingField, deltaUploadField, directoryModeField, zipExtractionField, imagePolicyField, compressionField, governorField, writeBehindField, enabledField, visibleField, changeButtonRole);
         return controlLayout;
     }
 
@@ -152,9 +311,16 @@ public class DemoUI extends UI {
         return dropLayout;
     }
 
-    private void handleFiles(FileDropEvent<?> event) {
-        // NOTE: room for handling files count and single/multi mode validation, as well as mimetype and size restrictions
-        new FileStreamDialog().show(getUI()).load(event.getFiles(), multipleField.getValue());
+    private void handleFiles(FileDropEvent<?> event, FileDropTargetAndSelector<?> uploader) {
+        // NOTE: files count (single/multi mode), mimetype and size restrictions are declared on FileDropTargetAndSelector,
+        // rejected files are not passed to this handler
+        new FileStreamDialog(((Servlet) VaadinServlet.getCurrent()).getSpool(), writeBehindField.getValue()).show(getUI()).load(event.getFiles(), multipleField.getValue(), uploader);
+    }
+
+    private void handleRejectedFiles(FileRejectEvent<?> event) {
+        Notification.show("Rejected files", event.getRejectedFiles().stream() //
+                                                 .map(file -> file.getName() + " (" + file.getReason() + ")") //
+                                                 .collect(Collectors.joining(", ")), Notification.Type.WARNING_MESSAGE);
     }
 
     @Override
@@ -1,12 +1,9 @@
 package net.g24.demo;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.vaadin.data.provider.ListDataProvider;
@@ -19,6 +16,14 @@ import com.vaadin.ui.UI;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.Window;
 import com.vaadin.ui.renderers.ProgressBarRenderer;
+import net.g24.FileDropTargetAndSelector;
+import net.g24.upload.SinkStreamVariable;
+import net.g24.upload.TieredSpool;
+import net.g24.upload.TieredUploadSink;
+import net.g24.upload.UploadPipeline;
+import net.g24.upload.UploadSink;
+import net.g24.upload.UploadSinkFactory;
+import net.g24.upload.WriteBehindUploadSink;
 
 /**
  * Sample implementation of a component, which handles a collection of {@link Html5File}s with {@link StreamVariable}s. It shows progress bars for
@@ -29,17 +34,24 @@ public class FileStreamDialog extends Window {
     private static final String CANCEL_RUNNING_AND_CLOSE_CAPTION = "Cancel running and Close";
     private static final String CLOSE_CAPTION = "Close";
 
+    private final UploadSinkFactory sinkFactory;
     private final Grid<HandledHtml5File> grid = new Grid<>();
     private final Button button = new Button(CANCEL_RUNNING_AND_CLOSE_CAPTION, event -> close());
     private Registration streamRegistration = () -> {
     };
 
-    public FileStreamDialog() {
+    /**
+     * @param writeBehind {@code true} to write spilled files by background threads, see {@link WriteBehindUploadSink}
+     */
+    public FileStreamDialog(TieredSpool spool, boolean writeBehind) {
+        this.sinkFactory = writeBehind ? WriteBehindUploadSink.factory(spool::createSink) : spool::createSink;
         grid.setSizeFull();
 
         grid.addColumn(HandledHtml5File::getFileName).setCaption("Name");
         grid.addColumn(HandledHtml5File::getType).setCaption("Type");
         grid.addColumn(HandledHtml5File::getFileSize).setCaption("Size");
+        grid.addColumn(HandledHtml5File::getDetectedType).setCaption("Detected Type");
+        grid.addColumn(HandledHtml5File::getSha256).setCaption("SHA-256");
         grid.addColumn(HandledHtml5File::getPercentLoaded, new ProgressBarRenderer()).setCaption("Loaded");
 
         button.setDisableOnClick(true);
@@ -75,9 +87,10 @@ public class FileStreamDialog extends Window {
         super.close();
     }
 
-    public void load(Collection<Html5File> files, boolean multiple) {
+    public void load(Collection<Html5File> files, boolean multiple, FileDropTargetAndSelector<?> uploader) {
         List<HandledHtml5File> handledFiles = files.stream() //
-                                                   .limit(multiple ? files.size() : 1).map(HandledHtml5File::new).collect(Collectors.toList());
+                                                   .limit(multiple ? files.size() : 1).map(file -> new HandledHtml5File(file, sinkFactory)).collect(Collectors.toList());
+        Map<Html5File, HandledHtml5File> handledFilesByFile = handledFiles.stream().collect(Collectors.toMap(HandledHtml5File::getFile, Function.identity()));
         ListDataProvider<HandledHtml5File> provider = new ListDataProvider<>(handledFiles);
 
         grid.setDataProvider(provider);
@@ -87,7 +100,19 @@ public class FileStreamDialog extends Window {
             file.setFinishedHandler(() -> updateButton(handledFiles.stream().anyMatch(HandledHtml5File::isNotFinished)));
         });
 
-        streamRegistration = () -> handledFiles.forEach(file -> file.interrupted = true);
+        // one batched progress update for all files per interval
+        Registration progressRegistration = uploader.addUploadProgressListener(event -> event.getProgress().forEach((file, bytesReceived) -> {
+            HandledHtml5File handledFile = handledFilesByFile.get(file);
+            if (handledFile != null) {
+                handledFile.setReceived(bytesReceived);
+            }
+        }));
+
+        streamRegistration = () -> {
+            progressRegistration.remove();
+            // aborts the remaining transfers in the browser
+            uploader.cancelUploads(files);
+        };
     }
 
     private void updateButton(boolean notFinished) {
@@ -97,63 +122,27 @@ public class FileStreamDialog extends Window {
     private static class HandledHtml5File {
 
         private final Html5File file;
+        private final SinkStreamVariable streamVariable;
         private long received;
-        private boolean listening = true;
-        private boolean interrupted;
         private boolean finished;
+        private String detectedType;
+        private String sha256;
         private Runnable stateChangeHandler;
         private Runnable finishedHandler;
-        private Path tempFile;
-        private OutputStream outputStream;
 
-        private HandledHtml5File(Html5File file) {
+        private HandledHtml5File(Html5File file, UploadSinkFactory sinkFactory) {
             this.file = file;
 
-            try {
-                tempFile = Files.createTempFile("demoview", "stream");
-                tempFile.toFile().deleteOnExit();
-                outputStream = Files.newOutputStream(tempFile, StandardOpenOption.CREATE);
-            } catch (IOException e) {
-
-            }
-
-            file.setStreamVariable(new StreamVariable() {
-                @Override
-                public OutputStream getOutputStream() {
-                    return outputStream;
-                }
-
-                @Override
-                public boolean listenProgress() {
-                    return HandledHtml5File.this.listening;
-                }
-
-                @Override
-                public void onProgress(StreamingProgressEvent event) {
-                    HandledHtml5File.this.received = event.getBytesReceived();
-                    HandledHtml5File.this.stateChanged();
-                }
-
-                @Override
-                public void streamingStarted(StreamingStartEvent event) {
-                }
-
-                @Override
-                public void streamingFinished(StreamingEndEvent event) {
-                    HandledHtml5File.this.finished = true;
-                    HandledHtml5File.this.handleFileFinished();
-                    ensureOutputStreamClosedAndRemoveTempFile();
-                }
-
-                @Override
-                public void streamingFailed(StreamingErrorEvent event) {
-                    ensureOutputStreamClosedAndRemoveTempFile();
-                }
-
-                @Override
-                public boolean isInterrupted() {
-                    return HandledHtml5File.this.interrupted;
-                }
+            // sink (memory buffer or spool file) is allocated when streaming starts
+            streamVariable = SinkStreamVariable.attach(file, sinkFactory);
+            streamVariable.setFinishedListener(event -> {
+                finished = true;
+                // computed by the upload pipeline (see DemoUI) while the file was received
+                detectedType = (String) UploadPipeline.getResults(event).get(DemoUI.TYPE_STAGE);
+                sha256 = (String) UploadPipeline.getResults(event).get(DemoUI.SHA256_STAGE);
+                setReceived(event.getBytesReceived());
+                handleFileFinished();
+                releaseSink();
             });
         }
 
@@ -169,14 +158,32 @@ public class FileStreamDialog extends Window {
             }
         }
 
+        public Html5File getFile() {
+            return file;
+        }
+
+        public void setReceived(long received) {
+            this.received = received;
+            stateChanged();
+        }
+
         public String getFileName() {
-            return file.getFileName();
+            // relative path in directory mode
+            return FileDropTargetAndSelector.getRelativePath(file);
         }
 
         public String getType() {
             return file.getType();
         }
 
+        public String getDetectedType() {
+            return detectedType;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
         public long getFileSize() {
             return file.getFileSize();
         }
@@ -197,23 +204,14 @@ public class FileStreamDialog extends Window {
             return !finished;
         }
 
-        private void ensureOutputStreamClosedAndRemoveTempFile() {
-            // for demo purpose we do not need uploaded resources
-            try {
-                if (outputStream != null) {
-                    outputStream.close();
-                }
-            } catch (IOException ioe) {
-                // ignore
+        private void releaseSink() {
+            // for demo purpose we do not need uploaded resources (failed uploads are released by the stream variable)
+            UploadSink sink = streamVariable.getSink();
+            if (sink instanceof WriteBehindUploadSink) {
+                sink = ((WriteBehindUploadSink) sink).getDelegate();
             }
-            outputStream = null;
-            if (tempFile != null) {
-                try {
-                    tempFile.toFile().delete();
-                } catch (RuntimeException e) {
-                    // ignore;
-                }
-                tempFile = null;
+            if (sink instanceof TieredUploadSink) {
+                ((TieredUploadSink) sink).release();
             }
         }
 
@@ -0,0 +1,69 @@
+package net.g24.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Files of the drops of the virtual users: the number of files per drop and weighted file sizes, e.g. {@code 1-5} files of
+ * {@code 64KB:60,1MB:30,16MB:10}, i.e. 60% of the files are 64 KB, 30% 1 MB and 10% 16 MB.
+ */
+final class FileMix {
+
+    private final int minFiles;
+    private final int maxFiles;
+    private final List<Long> sizes = new ArrayList<>();
+    private final List<Integer> weights = new ArrayList<>();
+    private int totalWeight;
+
+    /**
+     * @param filesPerDrop number ({@code 3}) or range ({@code 1-5}) of files per drop
+     * @param sizeWeights comma separated sizes with optional weight, e.g. {@code 64KB:60,1MB:30,16MB:10}
+     */
+    FileMix(String filesPerDrop, String sizeWeights) {
+        String[] range = filesPerDrop.split("-", 2);
+        minFiles = Integer.parseInt(range[0].trim());
+        maxFiles = range.length > 1 ? Integer.parseInt(range[1].trim()) : minFiles;
+        if (minFiles < 1 || maxFiles < minFiles) {
+            throw new IllegalArgumentException("Invalid files per drop " + filesPerDrop);
+        }
+        for (String sizeWeight : sizeWeights.split(",")) {
+            String[] parts = sizeWeight.trim().split(":", 2);
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            sizes.add(parseSize(parts[0].trim()));
+            weights.add(weight);
+            totalWeight += weight;
+        }
+        if (totalWeight < 1) {
+            throw new IllegalArgumentException("Invalid file sizes " + sizeWeights);
+        }
+    }
+
+    /**
+     * @return the sizes of the files of the next drop
+     */
+    long[] nextDrop(Random random) {
+        long[] drop = new long[minFiles + random.nextInt(maxFiles - minFiles + 1)];
+        for (int i = 0; i < drop.length; i++) {
+            int pick = random.nextInt(totalWeight);
+            int index = 0;
+            while (pick >= weights.get(index)) {
+                pick -= weights.get(index++);
+            }
+            drop[i] = sizes.get(index);
+        }
+        return drop;
+    }
+
+    static long parseSize(String size) {
+        String upperCase = size.toUpperCase();
+        if (upperCase.endsWith("GB")) {
+            return Long.parseLong(upperCase.substring(0, upperCase.length() - 2)) * 1024 * 1024 * 1024;
+        } else if (upperCase.endsWith("MB")) {
+            return Long.parseLong(upperCase.substring(0, upperCase.length() - 2)) * 1024 * 1024;
+        } else if (upperCase.endsWith("KB")) {
+            return Long.parseLong(upperCase.substring(0, upperCase.length() - 2)) * 1024;
+        }
+        return Long.parseLong(upperCase);
+    }
+}
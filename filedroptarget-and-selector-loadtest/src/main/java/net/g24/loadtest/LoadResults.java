@@ -0,0 +1,107 @@
+package net.g24.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of the uploads of all virtual users. Uploads completed before the measurement started (i.e. during the ramp-up) are not
+ * recorded.
+ */
+final class LoadResults {
+
+    private final long measurementStart;
+    private final List<long[]> completed = new ArrayList<>();
+    private final Map<String, Integer> failures = new TreeMap<>();
+    private long drops;
+    private long skippedFiles;
+    private long storedFiles;
+    private long retries;
+
+    /**
+     * @param measurementStart {@link System#nanoTime()} the measurement starts at
+     */
+    LoadResults(long measurementStart) {
+        this.measurementStart = measurementStart;
+    }
+
+    /**
+     * @param latencyNanos time from the drop until the upload was completed
+     */
+    synchronized void fileCompleted(long size, long latencyNanos) {
+        if (isMeasuring()) {
+            completed.add(new long[] { size, latencyNanos });
+        }
+    }
+
+    /**
+     * A file was not uploaded, as its content was already stored.
+     */
+    synchronized void fileStored() {
+        if (isMeasuring()) {
+            storedFiles++;
+        }
+    }
+
+    /**
+     * A file got no upload URL, e.g. it was rejected or the drop handler did not accept it.
+     */
+    synchronized void fileSkipped() {
+        if (isMeasuring()) {
+            skippedFiles++;
+        }
+    }
+
+    synchronized void failed(String reason) {
+        if (isMeasuring()) {
+            failures.merge(reason, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * An upload request was rejected as the server is busy and is repeated later.
+     */
+    synchronized void retried() {
+        if (isMeasuring()) {
+            retries++;
+        }
+    }
+
+    synchronized void dropCompleted() {
+        if (isMeasuring()) {
+            drops++;
+        }
+    }
+
+    /**
+     * @return size and latency of the completed uploads
+     */
+    synchronized List<long[]> getCompleted() {
+        return new ArrayList<>(completed);
+    }
+
+    synchronized Map<String, Integer> getFailures() {
+        return new TreeMap<>(failures);
+    }
+
+    synchronized long getDrops() {
+        return drops;
+    }
+
+    synchronized long getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    synchronized long getStoredFiles() {
+        return storedFiles;
+    }
+
+    synchronized long getRetries() {
+        return retries;
+    }
+
+    private boolean isMeasuring() {
+        return System.nanoTime() - measurementStart >= 0;
+    }
+}
@@ -0,0 +1,307 @@
+package net.g24.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Load generator simulating concurrent drops against a server running the demo, e.g. the demo's Jetty started by profile
+ * {@code loadtest} of the demo module (see README). Virtual users are started evenly during the ramp-up, each drops files in its own
+ * session (see {@link VirtualUser}) until the test ends. Uploads completed after the ramp-up are measured: throughput, completion
+ * latency (from the drop until the upload completed) and, if the server's JMX port is given, container threads and heap of the server.
+ * <p>
+ * Options (all optional):
+ * <pre>
+ * -url URL                 demo URL (default http://localhost:8080/)
+ * -users N                 virtual users (default 10)
+ * -rampUp SECONDS          time to start the users, not measured (default 10)
+ * -duration SECONDS        measured time after the ramp-up (default 60)
+ * -files SIZE[:WEIGHT],... file sizes and their weights (default 64KB:60,1MB:30,16MB:10)
+ * -filesPerDrop N[-M]      files per drop (default 1-3)
+ * -thinkTime MILLIS        pause of a user between its drops (default 1000)
+ * -options CAPTION,...     captions of the demo's check boxes each user checks, e.g. "multiple,non-blocking upload" (default multiple)
+ * -timeout MILLIS          connect and read timeout of requests (default 60000)
+ * -jmx HOST:PORT           JMX port of the server JVM
+ * -report FILE             writes the results as sorted properties, to be compared between runs or verified
+ * -minThroughput MB/S      min. throughput, 0 for any (default 0)
+ * -maxP99 MILLIS           max. 99th percentile of the completion latency, 0 for any (default 0)
+ * -maxFailures N           max. failed uploads and sessions, -1 for any (default 0)
+ * -verify FILE             only verifies the thresholds recorded in a report and fails if they are violated
+ * </pre>
+ * Violated thresholds are recorded in the report (key {@code violations}) and printed. The run itself exits normally, so the server can
+ * be stopped before {@code -verify} fails the build.
+ */
+public final class LoadTest {
+
+    private static final String VIOLATIONS = "violations";
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options.containsKey("verify")) {
+            System.exit(verify(Paths.get(options.get("verify"))) ? 0 : 1);
+        }
+        Settings settings = new Settings(options);
+        // keep a connection per concurrent request alive
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(5, settings.users * 4)));
+        waitForServer(settings);
+
+        ServerMonitor monitor = settings.jmx != null ? new ServerMonitor(settings.jmx) : null;
+        long start = System.nanoTime();
+        long measurementStart = start + TimeUnit.SECONDS.toNanos(settings.rampUp);
+        long end = measurementStart + TimeUnit.SECONDS.toNanos(settings.duration);
+        LoadResults results = new LoadResults(measurementStart);
+        ExecutorService users = Executors.newFixedThreadPool(settings.users, daemonThreads("loadtest-user"));
+        ExecutorService uploads = Executors.newCachedThreadPool(daemonThreads("loadtest-upload"));
+        System.out.println("Load test of " + settings.url + " with " + settings.users + " users, " + settings.rampUp + " s ramp-up, "
+            + settings.duration + " s measured");
+        if (monitor != null) {
+            monitor.start();
+        }
+        for (int i = 0; i < settings.users; i++) {
+            users.execute(new VirtualUser(i, settings, results, uploads, end));
+            Thread.sleep(TimeUnit.SECONDS.toMillis(settings.rampUp) / settings.users);
+        }
+        users.shutdown();
+        // drops running at the end are completed, their uploads are measured too
+        users.awaitTermination(settings.duration + settings.timeout / 1000 + 60L, TimeUnit.SECONDS);
+        users.shutdownNow();
+        uploads.shutdownNow();
+
+        Map<String, Object> report = createReport(settings, results, end - measurementStart);
+        if (monitor != null) {
+            report.putAll(monitor.getResults());
+            monitor.close();
+        }
+        List<String> violations = getViolations(settings, report);
+        report.put(VIOLATIONS, String.join("; ", violations));
+        print(report, results.getFailures());
+        if (settings.report != null) {
+            writeReport(settings.report, report);
+        }
+        if (!violations.isEmpty()) {
+            System.out.println("Thresholds violated: " + String.join("; ", violations));
+        }
+        System.exit(0);
+    }
+
+    private static Map<String, Object> createReport(Settings settings, LoadResults results, long measuredNanos) {
+        List<long[]> completed = results.getCompleted();
+        double seconds = measuredNanos / 1e9;
+        long bytes = completed.stream().mapToLong(upload -> upload[0]).sum();
+        int failures = results.getFailures().values().stream().mapToInt(Integer::intValue).sum();
+
+        Map<String, Object> report = new TreeMap<>();
+        report.put("users", settings.users);
+        report.put("durationSeconds", settings.duration);
+        report.put("files", settings.filesPerDrop + " x " + settings.files);
+        report.put("options", String.join(",", settings.options));
+        report.put("drops", results.getDrops());
+        report.put("uploadsCompleted", completed.size());
+        report.put("uploadsFailed", failures);
+        report.put("uploadsSkipped", results.getSkippedFiles());
+        report.put("uploadsStored", results.getStoredFiles());
+        report.put("uploadsRetried", results.getRetries());
+        report.put("bytes", bytes);
+        report.put("throughputUploadsPerSecond", completed.size() / seconds);
+        report.put("throughputMegabytesPerSecond", bytes / seconds / (1024 * 1024));
+        putLatencies(report, "latency", completed);
+        // per file size, small files suffer most from queueing
+        Map<Long, List<long[]>> bySize = completed.stream().collect(Collectors.groupingBy(upload -> upload[0]));
+        bySize.forEach((size, uploads) -> putLatencies(report, "latency." + formatSize(size), uploads));
+        return report;
+    }
+
+    private static void putLatencies(Map<String, Object> report, String prefix, List<long[]> uploads) {
+        long[] latencies = uploads.stream().mapToLong(upload -> upload[1]).sorted().toArray();
+        report.put(prefix + ".p50Millis", percentile(latencies, 0.5));
+        report.put(prefix + ".p99Millis", percentile(latencies, 0.99));
+        report.put(prefix + ".maxMillis", percentile(latencies, 1));
+    }
+
+    private static long percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sortedNanos.length * percentile) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sortedNanos[Math.max(0, index)]);
+    }
+
+    private static List<String> getViolations(Settings settings, Map<String, Object> report) {
+        List<String> violations = new ArrayList<>();
+        double throughput = (Double) report.get("throughputMegabytesPerSecond");
+        if (settings.minThroughput > 0 && throughput < settings.minThroughput) {
+            violations.add(String.format("throughput %.1f MB/s < %.1f MB/s", throughput, settings.minThroughput));
+        }
+        long p99 = (Long) report.get("latency.p99Millis");
+        if (settings.maxP99 > 0 && p99 > settings.maxP99) {
+            violations.add("p99 latency " + p99 + " ms > " + settings.maxP99 + " ms");
+        }
+        int failures = (Integer) report.get("uploadsFailed");
+        if (settings.maxFailures >= 0 && failures > settings.maxFailures) {
+            violations.add(failures + " failures > " + settings.maxFailures);
+        }
+        if (((Integer) report.get("uploadsCompleted")) == 0) {
+            violations.add("no upload completed");
+        }
+        return violations;
+    }
+
+    private static void print(Map<String, Object> report, Map<String, Integer> failures) {
+        report.forEach((key, value) -> System.out.println(String.format("%-40s %s", key, format(value))));
+        failures.forEach((reason, count) -> System.out.println(String.format("failed %5d x %s", count, reason)));
+    }
+
+    private static void writeReport(Path file, Map<String, Object> report) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Properties properties = new Properties();
+        report.forEach((key, value) -> properties.setProperty(key, format(value)));
+        StringWriter writer = new StringWriter();
+        properties.store(writer, null);
+        // sorted and without the time stamp comment, so reports of two runs can be diffed
+        List<String> lines = Arrays.stream(writer.toString().split("\\R")).filter(line -> !line.startsWith("#")).sorted()
+                                   .collect(Collectors.toList());
+        Files.write(file, lines, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @return {@code true} if the report records no violated thresholds
+     */
+    private static boolean verify(Path file) throws IOException {
+        Properties report = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            report.load(in);
+        }
+        String violations = report.getProperty(VIOLATIONS);
+        if (violations == null) {
+            System.out.println("No load test result in " + file);
+            return false;
+        }
+        if (!violations.isEmpty()) {
+            System.out.println("Load test thresholds violated: " + violations);
+            return false;
+        }
+        System.out.println("Load test passed: " + report.getProperty("throughputMegabytesPerSecond") + " MB/s, p99 "
+            + report.getProperty("latency.p99Millis") + " ms");
+        return true;
+    }
+
+    private static void waitForServer(Settings settings) throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+        while (true) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(settings.url).openConnection();
+                connection.setConnectTimeout(1000);
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (deadline - System.nanoTime() < 0) {
+                    throw e;
+                }
+            }
+            Thread.sleep(1000);
+        }
+    }
+
+    private static String format(Object value) {
+        return value instanceof Double ? String.format("%.2f", (Double) value) : String.valueOf(value);
+    }
+
+    private static String formatSize(long size) {
+        if (size % (1024 * 1024) == 0) {
+            return size / (1024 * 1024) + "MB";
+        }
+        return size % 1024 == 0 ? size / 1024 + "KB" : String.valueOf(size);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("-") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected -option value instead of " + args[i]);
+            }
+            options.put(args[i].substring(1), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * Options of a load test run.
+     */
+    static final class Settings {
+
+        final String url;
+        final int users;
+        final int rampUp;
+        final int duration;
+        final String files;
+        final String filesPerDrop;
+        final FileMix fileMix;
+        final long thinkTime;
+        final List<String> options;
+        final int timeout;
+        final String jmx;
+        final Path report;
+        final double minThroughput;
+        final long maxP99;
+        final int maxFailures;
+
+        private Settings(Map<String, String> options) {
+            String baseUrl = options.getOrDefault("url", "http://localhost:8080/");
+            url = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+            users = Integer.parseInt(options.getOrDefault("users", "10"));
+            rampUp = Integer.parseInt(options.getOrDefault("rampUp", "10"));
+            duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+            files = options.getOrDefault("files", "64KB:60,1MB:30,16MB:10");
+            filesPerDrop = options.getOrDefault("filesPerDrop", "1-3");
+            fileMix = new FileMix(filesPerDrop, files);
+            thinkTime = Long.parseLong(options.getOrDefault("thinkTime", "1000"));
+            String checkBoxes = options.getOrDefault("options", "multiple").trim();
+            this.options = checkBoxes.isEmpty() ? Collections.emptyList()
+                : Arrays.stream(checkBoxes.split(",")).map(String::trim).collect(Collectors.toList());
+            timeout = Integer.parseInt(options.getOrDefault("timeout", "60000"));
+            String jmxOption = options.getOrDefault("jmx", "").trim();
+            jmx = jmxOption.isEmpty() ? null : jmxOption;
+            String reportOption = options.getOrDefault("report", "").trim();
+            report = reportOption.isEmpty() ? null : Paths.get(reportOption);
+            minThroughput = Double.parseDouble(options.getOrDefault("minThroughput", "0"));
+            maxP99 = Long.parseLong(options.getOrDefault("maxP99", "0"));
+            maxFailures = Integer.parseInt(options.getOrDefault("maxFailures", "0"));
+            if (users < 1) {
+                throw new IllegalArgumentException("At least one user required");
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package net.g24.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Samples the server JVM once per second by remote JMX: heap usage, threads and the threads of the servlet container (Jetty's thread pool,
+ * threads named {@code qtp*}). A container thread is busy unless it waits for a job, so the acceptor and selector threads count as busy.
+ * When the load test ends the counters of the add-on's {@code JmxUploadMetrics} MBeans are read too.
+ */
+final class ServerMonitor implements Closeable {
+
+    private static final String CONTAINER_THREAD_PREFIX = "qtp";
+    private static final String IDLE_METHOD = "idleJobPoll";
+
+    private final JMXConnector connector;
+    private final MBeanServerConnection connection;
+    private final MemoryMXBean memory;
+    private final ThreadMXBean threads;
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "loadtest-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int samples;
+    private long maxHeapUsed;
+    private long heapMax;
+    private int maxThreads;
+    private int maxContainerThreads;
+    private int maxBusyContainerThreads;
+    private long busyContainerThreadsSum;
+
+    /**
+     * @param hostAndPort JMX port of the server, e.g. {@code localhost:9010}
+     */
+    ServerMonitor(String hostAndPort) throws IOException {
+        connector = JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + hostAndPort + "/jmxrmi"));
+        connection = connector.getMBeanServerConnection();
+        memory = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+        threads = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+    }
+
+    void start() {
+        sampler.scheduleAtFixedRate(this::sample, 0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the peak values, mapped to the keys of the report
+     */
+    synchronized Map<String, Number> getResults() {
+        Map<String, Number> results = new TreeMap<>();
+        results.put("server.heapUsedMaxBytes", maxHeapUsed);
+        results.put("server.heapMaxBytes", heapMax);
+        results.put("server.threadsMax", maxThreads);
+        results.put("server.containerThreadsMax", maxContainerThreads);
+        results.put("server.containerThreadsBusyMax", maxBusyContainerThreads);
+        results.put("server.containerThreadsBusyAverage", samples > 0 ? (double) busyContainerThreadsSum / samples : 0);
+        try {
+            long finished = 0;
+            long failed = 0;
+            for (ObjectName name : connection.queryNames(new ObjectName("net.g24:type=UploadMetrics,*"), null)) {
+                finished += (Long) connection.getAttribute(name, "FinishedUploads");
+                failed += (Long) connection.getAttribute(name, "FailedUploads");
+            }
+            results.put("server.uploadsFinished", finished);
+            results.put("server.uploadsFailed", failed);
+        } catch (IOException | JMException e) {
+            // upload metrics are optional
+        }
+        return results;
+    }
+
+    private void sample() {
+        try {
+            long heapUsed = memory.getHeapMemoryUsage().getUsed();
+            long max = memory.getHeapMemoryUsage().getMax();
+            int threadCount = threads.getThreadCount();
+            int containerThreads = 0;
+            int busyContainerThreads = 0;
+            for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds(), 16)) {
+                if (info != null && info.getThreadName().startsWith(CONTAINER_THREAD_PREFIX)) {
+                    containerThreads++;
+                    if (!isIdle(info)) {
+                        busyContainerThreads++;
+                    }
+                }
+            }
+            synchronized (this) {
+                samples++;
+                maxHeapUsed = Math.max(maxHeapUsed, heapUsed);
+                heapMax = max;
+                maxThreads = Math.max(maxThreads, threadCount);
+                maxContainerThreads = Math.max(maxContainerThreads, containerThreads);
+                maxBusyContainerThreads = Math.max(maxBusyContainerThreads, busyContainerThreads);
+                busyContainerThreadsSum += busyContainerThreads;
+            }
+        } catch (RuntimeException e) {
+            // e.g. the server is shutting down, the next sample may succeed
+        }
+    }
+
+    private static boolean isIdle(ThreadInfo info) {
+        for (StackTraceElement element : info.getStackTrace()) {
+            if (IDLE_METHOD.equals(element.getMethodName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sampler.shutdownNow();
+        connector.close();
+    }
+}
@@ -0,0 +1,289 @@
+package net.g24.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.vaadin.shared.ApplicationConstants;
+import com.vaadin.shared.JsonConstants;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
+import elemental.json.impl.JsonUtil;
+
+/**
+ * Headless client of a Vaadin 8 UI: opens the UI like the bootstrap script of the browser does, sends server RPCs by UIDL requests and
+ * keeps track of the connectors, so a virtual user can find e.g. the drop target or a check box by its caption. Client RPCs of the
+ * responses are returned to the caller, nothing is rendered.
+ * <p>
+ * Not thread-safe except {@link #connect(String, String)} and {@link #readResponse(HttpURLConnection)}, each virtual user has its own
+ * client (and session).
+ */
+final class VaadinClient {
+
+    private static final String UIDL_PREFIX = "for(;;);";
+    private static final String APP_PREFIX = ApplicationConstants.APP_PROTOCOL_PREFIX;
+
+    private final String baseUrl;
+    private final int timeout;
+    private volatile String sessionCookie;
+    private int uiId;
+    private String csrfToken = ApplicationConstants.CSRF_TOKEN_DEFAULT_VALUE;
+    private int syncId = -1;
+    private int clientId;
+    private final Map<String, String> typeNames = new HashMap<>();
+    private final Map<String, String> connectorTypes = new HashMap<>();
+    private final Map<String, JsonObject> states = new HashMap<>();
+
+    /**
+     * @param baseUrl URL of the Vaadin servlet, ending with {@code /}
+     * @param timeout connect and read timeout in milliseconds
+     */
+    VaadinClient(String baseUrl, int timeout) {
+        this.baseUrl = baseUrl;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Opens a new UI (and session), see Vaadin's {@code UIInitHandler}.
+     */
+    void open() throws IOException {
+        String windowName = "loadtest-" + System.identityHashCode(this);
+        String query = "v-browserDetails=1&theme=valo&v-appId=ROOT-loadtest&v-sh=1080&v-sw=1920&v-cw=1920&v-ch=1000&v-curdate="
+            + System.currentTimeMillis() + "&v-tzo=0&v-dstd=0&v-rtzo=0&v-dston=false&v-vw=1920&v-vh=1000&v-loc="
+            + URLEncoder.encode(baseUrl, "UTF-8") + "&v-wn=" + windowName;
+        HttpURLConnection connection = connect(baseUrl + "?" + query, "POST");
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        connection.setFixedLengthStreamingMode(0);
+        JsonObject response = Json.parse(readResponse(connection));
+        uiId = (int) response.getNumber("v-uiId");
+        handleUidl(Json.parse(response.getString("uidl")));
+    }
+
+    /**
+     * Sends the server RPCs, see Vaadin's {@code ServerRpcHandler}.
+     *
+     * @param invocations created by {@link #invocation(String, Class, String, JsonValue...)}
+     * @return the client RPCs of the response, i.e. connector ID, interface name, method name and arguments
+     */
+    List<JsonArray> call(JsonArray... invocations) throws IOException {
+        JsonArray rpc = Json.createArray();
+        for (JsonArray invocation : invocations) {
+            rpc.set(rpc.length(), invocation);
+        }
+        JsonObject request = Json.createObject();
+        request.put(ApplicationConstants.CSRF_TOKEN, csrfToken);
+        request.put(ApplicationConstants.RPC_INVOCATIONS, rpc);
+        request.put(ApplicationConstants.SERVER_SYNC_ID, syncId);
+        request.put(ApplicationConstants.CLIENT_TO_SERVER_ID, clientId);
+        byte[] body = request.toJson().getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = connect(baseUrl + ApplicationConstants.UIDL_PATH + "/?v-uiId=" + uiId, "POST");
+        connection.setRequestProperty("Content-Type", JsonConstants.JSON_CONTENT_TYPE);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        String response = readResponse(connection);
+        if (!response.startsWith(UIDL_PREFIX)) {
+            throw new IOException("Unexpected UIDL response: " + abbreviate(response));
+        }
+        JsonArray messages = JsonUtil.parse(response.substring(UIDL_PREFIX.length()));
+        List<JsonArray> clientRpcs = new ArrayList<>();
+        for (int i = 0; i < messages.length(); i++) {
+            clientRpcs.addAll(handleUidl(messages.getObject(i)));
+        }
+        return clientRpcs;
+    }
+
+    static JsonArray invocation(String connectorId, Class<?> rpcInterface, String method, JsonValue... parameters) {
+        JsonArray invocation = Json.createArray();
+        invocation.set(0, connectorId);
+        invocation.set(1, rpcInterface.getName());
+        invocation.set(2, method);
+        JsonArray parameterArray = Json.createArray();
+        for (JsonValue parameter : parameters) {
+            parameterArray.set(parameterArray.length(), parameter);
+        }
+        invocation.set(3, parameterArray);
+        return invocation;
+    }
+
+    /**
+     * @return IDs of the connectors of given server-side class, in the order of their IDs
+     */
+    List<String> findConnectors(String className) {
+        List<String> ids = new ArrayList<>();
+        connectorTypes.forEach((id, type) -> {
+            if (className.equals(type)) {
+                ids.add(id);
+            }
+        });
+        ids.sort((a, b) -> Integer.compare(Integer.parseInt(a), Integer.parseInt(b)));
+        return ids;
+    }
+
+    /**
+     * @return ID of the last created connector of given server-side class with a matching caption, {@code null} if there is none
+     */
+    String findConnector(String className, Predicate<String> caption) {
+        List<String> ids = findConnectors(className);
+        for (int i = ids.size() - 1; i >= 0; i--) {
+            JsonObject state = states.get(ids.get(i));
+            if (state != null && state.hasKey("caption") && caption.test(state.getString("caption"))) {
+                return ids.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the state of the connector as far as sent by the server, i.e. properties with default values are missing
+     */
+    JsonObject getState(String connectorId) {
+        JsonObject state = states.get(connectorId);
+        return state != null ? state : Json.createObject();
+    }
+
+    /**
+     * @return the absolute URL of an URL sent by the server, e.g. an upload URL
+     */
+    String resolve(String url) {
+        return url.startsWith(APP_PREFIX) ? baseUrl + url.substring(APP_PREFIX.length()) : url;
+    }
+
+    /**
+     * @return a connection to given URL of the application, carrying the session cookie
+     */
+    HttpURLConnection connect(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(resolve(url)).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setUseCaches(false);
+        connection.setDoOutput("POST".equals(method));
+        if (sessionCookie != null) {
+            connection.setRequestProperty("Cookie", sessionCookie);
+        }
+        return connection;
+    }
+
+    /**
+     * @return the response body, keeps the session cookie
+     * @throws IOException if the response status is not 200
+     */
+    String readResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        String cookie = connection.getHeaderField("Set-Cookie");
+        if (cookie != null) {
+            sessionCookie = cookie.split(";", 2)[0];
+        }
+        try (InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream()) {
+            String body = in != null ? readFully(in) : "";
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(status, connection.getHeaderField("Retry-After"), abbreviate(body));
+            }
+            return body;
+        }
+    }
+
+    private List<JsonArray> handleUidl(JsonObject uidl) {
+        if (uidl.hasKey(ApplicationConstants.UIDL_SECURITY_TOKEN_ID)) {
+            csrfToken = uidl.getString(ApplicationConstants.UIDL_SECURITY_TOKEN_ID);
+        }
+        if (uidl.hasKey(ApplicationConstants.SERVER_SYNC_ID)) {
+            syncId = (int) uidl.getNumber(ApplicationConstants.SERVER_SYNC_ID);
+        }
+        if (uidl.hasKey(ApplicationConstants.CLIENT_TO_SERVER_ID)) {
+            clientId = (int) uidl.getNumber(ApplicationConstants.CLIENT_TO_SERVER_ID);
+        } else {
+            clientId++;
+        }
+        if (uidl.hasKey("typeMappings")) {
+            JsonObject typeMappings = uidl.getObject("typeMappings");
+            for (String className : typeMappings.keys()) {
+                typeNames.put(String.valueOf((int) typeMappings.getNumber(className)), className);
+            }
+        }
+        if (uidl.hasKey("types")) {
+            JsonObject types = uidl.getObject("types");
+            for (String connectorId : types.keys()) {
+                connectorTypes.put(connectorId, typeNames.get(types.getString(connectorId)));
+            }
+        }
+        if (uidl.hasKey("state")) {
+            JsonObject changes = uidl.getObject("state");
+            for (String connectorId : changes.keys()) {
+                JsonObject state = states.computeIfAbsent(connectorId, id -> Json.createObject());
+                JsonObject change = changes.getObject(connectorId);
+                for (String property : change.keys()) {
+                    state.put(property, change.<JsonValue> get(property));
+                }
+            }
+        }
+        List<JsonArray> clientRpcs = new ArrayList<>();
+        if (uidl.hasKey(ApplicationConstants.RPC_INVOCATIONS)) {
+            JsonArray rpcs = uidl.getArray(ApplicationConstants.RPC_INVOCATIONS);
+            for (int i = 0; i < rpcs.length(); i++) {
+                clientRpcs.add(rpcs.getArray(i));
+            }
+        }
+        return clientRpcs;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String abbreviate(String text) {
+        return text.length() > 200 ? text.substring(0, 200) + "..." : text;
+    }
+
+    /**
+     * Response with a status other than 200.
+     */
+    static final class HttpStatusException extends IOException {
+
+        private final int status;
+        private final String retryAfter;
+
+        HttpStatusException(int status, String retryAfter, String body) {
+            super("HTTP " + status + (body.isEmpty() ? "" : ": " + body));
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the delay requested by {@code Retry-After} in milliseconds, {@code 1000} if missing
+         */
+        long getRetryAfterMillis() {
+            try {
+                return retryAfter != null ? Long.parseLong(retryAfter.trim()) * 1000 : 1000;
+            } catch (NumberFormatException e) {
+                return 1000;
+            }
+        }
+    }
+}
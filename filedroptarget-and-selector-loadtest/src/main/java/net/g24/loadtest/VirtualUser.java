@@ -0,0 +1,314 @@
+package net.g24.loadtest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.vaadin.shared.ui.button.ButtonServerRpc;
+import com.vaadin.shared.ui.checkbox.CheckBoxServerRpc;
+import com.vaadin.shared.ui.dnd.FileDropTargetRpc;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.CheckBox;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import net.g24.FileDropTargetAndSelector;
+import net.g24.client.FileDropTargetAndSelectorClientRpc;
+import net.g24.client.FileDropTargetAndSelectorState;
+
+/**
+ * A user of the demo dropping files again and again, in its own session. A drop is handled like the connector does: the drop RPC is
+ * answered by upload URLs, the files are posted to them, at most {@code maxConcurrentUploads} at once, as multipart form data, raw
+ * request body or in chunks. Finally the dialog opened by the demo for the drop is closed.
+ * <p>
+ * Chunks of a file are sent one after the other, not in parallel as by the browser. Delta uploads are not supported, the files count as
+ * failed.
+ */
+final class VirtualUser implements Runnable {
+
+    private static final FileDropTargetAndSelectorState DEFAULT_STATE = new FileDropTargetAndSelectorState();
+    private static final String CLIENT_RPC = FileDropTargetAndSelectorClientRpc.class.getName();
+    private static final byte[] CONTENT = new byte[64 * 1024];
+
+    static {
+        new Random(24).nextBytes(CONTENT);
+    }
+
+    private final int number;
+    private final LoadTest.Settings settings;
+    private final LoadResults results;
+    private final ExecutorService uploadExecutor;
+    private final long end;
+    private final Random random;
+    private VaadinClient client;
+    private String dropTarget;
+    private int fileId;
+
+    /**
+     * @param end {@link System#nanoTime()} the user stops dropping files at
+     */
+    VirtualUser(int number, LoadTest.Settings settings, LoadResults results, ExecutorService uploadExecutor, long end) {
+        this.number = number;
+        this.settings = settings;
+        this.results = results;
+        this.uploadExecutor = uploadExecutor;
+        this.end = end;
+        this.random = new Random(24L + number);
+    }
+
+    @Override
+    public void run() {
+        while (end - System.nanoTime() > 0 && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (client == null) {
+                    open();
+                }
+                drop();
+                Thread.sleep(settings.thinkTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                results.failed("session: " + e.getMessage());
+                // start over with a new session
+                client = null;
+                pause(1000);
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        VaadinClient newClient = new VaadinClient(settings.url, settings.timeout);
+        newClient.open();
+        List<String> dropTargets = newClient.findConnectors(FileDropTargetAndSelector.class.getName());
+        if (dropTargets.isEmpty()) {
+            throw new IOException("No drop target at " + settings.url);
+        }
+        for (String option : settings.options) {
+            String checkBox = newClient.findConnector(CheckBox.class.getName(), option::equals);
+            if (checkBox == null) {
+                throw new IOException("No check box '" + option + "' at " + settings.url);
+            }
+            newClient.call(VaadinClient.invocation(checkBox, CheckBoxServerRpc.class, "setChecked", Json.create(true), Json.createNull()));
+        }
+        // the users spread over the drop targets
+        dropTarget = dropTargets.get(number % dropTargets.size());
+        client = newClient;
+    }
+
+    private void drop() throws IOException, InterruptedException {
+        long[] sizes = settings.fileMix.nextDrop(random);
+        Map<String, Long> files = new HashMap<>();
+        JsonObject fileParams = Json.createObject();
+        for (long size : sizes) {
+            String id = String.valueOf(++fileId);
+            JsonObject parameters = Json.createObject();
+            parameters.put("name", "loadtest-" + number + "-" + id + ".bin");
+            parameters.put("size", size);
+            parameters.put("mime", "application/octet-stream");
+            fileParams.put(id, parameters);
+            files.put(id, size);
+        }
+
+        long droppedAt = System.nanoTime();
+        Queue<Upload> uploads = new ConcurrentLinkedQueue<>();
+        for (JsonArray rpc : client.call(VaadinClient.invocation(dropTarget, FileDropTargetRpc.class, "drop", fileParams))) {
+            if (!dropTarget.equals(rpc.getString(0)) || !CLIENT_RPC.equals(rpc.getString(1))) {
+                continue;
+            }
+            String method = rpc.getString(2);
+            if ("cancelUploads".equals(method)) {
+                JsonArray ids = rpc.getArray(3).getArray(0);
+                for (int i = 0; i < ids.length(); i++) {
+                    if (files.remove(ids.getString(i)) != null) {
+                        results.fileStored();
+                    }
+                }
+            } else if ("awaitDeltaUploads".equals(method)) {
+                JsonArray ids = rpc.getArray(3).getArray(0);
+                for (int i = 0; i < ids.length(); i++) {
+                    if (files.remove(ids.getString(i)) != null) {
+                        results.failed("delta uploads are not supported");
+                    }
+                }
+            } else if ("sendDeltaUploads".equals(method)) {
+                // announced by awaitDeltaUploads, already counted as failed
+                continue;
+            } else {
+                JsonObject urls = rpc.getArray(3).getObject(0);
+                for (String id : urls.keys()) {
+                    uploads.add(new Upload(method, client.resolve(urls.getString(id)), files.remove(id), id));
+                }
+            }
+        }
+        files.values().forEach(size -> results.fileSkipped());
+
+        int concurrency = (int) getState("maxConcurrentUploads", DEFAULT_STATE.maxConcurrentUploads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(concurrency, uploads.size()); i++) {
+            workers.add(uploadExecutor.submit(() -> {
+                for (Upload upload = uploads.poll(); upload != null; upload = uploads.poll()) {
+                    try {
+                        upload.send();
+                        results.fileCompleted(upload.size, System.nanoTime() - droppedAt);
+                    } catch (InterruptedIOException e) {
+                        results.fileSkipped();
+                    } catch (IOException e) {
+                        results.failed("upload: " + e.getMessage());
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException e) {
+                results.failed("upload: " + e.getCause());
+            }
+        }
+
+        // the demo shows the files of each drop in a dialog, closing it is the user's last step
+        String closeButton = client.findConnector(Button.class.getName(), caption -> caption.toLowerCase().endsWith("close"));
+        if (closeButton != null) {
+            client.call(VaadinClient.invocation(closeButton, ButtonServerRpc.class, "click", Json.createNull()));
+        } else {
+            client.call(VaadinClient.invocation(dropTarget, FileDropTargetRpc.class, "poll"));
+        }
+        results.dropCompleted();
+    }
+
+    private double getState(String property, double defaultValue) {
+        JsonObject state = client.getState(dropTarget);
+        return state.hasKey(property) ? state.getNumber(property) : defaultValue;
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final class Upload {
+
+        private final String method;
+        private final String url;
+        private final long size;
+        private final String id;
+
+        private Upload(String method, String url, long size, String id) {
+            this.method = method;
+            this.url = url;
+            this.size = size;
+            this.id = id;
+        }
+
+        void send() throws IOException {
+            switch (method) {
+            case "sendUploadUrls":
+                sendMultipart();
+                break;
+            case "sendRawUploadUrls":
+                sendRaw(url, 0, size);
+                break;
+            case "sendChunkedUploadUrls":
+                long chunkSize = (long) getState("chunkSize", DEFAULT_STATE.chunkSize);
+                for (long index = 0; index * chunkSize < size; index++) {
+                    long offset = index * chunkSize;
+                    sendRaw(url + (url.contains("?") ? "&" : "?") + "chunk=" + index, offset, Math.min(chunkSize, size - offset));
+                }
+                break;
+            default:
+                throw new IOException("Unsupported upload " + method);
+            }
+        }
+
+        /**
+         * Posts the file as multipart form data, as Vaadin's and the add-on's connector do.
+         */
+        private void sendMultipart() throws IOException {
+            String boundary = "----loadtest" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+            byte[] head = ("--" + boundary + "\r\nContent-Disposition: form-data; name=\"File\"; filename=\"loadtest-" + number + "-" + id
+                + ".bin\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+            byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+            HttpURLConnection connection = client.connect(url, "POST");
+            connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+            connection.setFixedLengthStreamingMode(head.length + size + tail.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(head);
+                writeContent(out, 0, size);
+                out.write(tail);
+            }
+            client.readResponse(connection);
+        }
+
+        /**
+         * Posts the bytes as raw request body, repeated as long as the server is busy (503) until the load test ends.
+         */
+        private void sendRaw(String target, long offset, long length) throws IOException {
+            while (true) {
+                HttpURLConnection connection = client.connect(target, "POST");
+                connection.setRequestProperty("Content-Type", "application/octet-stream");
+                connection.setFixedLengthStreamingMode(length);
+                IOException writeFailure = null;
+                try (OutputStream out = connection.getOutputStream()) {
+                    writeContent(out, offset, length);
+                } catch (IOException e) {
+                    writeFailure = e;
+                }
+                long retryAfter;
+                try {
+                    client.readResponse(connection);
+                    retryAfter = -1;
+                } catch (VaadinClient.HttpStatusException e) {
+                    if (e.getStatus() != HttpURLConnection.HTTP_UNAVAILABLE) {
+                        throw e;
+                    }
+                    retryAfter = e.getRetryAfterMillis();
+                } catch (IOException e) {
+                    if (writeFailure == null) {
+                        throw e;
+                    }
+                    // the server closed the connection without reading the body, i.e. rejected the upload, but unlike the browser
+                    // HttpURLConnection does not return a response before the body is sent
+                    retryAfter = 1000;
+                }
+                if (retryAfter < 0) {
+                    if (writeFailure != null) {
+                        throw writeFailure;
+                    }
+                    return;
+                }
+                if (end - System.nanoTime() <= 0) {
+                    throw new InterruptedIOException("Load test ended while the upload was rejected");
+                }
+                results.retried();
+                // jitter like the connector, so rejected uploads don't come back at once
+                pause((long) (retryAfter * (1 + ThreadLocalRandom.current().nextDouble() / 2)));
+            }
+        }
+
+        private void writeContent(OutputStream out, long offset, long length) throws IOException {
+            for (long written = 0; written < length;) {
+                int position = (int) ((offset + written) % CONTENT.length);
+                int count = (int) Math.min(CONTENT.length - position, length - written);
+                out.write(CONTENT, position, count);
+                written += count;
+            }
+        }
+    }
+}